@@ -70,6 +70,11 @@ public class Scenario {
      * <strong>Target</strong> di riferimento dello scenario (es. "Medici Specialisti").
      */
     private String target;
+    /**
+     * <strong>Anteprima</strong> della descrizione come testo semplice su una sola riga, già ricavata dall'HTML.
+     * Non fa parte dei dati dello scenario e non viene esportata.
+     */
+    private transient String descrizioneAnteprima;
 
     /**
      * Costruttore completo per creare un nuovo oggetto <strong><code>Scenario</code></strong> con tutti i campi.
@@ -376,6 +381,24 @@ public class Scenario {
         this.target = target;
     }
 
+    /**
+     * Restituisce l'<strong>anteprima</strong> della descrizione come testo semplice.
+     *
+     * @return L'anteprima della descrizione, oppure <code>null</code> se non è stata caricata.
+     */
+    public String getDescrizioneAnteprima() {
+        return descrizioneAnteprima;
+    }
+
+    /**
+     * Imposta l'<strong>anteprima</strong> della descrizione come testo semplice.
+     *
+     * @param descrizioneAnteprima La nuova anteprima della descrizione.
+     */
+    public void setDescrizioneAnteprima(String descrizioneAnteprima) {
+        this.descrizioneAnteprima = descrizioneAnteprima;
+    }
+
     /**
      * Fornisce una rappresentazione in formato stringa dell'oggetto <strong><code>Scenario</code></strong>,
      * utile per il debugging e la registrazione.
@@ -29,7 +29,7 @@ public class ActiveNotifierManager {
     /**
      * Mappa per tenere traccia delle notifiche attive, indicizzate per ID.
      */
-    private final Map<String, Notification> activeNotifications = new ConcurrentHashMap<>();
+    private final Map<String, ActiveNotification> activeNotifications = new ConcurrentHashMap<>();
 
     /**
      * Costruttore privato per evitare istanziazioni dirette.
@@ -61,7 +61,7 @@ public class ActiveNotifierManager {
         notification.setPosition(Notification.Position.BOTTOM_START);
         notification.setDuration(0);
 
-        activeNotifications.put(notificationId, notification);
+        activeNotifications.put(notificationId, new ActiveNotification(notification, messageLabel, progressBar));
         notification.open();
         logger.info("Mostrata notifica fissa con ProgressBar (ID: {})", notificationId);
 
@@ -76,12 +76,45 @@ public class ActiveNotifierManager {
     public void close(String notificationId) {
         if (notificationId == null) return;
 
-        Notification notification = activeNotifications.remove(notificationId);
+        ActiveNotification notification = activeNotifications.remove(notificationId);
         if (notification != null) {
-            notification.close();
+            notification.notification().close();
             logger.info("Chiusa notifica fissa con ID: {}", notificationId);
         } else {
             logger.warn("Nessuna notifica fissa trovata con ID: {}", notificationId);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Aggiorna il messaggio e l'avanzamento di una notifica fissa ancora aperta.
+     * Va invocato con il lock della sessione della UI che ha aperto la notifica.
+     *
+     * @param notificationId ID della notifica da aggiornare
+     * @param progress       avanzamento tra 0 e 1, o un valore negativo per un avanzamento indeterminato
+     * @param message        nuovo messaggio, o <code>null</code> per lasciare quello corrente
+     */
+    public void update(String notificationId, double progress, String message) {
+        if (notificationId == null) return;
+
+        ActiveNotification notification = activeNotifications.get(notificationId);
+        if (notification != null) {
+            notification.progressBar().setIndeterminate(progress < 0);
+            if (progress >= 0) {
+                notification.progressBar().setValue(Math.min(1, progress));
+            }
+            if (message != null) {
+                notification.label().setText(message);
+            }
+        }
+    }
+
+    /**
+     * Notifica fissa aperta, con i componenti da aggiornare durante l'avanzamento.
+     *
+     * @param notification la notifica
+     * @param label        il messaggio mostrato
+     * @param progressBar  la barra di avanzamento
+     */
+    private record ActiveNotification(Notification notification, Span label, ProgressBar progressBar) {
+    }
+}
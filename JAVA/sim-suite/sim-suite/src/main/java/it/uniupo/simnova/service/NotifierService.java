@@ -1,6 +1,8 @@
 package it.uniupo.simnova.service;
 
 import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import it.uniupo.simnova.utils.ClientIdentity;
 import org.springframework.stereotype.Service;
 
 import java.util.Map;
@@ -20,6 +22,11 @@ public class NotifierService {
      * La chiave è l'istanza di UI e il valore è il listener che accetta un NotificationPayload.
      */
     private final Map<UI, Consumer<NotificationPayload>> listeners = new ConcurrentHashMap<>();
+    /**
+     * Identificativo del browser (vedi {@link ClientIdentity}) a cui appartiene ciascuna UI registrata,
+     * usato per le notifiche delle operazioni che non appartengono a una singola UI.
+     */
+    private final Map<UI, String> clients = new ConcurrentHashMap<>();
 
     /**
      * Registra un listener per le notifiche su una specifica UI.
@@ -31,6 +38,18 @@ public class NotifierService {
         listeners.put(ui, listener);
     }
 
+    /**
+     * Registra un listener per le notifiche su una specifica UI, associandola al browser dell'utente.
+     *
+     * @param ui       l'istanza di UI per cui registrare il listener
+     * @param clientId l'identificativo del browser dell'utente
+     * @param listener il listener che accetta un NotificationPayload
+     */
+    public void register(UI ui, String clientId, Consumer<NotificationPayload> listener) {
+        listeners.put(ui, listener);
+        clients.put(ui, clientId);
+    }
+
     /**
      * Deregistra un listener per una specifica UI.
      *
@@ -38,6 +57,7 @@ public class NotifierService {
      */
     public void unregister(UI ui) {
         listeners.remove(ui);
+        clients.remove(ui);
     }
 
     /**
@@ -53,6 +73,34 @@ public class NotifierService {
         }
     }
 
+    /**
+     * Notifica un evento a tutte le UI aperte da un utente. Solo la UI indicata come origine riceve
+     * l'ID della notifica attiva da chiudere, perché la notifica appartiene a quella UI.
+     *
+     * @param clientId l'identificativo del browser dell'utente
+     * @param origin   la UI che ha avviato l'operazione (può essere <code>null</code> o già chiusa)
+     * @param payload  il payload della notifica
+     * @return il numero di UI a cui è stata inviata la notifica
+     */
+    public int notifyClient(String clientId, UI origin, NotificationPayload payload) {
+        int sent = 0;
+        for (Map.Entry<UI, String> entry : clients.entrySet()) {
+            if (!entry.getValue().equals(clientId)) {
+                continue;
+            }
+            UI ui = entry.getKey();
+            NotificationPayload target = ui == origin ? payload : new NotificationPayload(payload.status(), payload.title(),
+                    payload.details(), null, payload.progress(), payload.actionUrl());
+            try {
+                notify(ui, target);
+                sent++;
+            } catch (UIDetachedException e) {
+                unregister(ui);
+            }
+        }
+        return sent;
+    }
+
     /**
      * Enumerazione che rappresenta lo stato della notifica.
      */
@@ -64,22 +112,41 @@ public class NotifierService {
         /**
          * Stato di errore della notifica.
          */
-        ERROR
+        ERROR,
+        /**
+         * Avanzamento di un'operazione ancora in corso: aggiorna la notifica attiva senza chiuderla.
+         */
+        PROGRESS
     }
 
     /**
      * Payload per le notifiche, contenente lo stato, il titolo, i dettagli e l'ID della notifica da chiudere.
      *
-     * @param status lo stato della notifica (SUCCESS o ERROR)
+     * @param status lo stato della notifica (SUCCESS, ERROR o PROGRESS)
      * @param title il titolo della notifica
      * @param details i dettagli della notifica
-     * @param notificationToCloseId l'ID della notifica da chiudere, se necessario
+     * @param notificationToCloseId l'ID della notifica da chiudere (o da aggiornare, per PROGRESS), se necessario
+     * @param progress l'avanzamento dell'operazione tra 0 e 1, o negativo se indeterminato (usato solo con PROGRESS)
+     * @param actionUrl l'indirizzo del risultato da scaricare, o <code>null</code> se non previsto
      */
     public record NotificationPayload(
             Status status,
             String title,
             String details,
-            String notificationToCloseId
+            String notificationToCloseId,
+            double progress,
+            String actionUrl
     ) {
+        /**
+         * Crea un payload di esito senza avanzamento né risultato da scaricare.
+         *
+         * @param status lo stato della notifica (SUCCESS o ERROR)
+         * @param title il titolo della notifica
+         * @param details i dettagli della notifica
+         * @param notificationToCloseId l'ID della notifica da chiudere, se necessario
+         */
+        public NotificationPayload(Status status, String title, String details, String notificationToCloseId) {
+            this(status, title, details, notificationToCloseId, 1, null);
+        }
     }
 }
\ No newline at end of file
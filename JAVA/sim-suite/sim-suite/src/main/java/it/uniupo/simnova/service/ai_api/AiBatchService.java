@@ -0,0 +1,442 @@
+package it.uniupo.simnova.service.ai_api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.uniupo.simnova.service.ai_api.model.ScenarioGenerationRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Servizio per la <strong>generazione in lotto</strong> di scenari a partire da un elenco di richieste
+ * (ad esempio per preparare tutti gli scenari di un corso).
+ * <p>
+ * Le richieste vengono lette da un file CSV o JSON e messe in coda come un unico lotto dell'{@link AiJobService},
+ * che le esegue con i limiti di concorrenza e di frequenza dei lotti e importa ogni scenario appena generato.
+ * Al termine è disponibile un report con l'esito, l'attesa in coda e la durata della generazione di ogni riga.
+ * </p>
+ * <p>
+ * Il file CSV deve avere una riga di intestazione con le colonne <code>tipo</code>, <code>target</code>,
+ * <code>descrizione</code> e, facoltativa, <code>difficolta</code> (sono accettati anche i nomi inglesi
+ * <code>scenario_type</code>, <code>description</code> e <code>difficulty</code>); il separatore può essere la
+ * virgola o il punto e virgola. Il file JSON è un array di oggetti con gli stessi campi della
+ * {@link ScenarioGenerationRequest}.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+@Service
+public class AiBatchService {
+    /**
+     * Logger per registrare le operazioni del servizio.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AiBatchService.class);
+    /**
+     * Tipi di scenario ammessi.
+     */
+    private static final Set<String> SCENARIO_TYPES = Set.of("Quick Scenario", "Advanced Scenario", "Patient Simulated Scenario");
+    /**
+     * Difficoltà ammesse.
+     */
+    private static final Set<String> DIFFICULTIES = Set.of("Facile", "Media", "Difficile");
+    /**
+     * Difficoltà usata se la riga non la specifica.
+     */
+    private static final String DEFAULT_DIFFICULTY = "Facile";
+    /**
+     * Lunghezza massima della descrizione di una riga, come nella creazione guidata.
+     */
+    private static final int MAX_DESCRIPTION_LENGTH = 500;
+    /**
+     * Nomi accettati per ciascuna colonna del file CSV.
+     */
+    private static final Map<String, String> CSV_COLUMNS = Map.of(
+            "tipo", "tipo", "scenario_type", "tipo", "type", "tipo",
+            "target", "target",
+            "descrizione", "descrizione", "description", "descrizione",
+            "difficolta", "difficolta", "difficoltà", "difficolta", "difficulty", "difficolta");
+
+    /**
+     * Servizio delle generazioni AI, che esegue le righe del lotto.
+     */
+    private final AiJobService aiJobService;
+    /**
+     * Mapper JSON per leggere i file delle richieste.
+     */
+    private final ObjectMapper objectMapper;
+    /**
+     * Numero massimo di righe di un lotto.
+     */
+    private final int maxRows;
+
+    /**
+     * Costruisce il servizio.
+     *
+     * @param aiJobService Il servizio delle generazioni AI.
+     * @param objectMapper Il mapper JSON.
+     * @param maxRows      Il numero massimo di righe di un lotto.
+     */
+    public AiBatchService(AiJobService aiJobService, ObjectMapper objectMapper,
+                          @Value("${ai.batch.max-rows:200}") int maxRows) {
+        this.aiJobService = aiJobService;
+        this.objectMapper = objectMapper;
+        this.maxRows = Math.max(1, maxRows);
+    }
+
+    /**
+     * Legge le richieste da un file e le mette in coda come un nuovo lotto.
+     *
+     * @param clientId L'identificativo del browser dell'utente.
+     * @param fileName Il nome del file, usato anche come nome del lotto.
+     * @param content  Il contenuto del file (CSV o JSON).
+     * @return L'identificativo del lotto.
+     * @throws IllegalArgumentException Se il file non è valido, con un messaggio che indica la riga errata.
+     * @throws IllegalStateException    Se non è possibile mettere in coda il lotto.
+     */
+    public String submit(String clientId, String fileName, byte[] content) {
+        List<ScenarioGenerationRequest> requests = parseRequests(fileName, content);
+        if (requests.size() > maxRows) {
+            throw new IllegalArgumentException("Il file contiene " + requests.size() + " richieste: il massimo per un lotto è " + maxRows + ".");
+        }
+        logger.info("Lotto '{}' letto: {} richieste di generazione.", fileName, requests.size());
+        return aiJobService.submitBatch(clientId, fileName, requests);
+    }
+
+    /**
+     * Legge le richieste di generazione da un file CSV o JSON. Il formato viene riconosciuto dall'estensione
+     * del file o, in mancanza, dal primo carattere del contenuto.
+     *
+     * @param fileName Il nome del file.
+     * @param content  Il contenuto del file.
+     * @return Le richieste, nell'ordine del file.
+     * @throws IllegalArgumentException Se il file è vuoto o non è valido.
+     */
+    public List<ScenarioGenerationRequest> parseRequests(String fileName, byte[] content) {
+        String text = new String(content, StandardCharsets.UTF_8);
+        if (text.startsWith("\uFEFF")) {
+            text = text.substring(1);
+        }
+        String lowerName = fileName != null ? fileName.toLowerCase(Locale.ROOT) : "";
+        boolean json = lowerName.endsWith(".json") || (!lowerName.endsWith(".csv") && text.stripLeading().startsWith("["));
+        List<ScenarioGenerationRequest> requests = json ? parseJson(text) : parseCsv(text);
+        if (requests.isEmpty()) {
+            throw new IllegalArgumentException("Il file non contiene richieste di generazione.");
+        }
+        return requests;
+    }
+
+    /**
+     * Restituisce il report di un lotto.
+     *
+     * @param batchId  L'identificativo del lotto.
+     * @param clientId L'identificativo del browser dell'utente, che deve essere il proprietario del lotto.
+     * @return Il report, o <code>null</code> se il lotto non esiste o non appartiene all'utente.
+     */
+    public BatchReport getReport(String batchId, String clientId) {
+        String name = aiJobService.getBatchName(batchId, clientId);
+        if (name == null) {
+            return null;
+        }
+        List<AiJobService.AiJob> jobs = aiJobService.getBatchJobs(batchId, clientId);
+        List<BatchRow> rows = new ArrayList<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            AiJobService.AiJob job = jobs.get(i);
+            rows.add(new BatchRow(i + 1, job.getId(), job.getDescription(), job.getStatus(), job.getScenarioId(),
+                    between(job.getCreatedAt(), job.getStartedAt()), between(job.getStartedAt(), job.getCompletedAt()),
+                    job.getMessage()));
+        }
+        return new BatchReport(batchId, name, rows);
+    }
+
+    /**
+     * Esporta il report di un lotto in formato CSV (separato da punto e virgola, per l'apertura nei fogli di calcolo).
+     *
+     * @param report Il report del lotto.
+     * @return Il contenuto del file CSV, in UTF-8.
+     */
+    public byte[] toCsv(BatchReport report) {
+        StringBuilder csv = new StringBuilder("\uFEFFriga;generazione;stato;id_scenario;attesa_in_coda_s;durata_generazione_s;esito\r\n");
+        for (BatchRow row : report.rows()) {
+            csv.append(row.number()).append(';')
+                    .append(csvField(row.description())).append(';')
+                    .append(row.status().getLabel()).append(';')
+                    .append(row.scenarioId() != null ? row.scenarioId() : "").append(';')
+                    .append(seconds(row.queueWait())).append(';')
+                    .append(seconds(row.generationTime())).append(';')
+                    .append(csvField(row.message())).append("\r\n");
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Legge le richieste da un array JSON.
+     *
+     * @param text Il contenuto del file.
+     * @return Le richieste validate.
+     * @throws IllegalArgumentException Se il JSON non è valido o una richiesta non è completa.
+     */
+    private List<ScenarioGenerationRequest> parseJson(String text) {
+        ScenarioGenerationRequest[] parsed;
+        try {
+            parsed = objectMapper.readValue(text, ScenarioGenerationRequest[].class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("File JSON non valido: " + e.getOriginalMessage(), e);
+        }
+        List<ScenarioGenerationRequest> requests = new ArrayList<>();
+        for (int i = 0; i < parsed.length; i++) {
+            ScenarioGenerationRequest request = parsed[i];
+            if (request == null) {
+                throw new IllegalArgumentException("Elemento " + (i + 1) + ": richiesta mancante.");
+            }
+            requests.add(validate("Elemento " + (i + 1), request.scenarioType(), request.target(),
+                    request.description(), request.difficulty()));
+        }
+        return requests;
+    }
+
+    /**
+     * Legge le richieste da un file CSV con intestazione.
+     *
+     * @param text Il contenuto del file.
+     * @return Le richieste validate.
+     * @throws IllegalArgumentException Se mancano colonne obbligatorie o una riga non è completa.
+     */
+    private List<ScenarioGenerationRequest> parseCsv(String text) {
+        int firstLineEnd = text.indexOf('\n');
+        String header = firstLineEnd >= 0 ? text.substring(0, firstLineEnd) : text;
+        char separator = header.chars().filter(c -> c == ';').count() > header.chars().filter(c -> c == ',').count() ? ';' : ',';
+        List<List<String>> records = splitCsv(text, separator);
+        if (records.isEmpty()) {
+            return List.of();
+        }
+
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> headerRecord = records.getFirst();
+        for (int i = 0; i < headerRecord.size(); i++) {
+            String column = CSV_COLUMNS.get(headerRecord.get(i).trim().toLowerCase(Locale.ROOT));
+            if (column != null) {
+                columns.putIfAbsent(column, i);
+            }
+        }
+        for (String required : List.of("tipo", "target", "descrizione")) {
+            if (!columns.containsKey(required)) {
+                throw new IllegalArgumentException("Colonna '" + required + "' mancante nell'intestazione del file CSV.");
+            }
+        }
+
+        List<ScenarioGenerationRequest> requests = new ArrayList<>();
+        for (int i = 1; i < records.size(); i++) {
+            List<String> record = records.get(i);
+            if (record.stream().allMatch(String::isBlank)) {
+                continue;
+            }
+            requests.add(validate("Riga " + (i + 1), field(record, columns.get("tipo")), field(record, columns.get("target")),
+                    field(record, columns.get("descrizione")), field(record, columns.get("difficolta"))));
+        }
+        return requests;
+    }
+
+    /**
+     * Suddivide un testo CSV in record e campi, gestendo i campi tra virgolette (anche su più righe)
+     * e le virgolette raddoppiate al loro interno.
+     *
+     * @param text      Il testo CSV.
+     * @param separator Il separatore dei campi.
+     * @return I record, ciascuno con i suoi campi.
+     * @throws IllegalArgumentException Se un campo tra virgolette non viene chiuso.
+     */
+    private static List<List<String>> splitCsv(String text, char separator) {
+        List<List<String>> records = new ArrayList<>();
+        List<String> record = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == separator) {
+                record.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                record.add(field.toString());
+                field.setLength(0);
+                records.add(record);
+                record = new ArrayList<>();
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("File CSV non valido: virgolette non chiuse.");
+        }
+        if (!field.isEmpty() || !record.isEmpty()) {
+            record.add(field.toString());
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * Valida i campi di una richiesta e la costruisce, applicando la difficoltà predefinita se manca.
+     *
+     * @param position     La posizione della richiesta nel file, per i messaggi di errore.
+     * @param scenarioType Il tipo di scenario.
+     * @param target       Il target dello scenario.
+     * @param description  La descrizione dello scenario.
+     * @param difficulty   La difficoltà (può essere vuota).
+     * @return La richiesta.
+     * @throws IllegalArgumentException Se un campo obbligatorio manca o non è valido.
+     */
+    private static ScenarioGenerationRequest validate(String position, String scenarioType, String target,
+                                                      String description, String difficulty) {
+        String type = scenarioType != null ? scenarioType.trim() : "";
+        if (!SCENARIO_TYPES.contains(type)) {
+            throw new IllegalArgumentException(position + ": tipo di scenario '" + type + "' non valido (ammessi: "
+                    + String.join(", ", SCENARIO_TYPES) + ").");
+        }
+        if (target == null || target.isBlank()) {
+            throw new IllegalArgumentException(position + ": target mancante.");
+        }
+        if (description == null || description.isBlank()) {
+            throw new IllegalArgumentException(position + ": descrizione mancante.");
+        }
+        if (description.length() > MAX_DESCRIPTION_LENGTH) {
+            throw new IllegalArgumentException(position + ": descrizione più lunga di " + MAX_DESCRIPTION_LENGTH + " caratteri.");
+        }
+        String level = difficulty == null || difficulty.isBlank() ? DEFAULT_DIFFICULTY : difficulty.trim();
+        if (!DIFFICULTIES.contains(level)) {
+            throw new IllegalArgumentException(position + ": difficoltà '" + level + "' non valida (ammesse: Facile, Media, Difficile).");
+        }
+        return new ScenarioGenerationRequest(description.trim(), type, target.trim(), level);
+    }
+
+    /**
+     * Restituisce un campo di un record CSV.
+     *
+     * @param record Il record.
+     * @param index  L'indice della colonna, o <code>null</code> se la colonna non c'è.
+     * @return Il valore del campo, o <code>null</code> se manca.
+     */
+    private static String field(List<String> record, Integer index) {
+        return index != null && index < record.size() ? record.get(index) : null;
+    }
+
+    /**
+     * Formatta un campo testuale per il CSV del report, racchiudendolo tra virgolette se necessario.
+     *
+     * @param value Il valore (può essere <code>null</code>).
+     * @return Il campo CSV.
+     */
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(";") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    /**
+     * Formatta una durata in secondi, con un decimale.
+     *
+     * @param duration La durata (può essere <code>null</code>).
+     * @return I secondi, o una stringa vuota se la durata non è disponibile.
+     */
+    private static String seconds(Duration duration) {
+        return duration != null ? String.format(Locale.ROOT, "%.1f", duration.toMillis() / 1000.0) : "";
+    }
+
+    /**
+     * Calcola la durata tra due istanti.
+     *
+     * @param from L'istante iniziale (può essere <code>null</code>).
+     * @param to   L'istante finale (può essere <code>null</code>).
+     * @return La durata, o <code>null</code> se uno dei due istanti non è disponibile.
+     */
+    private static Duration between(Instant from, Instant to) {
+        return from != null && to != null ? Duration.between(from, to) : null;
+    }
+
+    /**
+     * Report di un lotto di generazioni.
+     *
+     * @param batchId L'identificativo del lotto.
+     * @param name    Il nome del lotto.
+     * @param rows    Le righe del lotto, nell'ordine del file.
+     */
+    public record BatchReport(String batchId, String name, List<BatchRow> rows) {
+        /**
+         * @return Il numero di righe concluse con successo.
+         */
+        public long succeeded() {
+            return rows.stream().filter(row -> row.status() == AiJobService.Status.SUCCEEDED).count();
+        }
+
+        /**
+         * @return Il numero di righe non riuscite o annullate.
+         */
+        public long failed() {
+            return rows.stream().filter(row -> row.status() == AiJobService.Status.FAILED
+                    || row.status() == AiJobService.Status.CANCELLED).count();
+        }
+
+        /**
+         * @return Il numero di righe ancora in coda o in esecuzione.
+         */
+        public long pending() {
+            return rows.size() - succeeded() - failed();
+        }
+
+        /**
+         * @return La durata media della generazione delle righe concluse, o <code>null</code> se nessuna è conclusa.
+         */
+        public Duration averageGenerationTime() {
+            List<Duration> times = rows.stream().map(BatchRow::generationTime).filter(time -> time != null).toList();
+            if (times.isEmpty()) {
+                return null;
+            }
+            return Duration.ofMillis(times.stream().mapToLong(Duration::toMillis).sum() / times.size());
+        }
+    }
+
+    /**
+     * Riga del report di un lotto.
+     *
+     * @param number         Il numero della riga nel lotto (da 1).
+     * @param jobId          L'ID della generazione.
+     * @param description    La descrizione della generazione.
+     * @param status         Lo stato della generazione.
+     * @param scenarioId     L'ID dello scenario creato, o <code>null</code>.
+     * @param queueWait      L'attesa in coda prima dell'avvio, o <code>null</code> se non ancora avviata.
+     * @param generationTime La durata della generazione, o <code>null</code> se non ancora conclusa.
+     * @param message        Il messaggio di esito o di errore, o <code>null</code>.
+     */
+    public record BatchRow(int number, long jobId, String description, AiJobService.Status status, Integer scenarioId,
+                           Duration queueWait, Duration generationTime, String message) {
+    }
+}
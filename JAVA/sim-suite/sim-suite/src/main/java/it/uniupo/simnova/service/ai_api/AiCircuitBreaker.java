@@ -0,0 +1,350 @@
+package it.uniupo.simnova.service.ai_api;
+
+import com.vaadin.flow.shared.Registration;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Interruttore di circuito per il servizio AI, con verifica periodica della sua disponibilità.
+ * <p>
+ * Dopo un numero configurabile di errori tecnici consecutivi (servizio non raggiungibile, tempo massimo scaduto,
+ * risposte 5xx) il circuito si apre: per il periodo di apertura le chiamate vengono rifiutate subito, senza
+ * attendere il fallimento della connessione. Trascorso il periodo, il circuito passa allo stato semiaperto e
+ * lascia passare una sola chiamata di prova: se riesce il circuito si richiude, altrimenti si riapre.
+ * </p>
+ * <p>
+ * Una richiesta leggera all'endpoint <code>ai.health.probe.path</code> viene inviata a intervalli regolari:
+ * quando il circuito è chiuso individua il servizio non disponibile prima che lo scoprano gli utenti, quando è
+ * aperto fa da chiamata di prova. Qualsiasi risposta diversa da un errore 5xx indica che il servizio è attivo.
+ * Le pagine possono registrarsi per essere avvisate quando la disponibilità cambia.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+@Service
+public class AiCircuitBreaker {
+    /**
+     * Logger per l'interruttore di circuito.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AiCircuitBreaker.class);
+
+    /**
+     * Stati del circuito.
+     */
+    public enum State {
+        /**
+         * Le chiamate passano normalmente.
+         */
+        CLOSED,
+        /**
+         * Le chiamate vengono rifiutate senza contattare il servizio.
+         */
+        OPEN,
+        /**
+         * Passa una sola chiamata di prova.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Client HTTP per il servizio AI.
+     */
+    private final WebClient webClient;
+    /**
+     * Indica se la verifica periodica è attiva.
+     */
+    private final boolean probeEnabled;
+    /**
+     * Percorso dell'endpoint usato per la verifica.
+     */
+    private final String probePath;
+    /**
+     * Intervallo tra due verifiche.
+     */
+    private final Duration probeInterval;
+    /**
+     * Tempo massimo di risposta della verifica.
+     */
+    private final Duration probeTimeout;
+    /**
+     * Errori consecutivi dopo i quali il circuito si apre.
+     */
+    private final int failureThreshold;
+    /**
+     * Durata dell'apertura del circuito prima della chiamata di prova.
+     */
+    private final Duration openDuration;
+    /**
+     * Listener dei cambiamenti di disponibilità.
+     */
+    private final List<Consumer<Boolean>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Stato corrente del circuito.
+     */
+    private State state = State.CLOSED;
+    /**
+     * Errori tecnici consecutivi.
+     */
+    private int consecutiveFailures;
+    /**
+     * Istante (in nanosecondi) dell'ultima apertura del circuito.
+     */
+    private long openedAt;
+    /**
+     * Indica se la chiamata di prova dello stato semiaperto è in corso.
+     */
+    private boolean trialInFlight;
+    /**
+     * Esecutore della verifica periodica.
+     */
+    private ScheduledExecutorService prober;
+
+    /**
+     * Costruttore dell'interruttore di circuito.
+     *
+     * @param webClient            Il client HTTP per il servizio AI.
+     * @param probeEnabled         Se verificare periodicamente la disponibilità del servizio.
+     * @param probePath            Il percorso dell'endpoint usato per la verifica.
+     * @param probeIntervalSeconds L'intervallo (in secondi) tra due verifiche.
+     * @param probeTimeoutSeconds  Il tempo massimo (in secondi) di risposta della verifica.
+     * @param failureThreshold     Gli errori consecutivi dopo i quali il circuito si apre.
+     * @param openSeconds          La durata (in secondi) dell'apertura del circuito prima della chiamata di prova.
+     */
+    public AiCircuitBreaker(@Qualifier("aiWebClient") WebClient webClient,
+                            @Value("${ai.health.probe.enabled:true}") boolean probeEnabled,
+                            @Value("${ai.health.probe.path:/scenarios/difficulty-levels}") String probePath,
+                            @Value("${ai.health.probe.interval-seconds:15}") int probeIntervalSeconds,
+                            @Value("${ai.health.probe.timeout-seconds:3}") int probeTimeoutSeconds,
+                            @Value("${ai.health.failure-threshold:3}") int failureThreshold,
+                            @Value("${ai.health.open-seconds:30}") int openSeconds) {
+        this.webClient = webClient;
+        this.probeEnabled = probeEnabled;
+        this.probePath = probePath;
+        this.probeInterval = Duration.ofSeconds(Math.max(1, probeIntervalSeconds));
+        this.probeTimeout = Duration.ofSeconds(Math.max(1, probeTimeoutSeconds));
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDuration = Duration.ofSeconds(Math.max(1, openSeconds));
+    }
+
+    /**
+     * Avvia la verifica periodica, se è attiva nella configurazione.
+     */
+    @PostConstruct
+    public void init() {
+        if (!probeEnabled) {
+            return;
+        }
+        prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ai-health-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(this::probe, 0, probeInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Arresta la verifica periodica.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+    }
+
+    /**
+     * Chiede il permesso di chiamare il servizio. Con il circuito aperto il permesso viene negato fino alla fine
+     * del periodo di apertura; dopo, viene concesso a una sola chiamata di prova alla volta. Ogni permesso
+     * concesso va chiuso con {@link #recordSuccess()}, {@link #recordFailure(Throwable)} o {@link #release()}.
+     *
+     * @return <code>true</code> se la chiamata può essere inviata.
+     */
+    public boolean tryAcquire() {
+        synchronized (this) {
+            switch (state) {
+                case CLOSED -> {
+                    return true;
+                }
+                case OPEN -> {
+                    if (System.nanoTime() - openedAt < openDuration.toNanos()) {
+                        return false;
+                    }
+                    state = State.HALF_OPEN;
+                    trialInFlight = true;
+                    logger.info("Circuito del servizio AI semiaperto: invio della chiamata di prova.");
+                    return true;
+                }
+                default -> {
+                    if (trialInFlight) {
+                        return false;
+                    }
+                    trialInFlight = true;
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Registra una chiamata conclusa con una risposta del servizio (anche un errore non tecnico, ad esempio 4xx).
+     */
+    public void recordSuccess() {
+        boolean changed;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            trialInFlight = false;
+            changed = state != State.CLOSED;
+            state = State.CLOSED;
+        }
+        if (changed) {
+            logger.info("Servizio AI di nuovo disponibile: circuito chiuso.");
+            fireAvailability(true);
+        }
+    }
+
+    /**
+     * Registra una chiamata non riuscita. Solo gli errori tecnici contano per l'apertura del circuito; gli altri
+     * dimostrano che il servizio risponde e valgono come {@link #recordSuccess()}.
+     *
+     * @param error L'errore della chiamata.
+     */
+    public void recordFailure(Throwable error) {
+        if (!isBackendFailure(error)) {
+            recordSuccess();
+            return;
+        }
+        boolean opened = false;
+        boolean reopened = false;
+        synchronized (this) {
+            consecutiveFailures++;
+            trialInFlight = false;
+            if (state == State.HALF_OPEN) {
+                reopened = true;
+            } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+                opened = true;
+            }
+            if (opened || reopened) {
+                state = State.OPEN;
+                openedAt = System.nanoTime();
+            }
+        }
+        if (opened) {
+            logger.warn("Servizio AI non disponibile dopo {} errori consecutivi ({}): circuito aperto per {} secondi.",
+                    failureThreshold, error.getMessage(), openDuration.toSeconds());
+            fireAvailability(false);
+        } else if (reopened) {
+            logger.warn("Chiamata di prova al servizio AI non riuscita ({}): circuito di nuovo aperto.", error.getMessage());
+        }
+    }
+
+    /**
+     * Restituisce il permesso di una chiamata interrotta prima dell'esito (ad esempio una generazione annullata),
+     * senza registrarla come riuscita o fallita.
+     */
+    public synchronized void release() {
+        trialInFlight = false;
+    }
+
+    /**
+     * Indica se il servizio AI è considerato disponibile, cioè se il circuito è chiuso.
+     *
+     * @return <code>true</code> se il servizio è disponibile.
+     */
+    public synchronized boolean isAvailable() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Restituisce lo stato corrente del circuito.
+     *
+     * @return Lo stato del circuito.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Registra un listener che riceve la nuova disponibilità del servizio AI a ogni cambiamento.
+     * Il listener viene invocato da thread in background.
+     *
+     * @param listener Il listener.
+     * @return La registrazione, da rimuovere quando la pagina viene chiusa.
+     */
+    public Registration addAvailabilityListener(Consumer<Boolean> listener) {
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    /**
+     * Verifica la disponibilità del servizio con una richiesta leggera. Con il circuito aperto la richiesta viene
+     * inviata solo al termine del periodo di apertura, come chiamata di prova.
+     */
+    void probe() {
+        if (!tryAcquire()) {
+            return;
+        }
+        try {
+            webClient.get()
+                    .uri(probePath)
+                    .retrieve()
+                    .toBodilessEntity()
+                    .timeout(probeTimeout)
+                    .block();
+            recordSuccess();
+        } catch (RuntimeException e) {
+            Throwable cause = e.getCause() instanceof TimeoutException ? e.getCause() : e;
+            if (isBackendFailure(cause)) {
+                logger.debug("Verifica del servizio AI non riuscita: {}", cause.getMessage());
+            }
+            recordFailure(cause);
+        }
+    }
+
+    /**
+     * Verifica se un errore indica che il servizio AI non è disponibile: connessione non riuscita o interrotta,
+     * tempo massimo scaduto o risposta 5xx.
+     *
+     * @param error L'errore della chiamata.
+     * @return <code>true</code> se l'errore conta per l'apertura del circuito.
+     */
+    static boolean isBackendFailure(Throwable error) {
+        if (error instanceof WebClientResponseException e) {
+            return e.getStatusCode().is5xxServerError();
+        }
+        return error instanceof WebClientRequestException || error instanceof TimeoutException;
+    }
+
+    /**
+     * Avvisa i listener di un cambiamento di disponibilità.
+     *
+     * @param available La nuova disponibilità.
+     */
+    private void fireAvailability(boolean available) {
+        for (Consumer<Boolean> listener : listeners) {
+            try {
+                listener.accept(available);
+            } catch (RuntimeException e) {
+                logger.warn("Errore nel listener della disponibilità del servizio AI.", e);
+            }
+        }
+    }
+}
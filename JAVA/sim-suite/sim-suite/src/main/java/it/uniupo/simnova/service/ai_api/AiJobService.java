@@ -0,0 +1,1969 @@
+package it.uniupo.simnova.service.ai_api;
+
+import com.google.gson.Gson;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.shared.Registration;
+import it.uniupo.simnova.domain.paziente.EsameReferto;
+import it.uniupo.simnova.domain.scenario.Scenario;
+import it.uniupo.simnova.service.NotifierService;
+import it.uniupo.simnova.service.ai_api.model.LabExamGenerationRequest;
+import it.uniupo.simnova.service.ai_api.model.MatGenerationRequest;
+import it.uniupo.simnova.service.ai_api.model.ReportGenerationRequest;
+import it.uniupo.simnova.service.ai_api.model.ScenarioGenerationRequest;
+import it.uniupo.simnova.service.ai_api.model.ScenarioSection;
+import it.uniupo.simnova.service.scenario.ScenarioService;
+import it.uniupo.simnova.service.scenario.components.EsameRefertoService;
+import it.uniupo.simnova.service.scenario.components.MaterialeService;
+import it.uniupo.simnova.service.scenario.operations.ScenarioDeletionService;
+import it.uniupo.simnova.service.scenario.operations.ScenarioImportService;
+import it.uniupo.simnova.utils.DBConnect;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static it.uniupo.simnova.service.ai_api.ErrorExtractor.extractErrorReasonFromJson;
+import static it.uniupo.simnova.service.ai_api.ErrorExtractor.unwrap;
+
+/**
+ * Servizio per l'esecuzione delle <strong>generazioni AI</strong> (scenari, esami di laboratorio, referti e materiali)
+ * come lavori persistenti.
+ * <p>
+ * Ogni generazione viene salvata nella tabella <code>AiJob</code> insieme alla richiesta da inviare al servizio AI,
+ * e viene eseguita quando lo consentono i limiti di concorrenza: al massimo <code>ai.jobs.max-concurrent</code>
+ * generazioni in tutto e <code>ai.jobs.max-per-user</code> per lo stesso utente (identificato dal browser, vedi
+ * {@link it.uniupo.simnova.utils.ClientIdentity}). Il lavoro appartiene al servizio e non alla vista: l'esito viene
+ * salvato anche se l'utente chiude la scheda, e viene notificato a tutte le pagine che l'utente ha aperte in quel
+ * momento tramite il {@link NotifierService}. Le generazioni interrotte da un riavvio del server vengono rimesse
+ * in coda all'avvio; quelle concluse vengono eliminate dopo <code>ai.jobs.retention-days</code> giorni.
+ * Una generazione conclusa può essere ripetuta con {@link #regenerate}: la nuova generazione usa la stessa
+ * richiesta ma ignora la cache delle risposte ({@link AiResponseCache}).
+ * </p>
+ * <p>
+ * La generazione di uno scenario può essere seguita dal suo <strong>completamento</strong>: appena lo scenario
+ * è stato salvato vengono messe in coda, come generazioni figlie, quelle degli esami di laboratorio, dei materiali
+ * e dei referti degli esami strumentali ancora senza referto. Le generazioni figlie non sono soggette al limite per
+ * utente (solo a quello complessivo), per cui vengono eseguite in parallelo: ognuna salva il proprio risultato e lo
+ * notifica appena è pronto, e al termine dell'ultima l'utente riceve un riepilogo.
+ * </p>
+ * <p>
+ * Se è attiva la generazione in streaming ({@link ExternalApiService#isScenarioStreamingEnabled()}), lo scenario
+ * viene salvato sezione per sezione man mano che arriva, e le sezioni ricevute vengono inoltrate alle pagine
+ * registrate con {@link #addSectionListener}. Se la generazione non riesce, lo scenario parziale viene eliminato.
+ * </p>
+ * <p>
+ * Più scenari possono essere generati <strong>in lotto</strong> ({@link #submitBatch}): le righe del lotto sono
+ * generazioni in coda come le altre, ma non occupano i posti per utente; ne vengono eseguite al massimo
+ * <code>ai.batch.max-concurrent</code> alla volta, avviate a distanza di almeno <code>ai.batch.min-interval-millis</code>
+ * l'una dall'altra, e l'esito viene notificato con un unico riepilogo alla conclusione dell'ultima riga.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+@Service
+public class AiJobService {
+
+    /**
+     * Logger per registrare le operazioni del servizio.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AiJobService.class);
+    /**
+     * Istanza di Gson per salvare le richieste e interpretare gli errori del servizio AI.
+     */
+    private static final Gson gson = new Gson();
+    /**
+     * Colonne lette per l'elenco dei lavori (la richiesta, potenzialmente voluminosa, è esclusa).
+     */
+    private static final String JOB_COLUMNS = "id_job, utente, tipo, id_scenario, descrizione, stato, messaggio, " +
+            "tentativi, creato_il, avviato_il, completato_il, rigenera, id_padre, arricchisci, lotto";
+    /**
+     * Colonne aggiunte alla tabella dopo la sua prima versione, con la relativa definizione.
+     */
+    private static final String[][] ADDED_COLUMNS = {
+            {"rigenera", "INTEGER NOT NULL DEFAULT 0"},
+            {"id_padre", "INTEGER"},
+            {"arricchisci", "INTEGER NOT NULL DEFAULT 0"},
+            {"lotto", "TEXT"},
+            {"fase_salvataggio", "INTEGER NOT NULL DEFAULT 0"},
+            {"id_scenario_parziale", "INTEGER"}
+    };
+    /**
+     * Valore di <code>arricchisci</code> per una generazione di scenario il cui completamento è stato richiesto.
+     */
+    private static final int ENRICH_REQUESTED = 1;
+    /**
+     * Valore di <code>arricchisci</code> dopo il riepilogo del completamento, notificato una sola volta.
+     */
+    private static final int ENRICH_NOTIFIED = 2;
+    /**
+     * Valore di <code>fase_salvataggio</code> mentre si attende la risposta del servizio AI: nulla è stato salvato.
+     */
+    private static final int PHASE_GENERATING = 0;
+    /**
+     * Valore di <code>fase_salvataggio</code> durante il salvataggio del risultato, che potrebbe essere parziale.
+     */
+    private static final int PHASE_SAVING = 1;
+    /**
+     * Valore di <code>fase_salvataggio</code> a risultato salvato: resta solo da registrare l'esito.
+     */
+    private static final int PHASE_SAVED = 2;
+
+    /**
+     * Servizio per le chiamate al servizio AI.
+     */
+    private final ExternalApiService externalApiService;
+    /**
+     * Servizio per la creazione degli scenari generati.
+     */
+    private final ScenarioImportService scenarioImportService;
+    /**
+     * Servizio per il salvataggio degli esami di laboratorio generati.
+     */
+    private final LabExamService labExamService;
+    /**
+     * Servizio per il salvataggio dei referti generati.
+     */
+    private final EsameRefertoService esameRefertoService;
+    /**
+     * Servizio per il salvataggio dei materiali generati.
+     */
+    private final MaterialeService materialeService;
+    /**
+     * Servizio per la lettura degli scenari da completare.
+     */
+    private final ScenarioService scenarioService;
+    /**
+     * Servizio per il contesto compatto degli scenari da completare.
+     */
+    private final ScenarioContextBuilder scenarioContextBuilder;
+    /**
+     * Servizio per l'eliminazione degli scenari.
+     */
+    private final ScenarioDeletionService scenarioDeletionService;
+    /**
+     * Servizio per l'invio delle notifiche alla UI.
+     */
+    private final NotifierService notifierService;
+    /**
+     * Interruttore di circuito del servizio AI.
+     */
+    private final AiCircuitBreaker circuitBreaker;
+    /**
+     * Servizio per le generazioni anticipate degli esami di laboratorio e dei materiali.
+     */
+    private final AiPrefetchService prefetchService;
+    /**
+     * Executor condiviso dell'applicazione, su cui vengono salvati i risultati.
+     */
+    private final ExecutorService executorService;
+    /**
+     * Numero massimo di generazioni in esecuzione contemporaneamente.
+     */
+    private final int maxConcurrent;
+    /**
+     * Numero massimo di generazioni in esecuzione contemporaneamente per lo stesso utente.
+     */
+    private final int maxPerUser;
+    /**
+     * Tempo per cui le generazioni concluse restano visibili.
+     */
+    private final Duration retention;
+    /**
+     * Numero massimo di righe dei lotti in esecuzione contemporaneamente.
+     */
+    private final int maxBatchConcurrent;
+    /**
+     * Intervallo minimo tra l'avvio di due righe dei lotti.
+     */
+    private final long batchIntervalMillis;
+    /**
+     * UI e notifica attiva da cui è partita ciascuna generazione non ancora conclusa, indicizzate per ID.
+     * Non sono persistenti: dopo un riavvio l'esito viene notificato a tutte le pagine aperte dall'utente.
+     */
+    private final Map<Long, Origin> origins = new ConcurrentHashMap<>();
+    /**
+     * Generazioni in esecuzione per ciascun utente (protetto dal lock del servizio).
+     */
+    private final Map<String, Integer> runningPerUser = new HashMap<>();
+    /**
+     * Listener delle pagine che mostrano lo stato delle generazioni.
+     */
+    private final Set<Consumer<AiJob>> listeners = ConcurrentHashMap.newKeySet();
+    /**
+     * Sezioni ricevute e listener delle generazioni di scenario in streaming non ancora concluse, indicizzati per ID.
+     */
+    private final Map<Long, SectionFeed> sectionFeeds = new ConcurrentHashMap<>();
+    /**
+     * Generazioni in esecuzione in tutto (protetto dal lock del servizio).
+     */
+    private int running = 0;
+    /**
+     * Righe dei lotti in esecuzione (protetto dal lock del servizio).
+     */
+    private int runningBatch = 0;
+    /**
+     * Istante a partire dal quale può essere avviata la prossima riga di un lotto (protetto dal lock del servizio).
+     */
+    private long nextBatchStart = 0;
+    /**
+     * Indica se è già programmato un nuovo avvio delle generazioni in attesa dell'intervallo dei lotti
+     * (protetto dal lock del servizio).
+     */
+    private boolean batchDispatchScheduled = false;
+
+    /**
+     * Costruisce il servizio.
+     *
+     * @param externalApiService      Il servizio per le chiamate al servizio AI.
+     * @param scenarioImportService   Il servizio per la creazione degli scenari.
+     * @param labExamService          Il servizio per gli esami di laboratorio.
+     * @param esameRefertoService     Il servizio per i referti.
+     * @param materialeService        Il servizio per i materiali necessari.
+     * @param scenarioService         Il servizio per gli scenari.
+     * @param scenarioContextBuilder  Il servizio per il contesto compatto degli scenari.
+     * @param scenarioDeletionService Il servizio per l'eliminazione degli scenari importati in modo parziale.
+     * @param notifierService         Il servizio per le notifiche alla UI.
+     * @param circuitBreaker          L'interruttore di circuito del servizio AI.
+     * @param prefetchService         Il servizio per le generazioni anticipate.
+     * @param executorService         L'executor condiviso dell'applicazione.
+     * @param maxConcurrent           Il numero massimo di generazioni contemporanee.
+     * @param maxPerUser              Il numero massimo di generazioni contemporanee per utente.
+     * @param retentionDays           I giorni per cui le generazioni concluse restano visibili.
+     * @param maxBatchConcurrent      Il numero massimo di righe dei lotti eseguite contemporaneamente.
+     * @param batchIntervalMillis     L'intervallo minimo (in millisecondi) tra l'avvio di due righe dei lotti.
+     */
+    public AiJobService(ExternalApiService externalApiService,
+                        ScenarioImportService scenarioImportService,
+                        LabExamService labExamService,
+                        EsameRefertoService esameRefertoService,
+                        MaterialeService materialeService,
+                        ScenarioService scenarioService,
+                        ScenarioContextBuilder scenarioContextBuilder,
+                        ScenarioDeletionService scenarioDeletionService,
+                        NotifierService notifierService,
+                        AiCircuitBreaker circuitBreaker,
+                        AiPrefetchService prefetchService,
+                        ExecutorService executorService,
+                        @Value("${ai.jobs.max-concurrent:4}") int maxConcurrent,
+                        @Value("${ai.jobs.max-per-user:2}") int maxPerUser,
+                        @Value("${ai.jobs.retention-days:7}") long retentionDays,
+                        @Value("${ai.batch.max-concurrent:2}") int maxBatchConcurrent,
+                        @Value("${ai.batch.min-interval-millis:2000}") long batchIntervalMillis) {
+        this.externalApiService = externalApiService;
+        this.scenarioImportService = scenarioImportService;
+        this.labExamService = labExamService;
+        this.esameRefertoService = esameRefertoService;
+        this.materialeService = materialeService;
+        this.scenarioService = scenarioService;
+        this.scenarioContextBuilder = scenarioContextBuilder;
+        this.scenarioDeletionService = scenarioDeletionService;
+        this.notifierService = notifierService;
+        this.circuitBreaker = circuitBreaker;
+        this.prefetchService = prefetchService;
+        this.executorService = executorService;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxPerUser = Math.max(1, Math.min(maxPerUser, this.maxConcurrent));
+        this.retention = Duration.ofDays(Math.max(1, retentionDays));
+        this.maxBatchConcurrent = Math.max(1, Math.min(maxBatchConcurrent, this.maxConcurrent));
+        this.batchIntervalMillis = Math.max(0, batchIntervalMillis);
+    }
+
+    /**
+     * Verifica lo schema della tabella delle generazioni.
+     */
+    @PostConstruct
+    public void init() {
+        final String[] statements = {
+                """
+                CREATE TABLE IF NOT EXISTS AiJob (
+                    id_job INTEGER PRIMARY KEY AUTOINCREMENT,
+                    utente TEXT NOT NULL,
+                    tipo TEXT NOT NULL,
+                    id_scenario INTEGER,
+                    descrizione TEXT NOT NULL,
+                    richiesta TEXT NOT NULL,
+                    stato TEXT NOT NULL,
+                    messaggio TEXT,
+                    tentativi INTEGER NOT NULL DEFAULT 0,
+                    creato_il INTEGER NOT NULL,
+                    avviato_il INTEGER,
+                    completato_il INTEGER,
+                    rigenera INTEGER NOT NULL DEFAULT 0,
+                    id_padre INTEGER,
+                    arricchisci INTEGER NOT NULL DEFAULT 0
+                )""",
+                "CREATE INDEX IF NOT EXISTS idx_aijob_stato ON AiJob(stato, id_job)",
+                "CREATE INDEX IF NOT EXISTS idx_aijob_utente ON AiJob(utente, id_job)",
+                """
+                CREATE TABLE IF NOT EXISTS AiBatch (
+                    id_lotto TEXT PRIMARY KEY,
+                    utente TEXT NOT NULL,
+                    nome TEXT NOT NULL,
+                    creato_il INTEGER NOT NULL,
+                    notificato INTEGER NOT NULL DEFAULT 0
+                )"""
+        };
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (String sql : statements) {
+                stmt.execute(sql);
+            }
+            for (String[] column : ADDED_COLUMNS) {
+                if (!hasColumn(stmt, column[0])) {
+                    stmt.execute("ALTER TABLE AiJob ADD COLUMN " + column[0] + " " + column[1]);
+                }
+            }
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_aijob_padre ON AiJob(id_padre)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_aijob_lotto ON AiJob(lotto, id_job)");
+            logger.info("Schema AiJob (tabella e indici) verificato.");
+        } catch (SQLException e) {
+            logger.error("Impossibile inizializzare lo schema AiJob: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Verifica se la tabella delle generazioni ha una colonna (aggiunta in una versione successiva alla creazione).
+     *
+     * @param stmt   Lo statement da usare.
+     * @param column Il nome della colonna.
+     * @return <code>true</code> se la colonna esiste.
+     * @throws SQLException Se si verifica un errore di accesso al database.
+     */
+    private static boolean hasColumn(Statement stmt, String column) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(AiJob)")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * All'avvio dell'applicazione riprende le generazioni interrotte dall'arresto precedente, elimina quelle
+     * concluse da più di <code>ai.jobs.retention-days</code> giorni e avvia quelle in coda.
+     * <p>
+     * Una generazione interrotta viene ripresa in base alla fase di salvataggio registrata, così che il risultato
+     * non venga mai salvato due volte: se era già salvato la generazione viene conclusa (e, per uno scenario, ne
+     * viene avviato il completamento se mancava); se lo scenario era stato creato (anche solo in parte, in streaming)
+     * senza che il salvataggio fosse registrato come concluso, viene eliminato prima di rimettere in coda la
+     * generazione; se il salvataggio era in corso senza uno scenario registrato da eliminare la generazione viene
+     * segnata come non riuscita, da verificare e rigenerare; altrimenti viene semplicemente rimessa in coda.
+     * </p>
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePendingJobs() {
+        long cutoff = Instant.now().minus(retention).toEpochMilli();
+        List<AiJob> completed = new ArrayList<>();
+        int requeued = 0;
+        int interrupted = 0;
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement select = conn.prepareStatement(
+                     "SELECT " + JOB_COLUMNS + ", fase_salvataggio, id_scenario_parziale FROM AiJob WHERE stato = ?");
+             PreparedStatement requeue = conn.prepareStatement(
+                     "UPDATE AiJob SET stato = ?, avviato_il = NULL, fase_salvataggio = ?, id_scenario_parziale = NULL WHERE id_job = ?");
+             PreparedStatement purge = conn.prepareStatement(
+                     "DELETE FROM AiJob WHERE stato IN (?, ?, ?) AND completato_il < ?");
+             PreparedStatement purgeBatches = conn.prepareStatement(
+                     "DELETE FROM AiBatch WHERE NOT EXISTS (SELECT 1 FROM AiJob WHERE AiJob.lotto = AiBatch.id_lotto)")) {
+            List<InterruptedJob> interruptedJobs = new ArrayList<>();
+            select.setString(1, Status.RUNNING.name());
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    interruptedJobs.add(new InterruptedJob(mapJob(rs), rs.getInt("fase_salvataggio"), rs.getInt("id_scenario_parziale")));
+                }
+            }
+
+            for (InterruptedJob interruptedJob : interruptedJobs) {
+                AiJob job = interruptedJob.job();
+                int phase = interruptedJob.phase();
+                int partialScenarioId = interruptedJob.partialScenarioId();
+                if (phase == PHASE_SAVED) {
+                    job.status = Status.SUCCEEDED;
+                    job.message = "Risultato salvato prima del riavvio dell'applicazione.";
+                    job.completedAt = System.currentTimeMillis();
+                    saveOutcome(job);
+                    completed.add(job);
+                    continue;
+                }
+                if (partialScenarioId > 0) {
+                    // Lo scenario creato (in streaming anche solo in parte) non era registrato come salvato: viene eliminato e generato di nuovo.
+                    if (scenarioExists(partialScenarioId) && !scenarioDeletionService.deleteScenario(partialScenarioId)) {
+                        logger.warn("Scenario parziale {} della generazione {} non eliminato: generazione non ripresa.", partialScenarioId, job.id);
+                        markInterrupted(job);
+                        completed.add(job);
+                        interrupted++;
+                        continue;
+                    }
+                    logger.info("Eliminato lo scenario parziale {} della generazione {} interrotta.", partialScenarioId, job.id);
+                } else if (phase == PHASE_SAVING) {
+                    // Il risultato potrebbe essere stato salvato in parte: ripeterlo lo duplicherebbe.
+                    markInterrupted(job);
+                    completed.add(job);
+                    interrupted++;
+                    continue;
+                }
+                requeue.setString(1, Status.QUEUED.name());
+                requeue.setInt(2, PHASE_GENERATING);
+                requeue.setLong(3, job.id);
+                requeued += requeue.executeUpdate();
+            }
+
+            purge.setString(1, Status.SUCCEEDED.name());
+            purge.setString(2, Status.FAILED.name());
+            purge.setString(3, Status.CANCELLED.name());
+            purge.setLong(4, cutoff);
+            int purged = purge.executeUpdate();
+            purgeBatches.executeUpdate();
+            logger.info("Generazioni AI: {} rimesse in coda dopo il riavvio, {} già salvate concluse, {} interrotte durante il salvataggio, {} concluse eliminate.",
+                    requeued, completed.size() - interrupted, interrupted, purged);
+        } catch (SQLException e) {
+            logger.error("Errore SQL durante il ripristino delle generazioni AI: {}", e.getMessage(), e);
+            return;
+        }
+
+        for (AiJob job : completed) {
+            if (job.status == Status.SUCCEEDED && job.type == Type.SCENARIO && job.enrich && job.scenarioId != null
+                    && !hasChildren(job.id)) {
+                enrich(job, job.scenarioId);
+            }
+            if (job.parentId != null) {
+                notifyEnrichmentCompleted(job);
+            }
+            if (job.batchId != null) {
+                notifyBatchCompleted(job);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * Segna come non riuscita una generazione interrotta durante il salvataggio del risultato.
+     *
+     * @param job La generazione.
+     */
+    private void markInterrupted(AiJob job) {
+        job.status = Status.FAILED;
+        job.message = "Generazione interrotta dal riavvio durante il salvataggio: verificare lo scenario prima di rigenerarla.";
+        job.completedAt = System.currentTimeMillis();
+        saveOutcome(job);
+    }
+
+    /**
+     * Mette in coda una generazione e la avvia appena lo consentono i limiti di concorrenza.
+     * La richiesta va costruita dal chiamante (ad esempio nel thread della UI), così che rifletta
+     * lo stato dello scenario al momento dell'invio.
+     *
+     * @param clientId       L'identificativo del browser dell'utente.
+     * @param ui             La UI che ha avviato la generazione (può essere <code>null</code>).
+     * @param notificationId L'ID della notifica attiva da aggiornare e chiudere (può essere <code>null</code>).
+     * @param type           Il tipo di generazione.
+     * @param scenarioId     L'ID dello scenario a cui si riferisce, o <code>null</code> per la creazione di uno scenario.
+     * @param description    La descrizione della generazione mostrata all'utente.
+     * @param request        La richiesta per il servizio AI, del tipo previsto da <code>type</code>.
+     * @return La generazione messa in coda.
+     * @throws IllegalArgumentException Se la richiesta non corrisponde al tipo di generazione.
+     * @throws IllegalStateException    Se non è possibile salvare la generazione.
+     */
+    public AiJob submit(String clientId, UI ui, String notificationId, Type type, Integer scenarioId, String description, Object request) {
+        if (!type.requestClass.isInstance(request)) {
+            throw new IllegalArgumentException("Richiesta non valida per la generazione " + type + ": " + request);
+        }
+        AiJob job = new AiJob(0, clientId, type, scenarioId, null, null, description, Status.QUEUED, null, 0,
+                System.currentTimeMillis(), 0, 0, false, false);
+        return enqueue(job, gson.toJson(request), ui, notificationId);
+    }
+
+    /**
+     * Mette in coda la generazione di uno scenario, come {@link #submit}, eventualmente seguita dal suo completamento
+     * (esami di laboratorio, materiali e referti generati in parallelo appena lo scenario è stato salvato).
+     *
+     * @param clientId       L'identificativo del browser dell'utente.
+     * @param ui             La UI che ha avviato la generazione (può essere <code>null</code>).
+     * @param notificationId L'ID della notifica attiva da aggiornare e chiudere (può essere <code>null</code>).
+     * @param description    La descrizione della generazione mostrata all'utente.
+     * @param request        La richiesta per il servizio AI.
+     * @param enrich         Se <code>true</code> lo scenario generato viene completato automaticamente.
+     * @return La generazione messa in coda.
+     * @throws IllegalStateException Se non è possibile salvare la generazione.
+     */
+    public AiJob submitScenario(String clientId, UI ui, String notificationId, String description,
+                                ScenarioGenerationRequest request, boolean enrich) {
+        AiJob job = new AiJob(0, clientId, Type.SCENARIO, null, null, null, description, Status.QUEUED, null, 0,
+                System.currentTimeMillis(), 0, 0, false, enrich);
+        return enqueue(job, gson.toJson(request), ui, notificationId);
+    }
+
+    /**
+     * Ripete una generazione conclusa con la stessa richiesta, ignorando la risposta in cache del servizio AI
+     * (ad esempio quando il risultato precedente non è soddisfacente).
+     *
+     * @param jobId          L'ID della generazione da ripetere.
+     * @param clientId       L'identificativo del browser dell'utente, che deve essere il proprietario della generazione.
+     * @param ui             La UI che ha richiesto la ripetizione (può essere <code>null</code>).
+     * @param notificationId L'ID della notifica attiva da aggiornare e chiudere (può essere <code>null</code>).
+     * @return La nuova generazione messa in coda, o <code>null</code> se la generazione non esiste, non appartiene
+     * all'utente o non è conclusa.
+     * @throws IllegalStateException Se non è possibile salvare la nuova generazione.
+     */
+    public AiJob regenerate(long jobId, String clientId, UI ui, String notificationId) {
+        final String sql = "SELECT " + JOB_COLUMNS + ", richiesta FROM AiJob WHERE id_job = ? AND utente = ? AND stato IN (?, ?, ?)";
+        AiJob previous;
+        String request;
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, jobId);
+            stmt.setString(2, clientId);
+            stmt.setString(3, Status.SUCCEEDED.name());
+            stmt.setString(4, Status.FAILED.name());
+            stmt.setString(5, Status.CANCELLED.name());
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next()) {
+                return null;
+            }
+            previous = mapJob(rs);
+            request = rs.getString("richiesta");
+        } catch (SQLException e) {
+            logger.error("Errore SQL durante il recupero della generazione {} da ripetere: {}", jobId, e.getMessage(), e);
+            return null;
+        }
+        logger.info("Generazione AI {} ripetuta dall'utente {} senza cache.", jobId, clientId);
+        // Lo scenario di una generazione di scenario è quello creato: la ripetizione ne crea uno nuovo.
+        Integer scenarioId = previous.type == Type.SCENARIO ? null : previous.scenarioId;
+        AiJob job = new AiJob(0, clientId, previous.type, scenarioId, null, null, previous.description, Status.QUEUED, null, 0,
+                System.currentTimeMillis(), 0, 0, true, previous.enrich);
+        return enqueue(job, request, ui, notificationId);
+    }
+
+    /**
+     * Salva una generazione in coda e la avvia appena lo consentono i limiti di concorrenza.
+     *
+     * @param job            La generazione da salvare, con l'ID ancora da assegnare.
+     * @param request        La richiesta per il servizio AI, in JSON.
+     * @param ui             La UI che ha avviato la generazione (può essere <code>null</code>).
+     * @param notificationId L'ID della notifica attiva (può essere <code>null</code>).
+     * @return La generazione messa in coda.
+     * @throws IllegalStateException Se non è possibile salvare la generazione.
+     */
+    private AiJob enqueue(AiJob job, String request, UI ui, String notificationId) {
+        try (Connection conn = DBConnect.getInstance().getConnection()) {
+            insertJob(conn, job, request);
+        } catch (SQLException e) {
+            logger.error("Errore SQL durante il salvataggio della generazione {}: {}", job.type, e.getMessage(), e);
+            throw new IllegalStateException("Impossibile mettere in coda la generazione.", e);
+        }
+
+        origins.put(job.id, new Origin(ui, notificationId));
+        if (job.type == Type.SCENARIO && externalApiService.isScenarioStreamingEnabled()) {
+            sectionFeeds.put(job.id, new SectionFeed());
+        }
+        logger.info("Generazione AI {} ({}) messa in coda per l'utente {}", job.id, job.type, job.clientId);
+        fireJobChanged(job);
+        dispatch();
+
+        if (getStatus(job.id) == Status.QUEUED) {
+            notifyProgress(job, job.description + " in coda: verrà avviata appena possibile...");
+        }
+        return job;
+    }
+
+    /**
+     * Mette in coda un lotto di generazioni di scenari, una per richiesta. Le righe del lotto vengono salvate
+     * insieme, in un'unica transazione, e avviate nel rispetto dei limiti dei lotti; il loro esito non viene
+     * notificato singolarmente ma con un riepilogo alla conclusione dell'ultima.
+     *
+     * @param clientId L'identificativo del browser dell'utente.
+     * @param name     Il nome del lotto (ad esempio il nome del file delle richieste).
+     * @param requests Le richieste di generazione, nell'ordine delle righe.
+     * @return L'identificativo del lotto.
+     * @throws IllegalArgumentException Se non ci sono richieste.
+     * @throws IllegalStateException    Se non è possibile salvare il lotto.
+     */
+    public String submitBatch(String clientId, String name, List<ScenarioGenerationRequest> requests) {
+        if (requests.isEmpty()) {
+            throw new IllegalArgumentException("Il lotto non contiene richieste.");
+        }
+        String batchId = UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+        List<AiJob> jobs = new ArrayList<>();
+        try (Connection conn = DBConnect.getInstance().getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO AiBatch (id_lotto, utente, nome, creato_il) VALUES (?, ?, ?, ?)")) {
+                stmt.setString(1, batchId);
+                stmt.setString(2, clientId);
+                stmt.setString(3, name);
+                stmt.setLong(4, now);
+                stmt.executeUpdate();
+                for (int i = 0; i < requests.size(); i++) {
+                    ScenarioGenerationRequest request = requests.get(i);
+                    String description = "Lotto '" + name + "', riga " + (i + 1) + ": " + request.scenarioType() + " (" + request.target() + ")";
+                    AiJob job = new AiJob(0, clientId, Type.SCENARIO, null, null, batchId, description, Status.QUEUED, null, 0,
+                            now, 0, 0, false, false);
+                    insertJob(conn, job, gson.toJson(request));
+                    jobs.add(job);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            logger.error("Errore SQL durante il salvataggio del lotto '{}': {}", name, e.getMessage(), e);
+            throw new IllegalStateException("Impossibile mettere in coda il lotto di generazioni.", e);
+        }
+
+        logger.info("Lotto {} ('{}') di {} generazioni di scenari messo in coda per l'utente {}", batchId, name, jobs.size(), clientId);
+        fireJobChanged(jobs.getLast());
+        dispatch();
+        return batchId;
+    }
+
+    /**
+     * Restituisce il nome di un lotto di generazioni.
+     *
+     * @param batchId  L'identificativo del lotto.
+     * @param clientId L'identificativo del browser dell'utente, che deve essere il proprietario del lotto.
+     * @return Il nome del lotto, o <code>null</code> se il lotto non esiste, non appartiene all'utente o in caso di errore.
+     */
+    public String getBatchName(String batchId, String clientId) {
+        final String sql = "SELECT nome FROM AiBatch WHERE id_lotto = ? AND utente = ?";
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, batchId);
+            stmt.setString(2, clientId);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getString("nome") : null;
+        } catch (SQLException e) {
+            logger.error("Errore SQL durante il recupero del lotto {}: {}", batchId, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Restituisce le righe di un lotto di generazioni, nell'ordine in cui sono state inserite.
+     *
+     * @param batchId  L'identificativo del lotto.
+     * @param clientId L'identificativo del browser dell'utente, che deve essere il proprietario del lotto.
+     * @return Le generazioni del lotto; una lista vuota se il lotto non esiste o in caso di errore.
+     */
+    public List<AiJob> getBatchJobs(String batchId, String clientId) {
+        final String sql = "SELECT " + JOB_COLUMNS + " FROM AiJob WHERE lotto = ? AND utente = ? ORDER BY id_job";
+        List<AiJob> jobs = new ArrayList<>();
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, batchId);
+            stmt.setString(2, clientId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                jobs.add(mapJob(rs));
+            }
+        } catch (SQLException e) {
+            logger.error("Errore SQL durante il recupero delle generazioni del lotto {}: {}", batchId, e.getMessage(), e);
+        }
+        return jobs;
+    }
+
+    /**
+     * Salva una generazione in coda e ne assegna l'ID.
+     *
+     * @param conn    La connessione da usare.
+     * @param job     La generazione da salvare.
+     * @param request La richiesta per il servizio AI, in JSON.
+     * @throws SQLException Se si verifica un errore di accesso al database.
+     */
+    private static void insertJob(Connection conn, AiJob job, String request) throws SQLException {
+        final String sql = "INSERT INTO AiJob (utente, tipo, id_scenario, descrizione, richiesta, stato, creato_il, rigenera, id_padre, arricchisci, lotto) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setString(1, job.clientId);
+            stmt.setString(2, job.type.name());
+            if (job.scenarioId != null) {
+                stmt.setInt(3, job.scenarioId);
+            } else {
+                stmt.setNull(3, Types.INTEGER);
+            }
+            stmt.setString(4, job.description);
+            stmt.setString(5, request);
+            stmt.setString(6, Status.QUEUED.name());
+            stmt.setLong(7, job.createdAt);
+            stmt.setInt(8, job.forceRefresh ? 1 : 0);
+            if (job.parentId != null) {
+                stmt.setLong(9, job.parentId);
+            } else {
+                stmt.setNull(9, Types.INTEGER);
+            }
+            stmt.setInt(10, job.enrich ? ENRICH_REQUESTED : 0);
+            stmt.setString(11, job.batchId);
+            stmt.executeUpdate();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new SQLException("ID della generazione non restituito.");
+                }
+                job.id = keys.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Annulla una generazione ancora in coda.
+     *
+     * @param jobId    L'ID della generazione.
+     * @param clientId L'identificativo del browser dell'utente, che deve essere il proprietario della generazione.
+     * @return <code>true</code> se la generazione è stata annullata; <code>false</code> se è già stata avviata o non esiste.
+     */
+    public boolean cancel(long jobId, String clientId) {
+        final String sql = "UPDATE AiJob SET stato = ?, messaggio = ?, completato_il = ? WHERE id_job = ? AND utente = ? AND stato = ?";
+        String message = "Generazione annullata dall'utente.";
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, Status.CANCELLED.name());
+            stmt.setString(2, message);
+            stmt.setLong(3, System.currentTimeMillis());
+            stmt.setLong(4, jobId);
+            stmt.setString(5, clientId);
+            stmt.setString(6, Status.QUEUED.name());
+            if (stmt.executeUpdate() == 0) {
+                return false;
+            }
+        } catch (SQLException e) {
+            logger.error("Errore SQL durante l'annullamento della generazione {}: {}", jobId, e.getMessage(), e);
+            return false;
+        }
+
+        logger.info("Generazione AI {} annullata dall'utente {}", jobId, clientId);
+        sectionFeeds.remove(jobId);
+        AiJob job = getJob(jobId);
+        if (job != null) {
+            notifyOutcome(job, new NotifierService.NotificationPayload(NotifierService.Status.ERROR,
+                    "Generazione Annullata", job.description + ": " + message, null));
+            fireJobChanged(job);
+            if (job.parentId != null) {
+                notifyEnrichmentCompleted(job);
+            }
+            if (job.batchId != null) {
+                notifyBatchCompleted(job);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Restituisce le generazioni più recenti di un utente.
+     *
+     * @param clientId L'identificativo del browser dell'utente.
+     * @param limit    Il numero massimo di generazioni da restituire.
+     * @return Le generazioni, dalla più recente; una lista vuota in caso di errore.
+     */
+    public List<AiJob> getJobs(String clientId, int limit) {
+        final String sql = "SELECT " + JOB_COLUMNS + " FROM AiJob WHERE utente = ? ORDER BY id_job DESC LIMIT ?";
+        List<AiJob> jobs = new ArrayList<>();
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, clientId);
+            stmt.setInt(2, limit);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                jobs.add(mapJob(rs));
+            }
+        } catch (SQLException e) {
+            logger.error("Errore SQL durante il recupero delle generazioni dell'utente {}: {}", clientId, e.getMessage(), e);
+        }
+        return jobs;
+    }
+
+    /**
+     * Restituisce una generazione.
+     *
+     * @param jobId L'ID della generazione.
+     * @return La generazione, o <code>null</code> se non esiste o in caso di errore.
+     */
+    public AiJob getJob(long jobId) {
+        final String sql = "SELECT " + JOB_COLUMNS + " FROM AiJob WHERE id_job = ?";
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, jobId);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? mapJob(rs) : null;
+        } catch (SQLException e) {
+            logger.error("Errore SQL durante il recupero della generazione {}: {}", jobId, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Registra un listener che riceve ogni cambiamento di stato delle generazioni (di tutti gli utenti).
+     * Il listener viene invocato da thread in background.
+     *
+     * @param listener Il listener.
+     * @return La registrazione, da rimuovere quando la pagina viene chiusa.
+     */
+    public Registration addJobListener(Consumer<AiJob> listener) {
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    /**
+     * Indica se il servizio AI è disponibile. Le generazioni avviate mentre non lo è falliscono subito.
+     *
+     * @return <code>true</code> se il servizio AI è disponibile.
+     */
+    public boolean isAiAvailable() {
+        return circuitBreaker.isAvailable();
+    }
+
+    /**
+     * Registra un listener che riceve la disponibilità del servizio AI a ogni cambiamento.
+     * Il listener viene invocato da thread in background.
+     *
+     * @param listener Il listener.
+     * @return La registrazione, da rimuovere quando la pagina viene chiusa.
+     */
+    public Registration addAvailabilityListener(Consumer<Boolean> listener) {
+        return circuitBreaker.addAvailabilityListener(listener);
+    }
+
+    /**
+     * Registra un listener che riceve le sezioni di uno scenario generato in streaming, man mano che arrivano.
+     * Le sezioni già ricevute vengono passate subito al listener. Il listener viene invocato da thread in background.
+     *
+     * @param jobId    L'ID della generazione dello scenario.
+     * @param listener Il listener.
+     * @return La registrazione, da rimuovere quando la pagina viene chiusa; non ha effetto se la generazione
+     * non è in streaming o è già conclusa.
+     */
+    public Registration addSectionListener(long jobId, Consumer<ScenarioSection> listener) {
+        SectionFeed feed = sectionFeeds.get(jobId);
+        return feed != null ? feed.register(listener) : () -> {
+        };
+    }
+
+    /**
+     * Avvia le generazioni in coda, in ordine di inserimento, finché lo consentono i limiti di concorrenza.
+     * Una generazione viene assegnata con un aggiornamento condizionato sullo stato, per cui non può essere
+     * avviata due volte. Le generazioni vengono assegnate con il lock del servizio e avviate dopo averlo
+     * rilasciato, così che le query e le notifiche dell'avvio non blocchino le altre operazioni.
+     */
+    private void dispatch() {
+        for (Map.Entry<AiJob, String> entry : claimQueued()) {
+            start(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Assegna le generazioni in coda che possono essere avviate nei limiti di concorrenza.
+     *
+     * @return Le generazioni assegnate, con la richiesta salvata in JSON.
+     */
+    private synchronized List<Map.Entry<AiJob, String>> claimQueued() {
+        List<Map.Entry<AiJob, String>> started = new ArrayList<>();
+        if (running >= maxConcurrent) {
+            return started;
+        }
+        final String select = "SELECT " + JOB_COLUMNS + ", richiesta FROM AiJob WHERE stato = ? ORDER BY id_job";
+        final String claim = "UPDATE AiJob SET stato = ?, avviato_il = ?, tentativi = tentativi + 1 WHERE id_job = ? AND stato = ?";
+
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement selectStmt = conn.prepareStatement(select);
+             PreparedStatement claimStmt = conn.prepareStatement(claim)) {
+            List<Map.Entry<AiJob, String>> queued = new ArrayList<>();
+            selectStmt.setString(1, Status.QUEUED.name());
+            try (ResultSet rs = selectStmt.executeQuery()) {
+                while (rs.next()) {
+                    queued.add(Map.entry(mapJob(rs), rs.getString("richiesta")));
+                }
+            }
+
+            for (Map.Entry<AiJob, String> entry : queued) {
+                if (running >= maxConcurrent) {
+                    break;
+                }
+                AiJob job = entry.getKey();
+                long now = System.currentTimeMillis();
+                if (job.batchId != null) {
+                    // Le righe dei lotti hanno un proprio limite e vengono avviate a distanza l'una dall'altra.
+                    if (runningBatch >= maxBatchConcurrent) {
+                        continue;
+                    }
+                    if (now < nextBatchStart) {
+                        scheduleDispatch(nextBatchStart - now);
+                        continue;
+                    }
+                } else if (job.parentId == null && runningPerUser.getOrDefault(job.clientId, 0) >= maxPerUser) {
+                    // Le generazioni figlie del completamento di uno scenario sono soggette solo al limite complessivo.
+                    continue;
+                }
+                claimStmt.setString(1, Status.RUNNING.name());
+                claimStmt.setLong(2, now);
+                claimStmt.setLong(3, job.id);
+                claimStmt.setString(4, Status.QUEUED.name());
+                if (claimStmt.executeUpdate() == 0) {
+                    continue;
+                }
+                job.status = Status.RUNNING;
+                job.startedAt = now;
+                job.attempts++;
+                running++;
+                if (job.batchId != null) {
+                    runningBatch++;
+                    nextBatchStart = now + batchIntervalMillis;
+                } else {
+                    runningPerUser.merge(job.clientId, 1, Integer::sum);
+                }
+                started.add(entry);
+            }
+        } catch (SQLException e) {
+            logger.error("Errore SQL durante l'avvio delle generazioni in coda: {}", e.getMessage(), e);
+        }
+        return started;
+    }
+
+    /**
+     * Programma un nuovo avvio delle generazioni in coda, per le righe dei lotti in attesa dell'intervallo minimo.
+     * Va invocato con il lock del servizio.
+     *
+     * @param delayMillis L'attesa in millisecondi.
+     */
+    private void scheduleDispatch(long delayMillis) {
+        if (batchDispatchScheduled) {
+            return;
+        }
+        batchDispatchScheduled = true;
+        CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, executorService).execute(() -> {
+            synchronized (this) {
+                batchDispatchScheduled = false;
+            }
+            dispatch();
+        });
+    }
+
+    /**
+     * Avvia una generazione già assegnata e ne registra la conclusione.
+     *
+     * @param job     La generazione.
+     * @param request La richiesta salvata, in JSON.
+     */
+    private void start(AiJob job, String request) {
+        logger.info("Avviata generazione AI {} ({}) per l'utente {}", job.id, job.type, job.clientId);
+        fireJobChanged(job);
+        notifyProgress(job, job.description + " in corso...");
+
+        CompletableFuture<String> outcome;
+        try {
+            outcome = execute(job, request);
+        } catch (RuntimeException e) {
+            outcome = CompletableFuture.failedFuture(e);
+        }
+        outcome.whenCompleteAsync((details, error) -> finish(job, details, error), executorService);
+    }
+
+    /**
+     * Invia la richiesta al servizio AI e salva il risultato.
+     *
+     * @param job     La generazione.
+     * @param request La richiesta salvata, in JSON.
+     * @return Il messaggio di esito, completato quando il risultato è stato salvato.
+     */
+    private CompletableFuture<String> execute(AiJob job, String request) {
+        if (job.scenarioId != null && !scenarioExists(job.scenarioId)) {
+            throw new JobFailure("Scenario non Trovato", "Lo scenario è stato eliminato prima dell'avvio della generazione.");
+        }
+        // L'attesa della risposta non occupa un thread: solo il salvataggio del risultato usa l'executor.
+        return switch (job.type) {
+            case SCENARIO -> createScenario(job, gson.fromJson(request, ScenarioGenerationRequest.class))
+                    .thenApplyAsync(newScenarioId -> {
+                        job.scenarioId = newScenarioId;
+                        markSaved(job);
+                        if (job.enrich) {
+                            int children = enrich(job, newScenarioId);
+                            if (children > 0) {
+                                return "Nuovo Scenario creato con successo! Completamento avviato: " + children + " generazioni in corso.";
+                            }
+                        } else {
+                            prefetchService.prefetch(newScenarioId);
+                        }
+                        return "Nuovo Scenario creato con successo!";
+                    }, executorService);
+            case LAB_EXAMS -> prefetchService.generateLabExams(job.scenarioId, gson.fromJson(request, LabExamGenerationRequest.class), job.forceRefresh)
+                    .thenApplyAsync(result -> {
+                        if (result.isEmpty()) {
+                            throw new JobFailure("Errore Servizio AI", "Il servizio AI per gli esami non ha risposto.");
+                        }
+                        updatePhase(job.id, PHASE_SAVING, null);
+                        if (!labExamService.saveLabExamsAndGeneratePdf(job.scenarioId, result.get())) {
+                            throw new JobFailure("Errore di Salvataggio", "Fallimento durante il salvataggio degli esami di laboratorio.");
+                        }
+                        markSaved(job);
+                        return "Esami di laboratorio creati con successo!";
+                    }, executorService);
+            case REPORT -> {
+                ReportGenerationRequest reportRequest = gson.fromJson(request, ReportGenerationRequest.class);
+                yield externalApiService.generateReport(reportRequest, job.forceRefresh)
+                        .thenApplyAsync(result -> {
+                            if (result.isEmpty()) {
+                                throw new JobFailure("Errore Servizio AI", "Il servizio AI per i referti non ha risposto.");
+                            }
+                            updatePhase(job.id, PHASE_SAVING, null);
+                            // Nel completamento di uno scenario il referto va all'esame previsto dallo scenario stesso.
+                            boolean saved = job.parentId != null
+                                    ? esameRefertoService.completeRefertoByJSON(job.scenarioId, result)
+                                    : esameRefertoService.createRefertoByJSON(job.scenarioId, result);
+                            if (!saved) {
+                                throw new JobFailure("Errore di Salvataggio",
+                                        "Fallimento durante il salvataggio del referto per '" + reportRequest.examType() + "'.");
+                            }
+                            markSaved(job);
+                            return "Nuovo referto per '" + reportRequest.examType() + "' creato con successo!";
+                        }, executorService);
+            }
+            case MATERIALS -> prefetchService.generateMaterial(job.scenarioId, gson.fromJson(request, MatGenerationRequest.class), job.forceRefresh)
+                    .thenApplyAsync(result -> {
+                        if (result.isEmpty()) {
+                            throw new JobFailure("Errore Servizio AI", "Il servizio AI per i materiali non ha risposto.");
+                        }
+                        updatePhase(job.id, PHASE_SAVING, null);
+                        if (!materialeService.saveAImaterials(job.scenarioId, result.get())) {
+                            throw new JobFailure("Errore di Salvataggio", "Errore durante il salvataggio dei materiali.");
+                        }
+                        markSaved(job);
+                        return "Materiali necessari creati e associati!";
+                    }, executorService);
+        };
+    }
+
+    /**
+     * Genera e salva uno scenario: in streaming, se è attivo, altrimenti importando il documento completo.
+     *
+     * @param job     La generazione.
+     * @param request La richiesta per il servizio AI.
+     * @return L'ID dello scenario creato.
+     */
+    private CompletableFuture<Integer> createScenario(AiJob job, ScenarioGenerationRequest request) {
+        if (externalApiService.isScenarioStreamingEnabled()) {
+            return streamScenario(job, request);
+        }
+        return externalApiService.generateScenario(request, job.forceRefresh)
+                .thenApplyAsync(result -> {
+                    String json = result.orElseThrow(() -> new JobFailure("Errore di Generazione",
+                            "Il servizio AI non ha restituito una risposta valida."));
+                    updatePhase(job.id, PHASE_SAVING, null);
+                    int newScenarioId = scenarioImportService.createScenarioFromJSON(json.getBytes(StandardCharsets.UTF_8));
+                    if (newScenarioId <= 0) {
+                        throw new JobFailure("Errore di Salvataggio", "Fallimento durante la creazione dello scenario generato.");
+                    }
+                    // Lo scenario va registrato subito, per eliminarlo e ripetere la generazione se l'applicazione
+                    // si arresta prima che il salvataggio sia registrato come concluso.
+                    updatePhase(job.id, PHASE_SAVING, newScenarioId);
+                    return newScenarioId;
+                }, executorService);
+    }
+
+    /**
+     * Genera uno scenario in streaming: ogni sezione viene salvata sull'executor appena arriva e inoltrata
+     * alle pagine registrate. Se la generazione non riesce, lo scenario già creato viene eliminato.
+     *
+     * @param job     La generazione.
+     * @param request La richiesta per il servizio AI.
+     * @return L'ID dello scenario creato.
+     */
+    private CompletableFuture<Integer> streamScenario(AiJob job, ScenarioGenerationRequest request) {
+        SectionFeed feed = sectionFeeds.computeIfAbsent(job.id, id -> new SectionFeed());
+        ScenarioImportService.StreamingImport streamingImport = scenarioImportService.startStreamingImport();
+        AtomicBoolean partialRecorded = new AtomicBoolean();
+        return externalApiService.streamScenario(request, job.forceRefresh)
+                .publishOn(Schedulers.fromExecutor(executorService))
+                .doOnNext(section -> {
+                    streamingImport.accept(section.name(), section.json());
+                    // Lo scenario parziale va registrato appena creato, per eliminarlo se l'applicazione si arresta.
+                    int partialId = streamingImport.getScenarioId();
+                    if (partialId > 0 && !partialRecorded.getAndSet(true)) {
+                        updatePhase(job.id, PHASE_SAVING, partialId);
+                    }
+                    feed.publish(section);
+                })
+                .then(Mono.fromCallable(streamingImport::complete))
+                .onErrorMap(e -> {
+                    if (e instanceof RestClientException) {
+                        return e;
+                    }
+                    logger.error("Errore durante il salvataggio dello scenario in streaming della generazione {}.", job.id, e);
+                    return new JobFailure("Errore di Salvataggio", "Fallimento durante la creazione dello scenario generato.");
+                })
+                .doOnError(e -> {
+                    int partialId = streamingImport.getScenarioId();
+                    if (partialId > 0 && scenarioDeletionService.deleteScenario(partialId)) {
+                        logger.info("Eliminato lo scenario parziale {} della generazione {} non riuscita.", partialId, job.id);
+                    }
+                })
+                .toFuture();
+    }
+
+    /**
+     * Registra la conclusione di una generazione, notifica l'esito all'utente e avvia le generazioni in attesa.
+     *
+     * @param job     La generazione.
+     * @param details Il messaggio di esito, se la generazione è riuscita.
+     * @param error   L'errore, se la generazione non è riuscita.
+     */
+    private void finish(AiJob job, String details, Throwable error) {
+        NotifierService.NotificationPayload payload;
+        if (error == null) {
+            job.status = Status.SUCCEEDED;
+            job.message = details;
+            payload = new NotifierService.NotificationPayload(NotifierService.Status.SUCCESS, "Generazione Completata", details, null);
+            logger.info("Generazione AI {} ({}) completata.", job.id, job.type);
+        } else {
+            Throwable e = unwrap(error);
+            String title;
+            if (e instanceof JobFailure failure) {
+                title = failure.title;
+                job.message = failure.getMessage();
+                logger.warn("Generazione AI {} ({}) non riuscita: {}", job.id, job.type, failure.getMessage());
+            } else if (e instanceof HttpClientErrorException hcee) {
+                title = "Errore nella Richiesta";
+                job.message = extractErrorReasonFromJson(hcee.getResponseBodyAsString(), gson);
+                logger.error("Generazione AI {} ({}) rifiutata dal servizio AI.", job.id, job.type, e);
+            } else if (e instanceof ResourceAccessException) {
+                title = "Servizio AI non Disponibile";
+                job.message = "Il servizio AI non è raggiungibile o non ha risposto in tempo. Riprovare tra qualche minuto.";
+                logger.warn("Generazione AI {} ({}) non riuscita: {}", job.id, job.type, e.getMessage());
+            } else {
+                title = "Errore Critico";
+                job.message = "Si è verificato un problema tecnico. Controllare i log per maggiori dettagli.";
+                logger.error("Fallimento della generazione AI {} ({}).", job.id, job.type, e);
+            }
+            job.status = Status.FAILED;
+            payload = new NotifierService.NotificationPayload(NotifierService.Status.ERROR, title, job.message, null);
+        }
+        job.completedAt = System.currentTimeMillis();
+        saveOutcome(job);
+        sectionFeeds.remove(job.id);
+
+        synchronized (this) {
+            running--;
+            if (job.batchId != null) {
+                runningBatch--;
+            } else {
+                runningPerUser.computeIfPresent(job.clientId, (client, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+        if (job.batchId != null) {
+            // L'esito delle righe di un lotto viene notificato con il riepilogo del lotto.
+            origins.remove(job.id);
+        } else {
+            notifyOutcome(job, payload);
+        }
+        fireJobChanged(job);
+        if (job.parentId != null) {
+            notifyEnrichmentCompleted(job);
+        }
+        if (job.batchId != null) {
+            notifyBatchCompleted(job);
+        }
+        dispatch();
+    }
+
+    /**
+     * Mette in coda le generazioni che completano uno scenario appena creato: esami di laboratorio, materiali
+     * e un referto per ogni tipo di esame strumentale previsto dallo scenario ma ancora senza referto.
+     * Un errore non compromette la generazione dello scenario, che è già stato salvato.
+     *
+     * @param parent     La generazione dello scenario.
+     * @param scenarioId L'ID dello scenario creato.
+     * @return Il numero di generazioni messe in coda.
+     */
+    private int enrich(AiJob parent, int scenarioId) {
+        int count = 0;
+        try {
+            Scenario scenario = scenarioService.getScenarioById(scenarioId);
+            if (scenario == null) {
+                logger.warn("Scenario {} non trovato: completamento della generazione {} non avviato.", scenarioId, parent.id);
+                return 0;
+            }
+            String prefix = "Completamento di '" + scenario.getTitolo() + "': ";
+
+            List<ChildRequest> requests = new ArrayList<>();
+            ScenarioContextBuilder.ScenarioContext context = scenarioContextBuilder.build(scenario);
+            requests.add(new ChildRequest(Type.LAB_EXAMS, prefix + "esami di laboratorio", new LabExamGenerationRequest(
+                    context.description(), scenario.getTipologia(), context.objectiveExam(), ScenarioContextBuilder.clean(scenario.getPatologia()))));
+            requests.add(new ChildRequest(Type.MATERIALS, prefix + "materiali", new MatGenerationRequest(
+                    context.description(), scenario.getTipologia(), ScenarioContextBuilder.clean(scenario.getTarget()), context.objectiveExam())));
+            for (String examType : examTypesWithoutReport(scenarioId)) {
+                requests.add(new ChildRequest(Type.REPORT, prefix + "referto '" + examType + "'", new ReportGenerationRequest(
+                        context.description(), scenario.getTipologia(), examType, context.objectiveExam())));
+            }
+
+            Origin origin = origins.get(parent.id);
+            for (ChildRequest request : requests) {
+                AiJob child = new AiJob(0, parent.clientId, request.type(), scenarioId, parent.id, null, request.description(),
+                        Status.QUEUED, null, 0, System.currentTimeMillis(), 0, 0, parent.forceRefresh, false);
+                enqueue(child, gson.toJson(request.request()), origin != null ? origin.ui() : null, null);
+                count++;
+            }
+            logger.info("Completamento dello scenario {} (generazione {}): {} generazioni messe in coda.", scenarioId, parent.id, count);
+            return count;
+        } catch (RuntimeException e) {
+            logger.error("Impossibile avviare il completamento dello scenario {} (generazione {}).", scenarioId, parent.id, e);
+            return count;
+        }
+    }
+
+    /**
+     * Restituisce i tipi degli esami strumentali di uno scenario ancora senza referto testuale.
+     *
+     * @param scenarioId L'ID dello scenario.
+     * @return I tipi di esame, senza ripetizioni.
+     */
+    private Set<String> examTypesWithoutReport(int scenarioId) {
+        Map<String, String> types = new LinkedHashMap<>();
+        for (EsameReferto esame : esameRefertoService.getEsamiRefertiByScenarioId(scenarioId)) {
+            if (esame.getTipo() != null && !esame.getTipo().isBlank()
+                    && (esame.getRefertoTestuale() == null || esame.getRefertoTestuale().isBlank())) {
+                types.putIfAbsent(esame.getTipo().trim().toLowerCase(Locale.ROOT), esame.getTipo().trim());
+            }
+        }
+        return new LinkedHashSet<>(types.values());
+    }
+
+    /**
+     * Se tutte le generazioni figlie del completamento di uno scenario sono concluse, notifica il riepilogo all'utente.
+     * Il riepilogo viene segnato sulla generazione dello scenario con un aggiornamento condizionato, per cui viene
+     * inviato una sola volta anche se le ultime generazioni si concludono insieme.
+     *
+     * @param child La generazione figlia appena conclusa.
+     */
+    private void notifyEnrichmentCompleted(AiJob child) {
+        final String count = "SELECT stato, COUNT(*) AS totale FROM AiJob WHERE id_padre = ? GROUP BY stato";
+        final String mark = "UPDATE AiJob SET arricchisci = ? WHERE id_job = ? AND arricchisci = ?";
+        int total = 0;
+        int succeeded = 0;
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement countStmt = conn.prepareStatement(count);
+             PreparedStatement markStmt = conn.prepareStatement(mark)) {
+            countStmt.setLong(1, child.parentId);
+            try (ResultSet rs = countStmt.executeQuery()) {
+                while (rs.next()) {
+                    Status status = Status.valueOf(rs.getString("stato"));
+                    if (status == Status.QUEUED || status == Status.RUNNING) {
+                        return;
+                    }
+                    total += rs.getInt("totale");
+                    if (status == Status.SUCCEEDED) {
+                        succeeded += rs.getInt("totale");
+                    }
+                }
+            }
+            markStmt.setInt(1, ENRICH_NOTIFIED);
+            markStmt.setLong(2, child.parentId);
+            markStmt.setInt(3, ENRICH_REQUESTED);
+            if (markStmt.executeUpdate() == 0) {
+                return;
+            }
+        } catch (SQLException e) {
+            logger.error("Errore SQL durante la verifica del completamento della generazione {}: {}", child.parentId, e.getMessage(), e);
+            return;
+        }
+
+        Scenario scenario = scenarioService.getScenarioById(child.scenarioId);
+        String name = scenario != null ? "Scenario '" + scenario.getTitolo() + "'" : "Scenario";
+        logger.info("Completamento della generazione {} concluso: {} di {} generazioni riuscite.", child.parentId, succeeded, total);
+        notifierService.notifyClient(child.clientId, null, new NotifierService.NotificationPayload(
+                succeeded == total ? NotifierService.Status.SUCCESS : NotifierService.Status.ERROR,
+                succeeded == total ? "Scenario Completato" : "Scenario Completato Parzialmente",
+                name + " completato: " + succeeded + " di " + total + " generazioni riuscite.",
+                null));
+    }
+
+    /**
+     * Se tutte le righe del lotto di una generazione sono concluse, notifica all'utente il riepilogo del lotto.
+     * Il riepilogo viene inviato una sola volta, grazie a un aggiornamento condizionato del lotto.
+     *
+     * @param row Una riga del lotto appena conclusa o annullata.
+     */
+    private void notifyBatchCompleted(AiJob row) {
+        final String count = "SELECT stato, COUNT(*) AS totale FROM AiJob WHERE lotto = ? GROUP BY stato";
+        final String mark = "UPDATE AiBatch SET notificato = 1 WHERE id_lotto = ? AND notificato = 0";
+        final String name = "SELECT nome FROM AiBatch WHERE id_lotto = ?";
+        int total = 0;
+        int succeeded = 0;
+        String batchName;
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement countStmt = conn.prepareStatement(count);
+             PreparedStatement markStmt = conn.prepareStatement(mark);
+             PreparedStatement nameStmt = conn.prepareStatement(name)) {
+            countStmt.setString(1, row.batchId);
+            try (ResultSet rs = countStmt.executeQuery()) {
+                while (rs.next()) {
+                    Status status = Status.valueOf(rs.getString("stato"));
+                    if (status == Status.QUEUED || status == Status.RUNNING) {
+                        return;
+                    }
+                    total += rs.getInt("totale");
+                    if (status == Status.SUCCEEDED) {
+                        succeeded += rs.getInt("totale");
+                    }
+                }
+            }
+            markStmt.setString(1, row.batchId);
+            if (markStmt.executeUpdate() == 0) {
+                return;
+            }
+            nameStmt.setString(1, row.batchId);
+            try (ResultSet rs = nameStmt.executeQuery()) {
+                batchName = rs.next() ? rs.getString("nome") : "";
+            }
+        } catch (SQLException e) {
+            logger.error("Errore SQL durante la verifica della conclusione del lotto {}: {}", row.batchId, e.getMessage(), e);
+            return;
+        }
+
+        logger.info("Lotto {} concluso: {} di {} scenari creati.", row.batchId, succeeded, total);
+        notifierService.notifyClient(row.clientId, null, new NotifierService.NotificationPayload(
+                succeeded == total ? NotifierService.Status.SUCCESS : NotifierService.Status.ERROR,
+                succeeded == total ? "Lotto Completato" : "Lotto Completato Parzialmente",
+                "Lotto '" + batchName + "' concluso: " + succeeded + " di " + total
+                        + " scenari creati. Il report è disponibile nella pagina delle generazioni AI.",
+                null));
+    }
+
+    /**
+     * Registra la fase di salvataggio di una generazione in corso, usata per riprenderla dopo un riavvio.
+     *
+     * @param jobId             L'ID della generazione.
+     * @param phase             La fase di salvataggio.
+     * @param partialScenarioId L'ID dello scenario creato in parte, o <code>null</code>.
+     */
+    private static void updatePhase(long jobId, int phase, Integer partialScenarioId) {
+        final String sql = "UPDATE AiJob SET fase_salvataggio = ?, id_scenario_parziale = ? WHERE id_job = ?";
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, phase);
+            if (partialScenarioId != null) {
+                stmt.setInt(2, partialScenarioId);
+            } else {
+                stmt.setNull(2, Types.INTEGER);
+            }
+            stmt.setLong(3, jobId);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            logger.error("Errore SQL durante l'aggiornamento della fase della generazione {}: {}", jobId, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Registra che il risultato di una generazione è stato salvato, con lo scenario a cui si riferisce.
+     *
+     * @param job La generazione.
+     */
+    private static void markSaved(AiJob job) {
+        final String sql = "UPDATE AiJob SET fase_salvataggio = ?, id_scenario = ?, id_scenario_parziale = NULL WHERE id_job = ?";
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, PHASE_SAVED);
+            if (job.scenarioId != null) {
+                stmt.setInt(2, job.scenarioId);
+            } else {
+                stmt.setNull(2, Types.INTEGER);
+            }
+            stmt.setLong(3, job.id);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            logger.error("Errore SQL durante la registrazione del salvataggio della generazione {}: {}", job.id, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Verifica se una generazione di scenario ha già messo in coda le generazioni di completamento.
+     *
+     * @param jobId L'ID della generazione.
+     * @return <code>true</code> se esiste almeno una generazione figlia (o in caso di errore, per non duplicarle).
+     */
+    private static boolean hasChildren(long jobId) {
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT 1 FROM AiJob WHERE id_padre = ? LIMIT 1")) {
+            stmt.setLong(1, jobId);
+            return stmt.executeQuery().next();
+        } catch (SQLException e) {
+            logger.warn("Impossibile verificare il completamento della generazione {}: {}", jobId, e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Salva lo stato finale di una generazione.
+     *
+     * @param job La generazione conclusa.
+     */
+    private void saveOutcome(AiJob job) {
+        final String sql = "UPDATE AiJob SET stato = ?, messaggio = ?, completato_il = ?, id_scenario = ? WHERE id_job = ?";
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, job.status.name());
+            stmt.setString(2, job.message);
+            stmt.setLong(3, job.completedAt);
+            if (job.scenarioId != null) {
+                stmt.setInt(4, job.scenarioId);
+            } else {
+                stmt.setNull(4, Types.INTEGER);
+            }
+            stmt.setLong(5, job.id);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            logger.error("Errore SQL durante il salvataggio dell'esito della generazione {}: {}", job.id, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Invia l'esito di una generazione a tutte le pagine aperte dall'utente; la notifica attiva viene chiusa
+     * nella pagina da cui è partita la generazione.
+     *
+     * @param job     La generazione conclusa.
+     * @param payload L'esito da notificare.
+     */
+    private void notifyOutcome(AiJob job, NotifierService.NotificationPayload payload) {
+        Origin origin = origins.remove(job.id);
+        UI ui = origin != null ? origin.ui() : null;
+        String notificationId = origin != null ? origin.notificationId() : null;
+        int sent = notifierService.notifyClient(job.clientId, ui, new NotifierService.NotificationPayload(
+                payload.status(), payload.title(), payload.details(), notificationId));
+        if (sent == 0) {
+            logger.info("Nessuna pagina aperta dall'utente {}: l'esito della generazione {} resta consultabile nell'elenco delle generazioni.",
+                    job.clientId, job.id);
+        }
+    }
+
+    /**
+     * Aggiorna il messaggio della notifica attiva della pagina da cui è partita la generazione.
+     *
+     * @param job     La generazione.
+     * @param message Il messaggio da mostrare.
+     */
+    private void notifyProgress(AiJob job, String message) {
+        Origin origin = origins.get(job.id);
+        if (origin == null || origin.ui() == null || origin.notificationId() == null) {
+            return;
+        }
+        try {
+            notifierService.notify(origin.ui(), new NotifierService.NotificationPayload(NotifierService.Status.PROGRESS,
+                    job.type.label, message, origin.notificationId(), -1, null));
+        } catch (UIDetachedException e) {
+            logger.debug("UI della generazione {} non più attiva.", job.id);
+        }
+    }
+
+    /**
+     * Inoltra un cambiamento di stato ai listener registrati.
+     *
+     * @param job La generazione modificata.
+     */
+    private void fireJobChanged(AiJob job) {
+        for (Consumer<AiJob> listener : listeners) {
+            try {
+                listener.accept(job);
+            } catch (RuntimeException e) {
+                logger.warn("Listener delle generazioni AI non riuscito: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Restituisce lo stato attuale di una generazione.
+     *
+     * @param jobId L'ID della generazione.
+     * @return Lo stato, o <code>null</code> se la generazione non esiste.
+     */
+    private Status getStatus(long jobId) {
+        AiJob job = getJob(jobId);
+        return job != null ? job.status : null;
+    }
+
+    /**
+     * Verifica che uno scenario esista ancora.
+     *
+     * @param scenarioId L'ID dello scenario.
+     * @return <code>true</code> se lo scenario esiste (o in caso di errore, per non scartare la generazione).
+     */
+    private static boolean scenarioExists(int scenarioId) {
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT 1 FROM Scenario WHERE id_scenario = ?")) {
+            stmt.setInt(1, scenarioId);
+            return stmt.executeQuery().next();
+        } catch (SQLException e) {
+            logger.warn("Impossibile verificare l'esistenza dello scenario {}: {}", scenarioId, e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Costruisce una generazione dalla riga corrente.
+     *
+     * @param rs Il ResultSet posizionato sulla riga.
+     * @return La generazione.
+     * @throws SQLException Se si verifica un errore di accesso al database.
+     */
+    private static AiJob mapJob(ResultSet rs) throws SQLException {
+        int scenarioId = rs.getInt("id_scenario");
+        Integer scenario = rs.wasNull() ? null : scenarioId;
+        long parentId = rs.getLong("id_padre");
+        Long parent = rs.wasNull() ? null : parentId;
+        return new AiJob(rs.getLong("id_job"), rs.getString("utente"), Type.valueOf(rs.getString("tipo")), scenario, parent,
+                rs.getString("lotto"),
+                rs.getString("descrizione"), Status.valueOf(rs.getString("stato")), rs.getString("messaggio"),
+                rs.getInt("tentativi"), rs.getLong("creato_il"), rs.getLong("avviato_il"), rs.getLong("completato_il"),
+                rs.getInt("rigenera") != 0, rs.getInt("arricchisci") != 0);
+    }
+
+    /**
+     * Tipo di generazione, con la classe della richiesta corrispondente.
+     */
+    public enum Type {
+        /**
+         * Creazione di un nuovo scenario.
+         */
+        SCENARIO("Generazione scenario", ScenarioGenerationRequest.class),
+        /**
+         * Esami di laboratorio di uno scenario.
+         */
+        LAB_EXAMS("Generazione esami di laboratorio", LabExamGenerationRequest.class),
+        /**
+         * Referto di un esame strumentale di uno scenario.
+         */
+        REPORT("Generazione referto", ReportGenerationRequest.class),
+        /**
+         * Materiali necessari di uno scenario.
+         */
+        MATERIALS("Generazione materiali", MatGenerationRequest.class);
+
+        /**
+         * Nome mostrato all'utente.
+         */
+        private final String label;
+        /**
+         * Classe della richiesta per il servizio AI.
+         */
+        private final Class<?> requestClass;
+
+        /**
+         * Crea un tipo di generazione.
+         *
+         * @param label        Nome mostrato all'utente.
+         * @param requestClass Classe della richiesta per il servizio AI.
+         */
+        Type(String label, Class<?> requestClass) {
+            this.label = label;
+            this.requestClass = requestClass;
+        }
+
+        /**
+         * Restituisce il nome mostrato all'utente.
+         *
+         * @return Il nome del tipo di generazione.
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * Stato di una generazione.
+     */
+    public enum Status {
+        /**
+         * In attesa che i limiti di concorrenza ne consentano l'avvio.
+         */
+        QUEUED("In coda"),
+        /**
+         * In esecuzione.
+         */
+        RUNNING("In corso"),
+        /**
+         * Completata con successo.
+         */
+        SUCCEEDED("Completata"),
+        /**
+         * Terminata con un errore.
+         */
+        FAILED("Non riuscita"),
+        /**
+         * Annullata dall'utente prima dell'avvio.
+         */
+        CANCELLED("Annullata");
+
+        /**
+         * Nome mostrato all'utente.
+         */
+        private final String label;
+
+        /**
+         * Crea uno stato.
+         *
+         * @param label Nome mostrato all'utente.
+         */
+        Status(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Restituisce il nome mostrato all'utente.
+         *
+         * @return Il nome dello stato.
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * Generazione AI, con il suo stato. I tempi sono salvati in millisecondi dall'epoca (0 se non ancora raggiunti).
+     */
+    public static final class AiJob {
+        /**
+         * Identificativo del browser dell'utente che ha richiesto la generazione.
+         */
+        private final String clientId;
+        /**
+         * Tipo di generazione.
+         */
+        private final Type type;
+        /**
+         * Generazione dello scenario di cui questa fa parte del completamento, o <code>null</code>.
+         */
+        private final Long parentId;
+        /**
+         * Lotto di cui fa parte la generazione, o <code>null</code>.
+         */
+        private final String batchId;
+        /**
+         * Descrizione mostrata all'utente.
+         */
+        private final String description;
+        /**
+         * Istante di inserimento in coda.
+         */
+        private final long createdAt;
+        /**
+         * Indica se la generazione ripete una precedente, ignorando la cache delle risposte.
+         */
+        private final boolean forceRefresh;
+        /**
+         * Indica se lo scenario generato va completato con le generazioni figlie.
+         */
+        private final boolean enrich;
+        /**
+         * ID della generazione, assegnato dal database.
+         */
+        private volatile long id;
+        /**
+         * Scenario a cui si riferisce la generazione; per la creazione di uno scenario è <code>null</code>
+         * finché lo scenario non è stato salvato.
+         */
+        private volatile Integer scenarioId;
+        /**
+         * Stato corrente.
+         */
+        private volatile Status status;
+        /**
+         * Messaggio di esito o di errore, disponibile alla conclusione.
+         */
+        private volatile String message;
+        /**
+         * Numero di avvii (più di uno se la generazione è stata interrotta da un riavvio).
+         */
+        private volatile int attempts;
+        /**
+         * Istante dell'ultimo avvio.
+         */
+        private volatile long startedAt;
+        /**
+         * Istante della conclusione.
+         */
+        private volatile long completedAt;
+
+        /**
+         * Crea una generazione.
+         *
+         * @param id           ID della generazione.
+         * @param clientId     Identificativo del browser dell'utente.
+         * @param type         Tipo di generazione.
+         * @param scenarioId   Scenario a cui si riferisce.
+         * @param parentId     Generazione dello scenario di cui fa parte del completamento.
+         * @param batchId      Lotto di cui fa parte.
+         * @param description  Descrizione mostrata all'utente.
+         * @param status       Stato corrente.
+         * @param message      Messaggio di esito o di errore.
+         * @param attempts     Numero di avvii.
+         * @param createdAt    Istante di inserimento in coda.
+         * @param startedAt    Istante dell'ultimo avvio.
+         * @param completedAt  Istante della conclusione.
+         * @param forceRefresh Indica se la cache delle risposte va ignorata.
+         * @param enrich       Indica se lo scenario generato va completato.
+         */
+        private AiJob(long id, String clientId, Type type, Integer scenarioId, Long parentId, String batchId, String description, Status status,
+                      String message, int attempts, long createdAt, long startedAt, long completedAt, boolean forceRefresh,
+                      boolean enrich) {
+            this.id = id;
+            this.clientId = clientId;
+            this.type = type;
+            this.scenarioId = scenarioId;
+            this.parentId = parentId;
+            this.batchId = batchId;
+            this.description = description;
+            this.status = status;
+            this.message = message;
+            this.attempts = attempts;
+            this.createdAt = createdAt;
+            this.startedAt = startedAt;
+            this.completedAt = completedAt;
+            this.forceRefresh = forceRefresh;
+            this.enrich = enrich;
+        }
+
+        /**
+         * @return L'ID della generazione.
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return L'identificativo del browser dell'utente.
+         */
+        public String getClientId() {
+            return clientId;
+        }
+
+        /**
+         * @return Il tipo di generazione.
+         */
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return L'ID dello scenario, o <code>null</code> per la creazione di uno scenario non ancora salvato.
+         */
+        public Integer getScenarioId() {
+            return scenarioId;
+        }
+
+        /**
+         * @return La descrizione mostrata all'utente.
+         */
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * @return Lo stato corrente.
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return Il messaggio di esito o di errore, o <code>null</code> se la generazione non è conclusa.
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return Il numero di avvii.
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * @return L'istante di inserimento in coda.
+         */
+        public Instant getCreatedAt() {
+            return Instant.ofEpochMilli(createdAt);
+        }
+
+        /**
+         * @return L'istante dell'ultimo avvio, o <code>null</code> se la generazione non è stata avviata.
+         */
+        public Instant getStartedAt() {
+            return startedAt > 0 ? Instant.ofEpochMilli(startedAt) : null;
+        }
+
+        /**
+         * @return L'istante della conclusione, o <code>null</code> se la generazione non è conclusa.
+         */
+        public Instant getCompletedAt() {
+            return completedAt > 0 ? Instant.ofEpochMilli(completedAt) : null;
+        }
+
+        /**
+         * @return <code>true</code> se la generazione ripete una precedente, ignorando la cache delle risposte.
+         */
+        public boolean isRegeneration() {
+            return forceRefresh;
+        }
+
+        /**
+         * @return L'ID della generazione dello scenario di cui questa fa parte del completamento, o <code>null</code>.
+         */
+        public Long getParentId() {
+            return parentId;
+        }
+
+        /**
+         * @return <code>true</code> se lo scenario generato viene completato con le generazioni figlie.
+         */
+        public boolean isEnrichment() {
+            return enrich;
+        }
+
+        /**
+         * @return L'identificativo del lotto di cui fa parte la generazione, o <code>null</code>.
+         */
+        public String getBatchId() {
+            return batchId;
+        }
+    }
+
+    /**
+     * Pagina da cui è partita una generazione.
+     *
+     * @param ui             La UI.
+     * @param notificationId L'ID della notifica attiva.
+     */
+    private record Origin(UI ui, String notificationId) {
+    }
+
+    /**
+     * Sezioni ricevute da una generazione di scenario in streaming e listener delle pagine che le mostrano.
+     * Un listener registrato in ritardo riceve prima le sezioni già arrivate, senza perderne né duplicarne.
+     */
+    private static final class SectionFeed {
+        /**
+         * Sezioni ricevute finora.
+         */
+        private final List<ScenarioSection> received = new ArrayList<>();
+        /**
+         * Listener registrati.
+         */
+        private final List<Consumer<ScenarioSection>> sectionListeners = new ArrayList<>();
+
+        /**
+         * Registra una sezione ricevuta e la inoltra ai listener.
+         *
+         * @param section La sezione.
+         */
+        synchronized void publish(ScenarioSection section) {
+            received.add(section);
+            for (Consumer<ScenarioSection> listener : sectionListeners) {
+                deliver(listener, section);
+            }
+        }
+
+        /**
+         * Registra un listener, passandogli le sezioni già ricevute.
+         *
+         * @param listener Il listener.
+         * @return La registrazione del listener.
+         */
+        synchronized Registration register(Consumer<ScenarioSection> listener) {
+            received.forEach(section -> deliver(listener, section));
+            sectionListeners.add(listener);
+            return () -> {
+                synchronized (this) {
+                    sectionListeners.remove(listener);
+                }
+            };
+        }
+
+        /**
+         * Passa una sezione a un listener; un errore del listener non interrompe la generazione.
+         *
+         * @param listener Il listener.
+         * @param section  La sezione.
+         */
+        private static void deliver(Consumer<ScenarioSection> listener, ScenarioSection section) {
+            try {
+                listener.accept(section);
+            } catch (RuntimeException e) {
+                logger.warn("Errore nel listener delle sezioni dello scenario: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Generazione figlia da mettere in coda per il completamento di uno scenario.
+     *
+     * @param type        Il tipo di generazione.
+     * @param description La descrizione mostrata all'utente.
+     * @param request     La richiesta per il servizio AI.
+     */
+    private record ChildRequest(Type type, String description, Object request) {
+    }
+
+    /**
+     * Generazione trovata in corso all'avvio, con lo stato del salvataggio registrato prima dell'arresto.
+     *
+     * @param job               La generazione.
+     * @param phase             La fase di salvataggio.
+     * @param partialScenarioId L'ID dello scenario creato in parte, o <code>0</code> se assente.
+     */
+    private record InterruptedJob(AiJob job, int phase, int partialScenarioId) {
+    }
+
+    /**
+     * Errore previsto di una generazione, con il titolo da mostrare all'utente.
+     */
+    private static final class JobFailure extends RuntimeException {
+        /**
+         * Titolo della notifica di errore.
+         */
+        private final String title;
+
+        /**
+         * Crea l'errore.
+         *
+         * @param title   Titolo della notifica di errore.
+         * @param message Dettagli mostrati all'utente.
+         */
+        JobFailure(String title, String message) {
+            super(message);
+            this.title = title;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package it.uniupo.simnova.service.ai_api;
+
+import it.uniupo.simnova.domain.paziente.EsameFisico;
+import it.uniupo.simnova.domain.respons_model.LabExamSet;
+import it.uniupo.simnova.domain.respons_model.MatSet;
+import it.uniupo.simnova.domain.scenario.Scenario;
+import it.uniupo.simnova.service.ai_api.model.LabExamGenerationRequest;
+import it.uniupo.simnova.service.ai_api.model.MatGenerationRequest;
+import it.uniupo.simnova.service.scenario.ScenarioService;
+import it.uniupo.simnova.service.scenario.components.EsameFisicoService;
+import it.uniupo.simnova.service.scenario.components.MaterialeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Servizio che anticipa la generazione degli esami di laboratorio e dei materiali necessari di uno scenario.
+ * <p>
+ * Quando la modalità è attiva e uno scenario è abbastanza completo (descrizione, patologia, tipologia del paziente
+ * ed esame obiettivo salvati), le due generazioni vengono avviate in background con priorità bassa: ne viene
+ * eseguito al massimo un numero limitato alla volta e nessuna se il servizio AI non è disponibile. I risultati
+ * restano in memoria, senza essere salvati nello scenario.
+ * </p>
+ * <p>
+ * Le generazioni anticipate chiamano direttamente il servizio AI senza passare dalla coda di {@link AiJobService}:
+ * non rientrano quindi nel limite {@code ai.jobs.max-concurrent}, ma si aggiungono alle generazioni in corso fino
+ * al limite proprio {@code ai.prefetch.max-concurrent}.
+ * </p>
+ * <p>
+ * Quando l'utente richiede poi la generazione, {@link AiJobService} ottiene il risultato da questo servizio:
+ * se è stato anticipato con la stessa richiesta viene applicato subito (o appena arriva, se è ancora in corso),
+ * altrimenti la richiesta viene inviata al servizio AI come di consueto. Un risultato anticipato vale una sola
+ * volta e viene scartato se la richiesta è cambiata (perché lo scenario è stato modificato) o se è scaduto.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+@Service
+public class AiPrefetchService {
+    /**
+     * Logger per le generazioni anticipate.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AiPrefetchService.class);
+
+    /**
+     * Servizio per le chiamate al servizio AI.
+     */
+    private final ExternalApiService externalApiService;
+    /**
+     * Servizio che costruisce le richieste con il contesto compatto dello scenario.
+     */
+    private final ScenarioContextBuilder scenarioContextBuilder;
+    /**
+     * Servizio per gli scenari.
+     */
+    private final ScenarioService scenarioService;
+    /**
+     * Servizio per l'esame obiettivo.
+     */
+    private final EsameFisicoService esameFisicoService;
+    /**
+     * Servizio per gli esami di laboratorio già salvati.
+     */
+    private final LabExamService labExamService;
+    /**
+     * Servizio per i materiali necessari già associati.
+     */
+    private final MaterialeService materialeService;
+    /**
+     * Interruttore di circuito del servizio AI.
+     */
+    private final AiCircuitBreaker circuitBreaker;
+    /**
+     * Executor condiviso dell'applicazione, su cui vengono preparate le generazioni anticipate.
+     */
+    private final ExecutorService executorService;
+    /**
+     * Indica se la modalità è attiva.
+     */
+    private final boolean enabled;
+    /**
+     * Numero massimo di generazioni anticipate in corso contemporaneamente.
+     */
+    private final int maxConcurrent;
+    /**
+     * Tempo dopo il quale un risultato anticipato non viene più applicato.
+     */
+    private final Duration ttl;
+    /**
+     * Risultati anticipati, per scenario e tipo di generazione.
+     */
+    private final Map<Key, Staged> staged = new ConcurrentHashMap<>();
+    /**
+     * Generazioni anticipate in corso.
+     */
+    private final AtomicInteger running = new AtomicInteger();
+    /**
+     * Risultati anticipati applicati.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    /**
+     * Risultati anticipati scartati perché non più validi.
+     */
+    private final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * Costruttore del servizio.
+     *
+     * @param externalApiService     Il servizio per le chiamate al servizio AI.
+     * @param scenarioContextBuilder Il servizio che costruisce le richieste con il contesto compatto dello scenario.
+     * @param scenarioService        Il servizio per gli scenari.
+     * @param esameFisicoService     Il servizio per l'esame obiettivo.
+     * @param labExamService         Il servizio per gli esami di laboratorio.
+     * @param materialeService       Il servizio per i materiali necessari.
+     * @param circuitBreaker         L'interruttore di circuito del servizio AI.
+     * @param executorService        L'executor condiviso dell'applicazione.
+     * @param enabled                Se anticipare le generazioni.
+     * @param maxConcurrent          Il numero massimo di generazioni anticipate contemporanee.
+     * @param ttlMinutes             I minuti dopo i quali un risultato anticipato non viene più applicato.
+     */
+    public AiPrefetchService(ExternalApiService externalApiService,
+                             ScenarioContextBuilder scenarioContextBuilder,
+                             ScenarioService scenarioService,
+                             EsameFisicoService esameFisicoService,
+                             LabExamService labExamService,
+                             MaterialeService materialeService,
+                             AiCircuitBreaker circuitBreaker,
+                             ExecutorService executorService,
+                             @Value("${ai.prefetch.enabled:false}") boolean enabled,
+                             @Value("${ai.prefetch.max-concurrent:1}") int maxConcurrent,
+                             @Value("${ai.prefetch.ttl-minutes:30}") long ttlMinutes) {
+        this.externalApiService = externalApiService;
+        this.scenarioContextBuilder = scenarioContextBuilder;
+        this.scenarioService = scenarioService;
+        this.esameFisicoService = esameFisicoService;
+        this.labExamService = labExamService;
+        this.materialeService = materialeService;
+        this.circuitBreaker = circuitBreaker;
+        this.executorService = executorService;
+        this.enabled = enabled;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.ttl = Duration.ofMinutes(Math.max(1, ttlMinutes));
+    }
+
+    /**
+     * Anticipa le generazioni di uno scenario, caricandolo dal database.
+     *
+     * @param scenarioId L'ID dello scenario.
+     * @see #prefetch(Scenario)
+     */
+    public void prefetch(int scenarioId) {
+        if (enabled) {
+            submit(scenarioId, () -> {
+                Scenario scenario = scenarioService.getScenarioById(scenarioId);
+                if (scenario != null) {
+                    stage(scenario);
+                }
+            });
+        }
+    }
+
+    /**
+     * Anticipa la generazione degli esami di laboratorio e dei materiali di uno scenario, se la modalità è attiva,
+     * lo scenario è abbastanza completo e non li ha già. Le verifiche avvengono sull'executor, così da non
+     * rallentare la pagina che apre lo scenario.
+     *
+     * @param scenario Lo scenario.
+     */
+    public void prefetch(Scenario scenario) {
+        if (enabled) {
+            submit(scenario.getId(), () -> stage(scenario));
+        }
+    }
+
+    /**
+     * Esegue sull'executor la preparazione delle generazioni anticipate di uno scenario.
+     *
+     * @param scenarioId L'ID dello scenario.
+     * @param task       La preparazione.
+     */
+    private void submit(int scenarioId, Runnable task) {
+        try {
+            executorService.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Errore durante la preparazione delle generazioni anticipate dello scenario {}.", scenarioId, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Generazioni anticipate dello scenario {} non avviate: executor non disponibile.", scenarioId);
+        }
+    }
+
+    /**
+     * Avvia le generazioni anticipate di uno scenario abbastanza completo. Un risultato anticipato con una
+     * richiesta diversa da quella attuale viene scartato e sostituito.
+     *
+     * @param scenario Lo scenario.
+     */
+    private void stage(Scenario scenario) {
+        evictExpired();
+        if (!isComplete(scenario)) {
+            logger.debug("Scenario {} non ancora abbastanza completo per anticipare le generazioni.", scenario.getId());
+            return;
+        }
+        int scenarioId = scenario.getId();
+        if (labExamService.getLabExamsByScenarioId(scenarioId) == null) {
+            LabExamGenerationRequest request = scenarioContextBuilder.labExamRequest(scenario);
+            start(new Key(scenarioId, AiJobService.Type.LAB_EXAMS), request,
+                    () -> externalApiService.generateLabExamsFromScenario(request));
+        }
+        if (materialeService.getMaterialiByScenarioId(scenarioId).isEmpty()) {
+            MatGenerationRequest request = scenarioContextBuilder.materialRequest(scenario);
+            start(new Key(scenarioId, AiJobService.Type.MATERIALS), request,
+                    () -> externalApiService.generateMaterial(request));
+        }
+    }
+
+    /**
+     * Genera gli esami di laboratorio di uno scenario, applicando il risultato anticipato se è ancora valido.
+     *
+     * @param scenarioId   L'ID dello scenario.
+     * @param request      La richiesta di generazione.
+     * @param forceRefresh Se <code>true</code> il risultato anticipato e la cache vengono ignorati.
+     * @return Il risultato della generazione, come per {@link ExternalApiService#generateLabExamsFromScenario(LabExamGenerationRequest, boolean)}.
+     */
+    public CompletableFuture<Optional<LabExamSet>> generateLabExams(Integer scenarioId, LabExamGenerationRequest request,
+                                                                    boolean forceRefresh) {
+        return take(scenarioId, AiJobService.Type.LAB_EXAMS, request, forceRefresh,
+                () -> externalApiService.generateLabExamsFromScenario(request, forceRefresh));
+    }
+
+    /**
+     * Genera i materiali necessari di uno scenario, applicando il risultato anticipato se è ancora valido.
+     *
+     * @param scenarioId   L'ID dello scenario.
+     * @param request      La richiesta di generazione.
+     * @param forceRefresh Se <code>true</code> il risultato anticipato e la cache vengono ignorati.
+     * @return Il risultato della generazione, come per {@link ExternalApiService#generateMaterial(MatGenerationRequest, boolean)}.
+     */
+    public CompletableFuture<Optional<List<MatSet>>> generateMaterial(Integer scenarioId, MatGenerationRequest request,
+                                                                      boolean forceRefresh) {
+        return take(scenarioId, AiJobService.Type.MATERIALS, request, forceRefresh,
+                () -> externalApiService.generateMaterial(request, forceRefresh));
+    }
+
+    /**
+     * Verifica se uno scenario ha i dati necessari per una generazione utile: descrizione, patologia,
+     * tipologia del paziente e almeno una sezione dell'esame obiettivo.
+     *
+     * @param scenario Lo scenario.
+     * @return <code>true</code> se lo scenario è abbastanza completo.
+     */
+    private boolean isComplete(Scenario scenario) {
+        if (ScenarioContextBuilder.clean(scenario.getDescrizione()).isEmpty()
+                || ScenarioContextBuilder.clean(scenario.getPatologia()).isEmpty()
+                || ScenarioContextBuilder.clean(scenario.getTipologia()).isEmpty()) {
+            return false;
+        }
+        EsameFisico esameFisico = esameFisicoService.getEsameFisicoById(scenario.getId());
+        return esameFisico != null && esameFisico.getSections().values().stream()
+                .anyMatch(section -> !ScenarioContextBuilder.clean(section).isEmpty());
+    }
+
+    /**
+     * Avvia una generazione anticipata, se non ne è già presente una con la stessa richiesta e se c'è capacità.
+     * È sincronizzato perché la stessa pagina può essere aperta più volte insieme: la chiamata restituisce subito
+     * un {@link CompletableFuture}, per cui il blocco è breve.
+     *
+     * @param key     Lo scenario e il tipo di generazione.
+     * @param request La richiesta di generazione.
+     * @param call    La chiamata al servizio AI.
+     */
+    private synchronized void start(Key key, Object request, Supplier<CompletableFuture<?>> call) {
+        Staged current = staged.get(key);
+        if (current != null && current.request().equals(request) && !current.isFailed()) {
+            return;
+        }
+        if (current != null && staged.remove(key, current)) {
+            discarded.incrementAndGet();
+            logger.info("Scartato il risultato anticipato ({}) dello scenario {}: la richiesta è cambiata.", key.type(), key.scenarioId());
+        }
+        if (!circuitBreaker.isAvailable()) {
+            return;
+        }
+        if (running.incrementAndGet() > maxConcurrent) {
+            running.decrementAndGet();
+            logger.debug("Generazione anticipata ({}) dello scenario {} rinviata: capacità esaurita.", key.type(), key.scenarioId());
+            return;
+        }
+        CompletableFuture<?> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            running.decrementAndGet();
+            logger.warn("Impossibile anticipare la generazione ({}) dello scenario {}.", key.type(), key.scenarioId(), e);
+            return;
+        }
+        staged.put(key, new Staged(request, result, System.nanoTime()));
+        logger.info("Avviata la generazione anticipata ({}) dello scenario {}.", key.type(), key.scenarioId());
+        result.whenComplete((value, error) -> {
+            running.decrementAndGet();
+            if (error != null) {
+                logger.warn("Generazione anticipata ({}) dello scenario {} non riuscita: {}", key.type(), key.scenarioId(), error.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Preleva il risultato anticipato di una generazione, se corrisponde alla richiesta e non è scaduto né fallito,
+     * altrimenti invia la richiesta al servizio AI. Se la generazione anticipata ancora in corso fallisce, la
+     * richiesta viene inviata di nuovo, così il job non risente dell'errore.
+     *
+     * @param scenarioId   L'ID dello scenario.
+     * @param type         Il tipo di generazione.
+     * @param request      La richiesta attuale.
+     * @param forceRefresh Se <code>true</code> il risultato anticipato viene scartato.
+     * @param call         La chiamata al servizio AI, usata se non c'è un risultato anticipato valido.
+     * @param <T>          Il tipo del risultato.
+     * @return Il risultato anticipato (eventualmente ancora in corso) o quello della chiamata.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> take(Integer scenarioId, AiJobService.Type type, Object request, boolean forceRefresh,
+                                          Supplier<CompletableFuture<T>> call) {
+        if (scenarioId == null) {
+            return call.get();
+        }
+        Staged entry = staged.remove(new Key(scenarioId, type));
+        if (entry == null) {
+            return call.get();
+        }
+        if (forceRefresh || entry.isFailed() || entry.isExpired(ttl) || !entry.request().equals(request)) {
+            discarded.incrementAndGet();
+            logger.info("Risultato anticipato ({}) dello scenario {} non applicato: {}.", type, scenarioId,
+                    forceRefresh ? "nuova generazione richiesta" : entry.isFailed() ? "generazione non riuscita"
+                            : entry.isExpired(ttl) ? "scaduto" : "lo scenario è cambiato");
+            return call.get();
+        }
+        long applied = hits.incrementAndGet();
+        logger.info("Applicato il risultato anticipato ({}) dello scenario {}{}; dall'avvio {} applicati e {} scartati.",
+                type, scenarioId, entry.result().isDone() ? "" : " (ancora in corso)", applied, discarded.get());
+        return ((CompletableFuture<T>) entry.result()).exceptionallyCompose(error -> {
+            logger.info("Generazione anticipata ({}) dello scenario {} non riuscita: richiesta inviata di nuovo.", type, scenarioId);
+            return call.get();
+        });
+    }
+
+    /**
+     * Scarta i risultati anticipati scaduti.
+     */
+    private void evictExpired() {
+        staged.entrySet().removeIf(entry -> {
+            if (entry.getValue().isExpired(ttl)) {
+                discarded.incrementAndGet();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Scenario e tipo di una generazione anticipata.
+     *
+     * @param scenarioId L'ID dello scenario.
+     * @param type       Il tipo di generazione.
+     */
+    private record Key(int scenarioId, AiJobService.Type type) {
+    }
+
+    /**
+     * Generazione anticipata.
+     *
+     * @param request   La richiesta inviata.
+     * @param result    Il risultato, eventualmente ancora in corso.
+     * @param startedAt L'istante (in nanosecondi) di avvio.
+     */
+    private record Staged(Object request, CompletableFuture<?> result, long startedAt) {
+        /**
+         * Indica se la generazione è fallita.
+         *
+         * @return <code>true</code> se il risultato è un errore.
+         */
+        boolean isFailed() {
+            return result.isCompletedExceptionally();
+        }
+
+        /**
+         * Indica se il risultato è scaduto.
+         *
+         * @param ttl Il tempo di validità.
+         * @return <code>true</code> se il risultato non va più applicato.
+         */
+        boolean isExpired(Duration ttl) {
+            return System.nanoTime() - startedAt > ttl.toNanos();
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package it.uniupo.simnova.service.ai_api;
+
+import org.jsoup.Jsoup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.lang.reflect.RecordComponent;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Cache su disco delle risposte del servizio AI.
+ * <p>
+ * La chiave di una risposta è l'impronta (SHA-256) dell'endpoint e della richiesta <strong>normalizzata</strong>:
+ * i testi vengono ridotti a testo semplice (senza HTML), con spazi compattati e in minuscolo, per cui la stessa
+ * descrizione salvata con una formattazione diversa produce la stessa chiave. Ogni risposta è un file JSON
+ * nella directory <code>ai.cache.dir</code>, il cui nome contiene la chiave e l'istante di creazione:
+ * le risposte più vecchie di <code>ai.cache.ttl-hours</code> ore non vengono più utilizzate. Il numero e la
+ * dimensione complessiva delle risposte sono limitati da <code>ai.cache.max-entries</code> e
+ * <code>ai.cache.max-size-mb</code>: superati i limiti vengono eliminate quelle usate meno di recente (LRU),
+ * come nella cache dei PDF. La cache è disattivata per impostazione predefinita (<code>ai.cache.enabled</code>).
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+@Service
+public class AiResponseCache {
+
+    /**
+     * Logger per registrare le operazioni del servizio.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AiResponseCache.class);
+    /**
+     * Versione del formato della chiave. Va incrementata quando cambia la normalizzazione delle richieste,
+     * così le risposte memorizzate con la versione precedente non vengono più utilizzate.
+     */
+    private static final int KEY_VERSION = 1;
+    /**
+     * Estensione dei file della cache.
+     */
+    private static final String EXTENSION = ".json";
+    /**
+     * Sequenze di spazi da compattare nella normalizzazione.
+     */
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * Indica se la cache è attiva.
+     */
+    private final boolean enabled;
+    /**
+     * Directory delle risposte memorizzate.
+     */
+    private final Path cacheDir;
+    /**
+     * Durata di validità di una risposta.
+     */
+    private final Duration ttl;
+    /**
+     * Dimensione massima complessiva della cache, in byte.
+     */
+    private final long maxSizeBytes;
+    /**
+     * Numero massimo di risposte memorizzate.
+     */
+    private final int maxEntries;
+    /**
+     * Risposte memorizzate, indicizzate per chiave e ordinate dalla meno recente.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    /**
+     * Richieste servite dalla cache.
+     */
+    private final LongAdder hits = new LongAdder();
+    /**
+     * Richieste non presenti nella cache (o scadute), inviate al servizio AI.
+     */
+    private final LongAdder misses = new LongAdder();
+    /**
+     * Richieste inviate al servizio AI ignorando la cache, su richiesta dell'utente.
+     */
+    private final LongAdder bypasses = new LongAdder();
+    /**
+     * Ultimo istante di creazione assegnato a una risposta: è strettamente crescente, così due risposte memorizzate
+     * nello stesso millisecondo non condividono il nome del file.
+     */
+    private final AtomicLong lastCreatedAt = new AtomicLong();
+    /**
+     * Dimensione complessiva delle risposte memorizzate, in byte.
+     */
+    private long totalSize;
+
+    /**
+     * Costruisce il servizio e indicizza le risposte già presenti nella directory della cache.
+     *
+     * @param enabled    Indica se la cache è attiva.
+     * @param cacheDir   La directory delle risposte memorizzate.
+     * @param ttlHours   Le ore di validità di una risposta.
+     * @param maxSizeMb  La dimensione massima della cache, in megabyte.
+     * @param maxEntries Il numero massimo di risposte memorizzate.
+     */
+    public AiResponseCache(@Value("${ai.cache.enabled:false}") boolean enabled,
+                           @Value("${ai.cache.dir:./ai-cache}") String cacheDir,
+                           @Value("${ai.cache.ttl-hours:72}") long ttlHours,
+                           @Value("${ai.cache.max-size-mb:64}") long maxSizeMb,
+                           @Value("${ai.cache.max-entries:1000}") int maxEntries) {
+        this.cacheDir = Path.of(cacheDir).toAbsolutePath().normalize();
+        this.ttl = Duration.ofHours(Math.max(1, ttlHours));
+        this.maxSizeBytes = Math.max(1, maxSizeMb) * 1024 * 1024;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.enabled = enabled && loadIndex();
+    }
+
+    /**
+     * Indica se la cache è attiva.
+     *
+     * @return <code>true</code> se le risposte vengono memorizzate e riutilizzate.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Calcola la chiave di una richiesta.
+     *
+     * @param endpoint Il percorso dell'endpoint del servizio AI.
+     * @param request  La richiesta (un record di {@link it.uniupo.simnova.service.ai_api.model}).
+     * @return La chiave, in esadecimale.
+     */
+    public String keyOf(String endpoint, Object request) {
+        MessageDigest digest = sha256();
+        update(digest, "v" + KEY_VERSION + "\u001F" + endpoint + "\u001F" + request.getClass().getSimpleName());
+        if (request instanceof Record) {
+            for (RecordComponent component : request.getClass().getRecordComponents()) {
+                Object value;
+                try {
+                    value = component.getAccessor().invoke(request);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Impossibile leggere il campo " + component.getName() + " della richiesta", e);
+                }
+                update(digest, "\u001E" + component.getName() + "=" + normalize(value == null ? null : value.toString()));
+            }
+        } else {
+            update(digest, "\u001E" + normalize(request.toString()));
+        }
+        return HexFormat.of().formatHex(digest.digest(), 0, 16);
+    }
+
+    /**
+     * Restituisce la risposta memorizzata per una chiave, se presente e non scaduta, e aggiorna le statistiche.
+     *
+     * @param key La chiave della richiesta.
+     * @return Il corpo JSON della risposta, o vuoto se non è presente.
+     */
+    public Optional<String> get(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired(ttl)) {
+                remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+
+        Path path = cacheDir.resolve(entry.fileName());
+        try {
+            String body = Files.readString(path, StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+            hits.increment();
+            logger.info("Risposta AI {} servita dalla cache (risposte riutilizzate: {}%)", key, Math.round(getStats().hitRate() * 100));
+            return Optional.of(body);
+        } catch (IOException e) {
+            logger.warn("Risposta AI in cache {} non leggibile, verrà richiesta di nuovo: {}", key, e.getMessage());
+            synchronized (this) {
+                // Una put concorrente può aver già sostituito la risposta letta: quella nuova resta in cache.
+                if (entries.get(key) == entry) {
+                    remove(key);
+                }
+            }
+            misses.increment();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Memorizza una risposta, eliminando quelle meno recenti se vengono superati i limiti della cache.
+     *
+     * @param key  La chiave della richiesta.
+     * @param body Il corpo JSON della risposta.
+     */
+    public void put(String key, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxSizeBytes) {
+            return;
+        }
+        long createdAt = lastCreatedAt.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+        String fileName = key + "-" + createdAt + EXTENSION;
+        try {
+            Path temp = Files.createTempFile(cacheDir, "ai-", ".tmp");
+            Files.write(temp, bytes);
+            // Spostamento atomico: un lettore non vede mai una risposta parziale.
+            Files.move(temp, cacheDir.resolve(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Impossibile memorizzare la risposta AI {} nella cache: {}", key, e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            remove(key);
+            entries.put(key, new Entry(fileName, bytes.length, createdAt));
+            totalSize += bytes.length;
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while ((totalSize > maxSizeBytes || entries.size() > maxEntries) && iterator.hasNext()) {
+                Map.Entry<String, Entry> eldest = iterator.next();
+                if (eldest.getKey().equals(key)) {
+                    continue;
+                }
+                deleteFile(eldest.getValue().fileName());
+                totalSize -= eldest.getValue().size();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Elimina una risposta dalla cache, ad esempio perché non è più interpretabile.
+     *
+     * @param key La chiave della richiesta.
+     */
+    public synchronized void evict(String key) {
+        remove(key);
+    }
+
+    /**
+     * Registra una richiesta inviata al servizio AI ignorando la cache.
+     */
+    public void recordBypass() {
+        bypasses.increment();
+    }
+
+    /**
+     * Restituisce le statistiche di utilizzo della cache dall'avvio dell'applicazione.
+     *
+     * @return Le statistiche.
+     */
+    public Stats getStats() {
+        synchronized (this) {
+            return new Stats(hits.sum(), misses.sum(), bypasses.sum(), entries.size(), totalSize);
+        }
+    }
+
+    /**
+     * Elimina dall'indice e dal disco la risposta di una chiave. Va invocato tenendo il lock dell'istanza.
+     *
+     * @param key La chiave della richiesta.
+     */
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            deleteFile(entry.fileName());
+            totalSize -= entry.size();
+        }
+    }
+
+    /**
+     * Crea la directory della cache e indicizza le risposte presenti e non scadute, dalla meno recente alla più recente.
+     *
+     * @return <code>true</code> se la cache è utilizzabile.
+     */
+    private boolean loadIndex() {
+        try {
+            Files.createDirectories(cacheDir);
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir)) {
+                for (Path path : stream) {
+                    if (path.getFileName().toString().endsWith(".tmp")) {
+                        Files.deleteIfExists(path); // Scrittura interrotta da un arresto precedente
+                    } else if (Files.isRegularFile(path) && path.getFileName().toString().endsWith(EXTENSION)) {
+                        files.add(path);
+                    }
+                }
+            }
+            files.sort((a, b) -> {
+                try {
+                    return Files.getLastModifiedTime(a).compareTo(Files.getLastModifiedTime(b));
+                } catch (IOException e) {
+                    return 0;
+                }
+            });
+            int expired = 0;
+            synchronized (this) {
+                for (Path path : files) {
+                    String name = path.getFileName().toString();
+                    int separator = name.lastIndexOf('-');
+                    long createdAt;
+                    try {
+                        createdAt = Long.parseLong(name.substring(separator + 1, name.length() - EXTENSION.length()));
+                    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                        continue;
+                    }
+                    Entry entry = new Entry(name, Files.size(path), createdAt);
+                    if (entry.isExpired(ttl)) {
+                        Files.deleteIfExists(path);
+                        expired++;
+                        continue;
+                    }
+                    // Una chiave già indicizzata è una versione precedente della stessa risposta.
+                    remove(name.substring(0, separator));
+                    entries.put(name.substring(0, separator), entry);
+                    totalSize += entry.size();
+                }
+            }
+            logger.info("Cache delle risposte AI in {}: {} risposte, {} KB ({} scadute eliminate)",
+                    cacheDir, entries.size(), totalSize / 1024, expired);
+            return true;
+        } catch (IOException e) {
+            logger.error("Impossibile inizializzare la cache delle risposte AI in {}: cache disattivata.", cacheDir, e);
+            return false;
+        }
+    }
+
+    /**
+     * Elimina un file della cache senza propagare gli errori.
+     *
+     * @param fileName Il nome del file.
+     */
+    private void deleteFile(String fileName) {
+        try {
+            Files.deleteIfExists(cacheDir.resolve(fileName));
+        } catch (IOException e) {
+            logger.warn("Impossibile eliminare la risposta AI {} dalla cache: {}", fileName, e.getMessage());
+        }
+    }
+
+    /**
+     * Normalizza un testo della richiesta: rimuove l'HTML, compatta gli spazi e converte in minuscolo.
+     *
+     * @param value Il testo (può essere <code>null</code>).
+     * @return Il testo normalizzato.
+     */
+    static String normalize(String value) {
+        if (value == null) {
+            return "\u0000";
+        }
+        String text = value.indexOf('<') >= 0 || value.indexOf('&') >= 0 ? Jsoup.parseBodyFragment(value).text() : value;
+        return WHITESPACE.matcher(text).replaceAll(" ").trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Aggiunge una stringa all'impronta.
+     *
+     * @param digest L'impronta in costruzione.
+     * @param value  La stringa.
+     */
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Crea un nuovo calcolatore SHA-256.
+     *
+     * @return Il calcolatore.
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+
+    /**
+     * Statistiche di utilizzo della cache.
+     *
+     * @param hits      Le richieste servite dalla cache.
+     * @param misses    Le richieste non presenti nella cache, inviate al servizio AI.
+     * @param bypasses  Le richieste inviate al servizio AI ignorando la cache.
+     * @param entries   Le risposte memorizzate.
+     * @param sizeBytes La dimensione complessiva delle risposte memorizzate, in byte.
+     */
+    public record Stats(long hits, long misses, long bypasses, int entries, long sizeBytes) {
+        /**
+         * Restituisce la frazione delle richieste servite dalla cache, escluse quelle che l'hanno ignorata.
+         *
+         * @return La frazione tra 0 e 1 (0 se non ci sono state richieste).
+         */
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+
+    /**
+     * Risposta memorizzata.
+     *
+     * @param fileName  Il nome del file.
+     * @param size      La dimensione, in byte.
+     * @param createdAt L'istante di creazione, in millisecondi dall'epoca.
+     */
+    private record Entry(String fileName, long size, long createdAt) {
+        /**
+         * Verifica se la risposta è scaduta.
+         *
+         * @param ttl La durata di validità.
+         * @return <code>true</code> se la risposta è più vecchia della durata di validità.
+         */
+        boolean isExpired(Duration ttl) {
+            return System.currentTimeMillis() - createdAt > ttl.toMillis();
+        }
+    }
+}
@@ -1,4 +1,4 @@
-package it.uniupo.simnova.views.ui.helper.support;
+package it.uniupo.simnova.service.ai_api;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
@@ -6,6 +6,9 @@ import com.google.gson.JsonSyntaxException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
 /**
  * Classe di utilità per l'estrazione del motivo dell'errore da una risposta JSON.
  *
@@ -52,4 +55,19 @@ public class ErrorExtractor {
             return "I dettagli specifici dell'errore non sono leggibili.";
         }
     }
+
+    /**
+     * Restituisce l'errore originale di un'operazione asincrona, che un {@link java.util.concurrent.CompletableFuture}
+     * racchiude in una {@link CompletionException} (o {@link ExecutionException}).
+     *
+     * @param error l'errore ricevuto dall'operazione asincrona
+     * @return la causa originale dell'errore
+     */
+    public static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
 }
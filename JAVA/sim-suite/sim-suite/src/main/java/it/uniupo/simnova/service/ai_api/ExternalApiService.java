@@ -1,5 +1,8 @@
 package it.uniupo.simnova.service.ai_api;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import it.uniupo.simnova.domain.respons_model.LabExamSet;
 import it.uniupo.simnova.domain.respons_model.MatSet;
 import it.uniupo.simnova.domain.respons_model.ReportSet;
@@ -7,19 +10,63 @@ import it.uniupo.simnova.service.ai_api.model.LabExamGenerationRequest;
 import it.uniupo.simnova.service.ai_api.model.MatGenerationRequest;
 import it.uniupo.simnova.service.ai_api.model.ReportGenerationRequest;
 import it.uniupo.simnova.service.ai_api.model.ScenarioGenerationRequest;
+import it.uniupo.simnova.service.ai_api.model.ScenarioSection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.*;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClientException;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Servizio per interagire con le API esterne per la generazione di esami, scenari, referti e materiali.
+ * <p>
+ * Le chiamate usano il {@link WebClient} non bloccante configurato in
+ * {@link it.uniupo.simnova.service.ai_api.config.AiClientConfig}: ogni metodo restituisce subito un
+ * {@link CompletableFuture}, per cui l'attesa della generazione non occupa un thread. Ogni endpoint ha un
+ * proprio tempo massimo di risposta; gli errori 5xx e le connessioni interrotte vengono ritentati un numero
+ * limitato di volte, con attesa esponenziale e jitter. Gli errori vengono restituiti come
+ * {@link RestClientException} ({@link HttpClientErrorException} per le richieste rifiutate dal servizio),
+ * come in precedenza con <code>RestTemplate</code>.
+ * </p>
+ * <p>
+ * Le chiamate passano per l'{@link AiCircuitBreaker}: se il servizio risulta non disponibile vengono rifiutate
+ * subito con una {@link ResourceAccessException}, senza attendere il fallimento della connessione.
+ * </p>
+ * <p>
+ * Se è attiva, le risposte passano per la {@link AiResponseCache}: una richiesta identica (a meno della
+ * formattazione dei testi) a una già eseguita viene servita dal disco senza chiamare il servizio. Ogni metodo
+ * ha una variante con <code>forceRefresh</code> per ignorare la cache e ottenere una nuova generazione.
+ * </p>
+ * <p>
+ * Gli scenari possono essere ricevuti anche in streaming ({@link #streamScenario(ScenarioGenerationRequest, boolean)}):
+ * le sezioni del documento vengono restituite non appena sono complete, così da mostrarle e salvarle prima
+ * della fine della generazione.
+ * </p>
  *
  * @author Alessandro Zappatore
  * @version 1.0
@@ -31,140 +78,589 @@ public class ExternalApiService {
      */
     private static final Logger logger = LoggerFactory.getLogger(ExternalApiService.class);
     /**
-     * RestTemplate per effettuare le chiamate HTTP alle API esterne.
+     * Percorso dell'endpoint di generazione degli esami di laboratorio.
      */
-    private final RestTemplate restTemplate;
+    static final String LAB_EXAMS_PATH = "/exams/generate-lab-exams";
     /**
-     * Porta su cui l'API esterna è in ascolto.
+     * Percorso dell'endpoint di generazione degli scenari.
      */
-    private final String PORT = "8001";
+    static final String SCENARIO_PATH = "/scenarios/generate-scenario";
+    /**
+     * Percorso dell'endpoint di generazione dei referti.
+     */
+    static final String REPORT_PATH = "/reports/generate-medical-report";
+    /**
+     * Percorso dell'endpoint di generazione dei materiali.
+     */
+    static final String MATERIALS_PATH = "/materials/generate-materials";
+    /**
+     * Attesa massima tra due tentativi.
+     */
+    private static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+    /**
+     * Tipo degli eventi Server-Sent Events con dati testuali.
+     */
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE = new ParameterizedTypeReference<>() {
+    };
+    /**
+     * Dato con cui alcuni servizi segnalano la fine di uno stream di eventi, da ignorare.
+     */
+    private static final String SSE_DONE = "[DONE]";
+
+    /**
+     * Client HTTP non bloccante per il servizio AI.
+     */
+    private final WebClient webClient;
+    /**
+     * Tempo massimo di risposta della generazione di uno scenario.
+     */
+    private final Duration scenarioTimeout;
+    /**
+     * Tempo massimo di risposta della generazione degli esami di laboratorio.
+     */
+    private final Duration labExamsTimeout;
+    /**
+     * Tempo massimo di risposta della generazione di un referto.
+     */
+    private final Duration reportTimeout;
+    /**
+     * Tempo massimo di risposta della generazione dei materiali.
+     */
+    private final Duration materialsTimeout;
+    /**
+     * Numero massimo di nuovi tentativi dopo un errore ritentabile.
+     */
+    private final int maxRetries;
+    /**
+     * Attesa prima del primo nuovo tentativo, raddoppiata a ogni tentativo successivo.
+     */
+    private final Duration retryBackoff;
+    /**
+     * Frazione casuale (da 0 a 1) applicata all'attesa, per non ripetere in contemporanea le richieste fallite insieme.
+     */
+    private final double retryJitter;
+    /**
+     * Indica se gli scenari vanno generati con l'endpoint in streaming.
+     */
+    private final boolean scenarioStreaming;
+    /**
+     * Percorso dell'endpoint di generazione degli scenari in streaming.
+     */
+    private final String scenarioStreamPath;
+    /**
+     * Cache delle risposte del servizio AI.
+     */
+    private final AiResponseCache responseCache;
+    /**
+     * Mapper JSON per interpretare le risposte.
+     */
+    private final ObjectMapper objectMapper;
+    /**
+     * Interruttore di circuito del servizio AI.
+     */
+    private final AiCircuitBreaker circuitBreaker;
 
     /**
      * Costruttore del servizio ExternalApiService.
      *
-     * @param restTemplate RestTemplate per effettuare le chiamate HTTP.
+     * @param webClient               Il client HTTP per il servizio AI.
+     * @param scenarioTimeoutSeconds  Il tempo massimo (in secondi) di generazione di uno scenario.
+     * @param labExamsTimeoutSeconds  Il tempo massimo (in secondi) di generazione degli esami di laboratorio.
+     * @param reportTimeoutSeconds    Il tempo massimo (in secondi) di generazione di un referto.
+     * @param materialsTimeoutSeconds Il tempo massimo (in secondi) di generazione dei materiali.
+     * @param maxRetries              Il numero massimo di nuovi tentativi.
+     * @param retryBackoffMillis      L'attesa (in millisecondi) prima del primo nuovo tentativo.
+     * @param retryJitter             La frazione casuale dell'attesa tra i tentativi.
+     * @param scenarioStreaming       Se generare gli scenari con l'endpoint in streaming.
+     * @param scenarioStreamPath      Il percorso dell'endpoint di generazione degli scenari in streaming.
+     * @param responseCache           La cache delle risposte del servizio AI.
+     * @param objectMapper            Il mapper JSON per interpretare le risposte.
+     * @param circuitBreaker          L'interruttore di circuito del servizio AI.
      */
-    public ExternalApiService(RestTemplate restTemplate) {
-        this.restTemplate = restTemplate;
+    public ExternalApiService(@Qualifier("aiWebClient") WebClient webClient,
+                              @Value("${ai.api.scenario.timeout-seconds:180}") int scenarioTimeoutSeconds,
+                              @Value("${ai.api.lab-exams.timeout-seconds:120}") int labExamsTimeoutSeconds,
+                              @Value("${ai.api.report.timeout-seconds:90}") int reportTimeoutSeconds,
+                              @Value("${ai.api.materials.timeout-seconds:90}") int materialsTimeoutSeconds,
+                              @Value("${ai.api.retry.max-attempts:2}") int maxRetries,
+                              @Value("${ai.api.retry.backoff-millis:1000}") long retryBackoffMillis,
+                              @Value("${ai.api.retry.jitter:0.5}") double retryJitter,
+                              @Value("${ai.api.scenario.streaming:false}") boolean scenarioStreaming,
+                              @Value("${ai.api.scenario.stream-path:/scenarios/generate-scenario-stream}") String scenarioStreamPath,
+                              AiResponseCache responseCache,
+                              ObjectMapper objectMapper,
+                              AiCircuitBreaker circuitBreaker) {
+        this.webClient = webClient;
+        this.scenarioTimeout = Duration.ofSeconds(Math.max(1, scenarioTimeoutSeconds));
+        this.labExamsTimeout = Duration.ofSeconds(Math.max(1, labExamsTimeoutSeconds));
+        this.reportTimeout = Duration.ofSeconds(Math.max(1, reportTimeoutSeconds));
+        this.materialsTimeout = Duration.ofSeconds(Math.max(1, materialsTimeoutSeconds));
+        this.maxRetries = Math.max(0, maxRetries);
+        this.retryBackoff = Duration.ofMillis(Math.max(1, retryBackoffMillis));
+        this.retryJitter = Math.min(1, Math.max(0, retryJitter));
+        this.scenarioStreaming = scenarioStreaming;
+        this.scenarioStreamPath = scenarioStreamPath;
+        this.responseCache = responseCache;
+        this.objectMapper = objectMapper;
+        this.circuitBreaker = circuitBreaker;
     }
 
     /**
      * Genera esami di laboratorio a partire da uno scenario specificato nella richiesta.
      *
      * @param request la richiesta di generazione degli esami di laboratorio contenente la descrizione dello scenario,
-     * @return un Optional contenente il set di esami di laboratorio generati, o vuoto se la generazione fallisce
-     * @throws RestClientException se si verifica un errore durante la chiamata all'API esterna
+     * @return il risultato della chiamata: il set di esami di laboratorio generati, o vuoto se la risposta non ha
+     * contenuto; in caso di errore viene completato con una {@link RestClientException}
      */
-    public Optional<LabExamSet> generateLabExamsFromScenario(LabExamGenerationRequest request) throws RestClientException {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<LabExamGenerationRequest> requestEntity = new HttpEntity<>(request, headers);
+    public CompletableFuture<Optional<LabExamSet>> generateLabExamsFromScenario(LabExamGenerationRequest request) {
+        return generateLabExamsFromScenario(request, false);
+    }
 
-        try {
-            String labExamApiUrl = "http://localhost:" + PORT + "/exams/generate-lab-exams";
-            logger.info("Invio richiesta per esami di laboratorio a {}: {}", labExamApiUrl, request);
-            ResponseEntity<LabExamSet> response = restTemplate.postForEntity(labExamApiUrl, requestEntity, LabExamSet.class);
-
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                logger.info("Risposta ricevuta con successo dall'API degli esami.");
-                return Optional.of(response.getBody());
-            } else {
-                logger.warn("Risposta non valida dall'API degli esami: Status {}", response.getStatusCode());
-                return Optional.empty();
-            }
-        } catch (RestClientException e) {
-            logger.error("Errore durante la chiamata all'API degli esami di laboratorio. Rilancio l'eccezione.", e);
-            throw e;
-        }
+    /**
+     * Come {@link #generateLabExamsFromScenario(LabExamGenerationRequest)}, ma permette di ignorare la risposta in cache.
+     *
+     * @param request      la richiesta di generazione
+     * @param forceRefresh se <code>true</code> la richiesta viene inviata al servizio anche se la risposta è in cache
+     * @return il risultato della chiamata, come per {@link #generateLabExamsFromScenario(LabExamGenerationRequest)}
+     */
+    public CompletableFuture<Optional<LabExamSet>> generateLabExamsFromScenario(LabExamGenerationRequest request, boolean forceRefresh) {
+        logger.info("Invio richiesta per esami di laboratorio a {}: {}", LAB_EXAMS_PATH, request);
+        return post(LAB_EXAMS_PATH, request, labExamsTimeout, LabExamSet.class, forceRefresh)
+                .doOnNext(response -> logger.info("Risposta ricevuta con successo dall'API degli esami."))
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .toFuture();
     }
 
     /**
      * Genera uno scenario a partire dalla richiesta specificata.
      *
      * @param request la richiesta di generazione dello scenario contenente la descrizione, il tipo di scenario, il target e la difficoltà
-     * @return un Optional contenente lo scenario generato come stringa JSON, o vuoto se la generazione fallisce
-     * @throws RestClientException se si verifica un errore durante la chiamata all'API esterna
+     * @return il risultato della chiamata: lo scenario generato come stringa JSON, o vuoto se la risposta non ha
+     * contenuto; in caso di errore viene completato con una {@link RestClientException}
      */
-    public Optional<String> generateScenario(ScenarioGenerationRequest request) throws RestClientException {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<ScenarioGenerationRequest> requestEntity = new HttpEntity<>(request, headers);
+    public CompletableFuture<Optional<String>> generateScenario(ScenarioGenerationRequest request) {
+        return generateScenario(request, false);
+    }
 
-        try {
-            String scenarioApiUrl = "http://localhost:" + PORT + "/scenarios/generate-scenario";
-            logger.info("Invio richiesta per creazione di scenario a {}: {}", scenarioApiUrl, request);
-            ResponseEntity<String> response = restTemplate.postForEntity(scenarioApiUrl, requestEntity, String.class);
-
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                logger.info("Risposta ricevuta con successo dall'API di generazione scenario.");
-                return Optional.of(response.getBody());
-            } else {
-                logger.warn("Risposta non valida dall'API di generazione scenario: Status {}", response.getStatusCode());
-                return Optional.empty();
-            }
-        } catch (RestClientException e) {
-            logger.error("Errore durante la chiamata all'API di generazione scenario. Rilancio l'eccezione.", e);
-            throw e;
+    /**
+     * Come {@link #generateScenario(ScenarioGenerationRequest)}, ma permette di ignorare la risposta in cache.
+     *
+     * @param request      la richiesta di generazione
+     * @param forceRefresh se <code>true</code> la richiesta viene inviata al servizio anche se la risposta è in cache
+     * @return il risultato della chiamata, come per {@link #generateScenario(ScenarioGenerationRequest)}
+     */
+    public CompletableFuture<Optional<String>> generateScenario(ScenarioGenerationRequest request, boolean forceRefresh) {
+        logger.info("Invio richiesta per creazione di scenario a {}: {}", SCENARIO_PATH, request);
+        return post(SCENARIO_PATH, request, scenarioTimeout, String.class, forceRefresh)
+                .doOnNext(response -> logger.info("Risposta ricevuta con successo dall'API di generazione scenario."))
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .toFuture();
+    }
+
+    /**
+     * Indica se gli scenari vanno generati in streaming, con {@link #streamScenario(ScenarioGenerationRequest, boolean)}.
+     *
+     * @return <code>true</code> se lo streaming degli scenari è attivo
+     */
+    public boolean isScenarioStreamingEnabled() {
+        return scenarioStreaming;
+    }
+
+    /**
+     * Genera uno scenario in streaming: il servizio trasmette il documento a blocchi (JSON a pezzi, NDJSON o
+     * Server-Sent Events) e ogni sezione di primo livello viene restituita appena è completa.
+     * <p>
+     * Il tempo massimo di risposta vale per l'attesa di ciascun blocco e la chiamata non viene ritentata, per
+     * non restituire due volte le stesse sezioni. Lo scenario completo viene memorizzato nella cache come quello
+     * di {@link #generateScenario(ScenarioGenerationRequest, boolean)}; se è già presente, le sue sezioni
+     * vengono restituite direttamente dalla cache.
+     * </p>
+     *
+     * @param request      la richiesta di generazione dello scenario
+     * @param forceRefresh se <code>true</code> la richiesta viene inviata al servizio anche se la risposta è in cache
+     * @return le sezioni dello scenario, nell'ordine di arrivo; in caso di errore il flusso termina con una
+     * {@link RestClientException}
+     */
+    public Flux<ScenarioSection> streamScenario(ScenarioGenerationRequest request, boolean forceRefresh) {
+        logger.info("Invio richiesta per creazione di scenario in streaming a {}: {}", scenarioStreamPath, request);
+        if (!responseCache.isEnabled()) {
+            return stream(request);
         }
+        String key = responseCache.keyOf(SCENARIO_PATH, request);
+        Mono<String> cached = forceRefresh
+                ? Mono.fromRunnable(responseCache::recordBypass)
+                : Mono.fromCallable(() -> responseCache.get(key).orElse(null));
+        return cached
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(body -> replayCached(key, body))
+                .switchIfEmpty(Flux.defer(() -> {
+                    Map<String, String> received = new LinkedHashMap<>();
+                    return stream(request)
+                            .doOnNext(section -> received.put(section.name(), section.json()))
+                            .concatWith(Mono.<ScenarioSection>fromRunnable(() -> responseCache.put(key, assemble(received)))
+                                    .subscribeOn(Schedulers.boundedElastic()));
+                }));
     }
 
     /**
      * Genera un referto medico a partire dalla richiesta specificata.
      *
      * @param request la richiesta di generazione del referto contenente la descrizione dello scenario, il tipo di paziente, il tipo di esame e l'esame obiettivo
-     * @return un Optional contenente il set di referti generati, o vuoto se la generazione fallisce
-     * @throws RestClientException se si verifica un errore durante la chiamata all'API esterna
+     * @return il risultato della chiamata: il set di referti generati, o vuoto se la risposta non ha contenuto;
+     * in caso di errore viene completato con una {@link RestClientException}
      */
-    public Optional<ReportSet> generateReport(ReportGenerationRequest request) throws RestClientException {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<ReportGenerationRequest> requestEntity = new HttpEntity<>(request, headers);
+    public CompletableFuture<Optional<ReportSet>> generateReport(ReportGenerationRequest request) {
+        return generateReport(request, false);
+    }
 
-        try {
-            String reportApiUrl = "http://localhost:" + PORT + "/reports/generate-medical-report";
-            logger.info("Invio richiesta per creazione di referto a {}: {}", reportApiUrl, request);
-            ResponseEntity<ReportSet> response = restTemplate.postForEntity(reportApiUrl, requestEntity, ReportSet.class);
-
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                logger.info("Risposta ricevuta con successo dall'API di generazione referto.");
-                return Optional.of(response.getBody());
-            } else {
-                logger.warn("Risposta non valida dall'API di generazione referto: Status {}", response.getStatusCode());
-                return Optional.empty();
-            }
-        } catch (RestClientException e) {
-            logger.error("Errore durante la chiamata all'API di generazione referto. Rilancio l'eccezione.", e);
-            throw e;
-        }
+    /**
+     * Come {@link #generateReport(ReportGenerationRequest)}, ma permette di ignorare la risposta in cache.
+     *
+     * @param request      la richiesta di generazione
+     * @param forceRefresh se <code>true</code> la richiesta viene inviata al servizio anche se la risposta è in cache
+     * @return il risultato della chiamata, come per {@link #generateReport(ReportGenerationRequest)}
+     */
+    public CompletableFuture<Optional<ReportSet>> generateReport(ReportGenerationRequest request, boolean forceRefresh) {
+        logger.info("Invio richiesta per creazione di referto a {}: {}", REPORT_PATH, request);
+        return post(REPORT_PATH, request, reportTimeout, ReportSet.class, forceRefresh)
+                .doOnNext(response -> logger.info("Risposta ricevuta con successo dall'API di generazione referto."))
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .toFuture();
     }
 
     /**
      * Genera i materiali necessari per uno scenario specificato nella richiesta.
      *
      * @param request la richiesta di generazione dei materiali contenente la descrizione dello scenario, il tipo di paziente, il target e l'esame obiettivo
-     * @return un Optional contenente una lista di MatSet generati, o vuoto se la generazione fallisce
-     * @throws RestClientException se si verifica un errore durante la chiamata all'API esterna
+     * @return il risultato della chiamata: la lista di MatSet generati, o vuoto se la risposta non ha contenuto;
+     * in caso di errore viene completato con una {@link RestClientException}
+     */
+    public CompletableFuture<Optional<List<MatSet>>> generateMaterial(MatGenerationRequest request) {
+        return generateMaterial(request, false);
+    }
+
+    /**
+     * Come {@link #generateMaterial(MatGenerationRequest)}, ma permette di ignorare la risposta in cache.
+     *
+     * @param request      la richiesta di generazione
+     * @param forceRefresh se <code>true</code> la richiesta viene inviata al servizio anche se la risposta è in cache
+     * @return il risultato della chiamata, come per {@link #generateMaterial(MatGenerationRequest)}
+     */
+    public CompletableFuture<Optional<List<MatSet>>> generateMaterial(MatGenerationRequest request, boolean forceRefresh) {
+        logger.info("Invio richiesta per creazione di materiale a: {}", MATERIALS_PATH);
+        return post(MATERIALS_PATH, request, materialsTimeout, MatSet[].class, forceRefresh)
+                .doOnNext(response -> logger.info("Risposta ricevuta con successo. Materiali ricevuti: {}", response.length))
+                .map(response -> Optional.of(Arrays.asList(response)))
+                .defaultIfEmpty(Optional.empty())
+                .toFuture();
+    }
+
+    /**
+     * Invia una richiesta JSON a un endpoint del servizio AI, passando prima per la cache delle risposte se è attiva.
+     * Le risposte vengono memorizzate solo se sono interpretabili; la lettura e la scrittura della cache avvengono
+     * su un thread per operazioni bloccanti, non su quelli del client HTTP.
+     *
+     * @param path         Il percorso dell'endpoint.
+     * @param request      Il corpo della richiesta.
+     * @param timeout      Il tempo massimo di risposta di un tentativo.
+     * @param type         Il tipo della risposta.
+     * @param forceRefresh Se <code>true</code> la cache viene ignorata (ma aggiornata con la nuova risposta).
+     * @param <T>          Il tipo della risposta.
+     * @return La risposta; vuota se il servizio non ha restituito contenuto.
      */
-    public Optional<List<MatSet>> generateMaterial(MatGenerationRequest request) throws RestClientException {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<MatGenerationRequest> requestEntity = new HttpEntity<>(request, headers);
+    private <T> Mono<T> post(String path, Object request, Duration timeout, Class<T> type, boolean forceRefresh) {
+        if (!responseCache.isEnabled()) {
+            return fetch(path, request, timeout).map(body -> decode(path, body, type));
+        }
+        String key = responseCache.keyOf(path, request);
+        Mono<T> cached = forceRefresh
+                ? Mono.fromRunnable(responseCache::recordBypass)
+                : Mono.fromCallable(() -> responseCache.get(key).map(body -> decodeCached(key, path, body, type)).orElse(null));
+        return cached
+                .subscribeOn(Schedulers.boundedElastic())
+                .switchIfEmpty(Mono.defer(() -> fetch(path, request, timeout)
+                        .publishOn(Schedulers.boundedElastic())
+                        .map(body -> {
+                            T response = decode(path, body, type);
+                            responseCache.put(key, body);
+                            return response;
+                        })));
+    }
 
+    /**
+     * Invia una richiesta JSON a un endpoint del servizio AI, con il tempo massimo di risposta indicato
+     * (per ogni tentativo) e i nuovi tentativi per gli errori ritentabili. Se il circuito è aperto la richiesta
+     * non viene inviata; l'esito finale (dopo i nuovi tentativi) viene registrato nell'interruttore di circuito.
+     *
+     * @param path    Il percorso dell'endpoint.
+     * @param request Il corpo della richiesta.
+     * @param timeout Il tempo massimo di risposta di un tentativo.
+     * @return Il corpo della risposta; vuoto se il servizio non ha restituito contenuto.
+     */
+    private Mono<String> fetch(String path, Object request, Duration timeout) {
+        return Mono.defer(() -> circuitBreaker.tryAcquire()
+                ? guarded(send(path, request, timeout).flux()).singleOrEmpty()
+                .onErrorMap(e -> toRestClientException(path, timeout, e))
+                : Mono.error(unavailable(path)));
+    }
+
+    /**
+     * Invia una richiesta JSON con i nuovi tentativi per gli errori ritentabili.
+     *
+     * @param path    Il percorso dell'endpoint.
+     * @param request Il corpo della richiesta.
+     * @param timeout Il tempo massimo di risposta di un tentativo.
+     * @return Il corpo della risposta.
+     */
+    private Mono<String> send(String path, Object request, Duration timeout) {
+        return webClient.post()
+                .uri(path)
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .bodyValue(request)
+                .retrieve()
+                .bodyToMono(String.class)
+                .timeout(timeout)
+                .retryWhen(Retry.backoff(maxRetries, retryBackoff)
+                        .maxBackoff(MAX_BACKOFF)
+                        .jitter(retryJitter)
+                        .filter(ExternalApiService::isRetryable)
+                        .doBeforeRetry(signal -> logger.warn("Chiamata a {} fallita ({}): nuovo tentativo {} di {}.",
+                                path, signal.failure().getMessage(), signal.totalRetries() + 1, maxRetries))
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
+    /**
+     * Registra nell'interruttore di circuito l'esito di una chiamata che ha ottenuto il permesso: la risposta
+     * (anche vuota) o l'errore, e il permesso restituito se la chiamata viene annullata.
+     *
+     * @param call La chiamata.
+     * @param <T>  Il tipo degli elementi della risposta.
+     * @return La chiamata con la registrazione dell'esito.
+     */
+    private <T> Flux<T> guarded(Flux<T> call) {
+        return call
+                .doOnComplete(circuitBreaker::recordSuccess)
+                .doOnError(circuitBreaker::recordFailure)
+                .doOnCancel(circuitBreaker::release);
+    }
+
+    /**
+     * Crea l'errore restituito quando il circuito è aperto.
+     *
+     * @param path Il percorso dell'endpoint.
+     * @return L'errore da restituire al chiamante.
+     */
+    private static ResourceAccessException unavailable(String path) {
+        logger.warn("Chiamata a {} non inviata: il servizio AI non è disponibile.", path);
+        return new ResourceAccessException("Servizio AI non disponibile: la richiesta a " + path + " non è stata inviata.");
+    }
+
+    /**
+     * Invia la richiesta di generazione in streaming di uno scenario e ne restituisce le sezioni man mano che
+     * sono complete. Il formato della risposta viene riconosciuto dal suo tipo: per gli eventi SSE vengono letti
+     * i dati di ciascun evento, altrimenti il corpo viene letto a blocchi così come arriva. Se il circuito è
+     * aperto la richiesta non viene inviata.
+     *
+     * @param request Il corpo della richiesta.
+     * @return Le sezioni dello scenario.
+     */
+    private Flux<ScenarioSection> stream(ScenarioGenerationRequest request) {
+        String path = scenarioStreamPath;
+        return Flux.defer(() -> circuitBreaker.tryAcquire()
+                ? guarded(exchange(path, request).timeout(scenarioTimeout))
+                .onErrorMap(e -> toRestClientException(path, scenarioTimeout, e))
+                : Flux.error(unavailable(path)));
+    }
+
+    /**
+     * Invia la richiesta di generazione in streaming e interpreta la risposta.
+     *
+     * @param path    Il percorso dell'endpoint.
+     * @param request Il corpo della richiesta.
+     * @return Le sezioni dello scenario.
+     */
+    private Flux<ScenarioSection> exchange(String path, ScenarioGenerationRequest request) {
+        JsonSectionParser parser = new JsonSectionParser();
+        return webClient.post()
+                .uri(path)
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_NDJSON, MediaType.TEXT_EVENT_STREAM, MediaType.APPLICATION_JSON)
+                .bodyValue(request)
+                .exchangeToFlux(response -> {
+                    if (response.statusCode().isError()) {
+                        return response.<ScenarioSection>createError().flux();
+                    }
+                    boolean sse = response.headers().contentType()
+                            .map(MediaType.TEXT_EVENT_STREAM::isCompatibleWith)
+                            .orElse(false);
+                    Flux<byte[]> chunks = sse
+                            ? response.bodyToFlux(SSE_TYPE)
+                            .mapNotNull(ServerSentEvent::data)
+                            .filter(data -> !SSE_DONE.equals(data.trim()))
+                            .map(data -> (data + "\n").getBytes(StandardCharsets.UTF_8))
+                            : response.bodyToFlux(byte[].class);
+                    return chunks
+                            .concatMapIterable(chunk -> parse(path, () -> parser.feed(chunk)))
+                            .concatWith(Flux.defer(() -> Flux.fromIterable(parse(path, parser::finish))));
+                })
+                .doOnNext(section -> logger.debug("Ricevuta la sezione '{}' dello scenario in streaming.", section.name()));
+    }
+
+    /**
+     * Restituisce le sezioni di uno scenario memorizzato nella cache; se non è più interpretabile viene
+     * eliminato e la richiesta viene inviata di nuovo al servizio.
+     *
+     * @param key  La chiave della risposta.
+     * @param body Lo scenario memorizzato.
+     * @return Le sezioni dello scenario, o un flusso vuoto se va richiesto di nuovo.
+     */
+    private Flux<ScenarioSection> replayCached(String key, String body) {
+        try {
+            JsonSectionParser parser = new JsonSectionParser();
+            List<ScenarioSection> sections = parser.feed(body.getBytes(StandardCharsets.UTF_8));
+            sections.addAll(parser.finish());
+            return Flux.fromIterable(sections);
+        } catch (IOException e) {
+            logger.warn("Scenario in cache non valido, verrà richiesto di nuovo.", e);
+            responseCache.evict(key);
+            return Flux.empty();
+        }
+    }
+
+    /**
+     * Ricompone lo scenario completo a partire dalle sezioni ricevute in streaming.
+     *
+     * @param sections Le sezioni, per nome, nell'ordine di arrivo.
+     * @return Il documento JSON dello scenario.
+     * @throws RestClientException se una sezione non è JSON valido.
+     */
+    private String assemble(Map<String, String> sections) {
         try {
-            String materialApiUrl = "http://localhost:" + PORT + "/materials/generate-materials";
-            logger.info("Invio richiesta per creazione di materiale a: {}", materialApiUrl);
-            ResponseEntity<MatSet[]> response = restTemplate.postForEntity(materialApiUrl, requestEntity, MatSet[].class);
-
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                logger.info("Risposta ricevuta con successo. Materiali ricevuti: {}", response.getBody().length);
-                return Optional.of(Arrays.asList(response.getBody()));
-            } else {
-                logger.warn("Risposta non valida dall'API: Status {}", response.getStatusCode());
-                return Optional.empty();
+            ObjectNode document = objectMapper.createObjectNode();
+            for (Map.Entry<String, String> section : sections.entrySet()) {
+                document.set(section.getKey(), objectMapper.readTree(section.getValue()));
             }
+            return objectMapper.writeValueAsString(document);
+        } catch (JsonProcessingException e) {
+            throw new RestClientException("Sezione non valida nello scenario ricevuto in streaming.", e);
+        }
+    }
+
+    /**
+     * Esegue un passo del parser incrementale, convertendo gli errori di formato in {@link RestClientException}.
+     *
+     * @param path Il percorso dell'endpoint.
+     * @param step Il passo del parser.
+     * @return Le sezioni completate dal passo.
+     * @throws RestClientException se la risposta non è JSON valido.
+     */
+    private static List<ScenarioSection> parse(String path, ParserStep step) {
+        try {
+            return step.run();
+        } catch (IOException e) {
+            throw new RestClientException("Risposta non valida da " + path, e);
+        }
+    }
+
+    /**
+     * Passo del parser incrementale delle sezioni.
+     */
+    @FunctionalInterface
+    private interface ParserStep {
+        /**
+         * Esegue il passo.
+         *
+         * @return Le sezioni completate.
+         * @throws IOException se la risposta non è JSON valido.
+         */
+        List<ScenarioSection> run() throws IOException;
+    }
+
+    /**
+     * Interpreta il corpo JSON di una risposta.
+     *
+     * @param path Il percorso dell'endpoint.
+     * @param body Il corpo della risposta.
+     * @param type Il tipo della risposta; per {@link String} il corpo viene restituito così com'è.
+     * @param <T>  Il tipo della risposta.
+     * @return La risposta interpretata.
+     * @throws RestClientException se il corpo non è un JSON valido per il tipo richiesto.
+     */
+    private <T> T decode(String path, String body, Class<T> type) {
+        if (type == String.class) {
+            return type.cast(body);
+        }
+        try {
+            return objectMapper.readValue(body, type);
+        } catch (JsonProcessingException e) {
+            logger.error("Risposta non valida dall'API {}.", path, e);
+            throw new RestClientException("Risposta non valida da " + path, e);
+        }
+    }
+
+    /**
+     * Interpreta una risposta letta dalla cache; se non è più interpretabile (ad esempio perché il modello
+     * della risposta è cambiato) viene eliminata e la richiesta viene inviata di nuovo al servizio.
+     *
+     * @param key  La chiave della risposta.
+     * @param path Il percorso dell'endpoint.
+     * @param body Il corpo della risposta.
+     * @param type Il tipo della risposta.
+     * @param <T>  Il tipo della risposta.
+     * @return La risposta interpretata, o <code>null</code> se va richiesta di nuovo.
+     */
+    private <T> T decodeCached(String key, String path, String body, Class<T> type) {
+        try {
+            return decode(path, body, type);
         } catch (RestClientException e) {
-            logger.error("Errore durante la chiamata all'API di generazione materiale. Rilancio l'eccezione.", e);
-            throw e;
+            responseCache.evict(key);
+            return null;
+        }
+    }
+
+    /**
+     * Verifica se un errore può essere ritentato: risposte 5xx e connessioni non riuscite o interrotte.
+     * I tempi massimi scaduti non vengono ritentati, per non moltiplicare il costo di una generazione lenta.
+     *
+     * @param error L'errore della chiamata.
+     * @return <code>true</code> se la richiesta può essere ripetuta.
+     */
+    private static boolean isRetryable(Throwable error) {
+        if (error instanceof WebClientResponseException responseException) {
+            return responseException.getStatusCode().is5xxServerError();
+        }
+        return error instanceof WebClientRequestException;
+    }
+
+    /**
+     * Converte un errore della chiamata nella corrispondente {@link RestClientException}, così che i chiamanti
+     * possano distinguere le richieste rifiutate dal servizio (e leggerne il motivo) dai problemi tecnici.
+     *
+     * @param path    Il percorso dell'endpoint.
+     * @param timeout Il tempo massimo di risposta.
+     * @param error   L'errore della chiamata.
+     * @return L'eccezione da restituire al chiamante.
+     */
+    private static Throwable toRestClientException(String path, Duration timeout, Throwable error) {
+        logger.error("Errore durante la chiamata all'API {}.", path, error);
+        if (error instanceof WebClientResponseException e) {
+            if (e.getStatusCode().is4xxClientError()) {
+                return HttpClientErrorException.create(e.getStatusCode(), e.getStatusText(), e.getHeaders(),
+                        e.getResponseBodyAsByteArray(), StandardCharsets.UTF_8);
+            }
+            return HttpServerErrorException.create(e.getStatusCode(), e.getStatusText(), e.getHeaders(),
+                    e.getResponseBodyAsByteArray(), StandardCharsets.UTF_8);
+        }
+        if (error instanceof TimeoutException) {
+            return new ResourceAccessException("Nessuna risposta da " + path + " entro " + timeout.toSeconds() + " secondi.");
+        }
+        if (error instanceof WebClientRequestException e) {
+            return new ResourceAccessException("Servizio AI non raggiungibile (" + path + "): " + e.getMessage());
         }
+        return error instanceof RestClientException ? error : new RestClientException("Errore nella chiamata a " + path, error);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,162 @@
+package it.uniupo.simnova.service.ai_api;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import it.uniupo.simnova.service.ai_api.model.ScenarioSection;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser incrementale delle sezioni di primo livello di un documento JSON ricevuto a pezzi.
+ * <p>
+ * I byte vengono passati man mano che arrivano a un parser non bloccante di Jackson; ogni volta che il valore
+ * di una chiave di primo livello è completo, viene restituito come {@link ScenarioSection}. Sono accettati più
+ * valori radice di seguito, per cui lo stesso parser legge sia un unico documento trasmesso a blocchi sia
+ * una sequenza NDJSON di oggetti con una o più sezioni ciascuno.
+ * </p>
+ * <p>
+ * Un'istanza non è thread-safe e va usata per una sola risposta.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+class JsonSectionParser {
+    /**
+     * Factory condivisa per i parser e i generatori JSON.
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Parser non bloccante che riceve i byte della risposta.
+     */
+    private final JsonParser parser;
+    /**
+     * Ingresso del parser non bloccante.
+     */
+    private final ByteArrayFeeder feeder;
+    /**
+     * Profondità corrente: 1 all'interno di un oggetto radice.
+     */
+    private int depth;
+    /**
+     * Nome della sezione il cui valore è in lettura, o <code>null</code>.
+     */
+    private String sectionName;
+    /**
+     * Testo del valore della sezione in lettura, se è un oggetto o un array.
+     */
+    private StringWriter sectionText;
+    /**
+     * Generatore che scrive il valore della sezione in lettura.
+     */
+    private JsonGenerator sectionWriter;
+
+    /**
+     * Crea un nuovo parser.
+     *
+     * @throws IllegalStateException se il parser non bloccante non può essere creato.
+     */
+    JsonSectionParser() {
+        try {
+            this.parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new IllegalStateException("Impossibile creare il parser JSON incrementale.", e);
+        }
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    /**
+     * Passa al parser un nuovo blocco di byte.
+     *
+     * @param bytes I byte ricevuti.
+     * @return Le sezioni completate grazie a questo blocco, nell'ordine in cui compaiono.
+     * @throws IOException se il contenuto non è JSON valido.
+     */
+    List<ScenarioSection> feed(byte[] bytes) throws IOException {
+        feeder.feedInput(bytes, 0, bytes.length);
+        return drain();
+    }
+
+    /**
+     * Segnala la fine della risposta.
+     *
+     * @return Le eventuali sezioni ancora da restituire.
+     * @throws IOException se la risposta si interrompe a metà di un valore.
+     */
+    List<ScenarioSection> finish() throws IOException {
+        feeder.endOfInput();
+        List<ScenarioSection> sections = drain();
+        if (depth != 0 || sectionName != null) {
+            throw new IOException("Risposta JSON interrotta prima della fine del documento.");
+        }
+        parser.close();
+        return sections;
+    }
+
+    /**
+     * Legge tutti i token disponibili.
+     *
+     * @return Le sezioni completate.
+     * @throws IOException se il contenuto non è JSON valido.
+     */
+    private List<ScenarioSection> drain() throws IOException {
+        List<ScenarioSection> sections = new ArrayList<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            if (sectionWriter != null) {
+                // Valore strutturato in lettura: viene copiato fino alla chiusura.
+                sectionWriter.copyCurrentEvent(parser);
+                depth += token.isStructStart() ? 1 : token.isStructEnd() ? -1 : 0;
+                if (depth == 1) {
+                    sectionWriter.close();
+                    sections.add(new ScenarioSection(sectionName, sectionText.toString()));
+                    sectionName = null;
+                    sectionWriter = null;
+                    sectionText = null;
+                }
+            } else if (depth == 1 && token == JsonToken.FIELD_NAME) {
+                sectionName = parser.currentName();
+            } else if (depth == 1 && sectionName != null) {
+                if (token.isStructStart()) {
+                    sectionText = new StringWriter();
+                    sectionWriter = JSON_FACTORY.createGenerator(sectionText);
+                    sectionWriter.copyCurrentEvent(parser);
+                    depth++;
+                } else {
+                    sections.add(new ScenarioSection(sectionName, scalarText(token)));
+                    sectionName = null;
+                }
+            } else if (token.isStructStart()) {
+                depth++;
+            } else if (token.isStructEnd()) {
+                depth--;
+            }
+        }
+        return sections;
+    }
+
+    /**
+     * Restituisce il testo JSON del valore scalare corrente.
+     *
+     * @param token Il token corrente.
+     * @return Il valore come testo JSON.
+     * @throws IOException se il valore non può essere scritto.
+     */
+    private String scalarText(JsonToken token) throws IOException {
+        if (token != JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        StringWriter text = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(text)) {
+            generator.writeString(parser.getText());
+        }
+        return text.toString();
+    }
+}
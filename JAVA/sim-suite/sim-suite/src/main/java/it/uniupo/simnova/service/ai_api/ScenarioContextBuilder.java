@@ -0,0 +1,308 @@
+package it.uniupo.simnova.service.ai_api;
+
+import it.uniupo.simnova.domain.common.Accesso;
+import it.uniupo.simnova.domain.paziente.EsameFisico;
+import it.uniupo.simnova.domain.paziente.PazienteT0;
+import it.uniupo.simnova.domain.scenario.Scenario;
+import it.uniupo.simnova.service.ai_api.model.LabExamGenerationRequest;
+import it.uniupo.simnova.service.ai_api.model.MatGenerationRequest;
+import it.uniupo.simnova.service.ai_api.model.ReportGenerationRequest;
+import it.uniupo.simnova.service.scenario.components.EsameFisicoService;
+import it.uniupo.simnova.service.scenario.components.PazienteT0Service;
+import org.jsoup.Jsoup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Servizio che costruisce il contesto di uno scenario da inviare al servizio AI.
+ * <p>
+ * Invece dell'HTML dell'editor e del {@code toString()} degli oggetti di dominio, le richieste ricevono un testo
+ * compatto e deterministico: la descrizione senza markup, i parametri vitali al tempo T0 in forma sintetica
+ * e solo le sezioni compilate dell'esame obiettivo, in un ordine fisso. Il testo rispetta un limite di caratteri
+ * configurabile, così che la dimensione del prompt (e quindi tempi e costi della generazione) resti contenuta
+ * anche per gli scenari più lunghi.
+ * </p>
+ * <p>
+ * Per ogni contesto costruito viene registrata nel log, a livello DEBUG, la dimensione rispetto al formato
+ * precedente, insieme al totale dall'avvio dell'applicazione.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+@Service
+public class ScenarioContextBuilder {
+    /**
+     * Logger per registrare le dimensioni dei contesti costruiti.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ScenarioContextBuilder.class);
+    /**
+     * Sezioni dell'esame obiettivo, nell'ordine in cui vengono riportate.
+     */
+    private static final List<String> EXAM_SECTIONS = List.of("Generale", "Pupille", "Collo", "Torace", "Cuore",
+            "Addome", "Retto", "Cute", "Estremità", "Neurologico", "FAST");
+    /**
+     * Sequenze di spazi da compattare.
+     */
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    /**
+     * Indicatore di testo troncato.
+     */
+    private static final String ELLIPSIS = "…";
+
+    /**
+     * Servizio per l'esame obiettivo.
+     */
+    private final EsameFisicoService esameFisicoService;
+    /**
+     * Servizio per i parametri del paziente al tempo T0.
+     */
+    private final PazienteT0Service pazienteT0Service;
+    /**
+     * Numero massimo di caratteri di ciascun campo del contesto (descrizione ed esame obiettivo).
+     */
+    private final int maxChars;
+    /**
+     * Caratteri che i contesti costruiti avrebbero occupato nel formato precedente.
+     */
+    private final AtomicLong legacyChars = new AtomicLong();
+    /**
+     * Caratteri effettivamente occupati dai contesti costruiti.
+     */
+    private final AtomicLong compactChars = new AtomicLong();
+
+    /**
+     * Costruttore del servizio.
+     *
+     * @param esameFisicoService Il servizio per l'esame obiettivo.
+     * @param pazienteT0Service  Il servizio per i parametri del paziente al tempo T0.
+     * @param maxChars           Il numero massimo di caratteri di ciascun campo del contesto.
+     */
+    public ScenarioContextBuilder(EsameFisicoService esameFisicoService,
+                                  PazienteT0Service pazienteT0Service,
+                                  @Value("${ai.context.max-chars:2000}") int maxChars) {
+        this.esameFisicoService = esameFisicoService;
+        this.pazienteT0Service = pazienteT0Service;
+        this.maxChars = Math.max(200, maxChars);
+    }
+
+    /**
+     * Costruisce la richiesta di generazione degli esami di laboratorio per uno scenario.
+     *
+     * @param scenario Lo scenario.
+     * @return La richiesta con il contesto compatto.
+     */
+    public LabExamGenerationRequest labExamRequest(Scenario scenario) {
+        ScenarioContext context = build(scenario);
+        return new LabExamGenerationRequest(context.description(), scenario.getTipologia(), context.objectiveExam(),
+                clean(scenario.getPatologia()));
+    }
+
+    /**
+     * Costruisce la richiesta di generazione dei materiali necessari per uno scenario.
+     *
+     * @param scenario Lo scenario.
+     * @return La richiesta con il contesto compatto.
+     */
+    public MatGenerationRequest materialRequest(Scenario scenario) {
+        ScenarioContext context = build(scenario);
+        return new MatGenerationRequest(context.description(), scenario.getTipologia(), clean(scenario.getTarget()),
+                context.objectiveExam());
+    }
+
+    /**
+     * Costruisce la richiesta di generazione di un referto per uno scenario.
+     *
+     * @param scenario Lo scenario.
+     * @param examType Il tipo di esame da refertare.
+     * @return La richiesta con il contesto compatto.
+     */
+    public ReportGenerationRequest reportRequest(Scenario scenario, String examType) {
+        ScenarioContext context = build(scenario);
+        return new ReportGenerationRequest(context.description(), scenario.getTipologia(), examType,
+                context.objectiveExam());
+    }
+
+    /**
+     * Costruisce il contesto compatto di uno scenario.
+     *
+     * @param scenario Lo scenario.
+     * @return La descrizione e l'esame obiettivo (con i parametri vitali) in forma compatta.
+     */
+    public ScenarioContext build(Scenario scenario) {
+        EsameFisico esameFisico = esameFisicoService.getEsameFisicoById(scenario.getId());
+        PazienteT0 pazienteT0 = pazienteT0Service.getPazienteT0ById(scenario.getId());
+
+        String description = truncate(clean(scenario.getDescrizione()));
+        List<String> parts = new ArrayList<>();
+        String vitals = vitals(pazienteT0);
+        if (!vitals.isEmpty()) {
+            parts.add("Parametri T0: " + vitals);
+        }
+        if (esameFisico != null) {
+            Map<String, String> sections = esameFisico.getSections();
+            for (String section : EXAM_SECTIONS) {
+                String text = clean(sections.get(section));
+                if (!text.isEmpty()) {
+                    parts.add(section + ": " + text);
+                }
+            }
+        }
+        String objectiveExam = truncate(String.join("\n", parts));
+        ScenarioContext context = new ScenarioContext(description, objectiveExam);
+
+        int legacy = length(scenario.getDescrizione()) + (esameFisico != null ? esameFisico.toString().length() : 0);
+        int compact = description.length() + objectiveExam.length();
+        long totalLegacy = legacyChars.addAndGet(legacy);
+        long totalCompact = compactChars.addAndGet(compact);
+        logger.debug("Contesto AI dello scenario {}: {} caratteri invece di {} ({}); dall'avvio {} invece di {} ({}).",
+                scenario.getId(), compact, legacy, sizeChange(legacy, compact), totalCompact, totalLegacy,
+                sizeChange(totalLegacy, totalCompact));
+        return context;
+    }
+
+    /**
+     * Riporta i parametri vitali in forma sintetica, omettendo quelli non rilevati.
+     *
+     * @param pazienteT0 I parametri del paziente al tempo T0 (può essere <code>null</code>).
+     * @return I parametri vitali separati da virgole, o una stringa vuota.
+     */
+    private static String vitals(PazienteT0 pazienteT0) {
+        if (pazienteT0 == null) {
+            return "";
+        }
+        List<String> values = new ArrayList<>();
+        if (pazienteT0.getPA() != null && !pazienteT0.getPA().isBlank()) {
+            values.add("PA " + pazienteT0.getPA().trim() + " mmHg");
+        }
+        if (pazienteT0.getFC() != null) {
+            values.add("FC " + pazienteT0.getFC() + " bpm");
+        }
+        if (pazienteT0.getRR() != null) {
+            values.add("FR " + pazienteT0.getRR() + " atti/min");
+        }
+        if (pazienteT0.getT() > 0) {
+            values.add(String.format(Locale.ROOT, "T %.1f °C", pazienteT0.getT()));
+        }
+        if (pazienteT0.getSpO2() != null) {
+            values.add("SpO2 " + pazienteT0.getSpO2() + "%");
+        }
+        if (pazienteT0.getFiO2() != null && pazienteT0.getFiO2() > 0) {
+            values.add("FiO2 " + pazienteT0.getFiO2() + "%");
+        }
+        if (pazienteT0.getLitriO2() != null && pazienteT0.getLitriO2() > 0) {
+            values.add(String.format(Locale.ROOT, "O2 %.1f L/min", pazienteT0.getLitriO2()));
+        }
+        if (pazienteT0.getEtCO2() != null && pazienteT0.getEtCO2() > 0) {
+            values.add("EtCO2 " + pazienteT0.getEtCO2() + " mmHg");
+        }
+        String monitor = clean(pazienteT0.getMonitor());
+        if (!monitor.isEmpty()) {
+            values.add("monitor: " + monitor);
+        }
+        List<String> accessi = new ArrayList<>();
+        addAccessi(accessi, "venoso", pazienteT0.getAccessiVenosi());
+        addAccessi(accessi, "arterioso", pazienteT0.getAccessiArteriosi());
+        if (!accessi.isEmpty()) {
+            values.add("accessi: " + String.join("; ", accessi));
+        }
+        return String.join(", ", values);
+    }
+
+    /**
+     * Aggiunge la descrizione sintetica degli accessi di un tipo.
+     *
+     * @param target  La lista delle descrizioni.
+     * @param kind    Il tipo di accesso (venoso o arterioso).
+     * @param accessi Gli accessi (può essere <code>null</code>).
+     */
+    private static void addAccessi(List<String> target, String kind, List<Accesso> accessi) {
+        if (accessi == null) {
+            return;
+        }
+        for (Accesso accesso : accessi) {
+            StringBuilder text = new StringBuilder(kind);
+            for (String value : new String[]{accesso.getTipologia(), accesso.getPosizione(), accesso.getLato()}) {
+                if (value != null && !value.isBlank()) {
+                    text.append(' ').append(value.trim());
+                }
+            }
+            if (accesso.getMisura() != null && accesso.getMisura() > 0) {
+                text.append(' ').append(accesso.getMisura()).append('G');
+            }
+            target.add(text.toString());
+        }
+    }
+
+    /**
+     * Rimuove l'HTML da un testo e ne compatta gli spazi.
+     *
+     * @param value Il testo (può essere <code>null</code>).
+     * @return Il testo semplice, o una stringa vuota.
+     */
+    static String clean(String value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value.indexOf('<') >= 0 || value.indexOf('&') >= 0 ? Jsoup.parseBodyFragment(value).text() : value;
+        return WHITESPACE.matcher(text).replaceAll(" ").trim();
+    }
+
+    /**
+     * Tronca un testo al limite di caratteri, preferibilmente alla fine di una parola.
+     *
+     * @param text Il testo.
+     * @return Il testo, eventualmente troncato.
+     */
+    private String truncate(String text) {
+        if (text.length() <= maxChars) {
+            return text;
+        }
+        int end = maxChars - ELLIPSIS.length();
+        int space = text.lastIndexOf(' ', end);
+        if (space > end * 3 / 4) {
+            end = space;
+        }
+        return text.substring(0, end).stripTrailing() + ELLIPSIS;
+    }
+
+    /**
+     * Restituisce la lunghezza di un testo.
+     *
+     * @param value Il testo (può essere <code>null</code>).
+     * @return Il numero di caratteri.
+     */
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    /**
+     * Formatta la variazione percentuale di dimensione, con il segno: il contesto compatto può essere più
+     * lungo del formato precedente, ad esempio per uno scenario breve con i parametri vitali compilati.
+     *
+     * @param before La dimensione nel formato precedente.
+     * @param after  La dimensione compatta.
+     * @return La variazione, ad esempio "-35%" o "+12%".
+     */
+    static String sizeChange(long before, long after) {
+        return before > 0 ? String.format(Locale.ROOT, "%+d%%", Math.round(100.0 * (after - before) / before)) : "+0%";
+    }
+
+    /**
+     * Contesto compatto di uno scenario.
+     *
+     * @param description   La descrizione dello scenario in testo semplice.
+     * @param objectiveExam I parametri vitali al tempo T0 e le sezioni compilate dell'esame obiettivo.
+     */
+    public record ScenarioContext(String description, String objectiveExam) {
+    }
+}
@@ -0,0 +1,75 @@
+package it.uniupo.simnova.service.ai_api.config;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * Configurazione del client HTTP non bloccante usato per le chiamate al servizio AI esterno.
+ * <p>
+ * Le generazioni possono durare diversi minuti: con {@link WebClient} l'attesa della risposta non occupa
+ * un thread, e le connessioni vengono riutilizzate da un pool dedicato con un numero massimo di connessioni
+ * e un tempo massimo di attesa per ottenerne una libera.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+@Configuration
+public class AiClientConfig {
+
+    /**
+     * Crea il pool di connessioni verso il servizio AI. Le connessioni inattive vengono chiuse in background,
+     * così che una connessione chiusa dal server non venga riutilizzata.
+     *
+     * @param maxConnections        Il numero massimo di connessioni aperte contemporaneamente.
+     * @param acquireTimeoutSeconds Il tempo massimo (in secondi) di attesa di una connessione libera.
+     * @return Il pool di connessioni.
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider aiConnectionProvider(@Value("${ai.api.pool.max-connections:16}") int maxConnections,
+                                                   @Value("${ai.api.pool.acquire-timeout-seconds:30}") int acquireTimeoutSeconds) {
+        return ConnectionProvider.builder("ai-api")
+                .maxConnections(Math.max(1, maxConnections))
+                .pendingAcquireTimeout(Duration.ofSeconds(Math.max(1, acquireTimeoutSeconds)))
+                .maxIdleTime(Duration.ofSeconds(30))
+                .maxLifeTime(Duration.ofMinutes(10))
+                .evictInBackground(Duration.ofSeconds(30))
+                .build();
+    }
+
+    /**
+     * Crea il {@link WebClient} per il servizio AI, a partire dal builder di Spring Boot (che registra i codec
+     * JSON dell'applicazione).
+     *
+     * @param builder                Il builder di Spring Boot.
+     * @param connectionProvider     Il pool di connessioni.
+     * @param baseUrl                L'indirizzo base del servizio AI.
+     * @param connectTimeoutSeconds  Il tempo massimo (in secondi) per stabilire una connessione.
+     * @param maxResponseMegabytes   La dimensione massima (in MB) di una risposta.
+     * @return Il client configurato.
+     */
+    @Bean
+    public WebClient aiWebClient(WebClient.Builder builder,
+                                 @Qualifier("aiConnectionProvider") ConnectionProvider connectionProvider,
+                                 @Value("${ai.api.base-url:http://localhost:8001}") String baseUrl,
+                                 @Value("${ai.api.connect-timeout-seconds:5}") int connectTimeoutSeconds,
+                                 @Value("${ai.api.max-response-mb:16}") int maxResponseMegabytes) {
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Math.max(1, connectTimeoutSeconds) * 1000)
+                .keepAlive(true);
+        return builder.clone()
+                .baseUrl(baseUrl)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(Math.max(1, maxResponseMegabytes) * 1024 * 1024))
+                .build();
+    }
+}
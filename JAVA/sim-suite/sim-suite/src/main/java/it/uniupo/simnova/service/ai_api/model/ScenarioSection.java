@@ -0,0 +1,13 @@
+package it.uniupo.simnova.service.ai_api.model;
+
+/**
+ * Sezione di primo livello di uno scenario generato (ad esempio "scenario", "pazienteT0" o "tempi"),
+ * ricevuta per intero durante la generazione in streaming.
+ *
+ * @param name nome della sezione, cioè la chiave di primo livello nel JSON dello scenario
+ * @param json valore della sezione, come testo JSON
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+public record ScenarioSection(String name, String json) {
+}
@@ -0,0 +1,715 @@
+package it.uniupo.simnova.service.export;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.server.StreamRegistration;
+import com.vaadin.flow.server.StreamResource;
+import it.uniupo.simnova.domain.scenario.Scenario;
+import it.uniupo.simnova.service.NotifierService;
+import it.uniupo.simnova.service.scenario.ScenarioService;
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Servizio per l'<strong>esportazione PDF di più scenari</strong> in background.
+ * <p>
+ * I PDF vengono generati in parallelo su un pool di thread di dimensione limitata
+ * (<code>export.batch.threads</code>), così un'esportazione di un intero corso non satura la CPU
+ * e non blocca l'interfaccia. Ogni documento viene scritto sul disco appena pronto, in un archivio ZIP
+ * (un PDF per scenario) o in parti temporanee poi unite in un unico PDF, per cui la memoria occupata
+ * non cresce con il numero degli scenari. L'avanzamento e l'esito vengono inviati alla UI che ha avviato
+ * l'esportazione tramite il {@link NotifierService}; il lavoro appartiene al servizio e non alla vista,
+ * per cui prosegue anche se l'utente naviga in un'altra pagina. Il risultato resta scaricabile per
+ * <code>export.batch.retention-minutes</code> minuti.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+@Service
+public class BatchPdfExportService {
+
+    /**
+     * Logger per registrare le operazioni del servizio.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(BatchPdfExportService.class);
+    /**
+     * Titolo delle notifiche inviate alla UI.
+     */
+    private static final String NOTIFICATION_TITLE = "Esportazione PDF";
+    /**
+     * Suffisso della directory temporanea dei PDF generati di un'esportazione.
+     */
+    private static final String PARTS_SUFFIX = ".parts";
+
+    /**
+     * Servizio che genera il PDF di un singolo scenario.
+     */
+    private final PdfExportService pdfExportService;
+    /**
+     * Servizio per recuperare i titoli degli scenari, usati nei nomi dei file.
+     */
+    private final ScenarioService scenarioService;
+    /**
+     * Servizio per l'invio delle notifiche alla UI.
+     */
+    private final NotifierService notifierService;
+    /**
+     * Executor condiviso dell'applicazione, su cui gira il coordinamento di ogni esportazione.
+     */
+    private final ExecutorService executorService;
+    /**
+     * Pool limitato su cui vengono generati i PDF, condiviso da tutte le esportazioni.
+     */
+    private final ExecutorService renderPool;
+    /**
+     * Directory dei file prodotti.
+     */
+    private final Path outputDir;
+    /**
+     * Tempo per cui i risultati restano disponibili.
+     */
+    private final Duration retention;
+    /**
+     * Esportazioni avviate e non ancora scadute, indicizzate per ID.
+     */
+    private final Map<String, BatchJob> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * Costruisce il servizio.
+     *
+     * @param pdfExportService Il servizio per l'esportazione PDF del singolo scenario.
+     * @param scenarioService  Il servizio per la gestione degli scenari.
+     * @param notifierService  Il servizio per le notifiche alla UI.
+     * @param executorService  L'executor condiviso dell'applicazione.
+     * @param threads          Il numero massimo di PDF generati contemporaneamente.
+     * @param retentionMinutes I minuti per cui un risultato resta scaricabile.
+     * @throws IOException Se non è possibile creare la directory dei risultati.
+     */
+    @Autowired
+    public BatchPdfExportService(PdfExportService pdfExportService,
+                                 ScenarioService scenarioService,
+                                 NotifierService notifierService,
+                                 ExecutorService executorService,
+                                 @Value("${export.batch.threads:2}") int threads,
+                                 @Value("${export.batch.retention-minutes:60}") long retentionMinutes) throws IOException {
+        this.pdfExportService = pdfExportService;
+        this.scenarioService = scenarioService;
+        this.notifierService = notifierService;
+        this.executorService = executorService;
+        this.renderPool = Executors.newFixedThreadPool(Math.max(1, threads), renderThreadFactory());
+        this.retention = Duration.ofMinutes(Math.max(1, retentionMinutes));
+        this.outputDir = Files.createDirectories(Path.of(System.getProperty("java.io.tmpdir"), "simsuite-batch-export"));
+        deleteExpiredOutputs();
+    }
+
+    /**
+     * Avvia l'esportazione in background di un insieme di scenari.
+     *
+     * @param ui             La UI che riceve le notifiche di avanzamento e il link per il download.
+     * @param scenarioIds    Gli ID degli scenari, nell'ordine in cui compariranno nel risultato.
+     * @param sections       Le sezioni da includere in ogni PDF.
+     * @param format         Il formato del risultato.
+     * @param notificationId L'ID della notifica attiva da aggiornare con l'avanzamento (può essere <code>null</code>).
+     * @return L'esportazione avviata.
+     * @throws IllegalArgumentException Se non è stato indicato alcuno scenario.
+     */
+    public BatchJob submit(UI ui, List<Integer> scenarioIds, PdfSections sections, OutputFormat format, String notificationId) {
+        if (scenarioIds == null || scenarioIds.isEmpty()) {
+            throw new IllegalArgumentException("Nessuno scenario selezionato per l'esportazione.");
+        }
+        deleteExpiredOutputs();
+
+        BatchJob job = new BatchJob(UUID.randomUUID().toString(), List.copyOf(scenarioIds), sections, format);
+        jobs.put(job.getId(), job);
+        logger.info("Avviata esportazione PDF multipla {} di {} scenari in formato {}", job.getId(), scenarioIds.size(), format);
+
+        executorService.submit(() -> run(job, ui, notificationId));
+        return job;
+    }
+
+    /**
+     * Restituisce un'esportazione avviata e non ancora scaduta.
+     *
+     * @param jobId L'ID dell'esportazione.
+     * @return L'esportazione, o <code>null</code> se non esiste.
+     */
+    public BatchJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Arresta il pool di generazione alla chiusura dell'applicazione.
+     */
+    @PreDestroy
+    public void shutdown() {
+        renderPool.shutdownNow();
+    }
+
+    /**
+     * Esegue un'esportazione: genera i PDF sul pool, li scrive nel risultato e notifica l'esito.
+     *
+     * @param job            L'esportazione.
+     * @param ui             La UI da notificare.
+     * @param notificationId L'ID della notifica attiva.
+     */
+    private void run(BatchJob job, UI ui, String notificationId) {
+        Path output = outputDir.resolve(job.getId() + job.getFormat().extension);
+        Path partsDir = outputDir.resolve(job.getId() + PARTS_SUFFIX);
+        List<Future<RenderedPdf>> tasks = new ArrayList<>();
+        try {
+            Files.createDirectories(partsDir);
+            if (job.getFormat() == OutputFormat.ZIP) {
+                writeZip(job, partsDir, output, tasks, ui, notificationId);
+            } else {
+                writeMergedPdf(job, partsDir, output, tasks, ui, notificationId);
+            }
+        } catch (Exception e) {
+            logger.error("Esportazione PDF multipla {} fallita: {}", job.getId(), e.getMessage(), e);
+            // I PDF non ancora generati non servono più: liberano il pool per le altre esportazioni.
+            tasks.forEach(task -> task.cancel(true));
+            job.status = Status.FAILED;
+            deleteQuietly(output);
+            notify(ui, new NotifierService.NotificationPayload(NotifierService.Status.ERROR, NOTIFICATION_TITLE,
+                    "Esportazione PDF non riuscita. Controllare i log per maggiori dettagli.", notificationId));
+            return;
+        } finally {
+            deleteParts(partsDir);
+        }
+
+        int exported = job.getCompleted() - job.getFailedScenarioIds().size();
+        if (exported == 0) {
+            job.status = Status.FAILED;
+            deleteQuietly(output);
+            notify(ui, new NotifierService.NotificationPayload(NotifierService.Status.ERROR, NOTIFICATION_TITLE,
+                    "Nessun PDF è stato generato.", notificationId));
+            return;
+        }
+
+        job.output = output;
+        job.status = Status.COMPLETED;
+        String details = "Esportati " + exported + " PDF su " + job.getTotal()
+                + (job.getFailedScenarioIds().isEmpty() ? "." : " (scenari non esportati: " + job.getFailedScenarioIds() + ").");
+        logger.info("Esportazione PDF multipla {} completata: {}", job.getId(), details);
+        publishDownload(job, ui, details, notificationId);
+    }
+
+    /**
+     * Genera i PDF e li copia in un archivio ZIP nell'ordine in cui vengono completati.
+     * I nomi delle voci iniziano con la posizione dello scenario nella selezione.
+     *
+     * @param job            L'esportazione.
+     * @param partsDir       La directory dei PDF generati.
+     * @param output         Il file ZIP da creare.
+     * @param tasks          La lista in cui registrare le generazioni sottomesse.
+     * @param ui             La UI da notificare.
+     * @param notificationId L'ID della notifica attiva.
+     * @throws IOException          Se non è possibile scrivere l'archivio.
+     * @throws InterruptedException Se il thread viene interrotto durante l'attesa.
+     */
+    private void writeZip(BatchJob job, Path partsDir, Path output, List<Future<RenderedPdf>> tasks, UI ui, String notificationId)
+            throws IOException, InterruptedException {
+        ExecutorCompletionService<RenderedPdf> completion = submitRendering(job, partsDir, tasks);
+        try (ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+            for (int i = 0; i < job.getTotal(); i++) {
+                RenderedPdf rendered = take(completion);
+                if (rendered.part() != null) {
+                    zipOut.putNextEntry(new ZipEntry(entryName(rendered.index(), rendered.title())));
+                    Files.copy(rendered.part(), zipOut);
+                    zipOut.closeEntry();
+                    deleteQuietly(rendered.part());
+                } else {
+                    job.failedScenarioIds.add(rendered.scenarioId());
+                }
+                reportProgress(job, ui, notificationId);
+            }
+        }
+    }
+
+    /**
+     * Genera i PDF salvandoli come parti temporanee e li unisce in un unico documento,
+     * nell'ordine della selezione.
+     *
+     * @param job            L'esportazione.
+     * @param partsDir       La directory dei PDF generati.
+     * @param output         Il file PDF da creare.
+     * @param tasks          La lista in cui registrare le generazioni sottomesse.
+     * @param ui             La UI da notificare.
+     * @param notificationId L'ID della notifica attiva.
+     * @throws IOException          Se non è possibile scrivere o unire i documenti.
+     * @throws InterruptedException Se il thread viene interrotto durante l'attesa.
+     */
+    private void writeMergedPdf(BatchJob job, Path partsDir, Path output, List<Future<RenderedPdf>> tasks, UI ui, String notificationId)
+            throws IOException, InterruptedException {
+        Path[] parts = new Path[job.getTotal()];
+        ExecutorCompletionService<RenderedPdf> completion = submitRendering(job, partsDir, tasks);
+        for (int i = 0; i < job.getTotal(); i++) {
+            RenderedPdf rendered = take(completion);
+            if (rendered.part() != null) {
+                parts[rendered.index()] = rendered.part();
+            } else {
+                job.failedScenarioIds.add(rendered.scenarioId());
+            }
+            reportProgress(job, ui, notificationId);
+        }
+
+        PDFMergerUtility merger = new PDFMergerUtility();
+        boolean hasSources = false;
+        for (Path part : parts) {
+            if (part != null) {
+                merger.addSource(part.toFile());
+                hasSources = true;
+            }
+        }
+        if (!hasSources) {
+            return;
+        }
+        notify(ui, new NotifierService.NotificationPayload(NotifierService.Status.PROGRESS, NOTIFICATION_TITLE,
+                "Unione dei " + (job.getTotal() - job.getFailedScenarioIds().size()) + " PDF in un unico documento...",
+                notificationId, 1, null));
+        merger.setDestinationFileName(output.toString());
+        // Il documento unito usa file temporanei invece della memoria per gli stream.
+        merger.mergeDocuments(IOUtils.createTempFileOnlyStreamCache());
+    }
+
+    /**
+     * Elimina la directory dei PDF generati e il suo contenuto.
+     *
+     * @param partsDir La directory dei PDF generati.
+     */
+    private static void deleteParts(Path partsDir) {
+        if (!Files.isDirectory(partsDir)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(partsDir)) {
+            for (Path part : stream) {
+                deleteQuietly(part);
+            }
+        } catch (IOException e) {
+            logger.warn("Impossibile ripulire la directory temporanea {}: {}", partsDir, e.getMessage());
+        }
+        deleteQuietly(partsDir);
+    }
+
+    /**
+     * Sottomette al pool la generazione di tutti i PDF dell'esportazione.
+     *
+     * @param job      L'esportazione.
+     * @param partsDir La directory in cui scrivere i PDF generati.
+     * @param tasks    La lista in cui registrare le generazioni sottomesse, per poterle annullare.
+     * @return Il servizio da cui leggere i PDF man mano che vengono completati.
+     */
+    private ExecutorCompletionService<RenderedPdf> submitRendering(BatchJob job, Path partsDir, List<Future<RenderedPdf>> tasks) {
+        ExecutorCompletionService<RenderedPdf> completion = new ExecutorCompletionService<>(renderPool);
+        List<Integer> ids = job.getScenarioIds();
+        for (int i = 0; i < ids.size(); i++) {
+            final int index = i;
+            final int scenarioId = ids.get(i);
+            Path part = partsDir.resolve(String.format("%04d.pdf", index));
+            tasks.add(completion.submit(() -> render(index, scenarioId, job.getSections(), part)));
+        }
+        return completion;
+    }
+
+    /**
+     * Genera il PDF di uno scenario direttamente su file, senza tenerlo in memoria.
+     * Gli errori vengono registrati e non interrompono l'esportazione.
+     *
+     * @param index      La posizione dello scenario nella selezione.
+     * @param scenarioId L'ID dello scenario.
+     * @param sections   Le sezioni da includere.
+     * @param part       Il file in cui scrivere il PDF.
+     * @return Il PDF generato, con <code>part</code> a <code>null</code> in caso di errore.
+     */
+    private RenderedPdf render(int index, int scenarioId, PdfSections sections, Path part) {
+        try {
+            Scenario scenario = scenarioService.getScenarioById(scenarioId);
+            String title = scenario != null && scenario.getTitolo() != null ? scenario.getTitolo() : "scenario_" + scenarioId;
+            try (BufferedOutputStream out = new BufferedOutputStream(Files.newOutputStream(part))) {
+                pdfExportService.writeScenarioToPdf(scenarioId, sections, out);
+            }
+            return new RenderedPdf(index, scenarioId, title, part);
+        } catch (Exception e) {
+            logger.error("Generazione PDF fallita per lo scenario {} nell'esportazione multipla: {}", scenarioId, e.getMessage(), e);
+            deleteQuietly(part);
+            return new RenderedPdf(index, scenarioId, null, null);
+        }
+    }
+
+    /**
+     * Attende il prossimo PDF completato.
+     *
+     * @param completion Il servizio di completamento.
+     * @return Il PDF completato.
+     * @throws InterruptedException Se il thread viene interrotto durante l'attesa.
+     * @throws IOException          Se la generazione è terminata con un errore inatteso.
+     */
+    private static RenderedPdf take(ExecutorCompletionService<RenderedPdf> completion) throws InterruptedException, IOException {
+        try {
+            return completion.take().get();
+        } catch (ExecutionException e) {
+            throw new IOException("Generazione PDF interrotta: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Aggiorna il contatore dei PDF completati e invia l'avanzamento alla UI.
+     *
+     * @param job            L'esportazione.
+     * @param ui             La UI da notificare.
+     * @param notificationId L'ID della notifica attiva.
+     */
+    private void reportProgress(BatchJob job, UI ui, String notificationId) {
+        int completed = job.completed.incrementAndGet();
+        notify(ui, new NotifierService.NotificationPayload(NotifierService.Status.PROGRESS, NOTIFICATION_TITLE,
+                "Esportazione PDF: " + completed + " di " + job.getTotal() + " scenari...",
+                notificationId, (double) completed / job.getTotal(), null));
+    }
+
+    /**
+     * Rende scaricabile il risultato dalla sessione della UI e invia la notifica di completamento con il link.
+     *
+     * @param job            L'esportazione completata.
+     * @param ui             La UI da notificare.
+     * @param details        Il messaggio di esito.
+     * @param notificationId L'ID della notifica attiva.
+     */
+    private void publishDownload(BatchJob job, UI ui, String details, String notificationId) {
+        String fileName = "Pdf_scenari_" + job.getTotal() + job.getFormat().extension;
+        StreamResource resource = new StreamResource(fileName, () -> {
+            try {
+                return Files.newInputStream(job.getOutput());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Il risultato dell'esportazione non è più disponibile.", e);
+            }
+        });
+        resource.setContentType(job.getFormat().contentType);
+        resource.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+        try {
+            ui.access(() -> {
+                StreamRegistration registration = ui.getSession().getResourceRegistry().registerResource(resource);
+                notifierService.notify(ui, new NotifierService.NotificationPayload(NotifierService.Status.SUCCESS,
+                        NOTIFICATION_TITLE, details, notificationId, 1, registration.getResourceUri().toString()));
+            });
+        } catch (UIDetachedException e) {
+            logger.info("La UI dell'esportazione {} è stata chiusa: il risultato resta in {}", job.getId(), job.getOutput());
+        }
+    }
+
+    /**
+     * Invia una notifica alla UI, ignorando le UI già chiuse.
+     *
+     * @param ui      La UI da notificare.
+     * @param payload Il contenuto della notifica.
+     */
+    private void notify(UI ui, NotifierService.NotificationPayload payload) {
+        if (ui == null) {
+            return;
+        }
+        try {
+            notifierService.notify(ui, payload);
+        } catch (UIDetachedException e) {
+            logger.debug("Notifica di esportazione non inviata: UI chiusa.");
+        }
+    }
+
+    /**
+     * Elimina i risultati più vecchi del tempo di conservazione e le relative esportazioni, insieme alle
+     * directory temporanee rimaste da esportazioni interrotte (ad esempio da un arresto dell'applicazione).
+     */
+    private void deleteExpiredOutputs() {
+        Instant limit = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> job.getCreatedAt().isBefore(limit) && job.getStatus() != Status.RUNNING);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(outputDir)) {
+            for (Path file : stream) {
+                FileTime modified = Files.getLastModifiedTime(file);
+                if (!modified.toInstant().isBefore(limit)) {
+                    continue;
+                }
+                if (Files.isRegularFile(file)) {
+                    deleteQuietly(file);
+                } else if (Files.isDirectory(file) && isOrphanedParts(file.getFileName().toString())) {
+                    deleteParts(file);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Impossibile ripulire la directory delle esportazioni {}: {}", outputDir, e.getMessage());
+        }
+    }
+
+    /**
+     * Verifica se una directory è quella dei PDF generati di un'esportazione non più in corso.
+     *
+     * @param name Il nome della directory.
+     * @return <code>true</code> se la directory può essere eliminata.
+     */
+    private boolean isOrphanedParts(String name) {
+        if (!name.endsWith(PARTS_SUFFIX)) {
+            return false;
+        }
+        BatchJob job = jobs.get(name.substring(0, name.length() - PARTS_SUFFIX.length()));
+        return job == null || job.getStatus() != Status.RUNNING;
+    }
+
+    /**
+     * Nome della voce dell'archivio per il PDF di uno scenario.
+     *
+     * @param index La posizione dello scenario nella selezione.
+     * @param title Il titolo dello scenario.
+     * @return Il nome della voce.
+     */
+    private static String entryName(int index, String title) {
+        String safeTitle = title.replaceAll("[^\\p{L}\\p{N}._-]+", "_");
+        if (safeTitle.length() > 60) {
+            safeTitle = safeTitle.substring(0, 60);
+        }
+        return String.format("%02d_%s.pdf", index + 1, safeTitle);
+    }
+
+    /**
+     * Elimina un file senza propagare gli errori.
+     *
+     * @param path Il file da eliminare.
+     */
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Impossibile eliminare il file temporaneo {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Crea i thread del pool di generazione, con un nome riconoscibile nei log.
+     *
+     * @return La factory dei thread.
+     */
+    private static ThreadFactory renderThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "pdf-batch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Formati disponibili per il risultato dell'esportazione multipla.
+     */
+    public enum OutputFormat {
+        /**
+         * Archivio ZIP con un PDF per scenario.
+         */
+        ZIP(".zip", "application/zip"),
+        /**
+         * Unico PDF con gli scenari in sequenza.
+         */
+        MERGED_PDF(".pdf", "application/pdf");
+
+        /**
+         * Estensione del file prodotto.
+         */
+        private final String extension;
+        /**
+         * Tipo MIME del file prodotto.
+         */
+        private final String contentType;
+
+        /**
+         * Crea un formato.
+         *
+         * @param extension   Estensione del file prodotto.
+         * @param contentType Tipo MIME del file prodotto.
+         */
+        OutputFormat(String extension, String contentType) {
+            this.extension = extension;
+            this.contentType = contentType;
+        }
+    }
+
+    /**
+     * Stato di un'esportazione multipla.
+     */
+    public enum Status {
+        /**
+         * Generazione in corso.
+         */
+        RUNNING,
+        /**
+         * Risultato disponibile per il download.
+         */
+        COMPLETED,
+        /**
+         * Esportazione non riuscita.
+         */
+        FAILED
+    }
+
+    /**
+     * Esportazione multipla avviata, con il suo avanzamento.
+     */
+    public static final class BatchJob {
+        /**
+         * ID dell'esportazione.
+         */
+        private final String id;
+        /**
+         * Scenari da esportare, nell'ordine della selezione.
+         */
+        private final List<Integer> scenarioIds;
+        /**
+         * Sezioni incluse in ogni PDF.
+         */
+        private final PdfSections sections;
+        /**
+         * Formato del risultato.
+         */
+        private final OutputFormat format;
+        /**
+         * Istante di avvio.
+         */
+        private final Instant createdAt = Instant.now();
+        /**
+         * Numero di scenari elaborati (con o senza successo).
+         */
+        private final AtomicInteger completed = new AtomicInteger();
+        /**
+         * Scenari per cui la generazione non è riuscita.
+         */
+        private final List<Integer> failedScenarioIds = new ArrayList<>();
+        /**
+         * Stato corrente.
+         */
+        private volatile Status status = Status.RUNNING;
+        /**
+         * File del risultato, disponibile al completamento.
+         */
+        private volatile Path output;
+
+        /**
+         * Crea un'esportazione.
+         *
+         * @param id          ID dell'esportazione.
+         * @param scenarioIds Scenari da esportare.
+         * @param sections    Sezioni incluse in ogni PDF.
+         * @param format      Formato del risultato.
+         */
+        private BatchJob(String id, List<Integer> scenarioIds, PdfSections sections, OutputFormat format) {
+            this.id = id;
+            this.scenarioIds = scenarioIds;
+            this.sections = sections;
+            this.format = format;
+        }
+
+        /**
+         * @return L'ID dell'esportazione.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return Gli scenari da esportare.
+         */
+        public List<Integer> getScenarioIds() {
+            return scenarioIds;
+        }
+
+        /**
+         * @return Le sezioni incluse in ogni PDF.
+         */
+        public PdfSections getSections() {
+            return sections;
+        }
+
+        /**
+         * @return Il formato del risultato.
+         */
+        public OutputFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * @return L'istante di avvio.
+         */
+        public Instant getCreatedAt() {
+            return createdAt;
+        }
+
+        /**
+         * @return Il numero totale di scenari.
+         */
+        public int getTotal() {
+            return scenarioIds.size();
+        }
+
+        /**
+         * @return Il numero di scenari già elaborati.
+         */
+        public int getCompleted() {
+            return completed.get();
+        }
+
+        /**
+         * @return Gli scenari per cui la generazione non è riuscita.
+         */
+        public List<Integer> getFailedScenarioIds() {
+            return failedScenarioIds;
+        }
+
+        /**
+         * @return Lo stato corrente.
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return Il file del risultato, o <code>null</code> se non ancora disponibile.
+         */
+        public Path getOutput() {
+            return output;
+        }
+    }
+
+    /**
+     * PDF generato per uno scenario della selezione.
+     *
+     * @param index      Posizione nella selezione.
+     * @param scenarioId ID dello scenario.
+     * @param title      Titolo dello scenario.
+     * @param part       File del PDF, o <code>null</code> se la generazione non è riuscita.
+     */
+    private record RenderedPdf(int index, int scenarioId, String title, Path part) {
+    }
+}
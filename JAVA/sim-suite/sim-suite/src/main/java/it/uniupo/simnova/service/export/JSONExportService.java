@@ -3,12 +3,14 @@ package it.uniupo.simnova.service.export;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import it.uniupo.simnova.domain.scenario.Scenario;
+import it.uniupo.simnova.service.export.helper.ScenarioCborCodec;
 import it.uniupo.simnova.service.scenario.ScenarioService;
 import it.uniupo.simnova.service.scenario.components.*;
 import it.uniupo.simnova.service.scenario.types.AdvancedScenarioService;
 import it.uniupo.simnova.service.scenario.types.PatientSimulatedScenarioService;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
@@ -115,6 +117,35 @@ public class JSONExportService implements Serializable {
      * @see Scenario
      */
     public byte[] exportScenarioToJSON(Integer scenarioId) {
+        // Converte la mappa di dati in una stringa JSON.
+        String json = gson.toJson(collectExportData(scenarioId));
+
+        // Restituisce il JSON come array di byte codificato in UTF-8.
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Esporta uno scenario nel formato binario compatto CBOR.
+     * Il contenuto è lo stesso di {@link #exportScenarioToJSON(Integer)} (stessi campi e stessi valori),
+     * ma senza indentazione né nomi ripetuti in forma testuale, per cui il file è più piccolo
+     * e più veloce da leggere sulle postazioni di esecuzione.
+     *
+     * @param scenarioId L'identificativo unico dello scenario da esportare.
+     * @return Un array di byte contenente il documento CBOR dello scenario.
+     * @throws IOException Se si verifica un errore durante la codifica.
+     * @see ScenarioCborCodec
+     */
+    public byte[] exportScenarioToCBOR(Integer scenarioId) throws IOException {
+        return ScenarioCborCodec.encode(gson.toJsonTree(collectExportData(scenarioId)));
+    }
+
+    /**
+     * Raccoglie in una mappa tutti i dati dello scenario da esportare, indipendentemente dal formato di uscita.
+     *
+     * @param scenarioId L'identificativo unico dello scenario da esportare.
+     * @return La mappa con i dati dello scenario e dei suoi componenti.
+     */
+    private Map<String, Object> collectExportData(Integer scenarioId) {
         // Recupera l'oggetto Scenario principale e il suo tipo.
         Scenario scenario = scenarioService.getScenarioById(scenarioId);
         String scenarioType = scenarioService.getScenarioType(scenarioId);
@@ -160,10 +191,6 @@ public class JSONExportService implements Serializable {
             exportData.put("sceneggiatura", sceneggiatura);
         }
 
-        // Converte la mappa di dati in una stringa JSON.
-        String json = gson.toJson(exportData);
-
-        // Restituisce il JSON come array di byte codificato in UTF-8.
-        return json.getBytes(StandardCharsets.UTF_8);
+        return exportData;
     }
 }
\ No newline at end of file
@@ -2,12 +2,9 @@ package it.uniupo.simnova.service.export;
 
 import it.uniupo.simnova.domain.respons_model.LabExamSet;
 import it.uniupo.simnova.domain.scenario.Scenario;
+import it.uniupo.simnova.service.export.helper.pdf.PdfRenderContext;
 import it.uniupo.simnova.service.storage.FileStorageService;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.pdmodel.PDPageContentStream;
-import org.apache.pdfbox.pdmodel.common.PDRectangle;
-import org.apache.pdfbox.pdmodel.font.PDFont;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -21,7 +18,6 @@ import java.util.Date;
 
 import static it.uniupo.simnova.service.export.helper.pdf.LabExamPdfHelper.createLabExamSection;
 import static it.uniupo.simnova.service.export.helper.pdf.LoadFont.loadFont;
-import static it.uniupo.simnova.service.export.helper.pdf.PdfConstant.*;
 
 /**
  * Servizio per la generazione e l'esportazione di PDF contenenti i risultati degli esami di laboratorio.
@@ -35,26 +31,6 @@ public class LabExamPdfExportService {
      * Logger per la registrazione delle operazioni e degli errori durante la generazione del PDF.
      */
     private static final Logger logger = LoggerFactory.getLogger(LabExamPdfExportService.class);
-    /**
-     * Posizione corrente in Y per il testo nel PDF.
-     */
-    public static float currentYPosition;
-    /**
-     * Flusso di contenuto corrente per la scrittura nel PDF.
-     */
-    public static PDPageContentStream currentContentStream;
-    /**
-     * Font utilizzato per il testo in grassetto nel PDF.
-     */
-    public static PDFont FONTBOLD;
-    /**
-     * Font utilizzato per il testo normale nel PDF.
-     */
-    public static PDFont FONTREGULAR;
-    /**
-     * Documento PDF corrente in cui vengono scritti i dati.
-     */
-    private static PDDocument document;
     /**
      * Servizio per la gestione dello storage dei file.
      */
@@ -69,34 +45,6 @@ public class LabExamPdfExportService {
         this.fileStorageService = fileStorageService;
     }
 
-    /**
-     * Inizializza una nuova pagina nel documento PDF corrente.
-     *
-     * @throws IOException Se si verifica un errore durante la creazione della pagina o del flusso di contenuto.
-     */
-    public static void initNewPage() throws IOException {
-        if (currentContentStream != null) {
-            currentContentStream.close();
-        }
-        PDPage currentPage = new PDPage(PDRectangle.A4);
-        document.addPage(currentPage);
-        currentContentStream = new PDPageContentStream(document, currentPage);
-        currentYPosition = PDRectangle.A4.getHeight() - MARGIN;
-    }
-
-    /**
-     * Controlla se c'è spazio sufficiente nella pagina corrente per aggiungere nuovo contenuto.
-     * Se lo spazio è insufficiente, inizializza una nuova pagina.
-     *
-     * @param neededSpace Lo spazio necessario per il nuovo contenuto in punti.
-     * @throws IOException Se si verifica un errore durante l'inizializzazione della nuova pagina.
-     */
-    public static void checkForNewPage(float neededSpace) throws IOException {
-        if (currentYPosition - neededSpace < MARGIN) {
-            initNewPage();
-        }
-    }
-
     /**
      * Genera un PDF per un set di esami di laboratorio e lo salva nella cartella di upload.
      *
@@ -106,22 +54,17 @@ public class LabExamPdfExportService {
      * @throws IOException Se si verifica un errore durante la generazione o il salvataggio.
      */
     public String generateAndSaveLabExamPdf(LabExamSet labExamSet, Scenario scenario) throws IOException {
-        document = null;
-        currentContentStream = null;
-
-        try {
-            document = new PDDocument();
-            FONTREGULAR = loadFont(document, "/fonts/LiberationSans-Regular.ttf");
-            FONTBOLD = loadFont(document, "/fonts/LiberationSans-Bold.ttf");
+        // Ogni generazione usa il proprio documento e il proprio contesto di disegno.
+        try (PDDocument document = new PDDocument()) {
+            PdfRenderContext context = new PdfRenderContext(document, false);
+            context.setFonts(loadFont(document, "/fonts/LiberationSans-Regular.ttf"),
+                    loadFont(document, "/fonts/LiberationSans-Bold.ttf"), null, null);
 
-            initNewPage();
+            context.initNewPage();
 
-            // Correzione: Passa l'oggetto 'document' come richiesto dalla firma del metodo
-            createLabExamSection(labExamSet, scenario);
+            createLabExamSection(context, labExamSet, scenario);
 
-            if (currentContentStream != null) {
-                currentContentStream.close();
-            }
+            context.closeContentStream();
 
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
             document.save(outputStream);
@@ -133,18 +76,15 @@ public class LabExamPdfExportService {
 
             // Correzione: Converte il byte array in un InputStream
             InputStream inputStream = new ByteArrayInputStream(pdfBytes);
-            fileStorageService.storeFile(inputStream, filename);
+            // Il nome effettivo può differire da quello proposto (es. archiviazione per contenuto).
+            String storedFilename = fileStorageService.storeFile(inputStream, filename);
 
-            logger.info("PDF degli esami di laboratorio salvato come: {}", filename);
-            return filename;
+            logger.info("PDF degli esami di laboratorio salvato come: {}", storedFilename);
+            return storedFilename;
 
         } catch (Exception e) {
             logger.error("Errore critico durante la generazione del PDF degli esami per lo scenario ID {}: {}", scenario.getId(), e.getMessage(), e);
             throw new IOException("Generazione PDF fallita: " + e.getMessage(), e);
-        } finally {
-            if (document != null) {
-                document.close();
-            }
         }
     }
 }
\ No newline at end of file
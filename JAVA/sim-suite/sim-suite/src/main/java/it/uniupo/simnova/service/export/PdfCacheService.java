@@ -0,0 +1,495 @@
+package it.uniupo.simnova.service.export;
+
+import it.uniupo.simnova.service.export.helper.pdf.LogoLoader;
+import it.uniupo.simnova.service.scenario.helper.ScenarioVersionHelper;
+import it.uniupo.simnova.service.storage.FileStorageService;
+import it.uniupo.simnova.utils.DBConnect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Cache su disco dei PDF degli scenari già generati.
+ * <p>
+ * La chiave di un PDF è composta dall'ID dello scenario, dalle sezioni incluse e da un'<strong>impronta</strong>
+ * (SHA-256) della versione dei dati dello scenario, mantenuta dai trigger di {@link ScenarioVersionHelper} su
+ * tutte le tabelle che finiscono nel documento, della versione del formato e delle impostazioni di generazione
+ * (ad esempio la risoluzione delle immagini degli esami), e dello stato su disco (dimensione e data di modifica)
+ * del logo del centro e, se incorporate, delle immagini degli esami. Calcolare la chiave costa quindi una lettura sulla
+ * chiave primaria e qualche accesso ai metadati dei file. Qualsiasi modifica cambia l'impronta e quindi la chiave,
+ * per cui una versione non aggiornata non viene mai restituita; la vecchia versione viene eliminata al salvataggio della nuova.
+ * </p>
+ * <p>
+ * La dimensione complessiva è limitata da <code>export.pdf-cache.max-size-mb</code>: superato il limite
+ * vengono eliminati i PDF usati meno di recente (LRU). L'ordine di utilizzo viene ricostruito all'avvio
+ * dalla data di modifica dei file, aggiornata a ogni accesso.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+@Service
+public class PdfCacheService {
+
+    /**
+     * Logger per registrare le operazioni del servizio.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(PdfCacheService.class);
+    /**
+     * Versione del formato dei PDF generati. Va incrementata quando cambia l'impaginazione o la generazione
+     * (anche nelle classi di supporto), così i PDF prodotti dalla versione precedente non vengono più utilizzati.
+     */
+    private static final int LAYOUT_VERSION = 2;
+    /**
+     * Estensione dei file della cache.
+     */
+    private static final String EXTENSION = ".pdf";
+    /**
+     * Query dei media degli esami, di cui viene considerato anche lo stato del file su disco.
+     */
+    private static final String MEDIA_QUERY = "SELECT media FROM EsameReferto WHERE id_scenario = ? AND media IS NOT NULL ORDER BY id_esame";
+
+    /**
+     * Servizio per la gestione dei file, utilizzato per risolvere i media e il logo del centro.
+     */
+    private final FileStorageService fileStorageService;
+    /**
+     * Indica se la cache è attiva.
+     */
+    private final boolean enabled;
+    /**
+     * Directory dei PDF memorizzati.
+     */
+    private final Path cacheDir;
+    /**
+     * Dimensione massima complessiva della cache, in byte.
+     */
+    private final long maxSizeBytes;
+    /**
+     * Dimensione dei PDF memorizzati, indicizzati per nome del file e ordinati dal meno recente.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    /**
+     * Generazioni in corso, indicizzate per nome del file, per non generare due volte lo stesso PDF.
+     */
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+    /**
+     * Dimensione complessiva dei PDF memorizzati, in byte.
+     */
+    private long totalSize;
+
+    /**
+     * Costruisce il servizio e indicizza i PDF già presenti nella directory della cache.
+     *
+     * @param fileStorageService Il servizio per la gestione dei file.
+     * @param enabled            Indica se la cache è attiva.
+     * @param cacheDir           La directory dei PDF memorizzati.
+     * @param maxSizeMb          La dimensione massima della cache, in megabyte.
+     */
+    public PdfCacheService(FileStorageService fileStorageService,
+                           @Value("${export.pdf-cache.enabled:true}") boolean enabled,
+                           @Value("${export.pdf-cache.dir:./pdf-cache}") String cacheDir,
+                           @Value("${export.pdf-cache.max-size-mb:256}") long maxSizeMb) {
+        this.fileStorageService = fileStorageService;
+        this.cacheDir = Path.of(cacheDir).toAbsolutePath().normalize();
+        this.maxSizeBytes = Math.max(1, maxSizeMb) * 1024 * 1024;
+        this.enabled = enabled && ensureVersionSchema() && loadIndex();
+    }
+
+    /**
+     * Scrive il PDF di uno scenario nello stream indicato, leggendolo dalla cache o, se non presente
+     * o non aggiornato, generandolo con il renderer indicato. Il PDF generato viene scritto su un file
+     * temporaneo nella directory della cache, memorizzato e poi copiato nello stream, per cui
+     * il documento non viene mai tenuto interamente in memoria.
+     *
+     * @param scenarioId     L'ID dello scenario.
+     * @param sections       Le sezioni incluse nel PDF.
+     * @param renderSettings Le impostazioni di configurazione che influiscono sul contenuto del PDF
+     *                       (ad esempio la risoluzione delle immagini), incluse nell'impronta.
+     * @param renderer       La generazione del PDF, usata in caso di cache mancante.
+     * @param out            Lo stream in cui scrivere il PDF (non viene chiuso).
+     * @throws IOException Se la generazione del PDF o la scrittura nello stream falliscono.
+     */
+    public void writeTo(int scenarioId, PdfSections sections, String renderSettings, PdfRenderer renderer, OutputStream out) throws IOException {
+        if (!enabled) {
+            renderer.write(out);
+            return;
+        }
+        String fingerprint;
+        try {
+            fingerprint = fingerprint(scenarioId, sections, renderSettings);
+        } catch (SQLException | IOException e) {
+            logger.warn("Impossibile calcolare l'impronta dello scenario {}: PDF generato senza cache. {}", scenarioId, e.getMessage());
+            renderer.write(out);
+            return;
+        }
+        String prefix = scenarioId + "-" + Integer.toHexString(sectionMask(sections)) + "-";
+        String fileName = prefix + fingerprint + EXTENSION;
+
+        if (copyCached(fileName, out)) {
+            logger.info("PDF dello scenario {} servito dalla cache", scenarioId);
+            return;
+        }
+
+        CompletableFuture<Boolean> own = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = inFlight.putIfAbsent(fileName, own);
+        if (running != null) {
+            // Un'altra richiesta sta generando lo stesso PDF: se la generazione fallisce l'errore viene propagato,
+            // senza ripeterla; se riesce il PDF viene letto dalla cache.
+            boolean stored = await(running);
+            if (stored && copyCached(fileName, out)) {
+                return;
+            }
+            // Il PDF supera la dimensione della cache (o è già stato rimosso): va generato per questa richiesta.
+            renderer.write(out);
+            return;
+        }
+        Path temp = null;
+        try {
+            boolean stored;
+            try {
+                temp = Files.createTempFile(cacheDir, "pdf-", ".tmp");
+                try (OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                    renderer.write(fileOut);
+                }
+                stored = store(prefix, fileName, temp);
+            } catch (IOException | RuntimeException e) {
+                own.completeExceptionally(e);
+                throw e;
+            }
+            own.complete(stored);
+            // Un errore nella scrittura verso questo client non riguarda le richieste in attesa.
+            Files.copy(stored ? cacheDir.resolve(fileName) : temp, out);
+        } finally {
+            own.completeExceptionally(new IOException("Generazione PDF interrotta"));
+            inFlight.remove(fileName, own);
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Elimina dalla cache tutti i PDF di uno scenario.
+     *
+     * @param scenarioId L'ID dello scenario.
+     */
+    public void evictScenario(int scenarioId) {
+        if (!enabled) {
+            return;
+        }
+        String prefix = scenarioId + "-";
+        synchronized (this) {
+            removeMatching(name -> name.startsWith(prefix));
+        }
+    }
+
+    /**
+     * Calcola l'impronta dei dati di uno scenario inclusi nel PDF.
+     *
+     * @param scenarioId     L'ID dello scenario.
+     * @param sections       Le sezioni incluse nel PDF.
+     * @param renderSettings Le impostazioni di configurazione che influiscono sul contenuto del PDF.
+     * @return L'impronta, in esadecimale.
+     * @throws SQLException Se si verifica un errore di accesso al database.
+     * @throws IOException  Se non è possibile leggere lo stato dei file.
+     */
+    private String fingerprint(int scenarioId, PdfSections sections, String renderSettings) throws SQLException, IOException {
+        MessageDigest digest = sha256();
+        update(digest, "v" + LAYOUT_VERSION + "/" + renderSettings);
+        update(digest, "/" + ScenarioVersionHelper.getVersion(scenarioId));
+
+        // Il contenuto delle immagini è nel PDF solo se incorporate; il nome di un file può essere sovrascritto
+        // con un contenuto diverso, per cui conta lo stato su disco.
+        List<String> media = new ArrayList<>();
+        if (sections.esamImg()) {
+            try (Connection conn = DBConnect.getInstance().getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(MEDIA_QUERY)) {
+                stmt.setInt(1, scenarioId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        media.add(rs.getString(1));
+                    }
+                }
+            }
+        }
+        media.add(LogoLoader.CENTER_LOGO_FILENAME);
+        for (String filename : media) {
+            update(digest, filename);
+            try {
+                Path path = fileStorageService.resolveFile(filename);
+                if (Files.exists(path)) {
+                    update(digest, Files.size(path) + "@" + Files.getLastModifiedTime(path).toMillis());
+                }
+            } catch (IOException e) {
+                update(digest, "?");
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest(), 0, 16);
+    }
+
+    /**
+     * Crea, se non esistono, la tabella e i trigger delle versioni degli scenari su cui si basa la chiave.
+     *
+     * @return <code>true</code> se le versioni sono disponibili e la cache è utilizzabile.
+     */
+    private static boolean ensureVersionSchema() {
+        try {
+            ScenarioVersionHelper.ensureScenarioVersionSchema();
+            return true;
+        } catch (SQLException e) {
+            logger.error("Impossibile inizializzare le versioni degli scenari: cache dei PDF disattivata.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Copia un PDF dalla cache nello stream indicato, aggiornandone l'ordine di utilizzo.
+     *
+     * @param fileName Il nome del file.
+     * @param out      Lo stream di destinazione.
+     * @return <code>true</code> se il PDF era presente ed è stato copiato.
+     * @throws IOException Se la scrittura nello stream fallisce.
+     */
+    private boolean copyCached(String fileName, OutputStream out) throws IOException {
+        synchronized (this) {
+            if (entries.get(fileName) == null) {
+                return false;
+            }
+        }
+        Path path = cacheDir.resolve(fileName);
+        InputStream in;
+        try {
+            in = Files.newInputStream(path);
+        } catch (IOException e) {
+            logger.warn("PDF in cache {} non leggibile, verrà rigenerato: {}", fileName, e.getMessage());
+            synchronized (this) {
+                removeMatching(fileName::equals);
+            }
+            return false;
+        }
+        try (in) {
+            in.transferTo(out);
+        }
+        try {
+            Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+        } catch (IOException e) {
+            logger.debug("Impossibile aggiornare la data di utilizzo del PDF {}: {}", fileName, e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Memorizza un PDF generato su file temporaneo, eliminando le versioni precedenti dello stesso
+     * scenario con le stesse sezioni e i PDF meno recenti se la dimensione massima viene superata.
+     *
+     * @param prefix   Il prefisso comune alle versioni dello stesso scenario e sezioni.
+     * @param fileName Il nome del file.
+     * @param temp     Il file temporaneo con il PDF, spostato nella cache in caso di successo.
+     * @return <code>true</code> se il PDF è stato memorizzato.
+     */
+    private boolean store(String prefix, String fileName, Path temp) {
+        long size;
+        try {
+            size = Files.size(temp);
+            if (size > maxSizeBytes) {
+                return false;
+            }
+            // Spostamento atomico: un lettore non vede mai un PDF parziale.
+            Files.move(temp, cacheDir.resolve(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Impossibile memorizzare il PDF {} nella cache: {}", fileName, e.getMessage());
+            return false;
+        }
+
+        synchronized (this) {
+            removeMatching(name -> name.startsWith(prefix) && !name.equals(fileName));
+            Long previous = entries.put(fileName, size);
+            totalSize += size - (previous != null ? previous : 0);
+            Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+            while (totalSize > maxSizeBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                if (eldest.getKey().equals(fileName)) {
+                    continue;
+                }
+                deleteFile(eldest.getKey());
+                totalSize -= eldest.getValue();
+                iterator.remove();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Elimina dall'indice e dal disco i PDF il cui nome soddisfa una condizione.
+     * Va invocato tenendo il lock dell'istanza.
+     *
+     * @param condition La condizione sul nome del file.
+     */
+    private void removeMatching(Predicate<String> condition) {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (condition.test(entry.getKey())) {
+                deleteFile(entry.getKey());
+                totalSize -= entry.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Crea la directory della cache e indicizza i PDF presenti, dal meno recente al più recente.
+     *
+     * @return <code>true</code> se la cache è utilizzabile.
+     */
+    private boolean loadIndex() {
+        try {
+            Files.createDirectories(cacheDir);
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir)) {
+                for (Path path : stream) {
+                    if (path.getFileName().toString().endsWith(".tmp")) {
+                        Files.deleteIfExists(path); // Scrittura interrotta da un arresto precedente
+                    } else if (Files.isRegularFile(path) && path.getFileName().toString().endsWith(EXTENSION)) {
+                        files.add(path);
+                    }
+                }
+            }
+            files.sort((a, b) -> {
+                try {
+                    return Files.getLastModifiedTime(a).compareTo(Files.getLastModifiedTime(b));
+                } catch (IOException e) {
+                    return 0;
+                }
+            });
+            synchronized (this) {
+                for (Path path : files) {
+                    long size = Files.size(path);
+                    entries.put(path.getFileName().toString(), size);
+                    totalSize += size;
+                }
+            }
+            logger.info("Cache dei PDF in {}: {} file, {} KB", cacheDir, files.size(), totalSize / 1024);
+            return true;
+        } catch (IOException e) {
+            logger.error("Impossibile inizializzare la cache dei PDF in {}: cache disattivata.", cacheDir, e);
+            return false;
+        }
+    }
+
+    /**
+     * Elimina un file della cache senza propagare gli errori.
+     *
+     * @param fileName Il nome del file.
+     */
+    private void deleteFile(String fileName) {
+        try {
+            Files.deleteIfExists(cacheDir.resolve(fileName));
+        } catch (IOException e) {
+            logger.warn("Impossibile eliminare il PDF {} dalla cache: {}", fileName, e.getMessage());
+        }
+    }
+
+    /**
+     * Attende una generazione in corso dello stesso PDF.
+     *
+     * @param running La generazione in corso.
+     * @return <code>true</code> se il PDF generato è stato memorizzato nella cache.
+     * @throws IOException Se la generazione è fallita.
+     */
+    private static boolean await(CompletableFuture<Boolean> running) throws IOException {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Generazione PDF fallita: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Codifica le sezioni incluse come maschera di bit, nell'ordine dei componenti di {@link PdfSections}.
+     *
+     * @param s Le sezioni incluse.
+     * @return La maschera di bit.
+     */
+    private static int sectionMask(PdfSections s) {
+        boolean[] flags = {s.desc(), s.brief(), s.infoGen(), s.patto(), s.azioni(), s.obiettivi(), s.moula(), s.liqui(),
+                s.matNec(), s.param(), s.acces(), s.fisic(), s.esam(), s.time(), s.scen(), s.esamImg()};
+        int mask = 0;
+        for (int i = 0; i < flags.length; i++) {
+            if (flags[i]) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Aggiunge una stringa all'impronta.
+     *
+     * @param digest L'impronta in costruzione.
+     * @param value  La stringa.
+     */
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Crea un nuovo calcolatore SHA-256.
+     *
+     * @return Il calcolatore.
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+
+    /**
+     * Generazione di un PDF, invocata quando il documento non è presente nella cache.
+     */
+    @FunctionalInterface
+    public interface PdfRenderer {
+        /**
+         * Genera il PDF e lo scrive nello stream indicato, senza chiuderlo.
+         *
+         * @param out Lo stream di destinazione.
+         * @throws IOException Se la generazione fallisce.
+         */
+        void write(OutputStream out) throws IOException;
+    }
+}
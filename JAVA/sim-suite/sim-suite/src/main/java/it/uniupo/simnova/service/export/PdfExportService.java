@@ -1,24 +1,22 @@
 package it.uniupo.simnova.service.export;
 
 import it.uniupo.simnova.domain.scenario.Scenario;
-import it.uniupo.simnova.service.export.helper.pdf.LogoLoader;
+import it.uniupo.simnova.service.export.helper.pdf.PdfRenderContext;
 import it.uniupo.simnova.service.scenario.components.*;
 import it.uniupo.simnova.service.scenario.types.AdvancedScenarioService;
 import it.uniupo.simnova.service.scenario.types.PatientSimulatedScenarioService;
 import it.uniupo.simnova.service.storage.FileStorageService;
 import it.uniupo.simnova.service.scenario.ScenarioService;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.pdmodel.PDPageContentStream;
-import org.apache.pdfbox.pdmodel.common.PDRectangle;
-import org.apache.pdfbox.pdmodel.font.PDFont;
-import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import static it.uniupo.simnova.service.export.helper.pdf.LoadFont.loadFont;
 import static it.uniupo.simnova.service.export.helper.pdf.LogoLoader.loadCenterLogo;
@@ -29,7 +27,6 @@ import static it.uniupo.simnova.service.export.helper.pdf.ScenarioHeader.createS
 import static it.uniupo.simnova.service.export.helper.pdf.ScenarioPatient.createPatientSection;
 import static it.uniupo.simnova.service.export.helper.pdf.ScenarioSceneggiatura.createSceneggiaturaSection;
 import static it.uniupo.simnova.service.export.helper.pdf.ScenarioTimeline.createTimelineSection;
-import static it.uniupo.simnova.service.export.helper.pdf.PdfConstant.*;
 
 /**
  * Servizio per l'esportazione di scenari in formato PDF.
@@ -47,58 +44,6 @@ public class PdfExportService {
      */
     private static final Logger logger = LoggerFactory.getLogger(PdfExportService.class);
 
-    /**
-     * La posizione corrente sull'asse Y per il disegno del contenuto nella pagina PDF.
-     * Viene aggiornata dinamicamente durante la generazione del documento.
-     */
-    public static float currentYPosition;
-
-    /**
-     * Lo stream di contenuto corrente utilizzato per disegnare elementi sulla pagina PDF.
-     */
-    public static PDPageContentStream currentContentStream;
-
-    /**
-     * Il font PDF utilizzato per il testo in grassetto.
-     */
-    public static PDFont FONTBOLD;
-
-    /**
-     * Il font PDF utilizzato per il testo in grassetto e corsivo.
-     */
-    public static PDFont FONTBOLDITALIC;
-
-    /**
-     * Il font PDF utilizzato per il testo normale.
-     */
-    public static PDFont FONTREGULAR;
-
-    /**
-     * Il font PDF utilizzato per il testo in corsivo.
-     */
-    public static PDFont FONTITALIC;
-
-    /**
-     * Il numero della pagina corrente del documento PDF.
-     * Inizializzato a 1 e incrementato a ogni nuova pagina.
-     */
-    private static int pageNumber = 1;
-
-    /**
-     * Il documento PDF su cui si sta lavorando.
-     */
-    private static PDDocument document;
-
-    /**
-     * L'oggetto immagine del logo principale da inserire nel PDF.
-     */
-    private static PDImageXObject logo;
-
-    /**
-     * L'oggetto immagine del logo centrale da inserire nel PDF.
-     */
-    private static PDImageXObject centerLogo;
-
     /**
      * Servizio per la gestione dello storage dei file, utilizzato per caricare loghi o immagini.
      */
@@ -144,6 +89,27 @@ public class PdfExportService {
      */
     private final AdvancedScenarioService advancedScenarioService;
 
+    /**
+     * Cache su disco dei PDF già generati.
+     */
+    private final PdfCacheService pdfCacheService;
+
+    /**
+     * Memoria massima (in byte) usata da PDFBox per gli stream di un documento; oltre questa soglia
+     * i dati vengono spostati in un file temporaneo, per cui PDF con molte immagini o timeline lunghe
+     * non occupano memoria proporzionale alla loro dimensione.
+     */
+    private final long maxMainMemoryBytes;
+    /**
+     * Risoluzione di stampa (in punti per pollice) delle immagini degli esami incorporate nel PDF.
+     */
+    private final int examImageDpi;
+    /**
+     * Impostazioni che influiscono sul contenuto del PDF, incluse nella chiave della cache: un PDF generato
+     * con impostazioni diverse non viene restituito.
+     */
+    private final String renderSettings;
+
     /**
      * Costruisce una nuova istanza di <code>PdfExportService</code>.
      * Inietta tutte le dipendenze dei servizi necessari per la generazione del PDF.
@@ -157,6 +123,9 @@ public class PdfExportService {
      * @param esameRefertoService             Il servizio per gli esami e referti.
      * @param esameFisicoService              Il servizio per l'esame fisico.
      * @param advancedScenarioService         Il servizio per gli scenari avanzati.
+     * @param pdfCacheService                 La cache dei PDF generati.
+     * @param maxMainMemoryMb                 La memoria massima per documento prima di usare un file temporaneo, in megabyte.
+     * @param examImageDpi                    La risoluzione di stampa delle immagini degli esami.
      */
     public PdfExportService(ScenarioService scenarioService,
                             FileStorageService fileStorageService,
@@ -165,7 +134,10 @@ public class PdfExportService {
                             AzioneChiaveService azioneChiaveService,
                             PazienteT0Service pazienteT0Service,
                             EsameRefertoService esameRefertoService,
-                            EsameFisicoService esameFisicoService, AdvancedScenarioService advancedScenarioService) {
+                            EsameFisicoService esameFisicoService, AdvancedScenarioService advancedScenarioService,
+                            PdfCacheService pdfCacheService,
+                            @Value("${export.pdf.max-main-memory-mb:16}") long maxMainMemoryMb,
+                            @Value("${export.pdf.exam-images.dpi:150}") int examImageDpi) {
         this.scenarioService = scenarioService;
         this.fileStorageService = fileStorageService;
         this.materialeService = materialeService;
@@ -175,102 +147,18 @@ public class PdfExportService {
         this.esameRefertoService = esameRefertoService;
         this.esameFisicoService = esameFisicoService;
         this.advancedScenarioService = advancedScenarioService;
-    }
-
-    /**
-     * Inizializza una nuova pagina all'interno del documento PDF.
-     * Questa operazione include la chiusura dello stream di contenuto precedente (se esistente),
-     * l'aggiunta di una nuova pagina al documento, l'apertura di un nuovo stream di contenuto
-     * e l'inserimento dei loghi (solo sulla prima pagina) e l'impostazione della posizione
-     * iniziale per il disegno del contenuto.
-     *
-     * @throws IOException se si verifica un errore durante la creazione della pagina o la gestione dello stream.
-     */
-    public static void initNewPage() throws IOException {
-        // Chiude lo stream di contenuto precedente se è aperto, per evitare sovrapposizioni.
-        if (currentContentStream != null) {
-            try {
-                currentContentStream.close();
-            } catch (Exception e) {
-                logger.warn("Errore durante la chiusura dello stream del contenuto corrente: {}", e.getMessage());
-            }
-        }
-
-        // Crea e aggiunge una nuova pagina al documento PDF.
-        PDPage currentPage = new PDPage(PDRectangle.A4);
-        document.addPage(currentPage);
-
-        // Apre un nuovo stream di contenuto per la pagina appena creata.
-        currentContentStream = new PDPageContentStream(document, currentPage);
-
-        // Gestione specifica per la prima pagina (aggiunta loghi).
-        if (pageNumber == 1) {
-            float simLogoWidth = 40;
-            float simLogoHeight = 40;
-
-            float centerLogoMaxWidth = 120;
-            float centerLogoMaxHeight = 80;
-
-            float centerLogoWidth;
-            float centerLogoHeight = 0;
-
-            // Calcola la posizione Y per il logo principale.
-            float simLogoY = PDRectangle.A4.getHeight() - MARGIN - simLogoHeight;
-
-            // Disegna il logo principale se disponibile.
-            if (logo != null) {
-                currentContentStream.drawImage(logo, MARGIN, simLogoY, simLogoWidth, simLogoHeight);
-            }
-
-            // Disegna il logo centrale se disponibile, scalando per adattarsi.
-            if (centerLogo != null) {
-                float scale = Math.min(
-                        centerLogoMaxWidth / LogoLoader.centerLogoWidth,
-                        centerLogoMaxHeight / LogoLoader.centerLogoHeight
-                );
-
-                centerLogoWidth = LogoLoader.centerLogoWidth * scale;
-                centerLogoHeight = LogoLoader.centerLogoHeight * scale;
-
-                float centerLogoX = (PDRectangle.A4.getWidth() - centerLogoWidth) / 2;
-                float centerLogoY = PDRectangle.A4.getHeight() - MARGIN - centerLogoHeight;
-
-                currentContentStream.drawImage(centerLogo, centerLogoX, centerLogoY, centerLogoWidth, centerLogoHeight);
-            }
-
-            // Imposta la posizione Y iniziale per il contenuto, sotto i loghi.
-            float lowestY = simLogoY;
-            if (centerLogo != null) {
-                lowestY = Math.min(lowestY, PDRectangle.A4.getHeight() - MARGIN - centerLogoHeight);
-            }
-            currentYPosition = lowestY - LEADING;
-        } else {
-            // Per le pagine successive alla prima, la posizione Y inizia dall'alto, sotto il margine.
-            currentYPosition = PDRectangle.A4.getHeight() - MARGIN;
-        }
-        // Incrementa il numero di pagina.
-        pageNumber++;
-    }
-
-    /**
-     * Controlla se è necessario creare una nuova pagina nel documento PDF.
-     * Se lo spazio rimanente sulla pagina corrente è inferiore allo spazio richiesto dal prossimo contenuto,
-     * viene invocato {@link #initNewPage()} per passare a una nuova pagina.
-     *
-     * @param neededSpace Lo spazio in punti PDF necessario per il prossimo blocco di contenuto.
-     * @throws IOException se si verifica un errore durante la creazione della nuova pagina.
-     */
-    public static void checkForNewPage(float neededSpace) throws IOException {
-        // Se la posizione Y corrente meno lo spazio necessario è inferiore al margine inferiore, crea una nuova pagina.
-        if (currentYPosition - neededSpace < MARGIN) {
-            initNewPage();
-        }
+        this.pdfCacheService = pdfCacheService;
+        this.maxMainMemoryBytes = Math.max(0, maxMainMemoryMb) * 1024 * 1024;
+        this.examImageDpi = Math.max(72, examImageDpi);
+        this.renderSettings = "exam-images.dpi=" + this.examImageDpi;
     }
 
     /**
      * Esporta uno scenario e i suoi dati correlati in un documento PDF.
      * Il metodo consente di includere o escludere sezioni specifiche del contenuto
-     * tramite i flag booleani forniti.
+     * tramite i flag booleani forniti; le immagini degli esami non vengono incorporate
+     * (vedi {@link PdfSections#esamImg()}). Se lo scenario non è cambiato dall'ultima esportazione
+     * con le stesse sezioni, il PDF viene restituito dalla {@link PdfCacheService cache}.
      *
      * @param scenarioId L'ID dello scenario da esportare.
      * @param desc       Flag per includere la descrizione dello scenario.
@@ -307,75 +195,94 @@ public class PdfExportService {
                                       boolean esam,
                                       boolean time,
                                       boolean scen) throws IOException {
+        return exportScenarioToPdf(scenarioId, new PdfSections(desc, brief, infoGen, patto, azioni, obiettivi, moula,
+                liqui, matNec, param, acces, fisic, esam, time, scen, false));
+    }
 
-        // Inizializza le variabili statiche per una nuova esportazione.
-        document = null;
-        currentContentStream = null;
-        pageNumber = 1;
+    /**
+     * Scrive il PDF di uno scenario direttamente nello stream indicato, senza creare copie in memoria
+     * dell'intero documento. Da preferire a {@link #exportScenarioToPdf(int, PdfSections)} per download e archivi.
+     *
+     * @param scenarioId L'ID dello scenario da esportare.
+     * @param sections   Le sezioni da includere.
+     * @param out        Lo stream in cui scrivere il PDF (non viene chiuso).
+     * @throws IOException se si verifica un errore durante la generazione o la scrittura del PDF.
+     */
+    public void writeScenarioToPdf(int scenarioId, PdfSections sections, OutputStream out) throws IOException {
+        pdfCacheService.writeTo(scenarioId, sections, renderSettings, target -> renderScenarioPdf(scenarioId, sections, target), out);
+    }
+
+    /**
+     * Genera il PDF di uno scenario con le sezioni indicate, senza passare dalla cache.
+     *
+     * @param scenarioId L'ID dello scenario da esportare.
+     * @param sections   Le sezioni da includere.
+     * @param out        Lo stream in cui scrivere il PDF (non viene chiuso).
+     * @throws IOException se si verifica un errore durante la generazione del PDF.
+     */
+    private void renderScenarioPdf(int scenarioId, PdfSections sections, OutputStream out) throws IOException {
+        // Ogni esportazione lavora sul proprio documento e sul proprio contesto di disegno,
+        // per cui più esportazioni possono essere eseguite contemporaneamente.
+        PDDocument document = null;
+        PdfRenderContext context = null;
 
         try {
-            document = new PDDocument();
+            // Gli stream del documento restano in memoria fino alla soglia configurata, poi usano un file temporaneo.
+            document = new PDDocument(MemoryUsageSetting.setupMixed(maxMainMemoryBytes).streamCache);
+            context = new PdfRenderContext(document, true);
 
             // Carica tutti i font necessari per il documento PDF.
-            FONTREGULAR = loadFont(document, "/fonts/LiberationSans-Regular.ttf");
-            FONTBOLD = loadFont(document, "/fonts/LiberationSans-Bold.ttf");
-            FONTITALIC = loadFont(document, "/fonts/LiberationSans-Italic.ttf");
-            FONTBOLDITALIC = loadFont(document, "/fonts/LiberationSans-BoldItalic.ttf");
+            context.setFonts(loadFont(document, "/fonts/LiberationSans-Regular.ttf"),
+                    loadFont(document, "/fonts/LiberationSans-Bold.ttf"),
+                    loadFont(document, "/fonts/LiberationSans-Italic.ttf"),
+                    loadFont(document, "/fonts/LiberationSans-BoldItalic.ttf"));
 
             // Carica le immagini dei loghi.
-            logo = loadLogo(document);
-            centerLogo = loadCenterLogo(document, fileStorageService);
+            context.setLogos(loadLogo(document), loadCenterLogo(document, fileStorageService));
 
             // Inizializza la prima pagina del documento.
-            initNewPage();
+            context.initNewPage();
 
             // Recupera l'oggetto Scenario principale.
             Scenario scenario = scenarioService.getScenarioById(scenarioId);
             logger.info("Recuperato scenario con titolo: {}", scenario.getTitolo());
 
             // Crea la sezione dell'intestazione dello scenario.
-            createScenarioHeader(scenario);
+            createScenarioHeader(context, scenario);
 
             // Crea la sezione della descrizione dello scenario e i suoi sotto componenti, basandosi sui flag.
-            createScenarioDescription(scenario, desc, brief, infoGen, patto, azioni, obiettivi, moula, liqui, matNec, scenarioService, materialeService, azioneChiaveService);
+            createScenarioDescription(context, scenario, sections.desc(), sections.brief(), sections.infoGen(), sections.patto(),
+                    sections.azioni(), sections.obiettivi(), sections.moula(), sections.liqui(), sections.matNec(), scenarioService, materialeService, azioneChiaveService);
 
             // Crea la sezione relativa al paziente, basandosi sui flag.
-            createPatientSection(scenarioId, param, acces, fisic, pazienteT0Service, esameFisicoService);
+            createPatientSection(context, scenarioId, sections.param(), sections.acces(), sections.fisic(), pazienteT0Service, esameFisicoService);
 
             // Crea la sezione degli esami e referti, basandosi sul flag.
-            createExamsSection(scenarioId, esam, esameRefertoService);
+            createExamsSection(context, scenarioId, sections.esam(), sections.esamImg(), examImageDpi,
+                    esameRefertoService, fileStorageService);
 
             // Recupera il tipo di scenario per gestire sezioni condizionali.
             String scenarioType = scenarioService.getScenarioType(scenarioId);
 
             // Aggiunge la sezione timeline se lo scenario è "Advanced Scenario" o "Patient Simulated Scenario" e il flag 'time' è true.
             if (scenarioType != null && (scenarioType.equals("Advanced Scenario") ||
-                    scenarioType.equals("Patient Simulated Scenario")) && time) {
-                createTimelineSection(scenario, advancedScenarioService, scenarioService);
+                    scenarioType.equals("Patient Simulated Scenario")) && sections.time()) {
+                createTimelineSection(context, scenario, advancedScenarioService, scenarioService);
                 logger.info("Sezione Timeline creata per lo scenario {}", scenario.getTitolo());
             }
 
             // Aggiunge la sezione sceneggiatura solo se lo scenario è "Patient Simulated Scenario" e il flag 'scen' è true.
-            if (scenarioType != null && scenarioType.equals("Patient Simulated Scenario") && scen) {
-                createSceneggiaturaSection(scenario, true, patientSimulatedScenarioService);
+            if (scenarioType != null && scenarioType.equals("Patient Simulated Scenario") && sections.scen()) {
+                createSceneggiaturaSection(context, scenario, true, patientSimulatedScenarioService);
                 logger.info("Sezione Sceneggiatura creata per lo scenario {}", scenario.getTitolo());
             }
 
             // Chiude l'ultimo stream di contenuto attivo prima di salvare il documento.
-            if (currentContentStream != null) {
-                try {
-                    currentContentStream.close();
-                    currentContentStream = null; // Imposta a null per sicurezza.
-                } catch (Exception e) {
-                    logger.warn("Errore durante la chiusura dello stream di contenuto finale: {}", e.getMessage());
-                }
-            }
+            context.closeContentStream();
 
-            // Salva il documento PDF in un ByteArrayOutputStream e lo restituisce come array di byte.
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            document.save(outputStream);
+            // Salva il documento direttamente nello stream di destinazione, senza copie intermedie.
+            document.save(out);
             logger.info("PDF salvato con successo per lo scenario {}", scenario.getTitolo());
-            return outputStream.toByteArray();
 
         } catch (Exception e) {
             // Gestione degli errori durante la generazione del PDF.
@@ -383,12 +290,8 @@ public class PdfExportService {
             throw new IOException("Generazione PDF fallita: " + e.getMessage(), e);
         } finally {
             // Blocco finally per assicurarsi che tutti gli stream e il documento vengano chiusi.
-            if (currentContentStream != null) {
-                try {
-                    currentContentStream.close();
-                } catch (Exception e) {
-                    logger.warn("Errore nella chiusura dello stream nel blocco finally: {}", e.getMessage());
-                }
+            if (context != null) {
+                context.closeContentStream();
             }
             if (document != null) {
                 try {
@@ -399,4 +302,20 @@ public class PdfExportService {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Esporta uno scenario in un documento PDF includendo le sezioni indicate.
+     *
+     * @param scenarioId L'ID dello scenario da esportare.
+     * @param sections   Le sezioni da includere.
+     * @return Un array di byte contenente il documento PDF generato.
+     * @throws IOException se si verifica un errore durante la generazione del PDF.
+     * @see #exportScenarioToPdf(int, boolean, boolean, boolean, boolean, boolean, boolean, boolean, boolean,
+     * boolean, boolean, boolean, boolean, boolean, boolean, boolean)
+     */
+    public byte[] exportScenarioToPdf(int scenarioId, PdfSections sections) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        writeScenarioToPdf(scenarioId, sections, outputStream);
+        return outputStream.toByteArray();
+    }
+}
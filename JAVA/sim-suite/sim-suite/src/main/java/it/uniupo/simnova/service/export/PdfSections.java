@@ -0,0 +1,108 @@
+package it.uniupo.simnova.service.export;
+
+/**
+ * Insieme delle sezioni da includere nel PDF di uno scenario, nello stesso ordine dei flag di
+ * {@link PdfExportService#exportScenarioToPdf(int, boolean, boolean, boolean, boolean, boolean, boolean,
+ * boolean, boolean, boolean, boolean, boolean, boolean, boolean, boolean, boolean)}, più l'opzione
+ * per incorporare le immagini degli esami.
+ *
+ * @param desc      Flag per includere la descrizione.
+ * @param brief     Flag per includere il briefing.
+ * @param infoGen   Flag per includere le informazioni dai genitori.
+ * @param patto     Flag per includere il patto d'aula.
+ * @param azioni    Flag per includere le azioni chiave.
+ * @param obiettivi Flag per includere gli obiettivi didattici.
+ * @param moula     Flag per includere il moulage.
+ * @param liqui     Flag per includere liquidi e dosi farmaci.
+ * @param matNec    Flag per includere il materiale necessario.
+ * @param param     Flag per includere i parametri vitali.
+ * @param acces     Flag per includere gli accessi.
+ * @param fisic     Flag per includere l'esame fisico.
+ * @param esam      Flag per includere gli esami e referti.
+ * @param time      Flag per includere la timeline (per scenari avanzati/simulati).
+ * @param scen      Flag per includere la sceneggiatura (solo per scenari simulati).
+ * @param esamImg   Flag per incorporare le immagini degli esami, ridotte alla risoluzione di stampa.
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+public record PdfSections(boolean desc,
+                          boolean brief,
+                          boolean infoGen,
+                          boolean patto,
+                          boolean azioni,
+                          boolean obiettivi,
+                          boolean moula,
+                          boolean liqui,
+                          boolean matNec,
+                          boolean param,
+                          boolean acces,
+                          boolean fisic,
+                          boolean esam,
+                          boolean time,
+                          boolean scen,
+                          boolean esamImg) {
+
+    /**
+     * Tutte le sezioni.
+     */
+    public static final PdfSections ALL = new PdfSections(true, true, true, true, true, true, true, true,
+            true, true, true, true, true, true, true, true);
+
+    /**
+     * Combinazioni predefinite di sezioni proposte nell'esportazione multipla.
+     */
+    public enum Preset {
+        /**
+         * Documento completo, con tutte le sezioni.
+         */
+        COMPLETO("Completo (tutte le sezioni)", ALL),
+        /**
+         * Materiale per i partecipanti: contesto dello scenario e paziente in T0, senza le informazioni riservate alla conduzione.
+         */
+        BRIEFING("Briefing per i partecipanti", new PdfSections(true, true, true, true, false, false, false, false,
+                false, true, true, false, false, false, false, false)),
+        /**
+         * Dati clinici e di allestimento per chi conduce la simulazione.
+         */
+        CONDUZIONE("Conduzione e allestimento", new PdfSections(false, false, false, false, true, true, true, true,
+                true, true, true, true, true, true, true, true));
+
+        /**
+         * Etichetta mostrata all'utente.
+         */
+        private final String label;
+        /**
+         * Sezioni incluse.
+         */
+        private final PdfSections sections;
+
+        /**
+         * Crea una combinazione predefinita.
+         *
+         * @param label    Etichetta mostrata all'utente.
+         * @param sections Sezioni incluse.
+         */
+        Preset(String label, PdfSections sections) {
+            this.label = label;
+            this.sections = sections;
+        }
+
+        /**
+         * Restituisce l'etichetta della combinazione.
+         *
+         * @return L'etichetta mostrata all'utente.
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Restituisce le sezioni incluse.
+         *
+         * @return Le sezioni della combinazione.
+         */
+        public PdfSections getSections() {
+            return sections;
+        }
+    }
+}
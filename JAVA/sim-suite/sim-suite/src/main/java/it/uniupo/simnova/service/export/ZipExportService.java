@@ -5,13 +5,14 @@ import it.uniupo.simnova.service.storage.FileStorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -47,39 +48,66 @@ public class ZipExportService {
      */
     private final JSONExportService jsonExportService;
 
+    /**
+     * Formato predefinito del file dello scenario negli archivi per sim.execution.
+     * Viene configurato tramite la proprietà "export.scenario-format" in application.properties.
+     */
+    private final ScenarioFormat defaultScenarioFormat;
+
     /**
      * Costruisce una nuova istanza di <code>ZipExportService</code>.
      * Inietta le dipendenze dei servizi necessari per l'esportazione.
      *
-     * @param fileStorageService Il servizio per la gestione dei file.
-     * @param pdfExportService   Il servizio per l'esportazione in PDF.
-     * @param jsonExportService  Il servizio per l'esportazione in JSON.
+     * @param fileStorageService    Il servizio per la gestione dei file.
+     * @param pdfExportService      Il servizio per l'esportazione in PDF.
+     * @param jsonExportService     Il servizio per l'esportazione in JSON.
+     * @param defaultScenarioFormat Il formato predefinito del file dello scenario (<code>JSON</code> o <code>CBOR</code>).
      */
     @Autowired
-    public ZipExportService(FileStorageService fileStorageService, PdfExportService pdfExportService, JSONExportService jsonExportService) {
+    public ZipExportService(FileStorageService fileStorageService, PdfExportService pdfExportService, JSONExportService jsonExportService,
+                            @Value("${export.scenario-format:JSON}") ScenarioFormat defaultScenarioFormat) {
         this.fileStorageService = fileStorageService;
         this.pdfExportService = pdfExportService;
         this.jsonExportService = jsonExportService;
+        this.defaultScenarioFormat = defaultScenarioFormat;
+    }
+
+    /**
+     * Esporta uno scenario in un file ZIP usando il formato predefinito configurato
+     * (proprietà "export.scenario-format", <code>JSON</code> se non specificata).
+     *
+     * @param scenarioId L'ID dello scenario da esportare.
+     * @return Un array di byte che rappresenta il file ZIP generato.
+     * @throws IOException se si verifica un errore durante la scrittura del file ZIP o l'accesso ai file.
+     * @see #exportScenarioToZip(Integer, ScenarioFormat)
+     */
+    public byte[] exportScenarioToZip(Integer scenarioId) throws IOException {
+        return exportScenarioToZip(scenarioId, defaultScenarioFormat);
     }
 
     /**
      * Esporta uno scenario in un file ZIP.
-     * Il file ZIP include la rappresentazione JSON dello scenario (<code>scenario.json</code>)
+     * Il file ZIP include la rappresentazione dello scenario nel formato richiesto
+     * (<code>scenario.json</code> oppure <code>scenario.cbor</code>)
      * e tutti i file multimediali associati, organizzati nella sotto cartella <code>esami/</code>.
      *
      * @param scenarioId L'ID dello scenario da esportare.
+     * @param format     Il formato del file dello scenario all'interno dello ZIP.
      * @return Un array di byte che rappresenta il file ZIP generato.
      * @throws IOException se si verifica un errore durante la scrittura del file ZIP o l'accesso ai file.
      */
-    public byte[] exportScenarioToZip(Integer scenarioId) throws IOException {
+    public byte[] exportScenarioToZip(Integer scenarioId, ScenarioFormat format) throws IOException {
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
              ZipOutputStream zipOut = new ZipOutputStream(baos)) {
 
-            // Aggiunge il file JSON dello scenario allo ZIP.
-            byte[] jsonBytes = jsonExportService.exportScenarioToJSON(scenarioId);
-            ZipEntry jsonEntry = new ZipEntry("scenario.json");
-            zipOut.putNextEntry(jsonEntry);
-            zipOut.write(jsonBytes);
+            // Aggiunge il file dello scenario (JSON o CBOR) allo ZIP.
+            byte[] scenarioBytes = format == ScenarioFormat.CBOR
+                    ? jsonExportService.exportScenarioToCBOR(scenarioId)
+                    : jsonExportService.exportScenarioToJSON(scenarioId);
+            logger.info("Scenario {} serializzato in formato {}: {} byte.", scenarioId, format, scenarioBytes.length);
+            ZipEntry scenarioEntry = new ZipEntry(format.getEntryName());
+            zipOut.putNextEntry(scenarioEntry);
+            zipOut.write(scenarioBytes);
             zipOut.closeEntry();
 
             // Recupera la lista dei nomi dei file multimediali associati allo scenario.
@@ -92,7 +120,7 @@ public class ZipExportService {
                 // Aggiunge ogni file multimediale allo ZIP nella sotto cartella "esami/".
                 for (String filename : mediaFiles) {
                     try {
-                        Path imagePath = Paths.get(fileStorageService.getMediaDirectory().toString(), filename);
+                        Path imagePath = fileStorageService.resolveFile(filename);
 
                         if (Files.exists(imagePath)) {
                             byte[] imageBytes = Files.readAllBytes(imagePath);
@@ -157,49 +185,96 @@ public class ZipExportService {
                                          boolean esam,
                                          boolean time,
                                          boolean scen) throws IOException {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-             ZipOutputStream zipOut = new ZipOutputStream(baos)) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writeScenarioPdfZip(scenarioId, new PdfSections(desc, brief, infoGen, patto, azioni, obiettivi, moula, liqui,
+                matNec, param, acces, fisic, esam, time, scen, false), baos);
+        return baos.toByteArray();
+    }
 
-            // Genera il PDF dello scenario e lo aggiunge allo ZIP.
-            byte[] pdfBytes = pdfExportService.exportScenarioToPdf(scenarioId, desc, brief, infoGen, patto, azioni, obiettivi, moula, liqui, matNec, param, acces, fisic, esam, time, scen);
-            ZipEntry pdfEntry = new ZipEntry("scenario.pdf");
-            zipOut.putNextEntry(pdfEntry);
-            zipOut.write(pdfBytes);
-            zipOut.closeEntry();
+    /**
+     * Scrive direttamente nello stream indicato il file ZIP con il PDF dello scenario (<code>scenario.pdf</code>)
+     * e i file multimediali associati nella sotto cartella <code>esami/</code>.
+     * Il PDF e i media vengono copiati nello ZIP man mano, senza copie complete in memoria.
+     *
+     * @param scenarioId L'ID dello scenario da esportare.
+     * @param sections   Le sezioni da includere nel PDF.
+     * @param out        Lo stream in cui scrivere lo ZIP (non viene chiuso).
+     * @throws IOException se si verifica un errore durante la generazione del PDF o la scrittura del file ZIP.
+     */
+    public void writeScenarioPdfZip(int scenarioId, PdfSections sections, OutputStream out) throws IOException {
+        ZipOutputStream zipOut = new ZipOutputStream(out);
 
-            // Recupera la lista dei nomi dei file multimediali associati allo scenario.
-            List<String> mediaFiles = MediaHelper.getMediaFilesForScenario(scenarioId);
-            if (!mediaFiles.isEmpty()) {
-                // Crea una directory virtuale "esami/" all'interno dello ZIP.
-                zipOut.putNextEntry(new ZipEntry("esami/"));
-                zipOut.closeEntry();
+        // Genera il PDF dello scenario direttamente nella voce dello ZIP.
+        zipOut.putNextEntry(new ZipEntry("scenario.pdf"));
+        pdfExportService.writeScenarioToPdf(scenarioId, sections, zipOut);
+        zipOut.closeEntry();
 
-                // Aggiunge ogni file multimediale allo ZIP nella sotto cartella "esami/".
-                for (String filename : mediaFiles) {
-                    try {
-                        Path imagePath = Paths.get(fileStorageService.getMediaDirectory().toString(), filename);
+        // Recupera la lista dei nomi dei file multimediali associati allo scenario.
+        List<String> mediaFiles = MediaHelper.getMediaFilesForScenario(scenarioId);
+        if (!mediaFiles.isEmpty()) {
+            // Crea una directory virtuale "esami/" all'interno dello ZIP.
+            zipOut.putNextEntry(new ZipEntry("esami/"));
+            zipOut.closeEntry();
 
-                        if (Files.exists(imagePath)) {
-                            byte[] imageBytes = Files.readAllBytes(imagePath);
-                            ZipEntry imageEntry = new ZipEntry("esami/" + filename);
-                            zipOut.putNextEntry(imageEntry);
-                            zipOut.write(imageBytes);
-                            zipOut.closeEntry();
-                        } else {
-                            logger.warn("Il file multimediale non esiste e non può essere aggiunto allo ZIP: {}", imagePath);
-                        }
-                    } catch (IOException e) {
-                        logger.error("Errore durante l'aggiunta del file multimediale '{}' allo ZIP: {}", filename, e.getMessage());
-                        // Continua con gli altri file anche in caso di errore su uno specifico.
-                    }
+            // Aggiunge ogni file multimediale allo ZIP nella sotto cartella "esami/".
+            for (String filename : mediaFiles) {
+                Path imagePath;
+                try {
+                    imagePath = fileStorageService.resolveFile(filename);
+                } catch (IOException e) {
+                    logger.error("Errore durante l'aggiunta del file multimediale '{}' allo ZIP: {}", filename, e.getMessage());
+                    continue;
                 }
+                if (!Files.exists(imagePath)) {
+                    logger.warn("Il file multimediale non esiste e non può essere aggiunto allo ZIP: {}", imagePath);
+                    continue;
+                }
+                // Un errore di scrittura a metà voce renderebbe lo ZIP inconsistente, per cui viene propagato.
+                zipOut.putNextEntry(new ZipEntry("esami/" + filename));
+                Files.copy(imagePath, zipOut);
+                zipOut.closeEntry();
             }
+        }
 
-            // Finalizza e svuota lo stream ZIP.
-            zipOut.finish();
-            zipOut.flush();
+        // Finalizza lo ZIP senza chiudere lo stream del chiamante.
+        zipOut.finish();
+        zipOut.flush();
+    }
 
-            return baos.toByteArray();
+    /**
+     * Formati disponibili per il file dello scenario negli archivi destinati a sim.execution.
+     */
+    public enum ScenarioFormat {
+        /**
+         * JSON leggibile (formato storico).
+         */
+        JSON("scenario.json"),
+        /**
+         * CBOR binario compatto, con lo stesso modello dati del JSON.
+         */
+        CBOR("scenario.cbor");
+
+        /**
+         * Nome dell'entry dello scenario all'interno dello ZIP.
+         */
+        private final String entryName;
+
+        /**
+         * Costruisce un formato associandolo al nome dell'entry nello ZIP.
+         *
+         * @param entryName Il nome dell'entry dello scenario.
+         */
+        ScenarioFormat(String entryName) {
+            this.entryName = entryName;
+        }
+
+        /**
+         * Restituisce il nome dell'entry dello scenario all'interno dello ZIP.
+         *
+         * @return Il nome dell'entry.
+         */
+        public String getEntryName() {
+            return entryName;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,201 @@
+package it.uniupo.simnova.service.export.helper;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.google.gson.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Classe di utilità per la codifica binaria compatta (CBOR) del modello di esportazione degli scenari.
+ * La struttura è esattamente quella prodotta da <code>Gson</code> per il file <code>scenario.json</code>:
+ * cambia solo la rappresentazione sul filo, per cui i nomi dei campi e i valori restano identici.
+ * Il documento viene preceduto dal tag CBOR "self-describe" (<code>0xD9D9F7</code>), che permette
+ * di riconoscere il formato in importazione senza dipendere dall'estensione del file.
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+public final class ScenarioCborCodec {
+
+    /**
+     * Factory CBOR condivisa (thread-safe), configurata per scrivere il tag self-describe in testa al documento.
+     */
+    private static final CBORFactory CBOR_FACTORY = CBORFactory.builder()
+            .enable(CBORGenerator.Feature.WRITE_TYPE_HEADER)
+            .build();
+
+    /**
+     * Costruttore privato per evitare l'istanza della classe, dato che contiene solo metodi statici.
+     */
+    private ScenarioCborCodec() {
+        // Costruttore privato per evitare l'istanza della classe.
+    }
+
+    /**
+     * Verifica se un array di byte contiene un documento CBOR prodotto da questa classe,
+     * controllando la presenza del tag self-describe nei primi tre byte.
+     *
+     * @param data I byte da verificare.
+     * @return <code>true</code> se i byte iniziano con il tag self-describe CBOR; <code>false</code> altrimenti.
+     */
+    public static boolean isCbor(byte[] data) {
+        return data != null && data.length >= 3
+                && (data[0] & 0xFF) == 0xD9
+                && (data[1] & 0xFF) == 0xD9
+                && (data[2] & 0xFF) == 0xF7;
+    }
+
+    /**
+     * Codifica un albero <code>Gson</code> in formato CBOR.
+     * I numeri interi vengono scritti come interi CBOR (1-9 byte), gli altri come double.
+     *
+     * @param element L'albero JSON da codificare.
+     * @return I byte del documento CBOR.
+     * @throws IOException Se si verifica un errore durante la scrittura.
+     */
+    public static byte[] encode(JsonElement element) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (CBORGenerator generator = CBOR_FACTORY.createGenerator(baos)) {
+            writeElement(generator, element);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decodifica un documento CBOR in un albero <code>Gson</code>, equivalente a quello che si otterrebbe
+     * leggendo il corrispondente <code>scenario.json</code>.
+     *
+     * @param data I byte del documento CBOR.
+     * @return L'albero JSON decodificato.
+     * @throws IOException Se il documento non è un CBOR valido.
+     */
+    public static JsonElement decode(byte[] data) throws IOException {
+        try (JsonParser parser = CBOR_FACTORY.createParser(data)) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                throw new IOException("Documento CBOR vuoto.");
+            }
+            return readElement(parser, token);
+        }
+    }
+
+    /**
+     * Scrive ricorsivamente un elemento <code>Gson</code> sul generatore CBOR.
+     *
+     * @param generator Il generatore CBOR di destinazione.
+     * @param element   L'elemento da scrivere.
+     * @throws IOException Se si verifica un errore durante la scrittura.
+     */
+    private static void writeElement(CBORGenerator generator, JsonElement element) throws IOException {
+        if (element == null || element.isJsonNull()) {
+            generator.writeNull();
+        } else if (element.isJsonObject()) {
+            JsonObject object = element.getAsJsonObject();
+            generator.writeStartObject(object, object.size());
+            for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                generator.writeFieldName(entry.getKey());
+                writeElement(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            generator.writeStartArray(array, array.size());
+            for (JsonElement item : array) {
+                writeElement(generator, item);
+            }
+            generator.writeEndArray();
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                generator.writeBoolean(primitive.getAsBoolean());
+            } else if (primitive.isNumber()) {
+                writeNumber(generator, primitive.getAsBigDecimal());
+            } else {
+                generator.writeString(primitive.getAsString());
+            }
+        }
+    }
+
+    /**
+     * Scrive un numero usando la rappresentazione CBOR più compatta che non perda informazione.
+     *
+     * @param generator Il generatore CBOR di destinazione.
+     * @param value     Il valore numerico da scrivere.
+     * @throws IOException Se si verifica un errore durante la scrittura.
+     */
+    private static void writeNumber(CBORGenerator generator, BigDecimal value) throws IOException {
+        try {
+            generator.writeNumber(value.longValueExact());
+        } catch (ArithmeticException e) {
+            // Valore non intero (o fuori dal range di long): viene scritto come double.
+            generator.writeNumber(value.doubleValue());
+        }
+    }
+
+    /**
+     * Legge ricorsivamente un elemento dal parser CBOR a partire dal token corrente.
+     *
+     * @param parser Il parser CBOR.
+     * @param token  Il token corrente.
+     * @return L'elemento <code>Gson</code> corrispondente.
+     * @throws IOException Se il documento non è valido.
+     */
+    private static JsonElement readElement(JsonParser parser, JsonToken token) throws IOException {
+        if (token == null) {
+            throw new IOException("Documento CBOR troncato.");
+        }
+        switch (token) {
+            case START_OBJECT -> {
+                JsonObject object = new JsonObject();
+                JsonToken next;
+                while ((next = parser.nextToken()) != JsonToken.END_OBJECT) {
+                    if (next == null) {
+                        throw new IOException("Documento CBOR troncato.");
+                    }
+                    if (next != JsonToken.FIELD_NAME) {
+                        throw new IOException("Token CBOR inatteso: " + next);
+                    }
+                    String name = parser.currentName();
+                    object.add(name, readElement(parser, parser.nextToken()));
+                }
+                return object;
+            }
+            case START_ARRAY -> {
+                JsonArray array = new JsonArray();
+                JsonToken next;
+                while ((next = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (next == null) {
+                        throw new IOException("Documento CBOR troncato.");
+                    }
+                    array.add(readElement(parser, next));
+                }
+                return array;
+            }
+            case VALUE_STRING -> {
+                return new JsonPrimitive(parser.getText());
+            }
+            case VALUE_NUMBER_INT -> {
+                return new JsonPrimitive(parser.getLongValue());
+            }
+            case VALUE_NUMBER_FLOAT -> {
+                return new JsonPrimitive(parser.getDoubleValue());
+            }
+            case VALUE_TRUE -> {
+                return new JsonPrimitive(true);
+            }
+            case VALUE_FALSE -> {
+                return new JsonPrimitive(false);
+            }
+            case VALUE_NULL -> {
+                return JsonNull.INSTANCE;
+            }
+            default -> throw new IOException("Token CBOR inatteso: " + token);
+        }
+    }
+}
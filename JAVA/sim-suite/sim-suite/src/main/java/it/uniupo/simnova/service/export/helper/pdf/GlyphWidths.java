@@ -0,0 +1,108 @@
+package it.uniupo.simnova.service.export.helper.pdf;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Cache delle larghezze dei caratteri (<em>advance width</em>) per i font di un documento.
+ * <p>
+ * {@link PDFont#getStringWidth(String)} codifica e misura ogni volta l'intera stringa; poiché la
+ * larghezza di un testo è la somma delle larghezze dei singoli caratteri, qui ogni carattere
+ * viene misurato una sola volta per font e le misure successive sono semplici somme.
+ * La cache appartiene a un singolo {@link PdfRenderContext} e non è thread-safe.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+public final class GlyphWidths {
+
+    /**
+     * Numero di code point (alfabeti latini, greco, cirillico e punteggiatura comune) le cui larghezze
+     * vengono memorizzate in un array; gli altri caratteri usano una mappa.
+     */
+    private static final int DIRECT_RANGE = 0x800;
+
+    /**
+     * Larghezze già misurate per ogni font del documento.
+     */
+    private final Map<PDFont, FontWidths> widths = new IdentityHashMap<>();
+
+    /**
+     * Calcola la larghezza di un testo.
+     *
+     * @param font     Il font con cui il testo verrà disegnato.
+     * @param text     Il testo da misurare.
+     * @param fontSize La dimensione del font.
+     * @return La larghezza in punti PDF.
+     * @throws IOException              Se non è possibile leggere le metriche del font.
+     * @throws IllegalArgumentException Se il font non contiene un carattere del testo.
+     */
+    public float width(PDFont font, String text, float fontSize) throws IOException {
+        FontWidths fontWidths = widths.computeIfAbsent(font, FontWidths::new);
+        float total = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            total += fontWidths.get(codePoint);
+            i += Character.charCount(codePoint);
+        }
+        return total / 1000 * fontSize;
+    }
+
+    /**
+     * Larghezze dei caratteri di un singolo font, in unità di testo (millesimi di em).
+     */
+    private static final class FontWidths {
+        /**
+         * Il font misurato.
+         */
+        private final PDFont font;
+        /**
+         * Larghezze dei primi {@link #DIRECT_RANGE} code point ({@link Float#NaN} se non ancora misurate).
+         */
+        private final float[] direct = new float[DIRECT_RANGE];
+        /**
+         * Larghezze dei code point fuori dall'intervallo diretto.
+         */
+        private final Map<Integer, Float> others = new HashMap<>();
+
+        /**
+         * Crea la cache per un font.
+         *
+         * @param font Il font da misurare.
+         */
+        FontWidths(PDFont font) {
+            this.font = font;
+            Arrays.fill(direct, Float.NaN);
+        }
+
+        /**
+         * Restituisce la larghezza di un carattere, misurandola al primo utilizzo.
+         *
+         * @param codePoint Il code point del carattere.
+         * @return La larghezza in unità di testo.
+         * @throws IOException Se non è possibile leggere le metriche del font.
+         */
+        float get(int codePoint) throws IOException {
+            if (codePoint < DIRECT_RANGE) {
+                float width = direct[codePoint];
+                if (Float.isNaN(width)) {
+                    width = font.getStringWidth(Character.toString(codePoint));
+                    direct[codePoint] = width;
+                }
+                return width;
+            }
+            Float width = others.get(codePoint);
+            if (width == null) {
+                width = font.getStringWidth(Character.toString(codePoint));
+                others.put(codePoint, width);
+            }
+            return width;
+        }
+    }
+}
@@ -4,7 +4,6 @@ import it.uniupo.simnova.domain.respons_model.LabCategory;
 import it.uniupo.simnova.domain.respons_model.LabExamSet;
 import it.uniupo.simnova.domain.respons_model.LabTest;
 import it.uniupo.simnova.domain.scenario.Scenario;
-import it.uniupo.simnova.service.export.LabExamPdfExportService;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.PDFont;
@@ -31,83 +30,86 @@ public class LabExamPdfHelper {
     /**
      * Crea la sezione completa del referto degli esami di laboratorio nel PDF.
      *
+     * @param context    Il contesto di disegno dell'esportazione corrente.
      * @param labExamSet I dati degli esami da stampare.
      * @param scenario   I dati dello scenario per l'intestazione (es. nome paziente).
      * @throws IOException Se si verifica un errore durante la scrittura nel PDF.
      */
-    public static void createLabExamSection(LabExamSet labExamSet, Scenario scenario) throws IOException {
-        LabExamPdfExportService.checkForNewPage(200);
+    public static void createLabExamSection(PdfRenderContext context, LabExamSet labExamSet, Scenario scenario) throws IOException {
+        context.checkForNewPage(200);
 
         // Titolo del referto
-        drawText(LabExamPdfExportService.FONTBOLD, 18, MARGIN, LabExamPdfExportService.currentYPosition, "Referto Esami di Laboratorio");
-        LabExamPdfExportService.currentYPosition -= LEADING * 2;
+        drawText(context, context.getFontBold(), 18, MARGIN, context.getYPosition(), "Referto Esami di Laboratorio");
+        context.moveDown(LEADING * 2);
 
         // Aggiunge data e ora correnti per completezza
         java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
         String dataOra = sdf.format(new java.util.Date());
-        drawText(LabExamPdfExportService.FONTREGULAR, 10, MARGIN, LabExamPdfExportService.currentYPosition, "Data referto: " + dataOra);
-        LabExamPdfExportService.currentYPosition -= LEADING * 1.5f;
+        drawText(context, context.getFontRegular(), 10, MARGIN, context.getYPosition(), "Data referto: " + dataOra);
+        context.moveDown(LEADING * 1.5f);
 
         // Dati del paziente
-        drawText(LabExamPdfExportService.FONTREGULAR, 12, MARGIN, LabExamPdfExportService.currentYPosition, "Paziente: " + scenario.getNomePaziente());
-        LabExamPdfExportService.currentYPosition -= LEADING * 2;
+        drawText(context, context.getFontRegular(), 12, MARGIN, context.getYPosition(), "Paziente: " + scenario.getNomePaziente());
+        context.moveDown(LEADING * 2);
 
         float tableWidth = PDRectangle.A4.getWidth() - 2 * MARGIN;
         float[] columnWidths = {tableWidth * 0.35f, tableWidth * 0.15f, tableWidth * 0.20f, tableWidth * 0.30f};
 
         for (LabCategory category : labExamSet.getCategorie()) {
-            LabExamPdfExportService.checkForNewPage(100);
+            context.checkForNewPage(100);
 
-            drawText(LabExamPdfExportService.FONTBOLD, 14, MARGIN, LabExamPdfExportService.currentYPosition, category.getNomeCategoria());
-            LabExamPdfExportService.currentYPosition -= LEADING * 1.5f;
+            drawText(context, context.getFontBold(), 14, MARGIN, context.getYPosition(), category.getNomeCategoria());
+            context.moveDown(LEADING * 1.5f);
 
-            drawTableHeader(columnWidths);
+            drawTableHeader(context, columnWidths);
 
             for (LabTest test : category.getTest()) {
-                LabExamPdfExportService.checkForNewPage(40);
-                drawTableRow(test, columnWidths);
+                context.checkForNewPage(40);
+                drawTableRow(context, test, columnWidths);
             }
-            LabExamPdfExportService.currentYPosition -= LEADING;
+            context.moveDown(LEADING);
         }
     }
 
     /**
      * Disegna l'intestazione della tabella per gli esami di laboratorio.
      *
+     * @param context      Il contesto di disegno dell'esportazione corrente.
      * @param columnWidths Le larghezze delle colonne della tabella.
      * @throws IOException Se si verifica un errore durante la scrittura nel PDF.
      */
-    private static void drawTableHeader(float[] columnWidths) throws IOException {
-        PDPageContentStream stream = LabExamPdfExportService.currentContentStream;
+    private static void drawTableHeader(PdfRenderContext context, float[] columnWidths) throws IOException {
+        PDPageContentStream stream = context.getContentStream();
         float x = MARGIN;
         String[] headers = {"Esame", "Valore", "Unità di Misura", "Range di Riferimento"};
         for (int i = 0; i < headers.length; i++) {
             // Utilizza la funzione di utilità per coerenza
-            drawText(LabExamPdfExportService.FONTBOLD, 10, x + 2, LabExamPdfExportService.currentYPosition, headers[i]);
+            drawText(context, context.getFontBold(), 10, x + 2, context.getYPosition(), headers[i]);
             x += columnWidths[i];
         }
-        LabExamPdfExportService.currentYPosition -= LEADING;
+        context.moveDown(LEADING);
         // Disegna una linea sotto l'header
-        stream.moveTo(MARGIN, LabExamPdfExportService.currentYPosition);
-        stream.lineTo(MARGIN + PDRectangle.A4.getWidth() - 2 * MARGIN, LabExamPdfExportService.currentYPosition);
+        stream.moveTo(MARGIN, context.getYPosition());
+        stream.lineTo(MARGIN + PDRectangle.A4.getWidth() - 2 * MARGIN, context.getYPosition());
         stream.stroke();
-        LabExamPdfExportService.currentYPosition -= 10;
+        context.moveDown(10);
     }
 
     /**
      * Disegna una riga della tabella per un test di laboratorio.
      *
+     * @param context      Il contesto di disegno dell'esportazione corrente.
      * @param test         Il test da disegnare.
      * @param columnWidths Le larghezze delle colonne della tabella.
      * @throws IOException Se si verifica un errore durante la scrittura nel PDF.
      */
-    private static void drawTableRow(LabTest test, float[] columnWidths) throws IOException {
+    private static void drawTableRow(PdfRenderContext context, LabTest test, float[] columnWidths) throws IOException {
         // Definisce font e dimensione per questa riga
         final float fontSize = 10;
-        final PDFont font = LabExamPdfExportService.FONTREGULAR;
+        final PDFont font = context.getFontRegular();
 
         float x = MARGIN;
-        float y = LabExamPdfExportService.currentYPosition;
+        float y = context.getYPosition();
 
         String[] rowData = {
                 test.getNome(),
@@ -121,7 +123,7 @@ public class LabExamPdfHelper {
         // 1. Calcola l'altezza massima della riga senza disegnare il testo
         for (int i = 0; i < rowData.length; i++) {
             // Passa esplicitamente font e dimensione alla funzione di utilità
-            float cellHeight = drawWrappedText(font, fontSize, rowData[i], 0, 0, columnWidths[i] - 4, false);
+            float cellHeight = drawWrappedText(context, font, fontSize, rowData[i], 0, 0, columnWidths[i] - 4, false);
             if (cellHeight > maxHeight) {
                 maxHeight = cellHeight;
             }
@@ -130,11 +132,11 @@ public class LabExamPdfHelper {
         // 2. Ora disegna il testo, allineato verticalmente, sapendo l'altezza necessaria
         for (int i = 0; i < rowData.length; i++) {
             // Passa esplicitamente font e dimensione per disegnare
-            drawWrappedText(font, fontSize, rowData[i], x + 2, y, columnWidths[i] - 4, true);
+            drawWrappedText(context, font, fontSize, rowData[i], x + 2, y, columnWidths[i] - 4, true);
             x += columnWidths[i];
         }
 
         // Aggiorna la posizione Y in base all'altezza della riga più alta
-        LabExamPdfExportService.currentYPosition -= (maxHeight + 10);
+        context.moveDown(maxHeight + 10);
     }
 }
\ No newline at end of file
@@ -1,22 +1,48 @@
 package it.uniupo.simnova.service.export.helper.pdf;
 
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.font.PDFont;
 import org.apache.pdfbox.pdmodel.font.PDType0Font;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Classe di supporto per il <strong>caricamento dei font</strong> all'interno dei documenti PDF.
  * Facilita l'integrazione di font TrueType personalizzati nei PDF generati,
  * garantendo coerenza estetica e corretta visualizzazione del testo.
+ * <p>
+ * I file dei font vengono letti dal classpath una sola volta per processo e mantenuti in memoria;
+ * il font analizzato ({@link TrueTypeFont}) viene invece mantenuto per thread e riusato da tutti i
+ * documenti creati dallo stesso thread, che lo incorporano come sottoinsieme dei soli glifi utilizzati.
+ * Un {@link TrueTypeFont} non è sicuro per l'uso concorrente (le tabelle vengono lette in modo pigro
+ * e la creazione del sottoinsieme, al salvataggio, ne legge i glifi), per cui non viene condiviso tra
+ * esportazioni eseguite in parallelo: ogni documento va quindi costruito e salvato dal thread che ne
+ * ha caricato i font, come avviene in tutte le esportazioni.
+ * </p>
  *
  * @author Alessandro Zappatore
  * @version 1.0
  */
 public class LoadFont {
 
+    /**
+     * Contenuto dei file dei font, indicizzato per percorso nel classpath.
+     */
+    private static final Map<String, byte[]> FONT_BYTES = new ConcurrentHashMap<>();
+    /**
+     * Font analizzati dal thread corrente, indicizzati per percorso nel classpath. Restano in memoria
+     * finché il thread è attivo.
+     */
+    private static final ThreadLocal<Map<String, TrueTypeFont>> THREAD_FONTS = ThreadLocal.withInitial(HashMap::new);
+
     /**
      * Costruttore privato per impedire l'istanziazione di questa classe di utilità.
      * Tutti i metodi forniti sono statici e non richiedono un'istanza della classe.
@@ -28,7 +54,8 @@ public class LoadFont {
 
     /**
      * Carica un font TrueType da un file specificato, incorporandolo in un documento PDF.
-     * Questo metodo cerca il file del font nel classpath dell'applicazione.
+     * Questo metodo cerca il file del font nel classpath dell'applicazione; il file viene
+     * letto solo al primo utilizzo e analizzato una sola volta per thread.
      *
      * @param document Il documento {@link PDDocument} in cui caricare il font.
      * @param fontPath Il percorso del file del font (es. "/fonts/MyFont.ttf").
@@ -37,14 +64,50 @@ public class LoadFont {
      *                     o se il file del font non viene trovato.
      */
     public static PDFont loadFont(PDDocument document, String fontPath) throws IOException {
+        Map<String, TrueTypeFont> fonts = THREAD_FONTS.get();
+        TrueTypeFont font = fonts.get(fontPath);
+        if (font == null) {
+            font = parseFont(fontPath);
+            fonts.put(fontPath, font);
+        }
+        // Il font analizzato non appartiene al documento: non viene chiuso insieme a esso.
+        return PDType0Font.load(document, font, true);
+    }
+
+    /**
+     * Analizza un font TrueType del classpath.
+     *
+     * @param fontPath Il percorso del file del font.
+     * @return Il font analizzato.
+     * @throws IOException Se il file non viene trovato o non è un font TrueType valido.
+     */
+    private static TrueTypeFont parseFont(String fontPath) throws IOException {
+        byte[] fontBytes;
+        try {
+            fontBytes = FONT_BYTES.computeIfAbsent(fontPath, LoadFont::readFont);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new TTFParser().parse(new RandomAccessReadBuffer(fontBytes));
+    }
+
+    /**
+     * Legge il contenuto di un font TrueType dal classpath.
+     *
+     * @param fontPath Il percorso del file del font.
+     * @return Il contenuto del file.
+     * @throws UncheckedIOException Se il file non viene trovato o non può essere letto.
+     */
+    private static byte[] readFont(String fontPath) {
         // Tenta di ottenere l'InputStream del file del font dal classpath.
         try (InputStream fontStream = LoadFont.class.getResourceAsStream(fontPath)) {
             if (fontStream == null) {
                 // Se il font non è trovato, lancia un'eccezione.
                 throw new IOException("Font file not found: " + fontPath);
             }
-            // Carica il font nel documento PDF utilizzando PDType0Font.
-            return PDType0Font.load(document, fontStream);
+            return fontStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 }
\ No newline at end of file
@@ -6,7 +6,6 @@ import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -15,6 +14,11 @@ import java.io.InputStream;
  * Classe di utilità per il <strong>caricamento dei loghi</strong> da includere nei documenti PDF generati.
  * Gestisce sia il logo predefinito dell'applicazione che un logo personalizzato del centro,
  * se fornito.
+ * <p>
+ * Le immagini vengono decodificate e compresse una sola volta per processo: ogni documento riceve
+ * una copia dell'immagine già codificata. Il logo del centro va invalidato con
+ * {@link #invalidateCenterLogo()} quando viene caricato o rimosso.
+ * </p>
  *
  * @author Alessandro Zappatore
  * @version 1.0
@@ -32,7 +36,7 @@ public class LogoLoader {
     /**
      * Nome del file del logo del centro, che viene caricato dalla directory di upload.
      */
-    private static final String CENTER_LOGO_FILENAME = "center_logo.png";
+    public static final String CENTER_LOGO_FILENAME = "center_logo.png";
     /**
      * Percorso del logo di default del centro, che viene caricato dal classpath.
      * Questo logo viene utilizzato se il logo personalizzato non è disponibile o è vuoto/illeggibile.
@@ -40,13 +44,18 @@ public class LogoLoader {
     private static final String DEFAULT_CENTER_LOGO_FILENAME = "/static/icons/default_center_logo.png";
 
     /**
-     * Larghezza del logo del centro dopo il caricamento.
+     * Lock che serializza la creazione e l'invalidazione del modello del logo del centro.
      */
-    public static float centerLogoWidth;
+    private static final Object CENTER_LOGO_LOCK = new Object();
+
+    /**
+     * Modello del logo di SIM SUITE, creato al primo utilizzo.
+     */
+    private static volatile PdfImageTemplate logoTemplate;
     /**
-     * Altezza del logo del centro dopo il caricamento.
+     * Modello del logo del centro (personalizzato o di default), creato al primo utilizzo.
      */
-    public static float centerLogoHeight;
+    private static volatile PdfImageTemplate centerLogoTemplate;
 
     /**
      * Costruttore privato per evitare l'istanza della classe, poiché contiene solo metodi statici.
@@ -57,7 +66,7 @@ public class LogoLoader {
 
     /**
      * Carica il <strong>logo predefinito di SIM SUITE</strong> da aggiungere nel documento PDF.
-     * Il logo viene caricato dal classpath dell'applicazione.
+     * Il logo viene caricato dal classpath dell'applicazione alla prima richiesta e poi riutilizzato.
      *
      * @param document Il documento {@link PDDocument} in cui caricare il logo.
      * @return Un oggetto {@link PDImageXObject} che rappresenta il logo di SIM SUITE,
@@ -65,66 +74,91 @@ public class LogoLoader {
      * @throws IOException Se si verifica un errore durante il caricamento del logo (es. errore di I/O).
      */
     public static PDImageXObject loadLogo(PDDocument document) throws IOException {
-        try (InputStream logoStream = LogoLoader.class.getResourceAsStream(LOGO_URL)) {
-            if (logoStream == null) {
-                logger.warn("File del logo predefinito non trovato: {}", LOGO_URL);
-                return null;
-            }
-
-            // Converte l'InputStream del logo in un array di byte.
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            int nRead;
-            byte[] data = new byte[1024];
-            while ((nRead = logoStream.read(data, 0, data.length)) != -1) {
-                buffer.write(data, 0, nRead);
+        PdfImageTemplate template = logoTemplate;
+        if (template == null) {
+            try (InputStream logoStream = LogoLoader.class.getResourceAsStream(LOGO_URL)) {
+                if (logoStream == null) {
+                    logger.warn("File del logo predefinito non trovato: {}", LOGO_URL);
+                    return null;
+                }
+                template = createTemplate(logoStream.readAllBytes(), "SimSuiteLogo");
+                logoTemplate = template;
             }
-
-            // Crea l'oggetto immagine PDF da un array di byte.
-            return PDImageXObject.createFromByteArray(document, buffer.toByteArray(), "SimSuiteLogo");
         }
+        return template.createFor(document);
     }
 
     /**
      * Carica il <strong>logo personalizzato del centro</strong> da aggiungere nel documento PDF.
      * Il logo viene letto tramite il {@link FileStorageService}, permettendo di caricare file
-     * dalla directory di upload dell'applicazione.
+     * dalla directory di upload dell'applicazione, e viene riutilizzato fino alla successiva
+     * chiamata di {@link #invalidateCenterLogo()}.
      *
      * @param document           Il documento {@link PDDocument} in cui caricare il logo.
      * @param fileStorageService Il servizio {@link FileStorageService} per accedere al file del logo.
-     * @return Un oggetto {@link PDImageXObject} che rappresenta il logo del centro.
-     * Le sue dimensioni (larghezza e altezza) vengono memorizzate nelle variabili statiche
-     * {@code centerLogoWidth} e {@code centerLogoHeight}.
+     * @return Un oggetto {@link PDImageXObject} che rappresenta il logo del centro,
+     * le cui dimensioni sono disponibili tramite {@link PDImageXObject#getWidth()} e {@link PDImageXObject#getHeight()}.
      * @throws RuntimeException Se il caricamento del logo personalizzato e del logo di default fallisce.
      */
     public static PDImageXObject loadCenterLogo(PDDocument document, FileStorageService fileStorageService) {
-        try (InputStream logoStream = fileStorageService.readFile(CENTER_LOGO_FILENAME)) {
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            int nRead;
-            byte[] data = new byte[1024];
-            while ((nRead = logoStream.read(data, 0, data.length)) != -1) {
-                buffer.write(data, 0, nRead);
+        PdfImageTemplate template = centerLogoTemplate;
+        if (template == null) {
+            synchronized (CENTER_LOGO_LOCK) {
+                template = centerLogoTemplate;
+                if (template == null) {
+                    template = createCenterLogoTemplate(fileStorageService);
+                    centerLogoTemplate = template;
+                }
             }
+        }
+        try {
+            return template.createFor(document);
+        } catch (IOException e) {
+            throw new RuntimeException("Impossibile inserire il logo del centro nel documento.", e);
+        }
+    }
+
+    /**
+     * Scarta il logo del centro memorizzato, in modo che la prossima esportazione lo rilegga.
+     * Va invocato ogni volta che il logo del centro viene caricato o rimosso.
+     */
+    public static void invalidateCenterLogo() {
+        synchronized (CENTER_LOGO_LOCK) {
+            centerLogoTemplate = null;
+        }
+        logger.debug("Logo del centro memorizzato invalidato.");
+    }
 
-            if (buffer.size() == 0) {
+    /**
+     * Legge il logo personalizzato del centro e ne crea il modello, ricorrendo al logo
+     * di default se il file personalizzato manca, è vuoto o non è leggibile.
+     *
+     * @param fileStorageService Il servizio {@link FileStorageService} per accedere al file del logo.
+     * @return Il modello del logo del centro.
+     * @throws RuntimeException Se il caricamento del logo personalizzato e del logo di default fallisce.
+     */
+    private static PdfImageTemplate createCenterLogoTemplate(FileStorageService fileStorageService) {
+        try (InputStream logoStream = fileStorageService.readFile(CENTER_LOGO_FILENAME)) {
+            byte[] data = logoStream.readAllBytes();
+
+            if (data.length == 0) {
                 logger.warn("Il file del logo del centro ({}) è vuoto o illeggibile. Tento con il logo di default.", CENTER_LOGO_FILENAME);
                 try {
-                    return loadDefaultCenterLogo(document);
+                    return createDefaultCenterLogoTemplate();
                 } catch (IOException ex) {
                     logger.error("Errore durante il caricamento del logo del centro di default ({}) dopo che il logo personalizzato era vuoto/illeggibile: {}", DEFAULT_CENTER_LOGO_FILENAME, ex.getMessage(), ex);
                     throw new RuntimeException("Impossibile caricare il logo del centro: il file personalizzato è vuoto/illeggibile e anche il fallback al default è fallito.", ex);
                 }
             }
 
-            PDImageXObject logoImage = PDImageXObject.createFromByteArray(document, buffer.toByteArray(), CENTER_LOGO_FILENAME);
-            centerLogoWidth = logoImage.getWidth();
-            centerLogoHeight = logoImage.getHeight();
+            PdfImageTemplate template = createTemplate(data, CENTER_LOGO_FILENAME);
             logger.info("Logo del centro personalizzato ({}) caricato con successo.", CENTER_LOGO_FILENAME);
-            return logoImage;
+            return template;
 
         } catch (FileNotFoundException e) {
             logger.info("Logo del centro personalizzato ({}) non trovato. Tento con il logo di default.", CENTER_LOGO_FILENAME);
             try {
-                return loadDefaultCenterLogo(document);
+                return createDefaultCenterLogoTemplate();
             } catch (IOException ex) {
                 logger.error("Errore durante il caricamento del logo del centro di default ({}) dopo che il logo personalizzato non è stato trovato: {}", DEFAULT_CENTER_LOGO_FILENAME, ex.getMessage(), ex);
                 throw new RuntimeException("Impossibile caricare il logo del centro: il file personalizzato non è stato trovato e anche il fallback al default è fallito.", ex);
@@ -132,7 +166,7 @@ public class LogoLoader {
         } catch (IOException e) { // Altri errori I/O durante la lettura del logo personalizzato
             logger.error("Errore I/O durante il caricamento del logo del centro personalizzato ({}): {}. Tento con il logo di default.", CENTER_LOGO_FILENAME, e.getMessage(), e);
             try {
-                return loadDefaultCenterLogo(document);
+                return createDefaultCenterLogoTemplate();
             } catch (IOException ex) {
                 logger.error("Errore durante il caricamento del logo del centro di default ({}) dopo un errore I/O sul logo personalizzato: {}", DEFAULT_CENTER_LOGO_FILENAME, ex.getMessage(), ex);
                 throw new RuntimeException("Impossibile caricare il logo del centro: errore I/O sul file personalizzato e anche il fallback al default è fallito.", ex);
@@ -141,38 +175,42 @@ public class LogoLoader {
     }
 
     /**
-     * Carica il <strong>logo di default del centro</strong> da aggiungere nel documento PDF.
-     * Il logo viene caricato dal classpath dell'applicazione.
+     * Crea il modello del <strong>logo di default del centro</strong>, caricato dal classpath dell'applicazione.
      *
-     * @param document Il documento {@link PDDocument} in cui caricare il logo.
-     * @return Un oggetto {@link PDImageXObject} che rappresenta il logo di default del centro.
+     * @return Il modello del logo di default del centro.
      * @throws IOException Se il file del logo di default non viene trovato, è vuoto/illeggibile,
      *                     o si verifica un altro errore di I/O durante il caricamento.
      */
-    private static PDImageXObject loadDefaultCenterLogo(PDDocument document) throws IOException {
+    private static PdfImageTemplate createDefaultCenterLogoTemplate() throws IOException {
         try (InputStream logoStream = LogoLoader.class.getResourceAsStream(DEFAULT_CENTER_LOGO_FILENAME)) {
             if (logoStream == null) {
                 logger.warn("File del logo del centro di default non trovato nel classpath: {}", DEFAULT_CENTER_LOGO_FILENAME);
                 throw new FileNotFoundException("File del logo del centro di default non trovato nel classpath: " + DEFAULT_CENTER_LOGO_FILENAME);
             }
 
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            int nRead;
-            byte[] data = new byte[1024];
-            while ((nRead = logoStream.read(data, 0, data.length)) != -1) {
-                buffer.write(data, 0, nRead);
-            }
-
-            if (buffer.size() == 0) {
+            byte[] data = logoStream.readAllBytes();
+            if (data.length == 0) {
                 logger.warn("Il file del logo del centro di default ({}) è vuoto o illeggibile.", DEFAULT_CENTER_LOGO_FILENAME);
                 throw new IOException("Il file del logo del centro di default è vuoto o illeggibile: " + DEFAULT_CENTER_LOGO_FILENAME);
             }
 
-            PDImageXObject logoImage = PDImageXObject.createFromByteArray(document, buffer.toByteArray(), "DefaultCenterLogo");
-            centerLogoWidth = logoImage.getWidth();
-            centerLogoHeight = logoImage.getHeight();
+            PdfImageTemplate template = createTemplate(data, "DefaultCenterLogo");
             logger.info("Logo del centro di default ({}) caricato con successo.", DEFAULT_CENTER_LOGO_FILENAME);
-            return logoImage;
+            return template;
+        }
+    }
+
+    /**
+     * Decodifica un'immagine e ne crea il modello riutilizzabile, usando un documento di appoggio.
+     *
+     * @param data Il contenuto del file immagine.
+     * @param name Il nome dell'immagine, usato per riconoscerne il formato.
+     * @return Il modello dell'immagine.
+     * @throws IOException Se l'immagine non è decodificabile.
+     */
+    private static PdfImageTemplate createTemplate(byte[] data, String name) throws IOException {
+        try (PDDocument scratch = new PDDocument()) {
+            return new PdfImageTemplate(PDImageXObject.createFromByteArray(scratch, data, name));
         }
     }
 }
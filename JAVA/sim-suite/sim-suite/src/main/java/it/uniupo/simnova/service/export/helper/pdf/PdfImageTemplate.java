@@ -0,0 +1,176 @@
+package it.uniupo.simnova.service.export.helper.pdf;
+
+import org.apache.pdfbox.cos.*;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copia immutabile di un'immagine PDF già codificata, riutilizzabile in più documenti.
+ * <p>
+ * La decodifica di un PNG e la sua ricompressione per il PDF sono le operazioni più costose
+ * nel caricamento dei loghi: il modello conserva il flusso già compresso (insieme alla maschera
+ * di trasparenza e agli altri oggetti collegati) e per ogni documento ricrea soltanto gli oggetti
+ * PDF, copiando i byte senza ricodificarli. Essendo immutabile può essere condiviso tra thread.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+final class PdfImageTemplate {
+
+    /**
+     * Copia dello stream dell'immagine.
+     */
+    private final StreamSnapshot image;
+
+    /**
+     * Crea il modello a partire da un'immagine appena creata in un documento di appoggio.
+     *
+     * @param source L'immagine da copiare.
+     * @throws IOException Se non è possibile leggere lo stream dell'immagine.
+     */
+    PdfImageTemplate(PDImageXObject source) throws IOException {
+        this.image = (StreamSnapshot) snapshot(source.getCOSObject());
+    }
+
+    /**
+     * Ricrea l'immagine all'interno di un documento.
+     *
+     * @param document Il documento di destinazione.
+     * @return Una nuova immagine che appartiene al documento.
+     * @throws IOException Se si verifica un errore durante la scrittura dello stream.
+     */
+    PDImageXObject createFor(PDDocument document) throws IOException {
+        COSStream stream = (COSStream) restore(image, document);
+        return new PDImageXObject(new PDStream(stream), null);
+    }
+
+    /**
+     * Copia ricorsivamente un oggetto PDF in strutture Java immutabili.
+     * Nomi, numeri e booleani sono già immutabili e vengono mantenuti così come sono.
+     *
+     * @param base L'oggetto da copiare.
+     * @return La copia dell'oggetto.
+     * @throws IOException Se non è possibile leggere uno stream.
+     */
+    private static Object snapshot(COSBase base) throws IOException {
+        if (base instanceof COSObject cosObject) {
+            return snapshot(cosObject.getObject());
+        }
+        if (base instanceof COSStream stream) {
+            byte[] data;
+            try (InputStream raw = stream.createRawInputStream()) {
+                data = raw.readAllBytes();
+            }
+            return new StreamSnapshot(snapshotDictionary(stream), data);
+        }
+        if (base instanceof COSDictionary dictionary) {
+            return snapshotDictionary(dictionary);
+        }
+        if (base instanceof COSArray array) {
+            List<Object> items = new ArrayList<>(array.size());
+            for (int i = 0; i < array.size(); i++) {
+                items.add(snapshot(array.get(i)));
+            }
+            return List.copyOf(items);
+        }
+        if (base instanceof COSString string) {
+            return new StringSnapshot(string.getBytes());
+        }
+        return base == null ? COSNull.NULL : base;
+    }
+
+    /**
+     * Copia le voci di un dizionario PDF.
+     *
+     * @param dictionary Il dizionario da copiare.
+     * @return Le voci copiate, nello stesso ordine.
+     * @throws IOException Se non è possibile leggere uno stream contenuto nel dizionario.
+     */
+    private static Map<COSName, Object> snapshotDictionary(COSDictionary dictionary) throws IOException {
+        Map<COSName, Object> entries = new LinkedHashMap<>();
+        for (Map.Entry<COSName, COSBase> entry : dictionary.entrySet()) {
+            // La lunghezza viene ricalcolata alla scrittura del nuovo stream.
+            if (!COSName.LENGTH.equals(entry.getKey())) {
+                entries.put(entry.getKey(), snapshot(entry.getValue()));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Ricrea un oggetto PDF da una copia, all'interno di un documento.
+     *
+     * @param snapshot La copia dell'oggetto.
+     * @param document Il documento di destinazione.
+     * @return Il nuovo oggetto PDF.
+     * @throws IOException Se si verifica un errore durante la scrittura di uno stream.
+     */
+    @SuppressWarnings("unchecked")
+    private static COSBase restore(Object snapshot, PDDocument document) throws IOException {
+        if (snapshot instanceof StreamSnapshot streamSnapshot) {
+            COSStream stream = document.getDocument().createCOSStream();
+            restoreEntries(streamSnapshot.entries(), stream, document);
+            try (OutputStream raw = stream.createRawOutputStream()) {
+                raw.write(streamSnapshot.data());
+            }
+            return stream;
+        }
+        if (snapshot instanceof Map<?, ?> entries) {
+            COSDictionary dictionary = new COSDictionary();
+            restoreEntries((Map<COSName, Object>) entries, dictionary, document);
+            return dictionary;
+        }
+        if (snapshot instanceof List<?> items) {
+            COSArray array = new COSArray();
+            for (Object item : items) {
+                array.add(restore(item, document));
+            }
+            return array;
+        }
+        if (snapshot instanceof StringSnapshot stringSnapshot) {
+            return new COSString(stringSnapshot.bytes());
+        }
+        return (COSBase) snapshot;
+    }
+
+    /**
+     * Ricrea le voci di un dizionario.
+     *
+     * @param entries    Le voci copiate.
+     * @param dictionary Il dizionario di destinazione.
+     * @param document   Il documento di destinazione.
+     * @throws IOException Se si verifica un errore durante la scrittura di uno stream.
+     */
+    private static void restoreEntries(Map<COSName, Object> entries, COSDictionary dictionary, PDDocument document) throws IOException {
+        for (Map.Entry<COSName, Object> entry : entries.entrySet()) {
+            dictionary.setItem(entry.getKey(), restore(entry.getValue(), document));
+        }
+    }
+
+    /**
+     * Copia di uno stream PDF: voci del dizionario e dati ancora compressi.
+     *
+     * @param entries Le voci del dizionario dello stream.
+     * @param data    I dati compressi dello stream.
+     */
+    private record StreamSnapshot(Map<COSName, Object> entries, byte[] data) {
+    }
+
+    /**
+     * Copia di una stringa PDF.
+     *
+     * @param bytes I byte della stringa.
+     */
+    private record StringSnapshot(byte[] bytes) {
+    }
+}
@@ -0,0 +1,330 @@
+package it.uniupo.simnova.service.export.helper.pdf;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+import static it.uniupo.simnova.service.export.helper.pdf.PdfConstant.LEADING;
+import static it.uniupo.simnova.service.export.helper.pdf.PdfConstant.MARGIN;
+
+/**
+ * Stato di una singola esportazione PDF: documento, pagina e stream di contenuto correnti,
+ * posizione verticale del cursore, font e loghi caricati per il documento.
+ * <p>
+ * Ogni esportazione crea il proprio contesto e lo passa esplicitamente a tutte le classi di disegno,
+ * per cui più esportazioni possono essere eseguite contemporaneamente (da utenti diversi o in
+ * background) senza condividere alcuno stato. Un contesto non è thread-safe e non deve essere
+ * condiviso tra thread.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+public final class PdfRenderContext {
+    /**
+     * Logger per registrare le operazioni e gli errori durante la gestione delle pagine.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(PdfRenderContext.class);
+    /**
+     * Lato del logo di SIM SUITE nella prima pagina.
+     */
+    private static final float SIM_LOGO_SIZE = 40;
+    /**
+     * Larghezza massima del logo del centro nella prima pagina.
+     */
+    private static final float CENTER_LOGO_MAX_WIDTH = 120;
+    /**
+     * Altezza massima del logo del centro nella prima pagina.
+     */
+    private static final float CENTER_LOGO_MAX_HEIGHT = 80;
+
+    /**
+     * Il documento PDF su cui si sta lavorando.
+     */
+    private final PDDocument document;
+    /**
+     * Indica se la prima pagina deve riservare lo spazio per l'intestazione con i loghi.
+     */
+    private final boolean logoHeader;
+    /**
+     * Le larghezze dei caratteri già misurate per i font del documento.
+     */
+    private final GlyphWidths glyphWidths = new GlyphWidths();
+    /**
+     * Lo stream di contenuto della pagina corrente.
+     */
+    private PDPageContentStream contentStream;
+    /**
+     * La posizione corrente sull'asse Y per il disegno del contenuto.
+     */
+    private float yPosition;
+    /**
+     * Il numero della prossima pagina da creare (parte da 1).
+     */
+    private int pageNumber = 1;
+    /**
+     * Il font per il testo normale.
+     */
+    private PDFont fontRegular;
+    /**
+     * Il font per il testo in grassetto.
+     */
+    private PDFont fontBold;
+    /**
+     * Il font per il testo in corsivo.
+     */
+    private PDFont fontItalic;
+    /**
+     * Il font per il testo in grassetto e corsivo.
+     */
+    private PDFont fontBoldItalic;
+    /**
+     * Il logo di SIM SUITE da disegnare nella prima pagina (può essere <code>null</code>).
+     */
+    private PDImageXObject logo;
+    /**
+     * Il logo del centro da disegnare nella prima pagina (può essere <code>null</code>).
+     */
+    private PDImageXObject centerLogo;
+
+    /**
+     * Crea un contesto di disegno per un documento.
+     *
+     * @param document   Il documento PDF su cui disegnare.
+     * @param logoHeader <code>true</code> se la prima pagina deve contenere l'intestazione con i loghi.
+     */
+    public PdfRenderContext(PDDocument document, boolean logoHeader) {
+        this.document = document;
+        this.logoHeader = logoHeader;
+    }
+
+    /**
+     * Imposta i font del documento. I font in corsivo possono essere <code>null</code>
+     * se il documento non li utilizza.
+     *
+     * @param regular    Font normale.
+     * @param bold       Font in grassetto.
+     * @param italic     Font in corsivo.
+     * @param boldItalic Font in grassetto e corsivo.
+     */
+    public void setFonts(PDFont regular, PDFont bold, PDFont italic, PDFont boldItalic) {
+        this.fontRegular = regular;
+        this.fontBold = bold;
+        this.fontItalic = italic;
+        this.fontBoldItalic = boldItalic;
+    }
+
+    /**
+     * Imposta i loghi da disegnare nell'intestazione della prima pagina.
+     *
+     * @param logo       Il logo di SIM SUITE (può essere <code>null</code>).
+     * @param centerLogo Il logo del centro (può essere <code>null</code>).
+     */
+    public void setLogos(PDImageXObject logo, PDImageXObject centerLogo) {
+        this.logo = logo;
+        this.centerLogo = centerLogo;
+    }
+
+    /**
+     * Inizializza una nuova pagina all'interno del documento: chiude lo stream precedente,
+     * aggiunge la pagina, apre un nuovo stream e posiziona il cursore in cima.
+     * Se previsto, nella prima pagina vengono disegnati i loghi e il cursore viene posizionato sotto di essi.
+     *
+     * @throws IOException Se si verifica un errore durante la creazione della pagina o dello stream.
+     */
+    public void initNewPage() throws IOException {
+        // Chiude lo stream di contenuto precedente se è aperto, per evitare sovrapposizioni.
+        if (contentStream != null) {
+            try {
+                contentStream.close();
+            } catch (Exception e) {
+                logger.warn("Errore durante la chiusura dello stream del contenuto corrente: {}", e.getMessage());
+            }
+        }
+
+        PDPage currentPage = new PDPage(PDRectangle.A4);
+        document.addPage(currentPage);
+        contentStream = new PDPageContentStream(document, currentPage);
+
+        if (pageNumber == 1 && logoHeader) {
+            drawLogoHeader();
+        } else {
+            yPosition = PDRectangle.A4.getHeight() - MARGIN;
+        }
+        pageNumber++;
+    }
+
+    /**
+     * Disegna i loghi nella prima pagina e posiziona il cursore sotto il più basso dei due.
+     *
+     * @throws IOException Se si verifica un errore durante il disegno delle immagini.
+     */
+    private void drawLogoHeader() throws IOException {
+        float simLogoY = PDRectangle.A4.getHeight() - MARGIN - SIM_LOGO_SIZE;
+        float lowestY = simLogoY;
+
+        if (logo != null) {
+            contentStream.drawImage(logo, MARGIN, simLogoY, SIM_LOGO_SIZE, SIM_LOGO_SIZE);
+        }
+
+        // Il logo del centro viene scalato per rientrare nel riquadro massimo, mantenendo le proporzioni.
+        if (centerLogo != null) {
+            float scale = Math.min(
+                    CENTER_LOGO_MAX_WIDTH / centerLogo.getWidth(),
+                    CENTER_LOGO_MAX_HEIGHT / centerLogo.getHeight()
+            );
+            float centerLogoWidth = centerLogo.getWidth() * scale;
+            float centerLogoHeight = centerLogo.getHeight() * scale;
+
+            float centerLogoX = (PDRectangle.A4.getWidth() - centerLogoWidth) / 2;
+            float centerLogoY = PDRectangle.A4.getHeight() - MARGIN - centerLogoHeight;
+
+            contentStream.drawImage(centerLogo, centerLogoX, centerLogoY, centerLogoWidth, centerLogoHeight);
+            lowestY = Math.min(lowestY, centerLogoY);
+        }
+
+        yPosition = lowestY - LEADING;
+    }
+
+    /**
+     * Crea una nuova pagina se lo spazio rimanente sulla pagina corrente non è sufficiente.
+     *
+     * @param neededSpace Lo spazio in punti PDF necessario per il prossimo blocco di contenuto.
+     * @throws IOException Se si verifica un errore durante la creazione della nuova pagina.
+     */
+    public void checkForNewPage(float neededSpace) throws IOException {
+        if (yPosition - neededSpace < MARGIN) {
+            initNewPage();
+        }
+    }
+
+    /**
+     * Chiude lo stream di contenuto corrente, se aperto. Da invocare prima di salvare il documento.
+     */
+    public void closeContentStream() {
+        if (contentStream != null) {
+            try {
+                contentStream.close();
+            } catch (Exception e) {
+                logger.warn("Errore durante la chiusura dello stream di contenuto: {}", e.getMessage());
+            }
+            contentStream = null;
+        }
+    }
+
+    /**
+     * Sposta il cursore verso il basso.
+     *
+     * @param amount Lo spostamento in punti PDF.
+     */
+    public void moveDown(float amount) {
+        yPosition -= amount;
+    }
+
+    /**
+     * Restituisce il documento PDF.
+     *
+     * @return Il documento su cui si sta disegnando.
+     */
+    public PDDocument getDocument() {
+        return document;
+    }
+
+    /**
+     * Restituisce lo stream di contenuto della pagina corrente.
+     * Lo stream cambia a ogni nuova pagina, per cui non va memorizzato tra un salto pagina e l'altro.
+     *
+     * @return Lo stream di contenuto corrente.
+     */
+    public PDPageContentStream getContentStream() {
+        return contentStream;
+    }
+
+    /**
+     * Restituisce la posizione verticale corrente del cursore.
+     *
+     * @return La coordinata Y corrente.
+     */
+    public float getYPosition() {
+        return yPosition;
+    }
+
+    /**
+     * Imposta la posizione verticale corrente del cursore.
+     *
+     * @param yPosition La nuova coordinata Y.
+     */
+    public void setYPosition(float yPosition) {
+        this.yPosition = yPosition;
+    }
+
+    /**
+     * Restituisce il font per il testo normale.
+     *
+     * @return Il font normale.
+     */
+    public PDFont getFontRegular() {
+        return fontRegular;
+    }
+
+    /**
+     * Restituisce il font per il testo in grassetto.
+     *
+     * @return Il font in grassetto.
+     */
+    public PDFont getFontBold() {
+        return fontBold;
+    }
+
+    /**
+     * Restituisce il font per il testo in corsivo.
+     *
+     * @return Il font in corsivo.
+     */
+    public PDFont getFontItalic() {
+        return fontItalic;
+    }
+
+    /**
+     * Restituisce il font per il testo in grassetto e corsivo.
+     *
+     * @return Il font in grassetto e corsivo.
+     */
+    public PDFont getFontBoldItalic() {
+        return fontBoldItalic;
+    }
+
+    /**
+     * Restituisce il font corrispondente alla combinazione di stili richiesta.
+     * Se il documento non ha caricato un font in corsivo, viene usata la variante non corsiva.
+     *
+     * @param bold   <code>true</code> per il grassetto.
+     * @param italic <code>true</code> per il corsivo.
+     * @return Il font da utilizzare.
+     */
+    public PDFont getFont(boolean bold, boolean italic) {
+        if (italic) {
+            PDFont font = bold ? fontBoldItalic : fontItalic;
+            if (font != null) {
+                return font;
+            }
+        }
+        return bold ? fontBold : fontRegular;
+    }
+
+    /**
+     * Restituisce la cache delle larghezze dei caratteri del documento.
+     *
+     * @return La cache delle larghezze.
+     */
+    public GlyphWidths getGlyphWidths() {
+        return glyphWidths;
+    }
+}
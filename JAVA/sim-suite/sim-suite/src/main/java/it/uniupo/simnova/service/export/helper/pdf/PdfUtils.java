@@ -1,11 +1,9 @@
 package it.uniupo.simnova.service.export.helper.pdf;
 
-import it.uniupo.simnova.service.export.LabExamPdfExportService;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.font.PDFont;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -21,6 +19,7 @@ public final class PdfUtils {
     /**
      * Disegna una singola linea di testo senza andare a capo.
      *
+     * @param context  Il contesto di disegno dell'esportazione corrente.
      * @param font     Il font da utilizzare.
      * @param fontSize La dimensione del font.
      * @param x        La coordinata X di partenza.
@@ -28,8 +27,8 @@ public final class PdfUtils {
      * @param text     Il testo da disegnare.
      * @throws IOException Se si verifica un errore durante la scrittura.
      */
-    public static void drawText(PDFont font, float fontSize, float x, float y, String text) throws IOException {
-        PDPageContentStream stream = LabExamPdfExportService.currentContentStream;
+    public static void drawText(PdfRenderContext context, PDFont font, float fontSize, float x, float y, String text) throws IOException {
+        PDPageContentStream stream = context.getContentStream();
         stream.beginText();
         stream.setFont(font, fontSize);
         stream.newLineAtOffset(x, y);
@@ -41,6 +40,7 @@ public final class PdfUtils {
      * Disegna un testo su più linee, andando a capo se supera la larghezza massima specificata.
      * (Versione compatibile con PDFBox 2.x)
      *
+     * @param context   Il contesto di disegno dell'esportazione corrente.
      * @param font      Il font da utilizzare per il calcolo e il disegno.
      * @param fontSize  La dimensione del font.
      * @param text      Il testo da disegnare.
@@ -51,54 +51,21 @@ public final class PdfUtils {
      * @return L'altezza totale del blocco di testo.
      * @throws IOException Se si verifica un errore.
      */
-    public static float drawWrappedText(PDFont font, float fontSize, String text, float x, float y, float maxWidth, boolean draw) throws IOException {
+    public static float drawWrappedText(PdfRenderContext context, PDFont font, float fontSize, String text, float x, float y, float maxWidth, boolean draw) throws IOException {
         float leading = fontSize * 1.2f; // Spaziatura tra le linee (interlinea)
 
-        List<String> lines = new ArrayList<>();
-        if (text == null) {
-            text = "";
-        }
-        String[] words = text.split(" ");
-        StringBuilder currentLine = new StringBuilder();
-
-        for (String word : words) {
-            // Calcola la larghezza della linea se aggiungessimo la prossima parola
-            String potentialLine = !currentLine.isEmpty() ? currentLine + " " + word : word;
-            float width = font.getStringWidth(potentialLine) / 1000 * fontSize;
-
-            if (width > maxWidth) {
-                // La linea è piena. Aggiungi la linea corrente e inizia una nuova linea con la parola corrente.
-                if (!currentLine.isEmpty()) {
-                    lines.add(currentLine.toString());
-                    currentLine = new StringBuilder(word);
-                } else {
-                    // Caso estremo: una singola parola è più lunga della larghezza massima
-                    lines.add(word);
-                    currentLine = new StringBuilder(); // Inizia una linea vuota
-                }
-            } else {
-                // La parola entra nella linea corrente
-                if (!currentLine.isEmpty()) {
-                    currentLine.append(" ");
-                }
-                currentLine.append(word);
-            }
-        }
-        lines.add(currentLine.toString()); // Aggiunge l'ultima linea
+        List<TextLayout.Line> lines = TextLayout.layoutPlain(text, font, fontSize, maxWidth, context.getGlyphWidths());
 
         if (draw) {
-            PDPageContentStream stream = LabExamPdfExportService.currentContentStream;
-            stream.setFont(font, fontSize); // Imposta il font prima di disegnare
-            stream.beginText();
-            stream.setLeading(leading);
-            stream.newLineAtOffset(x, y);
-            for (String line : lines) {
-                stream.showText(line);
-                stream.newLine();
+            PDPageContentStream stream = context.getContentStream();
+            float lineY = y;
+            for (TextLayout.Line line : lines) {
+                TextLayout.drawLine(stream, line, x, lineY, fontSize);
+                lineY -= leading;
             }
-            stream.endText();
         }
 
-        return lines.size() * leading; // Ritorna l'altezza totale del blocco di testo
+        // Anche un testo vuoto occupa l'altezza di una riga.
+        return Math.max(lines.size(), 1) * leading; // Ritorna l'altezza totale del blocco di testo
     }
-}
\ No newline at end of file
+}
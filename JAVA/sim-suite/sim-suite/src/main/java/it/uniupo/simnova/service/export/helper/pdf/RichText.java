@@ -0,0 +1,284 @@
+package it.uniupo.simnova.service.export.helper.pdf;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Modello del testo formattato da impaginare nel PDF: una sequenza di paragrafi,
+ * ciascuno composto da frammenti (<em>run</em>) con stile uniforme.
+ * <p>
+ * Il modello viene ricavato dall'HTML prodotto dall'editor (TinyMCE) con un'unica visita del DOM:
+ * grassetto e corsivo vengono ereditati dagli elementi antenati, i blocchi (<code>p</code>,
+ * <code>div</code>, titoli, ...) diventano paragrafi, gli elenchi puntati e numerati diventano
+ * paragrafi rientrati con il relativo marcatore e <code>br</code> diventa un ritorno a capo.
+ * Gli spazi vengono compattati come nella visualizzazione del browser.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+public final class RichText {
+
+    /**
+     * Elementi che rappresentano il grassetto.
+     */
+    private static final Set<String> BOLD_TAGS = Set.of("b", "strong", "h1", "h2", "h3", "h4", "h5", "h6", "th");
+    /**
+     * Elementi che rappresentano il corsivo.
+     */
+    private static final Set<String> ITALIC_TAGS = Set.of("i", "em");
+    /**
+     * Elementi di blocco, che iniziano e chiudono un paragrafo.
+     */
+    private static final Set<String> BLOCK_TAGS = Set.of("p", "div", "h1", "h2", "h3", "h4", "h5", "h6",
+            "blockquote", "pre", "table", "tr", "section", "article", "header", "footer", "hr");
+    /**
+     * Elementi il cui contenuto non deve essere stampato.
+     */
+    private static final Set<String> SKIPPED_TAGS = Set.of("script", "style", "head", "title");
+    /**
+     * Marcatore degli elenchi puntati.
+     */
+    private static final String BULLET = "•";
+
+    /**
+     * Costruttore privato per evitare l'istanza della classe, dato che contiene solo metodi statici.
+     */
+    private RichText() {
+        // Costruttore privato per evitare l'istanza della classe.
+    }
+
+    /**
+     * Converte un frammento HTML nel modello a paragrafi.
+     *
+     * @param html Il contenuto HTML (può essere <code>null</code>).
+     * @return I paragrafi con contenuto, nell'ordine del documento.
+     */
+    public static List<Paragraph> parseHtml(String html) {
+        Builder builder = new Builder();
+        if (html != null && !html.isEmpty()) {
+            walk(Jsoup.parseBodyFragment(html).body(), false, false, builder);
+        }
+        builder.flush();
+        return builder.paragraphs;
+    }
+
+    /**
+     * Crea un paragrafo di testo semplice, senza formattazione.
+     *
+     * @param text Il testo (gli spazi vengono compattati).
+     * @return Il paragrafo corrispondente.
+     */
+    public static Paragraph plainParagraph(String text) {
+        return new Paragraph(List.of(new Run(text == null ? "" : text, false, false)), 0, null);
+    }
+
+    /**
+     * Visita ricorsivamente i nodi del DOM accumulando i frammenti nel costruttore.
+     *
+     * @param parent  Il nodo di cui visitare i figli.
+     * @param bold    <code>true</code> se un antenato impone il grassetto.
+     * @param italic  <code>true</code> se un antenato impone il corsivo.
+     * @param builder Il costruttore dei paragrafi.
+     */
+    private static void walk(Node parent, boolean bold, boolean italic, Builder builder) {
+        for (Node node : parent.childNodes()) {
+            if (node instanceof TextNode textNode) {
+                builder.text(textNode.getWholeText(), bold, italic);
+            } else if (node instanceof Element element) {
+                String tag = element.normalName();
+                if (SKIPPED_TAGS.contains(tag)) {
+                    continue;
+                }
+                boolean childBold = bold || BOLD_TAGS.contains(tag);
+                boolean childItalic = italic || ITALIC_TAGS.contains(tag);
+                switch (tag) {
+                    case "br" -> builder.lineBreak();
+                    case "ul", "ol" -> {
+                        builder.flush();
+                        builder.listCounters.push(new int[]{tag.equals("ol") ? 0 : -1});
+                        walk(element, childBold, childItalic, builder);
+                        builder.flush();
+                        builder.listCounters.pop();
+                    }
+                    case "li" -> {
+                        builder.flush();
+                        int[] counter = builder.listCounters.peek();
+                        if (counter == null || counter[0] < 0) {
+                            builder.marker = BULLET;
+                        } else {
+                            builder.marker = ++counter[0] + ".";
+                        }
+                        walk(element, childBold, childItalic, builder);
+                        builder.flush();
+                        builder.marker = null;
+                    }
+                    case "td", "th" -> {
+                        // Le celle di una riga restano sulla stessa riga, separate da uno spazio.
+                        builder.text(" ", bold, italic);
+                        walk(element, childBold, childItalic, builder);
+                        builder.text(" ", bold, italic);
+                    }
+                    default -> {
+                        boolean block = BLOCK_TAGS.contains(tag);
+                        if (block) {
+                            builder.flush();
+                        }
+                        walk(element, childBold, childItalic, builder);
+                        if (block) {
+                            builder.flush();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Frammento di testo con stile uniforme. Un frammento che contiene solo <code>"\n"</code>
+     * rappresenta un ritorno a capo forzato.
+     *
+     * @param text   Il testo del frammento.
+     * @param bold   <code>true</code> se il testo è in grassetto.
+     * @param italic <code>true</code> se il testo è in corsivo.
+     */
+    public record Run(String text, boolean bold, boolean italic) {
+
+        /**
+         * Indica se il frammento rappresenta un ritorno a capo forzato.
+         *
+         * @return <code>true</code> per i ritorni a capo.
+         */
+        public boolean isLineBreak() {
+            return "\n".equals(text);
+        }
+    }
+
+    /**
+     * Paragrafo di testo formattato.
+     *
+     * @param runs      I frammenti del paragrafo.
+     * @param listDepth Il livello di annidamento negli elenchi (0 se il paragrafo non è in un elenco).
+     * @param marker    Il marcatore dell'elemento di elenco (es. "•" o "2."), o <code>null</code>.
+     */
+    public record Paragraph(List<Run> runs, int listDepth, String marker) {
+    }
+
+    /**
+     * Accumula i frammenti durante la visita del DOM e li raggruppa in paragrafi.
+     */
+    private static final class Builder {
+        /**
+         * Paragrafi completati.
+         */
+        private final List<Paragraph> paragraphs = new ArrayList<>();
+        /**
+         * Frammenti del paragrafo corrente.
+         */
+        private final List<Run> runs = new ArrayList<>();
+        /**
+         * Contatori degli elenchi aperti (-1 per gli elenchi puntati).
+         */
+        private final Deque<int[]> listCounters = new ArrayDeque<>();
+        /**
+         * Testo del frammento corrente.
+         */
+        private final StringBuilder current = new StringBuilder();
+        /**
+         * Stile del frammento corrente.
+         */
+        private boolean currentBold;
+        /**
+         * Stile del frammento corrente.
+         */
+        private boolean currentItalic;
+        /**
+         * Indica se è in sospeso uno spazio da inserire prima del prossimo carattere visibile.
+         */
+        private boolean pendingSpace;
+        /**
+         * Marcatore da assegnare al prossimo paragrafo dell'elenco.
+         */
+        private String marker;
+
+        /**
+         * Aggiunge del testo con lo stile indicato, compattando gli spazi.
+         *
+         * @param text   Il testo.
+         * @param bold   <code>true</code> per il grassetto.
+         * @param italic <code>true</code> per il corsivo.
+         */
+        void text(String text, boolean bold, boolean italic) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+                    pendingSpace = hasContent();
+                    continue;
+                }
+                if (current.isEmpty() || currentBold != bold || currentItalic != italic) {
+                    closeRun();
+                    currentBold = bold;
+                    currentItalic = italic;
+                }
+                if (pendingSpace) {
+                    current.append(' ');
+                    pendingSpace = false;
+                }
+                current.append(c);
+            }
+        }
+
+        /**
+         * Aggiunge un ritorno a capo forzato.
+         */
+        void lineBreak() {
+            closeRun();
+            runs.add(new Run("\n", false, false));
+            pendingSpace = false;
+        }
+
+        /**
+         * Chiude il paragrafo corrente, se contiene testo visibile.
+         */
+        void flush() {
+            closeRun();
+            // I ritorni a capo in coda non producono righe visibili.
+            while (!runs.isEmpty() && runs.get(runs.size() - 1).isLineBreak()) {
+                runs.remove(runs.size() - 1);
+            }
+            if (!runs.isEmpty()) {
+                paragraphs.add(new Paragraph(List.copyOf(runs), listCounters.size(), marker));
+                marker = null;
+            }
+            runs.clear();
+            pendingSpace = false;
+        }
+
+        /**
+         * Indica se il paragrafo corrente contiene già del testo.
+         *
+         * @return <code>true</code> se è presente del testo dopo l'ultimo ritorno a capo.
+         */
+        private boolean hasContent() {
+            return !current.isEmpty() || (!runs.isEmpty() && !runs.get(runs.size() - 1).isLineBreak());
+        }
+
+        /**
+         * Chiude il frammento corrente aggiungendolo al paragrafo.
+         */
+        private void closeRun() {
+            if (!current.isEmpty()) {
+                runs.add(new Run(current.toString(), currentBold, currentItalic));
+                current.setLength(0);
+            }
+        }
+    }
+}
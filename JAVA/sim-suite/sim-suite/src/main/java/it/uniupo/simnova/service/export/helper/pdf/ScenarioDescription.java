@@ -3,6 +3,7 @@ package it.uniupo.simnova.service.export.helper.pdf;
 import it.uniupo.simnova.domain.common.Materiale;
 import it.uniupo.simnova.domain.scenario.Scenario;
 import it.uniupo.simnova.service.scenario.ScenarioService;
+import it.uniupo.simnova.service.scenario.helper.RichTextHelper;
 import it.uniupo.simnova.service.scenario.components.AzioneChiaveService;
 import it.uniupo.simnova.service.scenario.components.MaterialeService;
 
@@ -15,6 +16,7 @@ import static it.uniupo.simnova.service.export.helper.pdf.SectionDrawer.drawSect
  * Questa classe si occupa della creazione delle varie <strong>sezioni descrittive</strong>
  * di uno scenario all'interno di un documento PDF. Permette di includere o escludere
  * specifiche parti della descrizione dello scenario basandosi su flag booleani.
+ * I campi formattati vengono letti dai testi precompilati di {@link RichTextHelper}.
  *
  * @author Alessandro Zappatore
  * @version 1.0
@@ -34,6 +36,7 @@ public class ScenarioDescription {
      * Ogni sezione viene inclusa solo se il corrispondente flag booleano è <code>true</code>
      * e il contenuto non è vuoto.
      *
+     * @param context             Il contesto di disegno dell'esportazione corrente.
      * @param scenario            L'oggetto {@link Scenario} che contiene tutte le informazioni da stampare.
      * @param desc                Un flag che indica se la descrizione generale dello scenario deve essere stampata.
      * @param brief               Un flag che indica se il briefing dello scenario deve essere stampato.
@@ -49,25 +52,25 @@ public class ScenarioDescription {
      * @param azioneChiaveService Il servizio {@link AzioneChiaveService} per accedere alle azioni chiave.
      * @throws IOException Se si verifica un errore durante la scrittura nel file PDF.
      */
-    public static void createScenarioDescription(Scenario scenario, boolean desc, boolean brief, boolean infoGen, boolean patto, boolean azioni, boolean obiettivi, boolean moula, boolean liqui, boolean matNec, ScenarioService scenarioService, MaterialeService materialeService, AzioneChiaveService azioneChiaveService) throws IOException {
+    public static void createScenarioDescription(PdfRenderContext context, Scenario scenario, boolean desc, boolean brief, boolean infoGen, boolean patto, boolean azioni, boolean obiettivi, boolean moula, boolean liqui, boolean matNec, ScenarioService scenarioService, MaterialeService materialeService, AzioneChiaveService azioneChiaveService) throws IOException {
         // Sezione: Descrizione
         if (scenario.getDescrizione() != null && !scenario.getDescrizione().isEmpty() && desc) {
-            drawSection("Descrizione", scenario.getDescrizione());
+            drawSection(context, "Descrizione", RichTextHelper.paragraphs(scenario.getId(), "descrizione", scenario.getDescrizione()));
         }
 
         // Sezione: Briefing
         if (scenario.getBriefing() != null && !scenario.getBriefing().isEmpty() && brief) {
-            drawSection("Briefing", scenario.getBriefing());
+            drawSection(context, "Briefing", RichTextHelper.paragraphs(scenario.getId(), "briefing", scenario.getBriefing()));
         }
 
         // Sezione: Informazioni dai genitori (solo per scenari pediatrici)
         if (scenarioService.isPediatric(scenario.getId()) && scenario.getInfoGenitore() != null && !scenario.getInfoGenitore().isEmpty() && infoGen) {
-            drawSection("Informazioni dai genitori", scenario.getInfoGenitore());
+            drawSection(context, "Informazioni dai genitori", RichTextHelper.paragraphs(scenario.getId(), "info_genitore", scenario.getInfoGenitore()));
         }
 
         // Sezione: Patto d'aula
         if (scenario.getPattoAula() != null && !scenario.getPattoAula().isEmpty() && patto) {
-            drawSection("Patto d'Aula", scenario.getPattoAula());
+            drawSection(context, "Patto d'Aula", RichTextHelper.paragraphs(scenario.getId(), "patto_aula", scenario.getPattoAula()));
         }
 
         // Sezione: Azioni chiave
@@ -82,22 +85,22 @@ public class ScenarioDescription {
             if (!azioniFormattate.isEmpty()) {
                 azioniFormattate.setLength(azioniFormattate.length() - 1);
             }
-            drawSection("Azioni Chiave", azioniFormattate.toString());
+            drawSection(context, "Azioni Chiave", azioniFormattate.toString());
         }
 
         // Sezione: Obiettivi didattici
         if (scenario.getObiettivo() != null && !scenario.getObiettivo().isEmpty() && obiettivi) {
-            drawSection("Obiettivi Didattici", scenario.getObiettivo());
+            drawSection(context, "Obiettivi Didattici", RichTextHelper.paragraphs(scenario.getId(), "obiettivo", scenario.getObiettivo()));
         }
 
         // Sezione: Moulage
         if (scenario.getMoulage() != null && !scenario.getMoulage().isEmpty() && moula) {
-            drawSection("Moulage", scenario.getMoulage());
+            drawSection(context, "Moulage", RichTextHelper.paragraphs(scenario.getId(), "moulage", scenario.getMoulage()));
         }
 
         // Sezione: Liquidi e dosi farmaci
         if (scenario.getLiquidi() != null && !scenario.getLiquidi().isEmpty() && liqui) {
-            drawSection("Liquidi e dosi farmaci", scenario.getLiquidi());
+            drawSection(context, "Liquidi e dosi farmaci", RichTextHelper.paragraphs(scenario.getId(), "liquidi", scenario.getLiquidi()));
         }
 
         // Sezione: Materiale necessario
@@ -112,7 +115,7 @@ public class ScenarioDescription {
             if (!materialiNecessariFormattati.isEmpty()) {
                 materialiNecessariFormattati.setLength(materialiNecessariFormattati.length() - 1);
             }
-            drawSection("Materiale necessario", materialiNecessariFormattati.toString());
+            drawSection(context, "Materiale necessario", materialiNecessariFormattati.toString());
         }
     }
 }
\ No newline at end of file
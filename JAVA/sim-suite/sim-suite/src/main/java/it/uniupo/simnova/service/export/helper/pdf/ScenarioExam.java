@@ -1,16 +1,24 @@
 package it.uniupo.simnova.service.export.helper.pdf;
 
 import it.uniupo.simnova.domain.paziente.EsameReferto;
-import it.uniupo.simnova.service.export.PdfExportService;
 import it.uniupo.simnova.service.scenario.components.EsameRefertoService;
+import it.uniupo.simnova.service.storage.FileStorageService;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import static it.uniupo.simnova.service.export.PdfExportService.FONTREGULAR;
-import static it.uniupo.simnova.service.export.PdfExportService.checkForNewPage;
 import static it.uniupo.simnova.service.export.helper.pdf.PdfConstant.BODY_FONT_SIZE;
 import static it.uniupo.simnova.service.export.helper.pdf.PdfConstant.LEADING;
 import static it.uniupo.simnova.service.export.helper.pdf.PdfConstant.MARGIN;
@@ -24,6 +32,8 @@ import static it.uniupo.simnova.service.export.helper.pdf.SectionDrawer.drawWrap
  * Questa classe si occupa della creazione della sezione "Esami e Referti"
  * all'interno di un documento PDF. Visualizza le informazioni dettagliate
  * di ogni esame, inclusi il tipo, il referto testuale e gli eventuali allegati media.
+ * Su richiesta le immagini degli allegati vengono incorporate nel documento, usando le anteprime
+ * ridotte di {@link FileStorageService} alla risoluzione di stampa indicata.
  *
  * @author Alessandro Zappatore
  * @version 1.0
@@ -33,6 +43,18 @@ public class ScenarioExam {
      * Logger per registrare le operazioni e gli errori durante la creazione della sezione.
      */
     private static final Logger logger = LoggerFactory.getLogger(ScenarioExam.class);
+    /**
+     * Larghezza massima di un'immagine incorporata, in punti PDF.
+     */
+    private static final float MAX_IMAGE_WIDTH = 420;
+    /**
+     * Altezza massima di un'immagine incorporata, in punti PDF.
+     */
+    private static final float MAX_IMAGE_HEIGHT = 300;
+    /**
+     * Tempo massimo di attesa per la preparazione di un'immagine, in secondi.
+     */
+    private static final long IMAGE_TIMEOUT_SECONDS = 60;
 
     /**
      * Costruttore privato per evitare l'istanza della classe.
@@ -47,12 +69,17 @@ public class ScenarioExam {
      * La sezione viene aggiunta solo se richiesto (parametro {@code esam} è <code>true</code>)
      * e se sono presenti esami per lo scenario specificato.
      *
+     * @param context             Il contesto di disegno dell'esportazione corrente.
      * @param scenarioId          L'ID dello scenario per cui recuperare gli esami.
      * @param esam                Un flag che indica se la sezione "Esami e Referti" deve essere inclusa nel PDF.
+     * @param esamImg             Un flag che indica se incorporare le immagini degli allegati.
+     * @param imageDpi            La risoluzione di stampa delle immagini incorporate, in punti per pollice.
      * @param esameRefertoService Il servizio {@link EsameRefertoService} per recuperare la lista degli esami e referti.
+     * @param fileStorageService  Il servizio {@link FileStorageService} per le anteprime degli allegati.
      * @throws IOException Se si verifica un errore durante la scrittura nel documento PDF.
      */
-    public static void createExamsSection(Integer scenarioId, boolean esam, EsameRefertoService esameRefertoService) throws IOException {
+    public static void createExamsSection(PdfRenderContext context, Integer scenarioId, boolean esam, boolean esamImg, int imageDpi,
+                                          EsameRefertoService esameRefertoService, FileStorageService fileStorageService) throws IOException {
         List<EsameReferto> esami = esameRefertoService.getEsamiRefertiByScenarioId(scenarioId);
         // Se non ci sono esami o la sezione non deve essere stampata, termina.
         if (esami == null || esami.isEmpty() || !esam) {
@@ -61,42 +88,97 @@ public class ScenarioExam {
 
         // Controlla se è necessario iniziare una nuova pagina per questa sezione.
         // Viene allocato spazio per il titolo della sezione e un margine iniziale.
-        checkForNewPage(LEADING * 5);
+        context.checkForNewPage(LEADING * 5);
 
         // Disegna il titolo principale della sezione "Esami e Referti".
-        drawSection("Esami e Referti", ""); // Il secondo parametro è vuoto perché i dettagli saranno sotto-sezioni.
-
+        drawSection(context, "Esami e Referti", ""); // Il secondo parametro è vuoto perché i dettagli saranno sotto-sezioni.
+
+        // Avvia subito la preparazione di tutte le immagini, che vengono decodificate e ridotte in parallelo
+        // mentre il testo degli esami viene disegnato.
+        List<CompletableFuture<Path>> images = new ArrayList<>();
+        if (esamImg) {
+            FileStorageService.PreviewSize size = FileStorageService.PreviewSize.atLeast(
+                    (int) Math.ceil(Math.max(MAX_IMAGE_WIDTH, MAX_IMAGE_HEIGHT) / 72f * imageDpi));
+            for (EsameReferto esame : esami) {
+                images.add(fileStorageService.getPreviewFileAsync(esame.getMedia(), size));
+            }
+        }
 
         // Itera su ogni esame per disegnarne i dettagli.
-        for (EsameReferto esame : esami) {
+        for (int i = 0; i < esami.size(); i++) {
+            EsameReferto esame = esami.get(i);
             String examType = getExamType(esame); // Recupera il tipo di esame, gestendo caratteri speciali.
 
             // Controlla se è necessario iniziare una nuova pagina per il prossimo esame.
             // Si alloca spazio per il titolo della sotto-sezione e un paio di righe.
-            checkForNewPage(LEADING * 3);
+            context.checkForNewPage(LEADING * 3);
 
             // Aggiunge la tipologia dell'esame come sotto-sezione (es. "ECG").
-            drawSubsection(examType);
+            drawSubsection(context, examType);
 
             // Aggiunge il referto testuale, se presente.
             if (esame.getRefertoTestuale() != null && !esame.getRefertoTestuale().isEmpty()) {
                 // Il testo viene disegnato con un margine sinistro maggiore per indentazione.
-                drawWrappedText(FONTREGULAR, BODY_FONT_SIZE, MARGIN + 20, "Referto: " + esame.getRefertoTestuale());
+                drawWrappedText(context, context.getFontRegular(), BODY_FONT_SIZE, MARGIN + 20, "Referto: " + esame.getRefertoTestuale());
             }
 
             // Aggiunge il nome del media allegato, se presente.
             if (esame.getMedia() != null && !esame.getMedia().isEmpty()) {
                 // Il nome del file media viene disegnato con un font più piccolo e indentato.
-                drawWrappedText(FONTREGULAR, SMALL_FONT_SIZE, MARGIN + 20, "Allegato: " + esame.getMedia());
+                drawWrappedText(context, context.getFontRegular(), SMALL_FONT_SIZE, MARGIN + 20, "Allegato: " + esame.getMedia());
+
+                if (esamImg) {
+                    drawExamImage(context, esame.getMedia(), images.get(i), imageDpi);
+                }
             }
 
             // Sposta la posizione corrente per il prossimo esame, aggiungendo uno spazio vuoto tra gli esami.
-            PdfExportService.currentYPosition -= LEADING;
+            context.moveDown(LEADING);
         }
 
         logger.info("Sezione Esami e Referti creata con successo.");
     }
 
+    /**
+     * Incorpora l'immagine di un allegato sotto il suo nome, ridotta per rientrare nel riquadro massimo
+     * e senza superare la risoluzione di stampa (le immagini piccole non vengono ingrandite).
+     * Il JPEG dell'anteprima viene incorporato così com'è, senza essere decodificato e ricompresso.
+     * Se l'immagine non è disponibile l'esame resta con il solo nome dell'allegato.
+     *
+     * @param context  Il contesto di disegno dell'esportazione corrente.
+     * @param media    Il nome del file allegato.
+     * @param image    La preparazione dell'anteprima dell'allegato.
+     * @param imageDpi La risoluzione di stampa, in punti per pollice.
+     * @throws IOException Se si verifica un errore durante la scrittura nel documento PDF.
+     */
+    private static void drawExamImage(PdfRenderContext context, String media, CompletableFuture<Path> image, int imageDpi) throws IOException {
+        PDImageXObject xObject;
+        try {
+            Path preview = image.get(IMAGE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (preview == null) {
+                return;
+            }
+            xObject = JPEGFactory.createFromByteArray(context.getDocument(), Files.readAllBytes(preview));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Esportazione interrotta durante la preparazione delle immagini degli esami.", e);
+        } catch (ExecutionException | TimeoutException | IOException e) {
+            logger.warn("Immagine dell'allegato '{}' non incorporata nel PDF: {}", media, e.getMessage());
+            return;
+        }
+
+        float pointsPerPixel = 72f / imageDpi;
+        float scale = Math.min(1, Math.min(MAX_IMAGE_WIDTH / (xObject.getWidth() * pointsPerPixel),
+                MAX_IMAGE_HEIGHT / (xObject.getHeight() * pointsPerPixel)));
+        float width = xObject.getWidth() * pointsPerPixel * scale;
+        float height = xObject.getHeight() * pointsPerPixel * scale;
+
+        context.checkForNewPage(height + LEADING);
+        float x = Math.min(MARGIN + 20, PDRectangle.A4.getWidth() - MARGIN - width);
+        context.getContentStream().drawImage(xObject, x, context.getYPosition() - height, width, height);
+        context.moveDown(height + LEADING / 2);
+    }
+
     /**
      * Restituisce il tipo di esame, applicando una sostituzione dei caratteri
      * in apice e in pedice per garantire la compatibilità con il font del PDF.
@@ -1,18 +1,17 @@
 package it.uniupo.simnova.service.export.helper.pdf;
 
 import it.uniupo.simnova.domain.scenario.Scenario;
-import it.uniupo.simnova.service.export.PdfExportService;
+import it.uniupo.simnova.service.scenario.helper.RichTextHelper;
 import it.uniupo.simnova.service.scenario.types.PatientSimulatedScenarioService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 
-import static it.uniupo.simnova.service.export.PdfExportService.checkForNewPage;
 import static it.uniupo.simnova.service.export.helper.pdf.PdfConstant.LEADING;
 import static it.uniupo.simnova.service.export.helper.pdf.PdfConstant.MARGIN;
 import static it.uniupo.simnova.service.export.helper.pdf.SectionDrawer.drawSection;
-import static it.uniupo.simnova.service.export.helper.pdf.SectionDrawer.renderHtmlWithFormatting;
+import static it.uniupo.simnova.service.export.helper.pdf.SectionDrawer.renderParagraphs;
 
 /**
  * Questa classe di utilità si occupa della generazione della sezione "Sceneggiatura"
@@ -30,7 +29,7 @@ public class ScenarioSceneggiatura {
 
     /**
      * Costruttore privato per evitare l'istanza della classe, dato che è una classe di utilità.
-     * Non deve essere istanziata, ma solo utilizzata attraverso il metodo statico {@link #createSceneggiaturaSection(Scenario, boolean, PatientSimulatedScenarioService)}.
+     * Non deve essere istanziata, ma solo utilizzata attraverso il metodo statico {@link #createSceneggiaturaSection(PdfRenderContext, Scenario, boolean, PatientSimulatedScenarioService)}.
      */
     private ScenarioSceneggiatura() {
         // Costruttore privato per evitare l'istanza della classe, dato che è una classe di utilità.
@@ -41,13 +40,14 @@ public class ScenarioSceneggiatura {
      * La sezione viene aggiunta solo se il flag {@code scen} è impostato a <code>true</code>
      * e se la sceneggiatura per lo scenario specificato è presente e non vuota.
      *
+     * @param context                         Il contesto di disegno dell'esportazione corrente.
      * @param scenario                        L'oggetto {@link Scenario} di riferimento.
      * @param scen                            Un flag che indica se la sezione "Sceneggiatura" deve essere inclusa nel PDF.
      * @param patientSimulatedScenarioService Il servizio {@link PatientSimulatedScenarioService}
      *                                        per recuperare il testo della sceneggiatura.
      * @throws IOException Se si verifica un errore durante la scrittura nel documento PDF.
      */
-    public static void createSceneggiaturaSection(Scenario scenario, boolean scen, PatientSimulatedScenarioService patientSimulatedScenarioService) throws IOException {
+    public static void createSceneggiaturaSection(PdfRenderContext context, Scenario scenario, boolean scen, PatientSimulatedScenarioService patientSimulatedScenarioService) throws IOException {
         // Recupera il testo della sceneggiatura per lo scenario dato.
         String sceneggiatura = patientSimulatedScenarioService.getSceneggiatura(scenario.getId());
 
@@ -58,17 +58,17 @@ public class ScenarioSceneggiatura {
 
         // Controlla se è necessario iniziare una nuova pagina prima di disegnare la sezione.
         // Lo spazio stimato è per il titolo della sezione e un margine iniziale.
-        checkForNewPage(LEADING * 5);
+        context.checkForNewPage(LEADING * 5);
 
         // Disegna il titolo principale della sezione "Sceneggiatura".
-        drawSection("Sceneggiatura", ""); // Il secondo parametro è vuoto perché il contenuto segue.
+        drawSection(context, "Sceneggiatura", ""); // Il secondo parametro è vuoto perché il contenuto segue.
 
-        // Inserisce il testo della sceneggiatura nel PDF, gestendo eventuali tag HTML.
+        // Inserisce il testo precompilato della sceneggiatura nel PDF, con la sua formattazione.
         // Il testo viene indentato con un margine sinistro maggiore.
-        renderHtmlWithFormatting(sceneggiatura, MARGIN + 20);
+        renderParagraphs(context, RichTextHelper.paragraphs(scenario.getId(), "sceneggiatura", sceneggiatura), MARGIN + 20);
 
         // Aggiunge uno spazio verticale dopo la sezione per separarla dal contenuto successivo.
-        PdfExportService.currentYPosition -= LEADING;
+        context.moveDown(LEADING);
 
         logger.info("Sezione Sceneggiatura creata con successo per lo scenario {}.", scenario.getId());
     }
@@ -3,16 +3,12 @@ package it.uniupo.simnova.service.export.helper.pdf;
 import it.uniupo.simnova.domain.common.ParametroAggiuntivo;
 import it.uniupo.simnova.domain.common.Tempo;
 import it.uniupo.simnova.domain.scenario.Scenario;
-import it.uniupo.simnova.service.export.PdfExportService;
 import it.uniupo.simnova.service.scenario.ScenarioService;
 import it.uniupo.simnova.service.scenario.types.AdvancedScenarioService;
 
 import java.io.IOException;
 import java.util.List;
 
-import static it.uniupo.simnova.service.export.PdfExportService.FONTBOLD;
-import static it.uniupo.simnova.service.export.PdfExportService.FONTREGULAR;
-import static it.uniupo.simnova.service.export.PdfExportService.checkForNewPage;
 import static it.uniupo.simnova.service.export.helper.pdf.PdfConstant.BODY_FONT_SIZE;
 import static it.uniupo.simnova.service.export.helper.pdf.PdfConstant.LEADING;
 import static it.uniupo.simnova.service.export.helper.pdf.PdfConstant.MARGIN;
@@ -44,12 +40,13 @@ public class ScenarioTimeline {
      * presentandoli con i loro parametri vitali, i parametri aggiuntivi,
      * i dettagli e le azioni/transizioni.
      *
+     * @param context                 Il contesto di disegno dell'esportazione corrente.
      * @param scenario                L'oggetto {@link Scenario} di riferimento.
      * @param advancedScenarioService Il servizio {@link AdvancedScenarioService} per recuperare i dati avanzati dello scenario.
      * @param scenarioService         Il servizio {@link ScenarioService} per ottenere informazioni aggiuntive sullo scenario (es. se è pediatrico).
      * @throws IOException In caso di errore durante la scrittura nel documento PDF.
      */
-    public static void createTimelineSection(Scenario scenario, AdvancedScenarioService advancedScenarioService, ScenarioService scenarioService) throws IOException {
+    public static void createTimelineSection(PdfRenderContext context, Scenario scenario, AdvancedScenarioService advancedScenarioService, ScenarioService scenarioService) throws IOException {
         // Recupera la lista dei tempi associati allo scenario.
         List<Tempo> tempi = advancedScenarioService.getTempiByScenarioId(scenario.getId());
 
@@ -62,10 +59,10 @@ public class ScenarioTimeline {
         // per decidere se è necessario un salto pagina.
         float spazioTitoloSezione = LEADING * 3;
         float spazioTitoloPrimoTempo = LEADING * 3;
-        checkForNewPage(spazioTitoloSezione + spazioTitoloPrimoTempo);
+        context.checkForNewPage(spazioTitoloSezione + spazioTitoloPrimoTempo);
 
         // Disegna il titolo principale della sezione "Timeline".
-        drawSection("Timeline", "");
+        drawSection(context, "Timeline", "");
 
         // Itera su ogni oggetto Tempo per stampare i suoi dettagli nel PDF.
         for (int i = 0; i < tempi.size(); i++) {
@@ -77,101 +74,101 @@ public class ScenarioTimeline {
                     tempo.getTimerTempo() / 60.0 // Converte i secondi in minuti.
             );
             // Verifica lo spazio per il titolo del tempo e lo disegna come sotto-sezione.
-            checkForNewPage(LEADING * 3);
-            drawSubsection(title);
+            context.checkForNewPage(LEADING * 3);
+            drawSubsection(context, title);
 
             float paramsIndent = MARGIN + 20; // Definisce l'indentazione per i parametri.
 
             // Stampa i parametri vitali principali, uno per riga, con gestione del salto pagina.
-            checkForNewPage(LEADING * 2);
-            drawWrappedText(FONTREGULAR, BODY_FONT_SIZE, paramsIndent, String.format("PA: %s mmHg", tempo.getPA() != null ? tempo.getPA() : "-"));
+            context.checkForNewPage(LEADING * 2);
+            drawWrappedText(context, context.getFontRegular(), BODY_FONT_SIZE, paramsIndent, String.format("PA: %s mmHg", tempo.getPA() != null ? tempo.getPA() : "-"));
 
-            checkForNewPage(LEADING * 2);
-            drawWrappedText(FONTREGULAR, BODY_FONT_SIZE, paramsIndent, String.format("FC: %d bpm", tempo.getFC() != null ? tempo.getFC() : 0));
+            context.checkForNewPage(LEADING * 2);
+            drawWrappedText(context, context.getFontRegular(), BODY_FONT_SIZE, paramsIndent, String.format("FC: %d bpm", tempo.getFC() != null ? tempo.getFC() : 0));
 
-            checkForNewPage(LEADING * 2);
-            drawWrappedText(FONTREGULAR, BODY_FONT_SIZE, paramsIndent, String.format("RR: %d atti/min", tempo.getRR() != null ? tempo.getRR() : 0));
+            context.checkForNewPage(LEADING * 2);
+            drawWrappedText(context, context.getFontRegular(), BODY_FONT_SIZE, paramsIndent, String.format("RR: %d atti/min", tempo.getRR() != null ? tempo.getRR() : 0));
 
-            checkForNewPage(LEADING * 2);
-            drawWrappedText(FONTREGULAR, BODY_FONT_SIZE, paramsIndent, String.format("Temperatura: %.1f °C", tempo.getT()));
+            context.checkForNewPage(LEADING * 2);
+            drawWrappedText(context, context.getFontRegular(), BODY_FONT_SIZE, paramsIndent, String.format("Temperatura: %.1f °C", tempo.getT()));
 
-            checkForNewPage(LEADING * 2);
-            drawWrappedText(FONTREGULAR, BODY_FONT_SIZE, paramsIndent, String.format("SpO2: %d%%", tempo.getSpO2() != null ? tempo.getSpO2() : 0));
+            context.checkForNewPage(LEADING * 2);
+            drawWrappedText(context, context.getFontRegular(), BODY_FONT_SIZE, paramsIndent, String.format("SpO2: %d%%", tempo.getSpO2() != null ? tempo.getSpO2() : 0));
 
             // FiO2 (stampato solo se il valore è presente e maggiore di 0).
             Number fio2 = tempo.getFiO2();
             if (fio2 != null && fio2.doubleValue() > 0) {
-                checkForNewPage(LEADING * 2);
-                drawWrappedText(FONTREGULAR, BODY_FONT_SIZE, paramsIndent, String.format("FiO2: %.0f%%", fio2.doubleValue()));
+                context.checkForNewPage(LEADING * 2);
+                drawWrappedText(context, context.getFontRegular(), BODY_FONT_SIZE, paramsIndent, String.format("FiO2: %.0f%%", fio2.doubleValue()));
             }
 
             // Litri O2 (stampato solo se il valore è presente e maggiore di 0).
             Number litriO2 = tempo.getLitriO2();
             if (litriO2 != null && litriO2.doubleValue() > 0) {
-                checkForNewPage(LEADING * 2);
-                drawWrappedText(FONTREGULAR, BODY_FONT_SIZE, paramsIndent, String.format("Litri O2: %.1f L/min", litriO2.doubleValue()));
+                context.checkForNewPage(LEADING * 2);
+                drawWrappedText(context, context.getFontRegular(), BODY_FONT_SIZE, paramsIndent, String.format("Litri O2: %.1f L/min", litriO2.doubleValue()));
             }
 
-            checkForNewPage(LEADING * 2);
-            drawWrappedText(FONTREGULAR, BODY_FONT_SIZE, paramsIndent, String.format("EtCO2: %d mmHg", tempo.getEtCO2() != null ? tempo.getEtCO2() : 0));
+            context.checkForNewPage(LEADING * 2);
+            drawWrappedText(context, context.getFontRegular(), BODY_FONT_SIZE, paramsIndent, String.format("EtCO2: %d mmHg", tempo.getEtCO2() != null ? tempo.getEtCO2() : 0));
 
             // Parametri aggiuntivi (se presenti).
             List<ParametroAggiuntivo> parametriAggiuntivo = advancedScenarioService.getParametriAggiuntiviByTempoId(tempo.getIdTempo(), scenario.getId());
             if (!parametriAggiuntivo.isEmpty()) {
                 for (ParametroAggiuntivo parametro : parametriAggiuntivo) {
-                    checkForNewPage(LEADING * 2);
+                    context.checkForNewPage(LEADING * 2);
                     // Applica la sostituzione dei caratteri speciali ai nomi e unità di misura dei parametri aggiuntivi.
                     String parametroNome = replaceSubscriptCharacters(parametro.getNome());
                     String parametroUnita = replaceSubscriptCharacters(parametro.getUnitaMisura());
-                    drawWrappedText(FONTREGULAR, BODY_FONT_SIZE, paramsIndent,
+                    drawWrappedText(context, context.getFontRegular(), BODY_FONT_SIZE, paramsIndent,
                             String.format("%s: %s %s", parametroNome, parametro.getValore(), parametroUnita));
                 }
             }
             // Spazio verticale dopo il blocco dei parametri.
-            PdfExportService.currentYPosition -= LEADING;
+            context.moveDown(LEADING);
 
             float detailsLabelIndent = MARGIN + 20; // Indentazione per le etichette dei dettagli.
             float detailsTextIndent = MARGIN + 30; // Indentazione per il testo dei dettagli.
 
             // Stampa i dettagli aggiuntivi del tempo, se presenti.
             if (tempo.getAltriDettagli() != null && !tempo.getAltriDettagli().isEmpty()) {
-                checkForNewPage(LEADING * 3);
-                drawWrappedText(FONTBOLD, BODY_FONT_SIZE, detailsLabelIndent, "Dettagli:");
-                checkForNewPage(LEADING * 2);
-                drawWrappedText(FONTREGULAR, BODY_FONT_SIZE, detailsTextIndent, tempo.getAltriDettagli());
-                PdfExportService.currentYPosition -= LEADING / 2;
+                context.checkForNewPage(LEADING * 3);
+                drawWrappedText(context, context.getFontBold(), BODY_FONT_SIZE, detailsLabelIndent, "Dettagli:");
+                context.checkForNewPage(LEADING * 2);
+                drawWrappedText(context, context.getFontRegular(), BODY_FONT_SIZE, detailsTextIndent, tempo.getAltriDettagli());
+                context.moveDown(LEADING / 2);
             }
 
             // Stampa il ruolo del genitore, se lo scenario è pediatrico e il ruolo è definito.
             if (scenarioService.isPediatric(scenario.getId()) && tempo.getRuoloGenitore() != null && !tempo.getRuoloGenitore().isEmpty()) {
-                checkForNewPage(LEADING * 3);
-                drawWrappedText(FONTBOLD, BODY_FONT_SIZE, detailsLabelIndent, "Ruolo del genitore:");
-                checkForNewPage(LEADING * 2);
-                drawWrappedText(FONTREGULAR, BODY_FONT_SIZE, detailsTextIndent, tempo.getRuoloGenitore());
-                PdfExportService.currentYPosition -= LEADING / 2;
+                context.checkForNewPage(LEADING * 3);
+                drawWrappedText(context, context.getFontBold(), BODY_FONT_SIZE, detailsLabelIndent, "Ruolo del genitore:");
+                context.checkForNewPage(LEADING * 2);
+                drawWrappedText(context, context.getFontRegular(), BODY_FONT_SIZE, detailsTextIndent, tempo.getRuoloGenitore());
+                context.moveDown(LEADING / 2);
             }
 
             // Stampa le azioni da svolgere per passare al tempo "se SI".
             String azione = tempo.getAzione();
             if (azione != null && !azione.isEmpty()) {
-                checkForNewPage(LEADING * 3);
-                drawWrappedText(FONTBOLD, BODY_FONT_SIZE, detailsLabelIndent, "Azioni da svolgere per passare a → T" + tempo.getTSi() + ":");
-                checkForNewPage(LEADING * 2);
-                drawWrappedText(FONTREGULAR, BODY_FONT_SIZE, detailsTextIndent, azione);
-                PdfExportService.currentYPosition -= LEADING / 2;
+                context.checkForNewPage(LEADING * 3);
+                drawWrappedText(context, context.getFontBold(), BODY_FONT_SIZE, detailsLabelIndent, "Azioni da svolgere per passare a → T" + tempo.getTSi() + ":");
+                context.checkForNewPage(LEADING * 2);
+                drawWrappedText(context, context.getFontRegular(), BODY_FONT_SIZE, detailsTextIndent, azione);
+                context.moveDown(LEADING / 2);
             }
 
             // Stampa il riferimento al tempo "se NO", se definito.
             if (tempo.getTNo() >= 0) { // Un valore >= 0 indica una transizione definita (anche se a T0)
-                checkForNewPage(LEADING * 3);
-                drawWrappedText(FONTBOLD, BODY_FONT_SIZE, detailsLabelIndent, "Se non vengono svolte le azioni passare a → T" + tempo.getTNo());
-                PdfExportService.currentYPosition -= LEADING / 2;
+                context.checkForNewPage(LEADING * 3);
+                drawWrappedText(context, context.getFontBold(), BODY_FONT_SIZE, detailsLabelIndent, "Se non vengono svolte le azioni passare a → T" + tempo.getTNo());
+                context.moveDown(LEADING / 2);
             }
 
             // Aggiunge uno spazio extra tra un tempo e il successivo, tranne che dopo l'ultimo tempo.
             if (i < tempi.size() - 1) {
-                checkForNewPage(LEADING * 2);
-                PdfExportService.currentYPosition -= LEADING;
+                context.checkForNewPage(LEADING * 2);
+                context.moveDown(LEADING);
             }
         }
     }
@@ -0,0 +1,425 @@
+package it.uniupo.simnova.service.export.helper.pdf;
+
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.util.Matrix;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Motore di impaginazione del testo condiviso da tutte le sezioni del PDF.
+ * <p>
+ * Il testo ({@link RichText.Paragraph}) viene suddiviso in parole, ognuna misurata una sola volta
+ * tramite {@link GlyphWidths}; le righe vengono poi riempite in modo greedy sommando le larghezze
+ * già note, per cui il costo è lineare nella lunghezza del testo. Il risultato è una lista di
+ * {@link Line righe}, ciascuna composta da segmenti con font e posizione orizzontale già calcolati,
+ * che i chiamanti disegnano con {@link #drawLine} decidendo la posizione e i salti pagina.
+ * Una parola più larga dell'intera riga (ad esempio un URL) viene spezzata tra un carattere e l'altro.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+public final class TextLayout {
+
+    /**
+     * Rientro per ogni livello di elenco.
+     */
+    public static final float LIST_INDENT = 15;
+    /**
+     * Spazio tra il marcatore di un elemento di elenco e il suo testo.
+     */
+    private static final float MARKER_GAP = 4;
+
+    /**
+     * Costruttore privato per evitare l'istanza della classe, dato che contiene solo metodi statici.
+     */
+    private TextLayout() {
+        // Costruttore privato per evitare l'istanza della classe.
+    }
+
+    /**
+     * Impagina dei paragrafi formattati.
+     *
+     * @param paragraphs I paragrafi da impaginare.
+     * @param fonts      La funzione che associa a ogni stile il font da usare.
+     * @param fontSize   La dimensione del font.
+     * @param maxWidth   La larghezza massima di una riga, rientri compresi.
+     * @param widths     La cache delle larghezze dei caratteri.
+     * @return Le righe risultanti, nell'ordine in cui vanno disegnate.
+     * @throws IOException Se non è possibile misurare il testo.
+     */
+    public static List<Line> layout(List<RichText.Paragraph> paragraphs, FontResolver fonts, float fontSize,
+                                    float maxWidth, GlyphWidths widths) throws IOException {
+        List<Line> lines = new ArrayList<>();
+        for (RichText.Paragraph paragraph : paragraphs) {
+            layoutParagraph(paragraph, fonts, fontSize, maxWidth, widths, lines);
+        }
+        return lines;
+    }
+
+    /**
+     * Impagina un testo semplice con un unico font. Gli spazi vengono compattati e un testo vuoto
+     * non produce righe.
+     *
+     * @param text     Il testo da impaginare.
+     * @param font     Il font da usare.
+     * @param fontSize La dimensione del font.
+     * @param maxWidth La larghezza massima di una riga.
+     * @param widths   La cache delle larghezze dei caratteri.
+     * @return Le righe risultanti.
+     * @throws IOException Se non è possibile misurare il testo.
+     */
+    public static List<Line> layoutPlain(String text, PDFont font, float fontSize, float maxWidth,
+                                         GlyphWidths widths) throws IOException {
+        return layout(List.of(RichText.plainParagraph(text)), (bold, italic) -> font, fontSize, maxWidth, widths);
+    }
+
+    /**
+     * Disegna una riga con la linea di base nella posizione indicata, in un unico blocco di testo.
+     *
+     * @param contentStream Lo stream di contenuto della pagina.
+     * @param line          La riga da disegnare.
+     * @param x             La coordinata X del bordo sinistro del blocco di testo.
+     * @param y             La coordinata Y della linea di base.
+     * @param fontSize      La dimensione del font.
+     * @throws IOException Se si verifica un errore durante la scrittura nello stream.
+     */
+    public static void drawLine(PDPageContentStream contentStream, Line line, float x, float y, float fontSize) throws IOException {
+        if (line.segments().isEmpty()) {
+            return;
+        }
+        contentStream.beginText();
+        PDFont currentFont = null;
+        for (Segment segment : line.segments()) {
+            if (segment.font() != currentFont) {
+                contentStream.setFont(segment.font(), fontSize);
+                currentFont = segment.font();
+            }
+            contentStream.setTextMatrix(Matrix.getTranslateInstance(x + segment.x(), y));
+            contentStream.showText(segment.text());
+        }
+        contentStream.endText();
+    }
+
+    /**
+     * Impagina un singolo paragrafo aggiungendo le righe alla lista.
+     *
+     * @param paragraph Il paragrafo.
+     * @param fonts     La funzione che associa a ogni stile il font da usare.
+     * @param fontSize  La dimensione del font.
+     * @param maxWidth  La larghezza massima di una riga.
+     * @param widths    La cache delle larghezze dei caratteri.
+     * @param lines     La lista a cui aggiungere le righe.
+     * @throws IOException Se non è possibile misurare il testo.
+     */
+    private static void layoutParagraph(RichText.Paragraph paragraph, FontResolver fonts, float fontSize,
+                                        float maxWidth, GlyphWidths widths, List<Line> lines) throws IOException {
+        float indent = paragraph.listDepth() * LIST_INDENT;
+        float available = maxWidth - indent;
+        int firstLine = lines.size();
+
+        LineBuilder line = new LineBuilder(indent);
+        for (Word word : splitWords(paragraph, fonts, fontSize, widths)) {
+            if (word.lineBreak()) {
+                lines.add(line.build());
+                line = new LineBuilder(indent);
+                continue;
+            }
+            float gapWidth = line.isEmpty() || word.gapFont() == null ? 0 : widths.width(word.gapFont(), " ", fontSize);
+            if (word.width() > available) {
+                // La parola non entra in nessuna riga: inizia su una riga nuova e va a capo carattere per carattere.
+                if (!line.isEmpty()) {
+                    lines.add(line.build());
+                    line = new LineBuilder(indent);
+                }
+                line = appendByCharacter(word, fontSize, available, widths, line, indent, lines);
+                continue;
+            }
+            if (!line.isEmpty() && line.width + gapWidth + word.width() > available) {
+                lines.add(line.build());
+                line = new LineBuilder(indent);
+                gapWidth = 0;
+            }
+            if (gapWidth > 0) {
+                line.append(" ", word.gapFont(), gapWidth);
+            }
+            for (Piece piece : word.pieces()) {
+                line.append(piece.text(), piece.font(), piece.width());
+            }
+        }
+        if (!line.isEmpty()) {
+            lines.add(line.build());
+        }
+
+        // Il marcatore dell'elenco viene appeso a sinistra della prima riga, nel rientro.
+        if (paragraph.marker() != null && lines.size() > firstLine) {
+            PDFont markerFont = fonts.resolve(false, false);
+            float markerX = indent - widths.width(markerFont, paragraph.marker(), fontSize) - MARKER_GAP;
+            Line first = lines.get(firstLine);
+            List<Segment> segments = new ArrayList<>(first.segments().size() + 1);
+            segments.add(new Segment(paragraph.marker(), markerFont, markerX));
+            segments.addAll(first.segments());
+            lines.set(firstLine, new Line(List.copyOf(segments), first.width()));
+        }
+    }
+
+    /**
+     * Aggiunge una parola più larga della riga spezzandola tra i caratteri: ogni riga viene riempita finché
+     * il carattere successivo non supera la larghezza disponibile.
+     *
+     * @param word      La parola da spezzare.
+     * @param fontSize  La dimensione del font.
+     * @param available La larghezza disponibile per il testo, escluso il rientro.
+     * @param widths    La cache delle larghezze dei caratteri.
+     * @param line      La riga corrente, vuota.
+     * @param indent    Il rientro delle righe.
+     * @param lines     La lista a cui aggiungere le righe completate.
+     * @return La riga con l'ultima parte della parola, ancora da completare.
+     * @throws IOException Se non è possibile misurare il testo.
+     */
+    private static LineBuilder appendByCharacter(Word word, float fontSize, float available, GlyphWidths widths,
+                                                 LineBuilder line, float indent, List<Line> lines) throws IOException {
+        for (Piece piece : word.pieces()) {
+            String text = piece.text();
+            for (int i = 0; i < text.length(); ) {
+                String character = text.substring(i, i + Character.charCount(text.codePointAt(i)));
+                float width = widths.width(piece.font(), character, fontSize);
+                if (!line.isEmpty() && line.width + width > available) {
+                    lines.add(line.build());
+                    line = new LineBuilder(indent);
+                }
+                line.append(character, piece.font(), width);
+                i += character.length();
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Suddivide un paragrafo in parole misurate. Una parola può attraversare più frammenti
+     * con stili diversi (es. <code>&lt;b&gt;Par&lt;/b&gt;ola</code>) e in tal caso è composta da più pezzi.
+     *
+     * @param paragraph Il paragrafo.
+     * @param fonts     La funzione che associa a ogni stile il font da usare.
+     * @param fontSize  La dimensione del font.
+     * @param widths    La cache delle larghezze dei caratteri.
+     * @return Le parole del paragrafo, con i ritorni a capo forzati.
+     * @throws IOException Se non è possibile misurare il testo.
+     */
+    private static List<Word> splitWords(RichText.Paragraph paragraph, FontResolver fonts, float fontSize,
+                                         GlyphWidths widths) throws IOException {
+        List<Word> words = new ArrayList<>();
+        List<Piece> pieces = new ArrayList<>();
+        StringBuilder piece = new StringBuilder();
+        PDFont pieceFont = null;
+        // Font dello spazio che separa la prossima parola dalla precedente.
+        PDFont gapFont = null;
+
+        for (RichText.Run run : paragraph.runs()) {
+            if (run.isLineBreak()) {
+                closeWord(words, pieces, piece, pieceFont, gapFont, fontSize, widths);
+                words.add(Word.LINE_BREAK);
+                gapFont = null;
+                continue;
+            }
+            PDFont font = fonts.resolve(run.bold(), run.italic());
+            String text = run.text();
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    if (closeWord(words, pieces, piece, pieceFont, gapFont, fontSize, widths)) {
+                        gapFont = font;
+                    }
+                    continue;
+                }
+                if (font != pieceFont && !piece.isEmpty()) {
+                    pieces.add(new Piece(piece.toString(), pieceFont, widths.width(pieceFont, piece.toString(), fontSize)));
+                    piece.setLength(0);
+                }
+                pieceFont = font;
+                piece.append(c);
+            }
+        }
+        closeWord(words, pieces, piece, pieceFont, gapFont, fontSize, widths);
+        return words;
+    }
+
+    /**
+     * Chiude la parola in costruzione, se presente, misurandone i pezzi.
+     *
+     * @param words     La lista delle parole.
+     * @param pieces    I pezzi già chiusi della parola corrente (viene svuotata).
+     * @param piece     Il pezzo in costruzione (viene svuotato).
+     * @param pieceFont Il font del pezzo in costruzione.
+     * @param gapFont   Il font dello spazio che precede la parola, o <code>null</code>.
+     * @param fontSize  La dimensione del font.
+     * @param widths    La cache delle larghezze dei caratteri.
+     * @return <code>true</code> se è stata chiusa una parola.
+     * @throws IOException Se non è possibile misurare il testo.
+     */
+    private static boolean closeWord(List<Word> words, List<Piece> pieces, StringBuilder piece, PDFont pieceFont,
+                                     PDFont gapFont, float fontSize, GlyphWidths widths) throws IOException {
+        if (!piece.isEmpty()) {
+            pieces.add(new Piece(piece.toString(), pieceFont, widths.width(pieceFont, piece.toString(), fontSize)));
+            piece.setLength(0);
+        }
+        if (pieces.isEmpty()) {
+            return false;
+        }
+        float width = 0;
+        for (Piece p : pieces) {
+            width += p.width();
+        }
+        boolean first = words.isEmpty() || words.get(words.size() - 1).lineBreak();
+        words.add(new Word(List.copyOf(pieces), width, first ? null : gapFont, false));
+        pieces.clear();
+        return true;
+    }
+
+    /**
+     * Associa a una combinazione di stili il font con cui disegnarla.
+     */
+    @FunctionalInterface
+    public interface FontResolver {
+        /**
+         * Restituisce il font per lo stile indicato.
+         *
+         * @param bold   <code>true</code> per il grassetto.
+         * @param italic <code>true</code> per il corsivo.
+         * @return Il font da usare.
+         */
+        PDFont resolve(boolean bold, boolean italic);
+    }
+
+    /**
+     * Porzione di una riga disegnata con un unico font.
+     *
+     * @param text Il testo della porzione.
+     * @param font Il font della porzione.
+     * @param x    La posizione orizzontale rispetto al bordo sinistro del blocco di testo.
+     */
+    public record Segment(String text, PDFont font, float x) {
+    }
+
+    /**
+     * Riga impaginata.
+     *
+     * @param segments Le porzioni della riga (vuota per le righe bianche).
+     * @param width    La larghezza occupata dalla riga, rientro compreso.
+     */
+    public record Line(List<Segment> segments, float width) {
+    }
+
+    /**
+     * Pezzo di parola con stile uniforme, già misurato.
+     *
+     * @param text  Il testo.
+     * @param font  Il font.
+     * @param width La larghezza in punti PDF.
+     */
+    private record Piece(String text, PDFont font, float width) {
+    }
+
+    /**
+     * Parola misurata, o ritorno a capo forzato.
+     *
+     * @param pieces    I pezzi della parola.
+     * @param width     La larghezza complessiva.
+     * @param gapFont   Il font dello spazio che precede la parola, o <code>null</code> se non c'è spazio.
+     * @param lineBreak <code>true</code> se rappresenta un ritorno a capo forzato.
+     */
+    private record Word(List<Piece> pieces, float width, PDFont gapFont, boolean lineBreak) {
+        /**
+         * Ritorno a capo forzato.
+         */
+        static final Word LINE_BREAK = new Word(List.of(), 0, null, true);
+    }
+
+    /**
+     * Costruisce una riga accorpando i pezzi consecutivi con lo stesso font in un unico segmento.
+     */
+    private static final class LineBuilder {
+        /**
+         * I segmenti completati.
+         */
+        private final List<Segment> segments = new ArrayList<>();
+        /**
+         * Il testo del segmento corrente.
+         */
+        private final StringBuilder text = new StringBuilder();
+        /**
+         * Il rientro della riga.
+         */
+        private final float indent;
+        /**
+         * Il font del segmento corrente.
+         */
+        private PDFont font;
+        /**
+         * La posizione del segmento corrente.
+         */
+        private float segmentX;
+        /**
+         * La larghezza occupata finora, escluso il rientro.
+         */
+        private float width;
+
+        /**
+         * Crea una riga vuota.
+         *
+         * @param indent Il rientro della riga.
+         */
+        LineBuilder(float indent) {
+            this.indent = indent;
+        }
+
+        /**
+         * Indica se la riga è ancora vuota.
+         *
+         * @return <code>true</code> se non contiene testo.
+         */
+        boolean isEmpty() {
+            return width == 0 && segments.isEmpty() && text.isEmpty();
+        }
+
+        /**
+         * Aggiunge un pezzo di testo già misurato.
+         *
+         * @param value      Il testo.
+         * @param valueFont  Il font.
+         * @param valueWidth La larghezza.
+         */
+        void append(String value, PDFont valueFont, float valueWidth) {
+            if (valueFont != font) {
+                closeSegment();
+                font = valueFont;
+                segmentX = indent + width;
+            }
+            text.append(value);
+            width += valueWidth;
+        }
+
+        /**
+         * Completa la riga.
+         *
+         * @return La riga costruita.
+         */
+        Line build() {
+            closeSegment();
+            return new Line(List.copyOf(segments), indent + width);
+        }
+
+        /**
+         * Chiude il segmento corrente.
+         */
+        private void closeSegment() {
+            if (!text.isEmpty()) {
+                segments.add(new Segment(text.toString(), font, segmentX));
+                text.setLength(0);
+            }
+        }
+    }
+}
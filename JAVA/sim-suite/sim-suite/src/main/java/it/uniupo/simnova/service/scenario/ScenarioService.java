@@ -1,7 +1,11 @@
 package it.uniupo.simnova.service.scenario;
 
 import it.uniupo.simnova.domain.scenario.Scenario;
+import it.uniupo.simnova.service.scenario.helper.RichTextHelper;
+import it.uniupo.simnova.service.scenario.helper.TextCompressionHelper;
+import it.uniupo.simnova.service.storage.InlineImageService;
 import it.uniupo.simnova.utils.DBConnect;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -9,6 +13,7 @@ import org.springframework.stereotype.Service;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Servizio per la gestione degli scenari.
@@ -29,12 +34,35 @@ public class ScenarioService {
     private static final Logger logger = LoggerFactory.getLogger(ScenarioService.class);
 
     /**
-     * Costruttore privato per prevenire l'istanza diretta del servizio.
+     * Il servizio che estrae le immagini incollate nei campi HTML prima del salvataggio.
+     */
+    private final InlineImageService inlineImageService;
+
+    /**
+     * Costruisce una nuova istanza di <code>ScenarioService</code>.
      * Utilizzare il contesto Spring per ottenere un'istanza di questo servizio.
+     *
+     * @param inlineImageService Il servizio per le immagini incollate nei campi HTML.
+     */
+    public ScenarioService(InlineImageService inlineImageService) {
+        this.inlineImageService = inlineImageService;
+    }
+
+    /**
+     * Estrae le immagini incorporate nei campi HTML già salvati, quindi verifica lo schema dei testi
+     * precompilati e calcola quelli mancanti, così che la lista degli scenari e il PDF
+     * non debbano interpretare l'HTML dei campi.
      */
-    private ScenarioService() {
-        // Costruttore privato per prevenire l'istanza diretta del servizio.
-        // Utilizzare il contesto Spring per ottenere un'istanza di questo servizio.
+    @PostConstruct
+    public void init() {
+        inlineImageService.migrateExistingContent();
+        try {
+            RichTextHelper.ensureRichTextSchema();
+            RichTextHelper.backfill();
+        } catch (SQLException e) {
+            // I lettori ricalcolano comunque il testo dall'HTML, per cui l'applicazione resta utilizzabile.
+            logger.error("Impossibile inizializzare lo schema RichTextField: {}", e.getMessage(), e);
+        }
     }
 
     /**
@@ -61,16 +89,16 @@ public class ScenarioService {
                         rs.getString("titolo"),
                         rs.getString("nome_paziente"),
                         rs.getString("patologia"),
-                        rs.getString("descrizione"),
-                        rs.getString("briefing"),
-                        rs.getString("patto_aula"),
-                        rs.getString("obiettivo"),
-                        rs.getString("moulage"),
-                        rs.getString("liquidi"),
+                        TextCompressionHelper.read(rs, "descrizione"),
+                        TextCompressionHelper.read(rs, "briefing"),
+                        TextCompressionHelper.read(rs, "patto_aula"),
+                        TextCompressionHelper.read(rs, "obiettivo"),
+                        TextCompressionHelper.read(rs, "moulage"),
+                        TextCompressionHelper.read(rs, "liquidi"),
                         rs.getFloat("timer_generale"),
                         rs.getString("autori"),
                         rs.getString("tipologia_paziente"),
-                        rs.getString("info_genitore"),
+                        TextCompressionHelper.read(rs, "info_genitore"),
                         rs.getString("target")
                 );
                 logger.info("Scenario con ID {} recuperato con successo.", id);
@@ -85,14 +113,20 @@ public class ScenarioService {
 
     /**
      * Recupera una lista di tutti gli scenari presenti nel database.
-     * Per motivi di performance e di visualizzazione, vengono recuperati solo i campi essenziali.
+     * Per motivi di performance e di visualizzazione, vengono recuperati solo i campi essenziali,
+     * insieme all'anteprima precompilata della descrizione ({@link Scenario#getDescrizioneAnteprima()}):
+     * la descrizione completa non viene letta, se non per ricalcolare le anteprime mancanti.
      *
      * @return Una {@link List} di oggetti {@link Scenario} contenente gli scenari principali.
      * Restituisce una lista vuota in caso di errore o se non sono presenti scenari.
      */
     public List<Scenario> getAllScenarios() {
-        final String sql = "SELECT id_scenario, titolo, autori, patologia, descrizione, tipologia_paziente FROM Scenario";
+        // length() su una descrizione compressa (BLOB) non ne legge il contenuto.
+        final String sql = "SELECT s.id_scenario, s.titolo, s.autori, s.patologia, s.tipologia_paziente, r.anteprima, " +
+                "(r.id_scenario IS NULL AND length(s.descrizione) > 0) AS anteprima_mancante FROM Scenario s " +
+                "LEFT JOIN RichTextField r ON r.id_scenario = s.id_scenario AND r.campo = 'descrizione'";
         List<Scenario> scenarios = new ArrayList<>();
+        List<Scenario> missingSnippets = new ArrayList<>();
 
         try (Connection conn = DBConnect.getInstance().getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -105,14 +139,28 @@ public class ScenarioService {
                         rs.getString("titolo"),
                         rs.getString("autori"),
                         rs.getString("patologia"),
-                        rs.getString("descrizione"),
+                        null,
                         rs.getString("tipologia_paziente"));
+                String snippet = rs.getString("anteprima");
+                scenario.setDescrizioneAnteprima(snippet != null ? snippet : "");
+                if (rs.getBoolean("anteprima_mancante")) {
+                    missingSnippets.add(scenario);
+                }
                 scenarios.add(scenario);
             }
             logger.info("Recuperati {} scenari dal database.", scenarios.size());
         } catch (SQLException e) {
             logger.error("Errore SQL durante il recupero di tutti gli scenari: {}", e.getMessage(), e);
         }
+
+        // Le anteprime rimosse dal trigger della descrizione vengono ricalcolate e memorizzate, a lettura conclusa.
+        if (!missingSnippets.isEmpty()) {
+            Map<Integer, String> snippets = RichTextHelper.compileSnippets("descrizione",
+                    missingSnippets.stream().map(Scenario::getId).toList());
+            for (Scenario scenario : missingSnippets) {
+                scenario.setDescrizioneAnteprima(snippets.getOrDefault(scenario.getId(), ""));
+            }
+        }
         return scenarios;
     }
 
@@ -270,15 +318,19 @@ public class ScenarioService {
      */
     private boolean updateScenarioField(int scenarioId, String fieldName, String value) {
         final String sql = "UPDATE Scenario SET " + fieldName + " = ? WHERE id_scenario = ?";
+        // Le immagini incollate vengono salvate come media e sostituite dal loro URL.
+        InlineImageService.Content content = inlineImageService.process(value);
 
         try (Connection conn = DBConnect.getInstance().getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
-            stmt.setString(1, value);
+            TextCompressionHelper.bind(stmt, 1, content.html());
             stmt.setInt(2, scenarioId);
 
             boolean result = stmt.executeUpdate() > 0;
             if (result) {
+                inlineImageService.commit(scenarioId, fieldName, content.images());
+                RichTextHelper.store(scenarioId, fieldName, content.html());
                 logger.info("Campo '{}' dello scenario con ID {} aggiornato con successo.", fieldName, scenarioId);
             } else {
                 logger.warn("Nessun campo '{}' dello scenario con ID {} aggiornato. Potrebbe non esistere o il valore è lo stesso.", fieldName, scenarioId);
@@ -408,14 +460,17 @@ public class ScenarioService {
      */
     public boolean updateScenarioGenitoriInfo(Integer scenarioId, String value) {
         final String sql = "UPDATE Scenario SET info_genitore = ? WHERE id_scenario = ?";
+        InlineImageService.Content content = inlineImageService.process(value);
         try (Connection conn = DBConnect.getInstance().getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
-            stmt.setString(1, value);
+            TextCompressionHelper.bind(stmt, 1, content.html());
             stmt.setInt(2, scenarioId);
 
             boolean result = stmt.executeUpdate() > 0;
             if (result) {
+                inlineImageService.commit(scenarioId, "info_genitore", content.images());
+                RichTextHelper.store(scenarioId, "info_genitore", content.html());
                 logger.info("Informazioni per i genitori aggiornate con successo per lo scenario con ID {}.", scenarioId);
             } else {
                 logger.warn("Nessuna informazione aggiornata per i genitori dello scenario con ID {}. Potrebbe non esistere o il valore è lo stesso.", scenarioId);
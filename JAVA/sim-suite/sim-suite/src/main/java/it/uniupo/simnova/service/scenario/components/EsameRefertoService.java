@@ -2,6 +2,7 @@ package it.uniupo.simnova.service.scenario.components;
 
 import it.uniupo.simnova.domain.respons_model.ReportSet;
 import it.uniupo.simnova.domain.paziente.EsameReferto;
+import it.uniupo.simnova.service.scenario.helper.TextCompressionHelper;
 import it.uniupo.simnova.service.storage.FileStorageService;
 import it.uniupo.simnova.utils.DBConnect;
 import org.slf4j.Logger;
@@ -76,7 +77,7 @@ public class EsameRefertoService {
                 stmt.setInt(2, scenarioId);
                 stmt.setString(3, esame.getTipo());
                 stmt.setString(4, esame.getMedia());
-                stmt.setString(5, esame.getRefertoTestuale());
+                TextCompressionHelper.bind(stmt, 5, esame.getRefertoTestuale());
                 stmt.addBatch(); // Aggiunge l'operazione al batch.
             }
 
@@ -122,7 +123,7 @@ public class EsameRefertoService {
                         rs.getInt("id_scenario"),
                         rs.getString("tipo"),
                         rs.getString("media"),
-                        rs.getString("referto_testuale")
+                        TextCompressionHelper.read(rs, "referto_testuale")
                 );
                 esami.add(esame);
             }
@@ -173,12 +174,6 @@ public class EsameRefertoService {
         // Recupera il nome del file multimediale associato al referto prima di eliminarlo dal DB.
         String mediaFilename = getMediaFilenameByEsameId(idEsameReferto, scenarioId);
 
-        // Se esiste un nome di file multimediale, tenta di eliminare il file.
-        if (mediaFilename != null && !mediaFilename.isEmpty()) {
-            fileStorageService.deleteFile(mediaFilename);
-            logger.info("File media '{}' dell'esame con ID {} eliminato con successo.", mediaFilename, idEsameReferto);
-        }
-
         // Query SQL per eliminare il referto dal database.
         final String sql = "DELETE FROM EsameReferto WHERE id_esame = ? AND id_scenario = ?";
 
@@ -190,6 +185,11 @@ public class EsameRefertoService {
             int rowsAffected = stmt.executeUpdate(); // Esegue l'eliminazione.
             if (rowsAffected > 0) {
                 logger.info("Referto esame con ID {} eliminato con successo per lo scenario con ID {}.", idEsameReferto, scenarioId);
+                // Il file viene eliminato solo dopo la riga del DB, così il controllo sui riferimenti
+                // non conta più il referto appena rimosso.
+                if (mediaFilename != null && !mediaFilename.isEmpty()) {
+                    fileStorageService.deleteFile(mediaFilename);
+                }
                 return true;
             } else {
                 logger.warn("Nessun referto esame trovato con ID {} per lo scenario con ID {}. Nessuna eliminazione effettuata.", idEsameReferto, scenarioId);
@@ -274,7 +274,7 @@ public class EsameRefertoService {
         try (Connection conn = DBConnect.getInstance().getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
-            stmt.setString(1, nuovoReferto);
+            TextCompressionHelper.bind(stmt, 1, nuovoReferto);
             stmt.setInt(2, idEsame);
             stmt.setInt(3, scenarioId);
             int rowsAffected = stmt.executeUpdate();
@@ -314,7 +314,7 @@ public class EsameRefertoService {
                 stmt.setInt(2, scenarioId);
                 stmt.setString(3, esame.getTipo());
                 stmt.setString(4, esame.getMedia());
-                stmt.setString(5, esame.getRefertoTestuale());
+                TextCompressionHelper.bind(stmt, 5, esame.getRefertoTestuale());
 
                 int affectedRows = stmt.executeUpdate();
                 if (affectedRows > 0) {
@@ -373,4 +373,29 @@ public class EsameRefertoService {
         // Usa il metodo che abbiamo già creato per aggiungere il record al DB in modo sicuro
         return addEsameReferto(nuovoReferto, scenarioId);
     }
+
+    /**
+     * Salva un referto generato da un'API completando, se presente, il primo esame dello stesso tipo
+     * ancora privo di referto testuale (ad esempio un esame previsto dallo scenario generato);
+     * altrimenti il referto viene aggiunto come nuovo esame, come in {@link #createRefertoByJSON}.
+     *
+     * @param scenarioId L'ID dello scenario a cui associare il referto.
+     * @param reportOptional L'Optional contenente i dati del referto.
+     * @return true se il salvataggio è andato a buon fine, false altrimenti.
+     */
+    public boolean completeRefertoByJSON(int scenarioId, Optional<ReportSet> reportOptional) {
+        if (reportOptional.isEmpty()) {
+            logger.warn("Tentativo di completare un referto da un ReportSet vuoto per lo scenario ID: {}", scenarioId);
+            return false;
+        }
+
+        ReportSet report = reportOptional.get();
+        for (EsameReferto esame : getEsamiRefertiByScenarioId(scenarioId)) {
+            boolean senzaReferto = esame.getRefertoTestuale() == null || esame.getRefertoTestuale().isBlank();
+            if (senzaReferto && esame.getTipo() != null && esame.getTipo().equalsIgnoreCase(report.getTipologiaEsame())) {
+                return updateRefertoTestuale(esame.getIdEsame(), scenarioId, report.getDescrizioneEsame());
+            }
+        }
+        return createRefertoByJSON(scenarioId, reportOptional);
+    }
 }
\ No newline at end of file
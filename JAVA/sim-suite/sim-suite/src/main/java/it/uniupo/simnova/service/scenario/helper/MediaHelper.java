@@ -4,17 +4,21 @@ import it.uniupo.simnova.utils.DBConnect;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
 
 /**
  * Classe di utilità per la gestione dei file media associati agli esami e referti.
  * Fornisce metodi per verificare se un file è attualmente in uso nel database
  * e per recuperare i nomi dei file media collegati a uno scenario specifico.
+ * Gestisce inoltre la tabella <code>MediaBlob</code> usata dall'archiviazione per contenuto
+ * (file identificati dal loro hash SHA-256, con conteggio dei riferimenti da <code>EsameReferto</code>)
+ * e la tabella <code>InlineImage</code> con le immagini referenziate dai campi HTML degli scenari.
  *
  * @author Alessandro Zappatore
  * @version 1.0
@@ -40,7 +44,7 @@ public class MediaHelper {
      *
      * @param filename Il nome del file (<code>String</code>) da verificare. Non deve essere <code>null</code> o vuoto.
      * @return <code>true</code> se il file è in uso (ovvero, se esiste almeno un record in <code>EsameReferto</code>
-     * che punta a questo filename); <code>false</code> altrimenti o in caso di nome file non valido.
+     * o un'immagine in <code>InlineImage</code> che punta a questo filename); <code>false</code> altrimenti o in caso di nome file non valido.
      */
     public static boolean isFileInUse(String filename) {
         if (filename == null || filename.isBlank()) {
@@ -48,12 +52,13 @@ public class MediaHelper {
             return false;
         }
 
-        final String sql = "SELECT COUNT(*) FROM EsameReferto WHERE media = ?";
+        final String sql = "SELECT (SELECT COUNT(*) FROM EsameReferto WHERE media = ?) + (SELECT COUNT(*) FROM InlineImage WHERE filename = ?)";
 
         try (Connection conn = DBConnect.getInstance().getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setString(1, filename);
+            stmt.setString(2, filename);
             ResultSet rs = stmt.executeQuery();
 
             if (rs.next()) {
@@ -67,7 +72,8 @@ public class MediaHelper {
     }
 
     /**
-     * Recupera una lista di tutti i nomi dei file media associati agli esami e referti di uno scenario specifico.
+     * Recupera una lista di tutti i nomi dei file media associati agli esami e referti di uno scenario specifico,
+     * insieme alle immagini referenziate dai suoi campi HTML.
      * Vengono inclusi solo i file media il cui nome non è <code>NULL</code> nel database.
      *
      * @param scenarioId L'ID dello scenario (<code>int</code>) per il quale recuperare i file media.
@@ -75,13 +81,15 @@ public class MediaHelper {
      * Restituisce una lista vuota se non vengono trovati file o in caso di errore SQL.
      */
     public static List<String> getMediaFilesForScenario(int scenarioId) {
-        final String sql = "SELECT media FROM EsameReferto WHERE id_scenario = ? AND media IS NOT NULL";
+        final String sql = "SELECT media FROM EsameReferto WHERE id_scenario = ? AND media IS NOT NULL " +
+                "UNION SELECT filename FROM InlineImage WHERE id_scenario = ?";
         List<String> files = new ArrayList<>();
 
         try (Connection conn = DBConnect.getInstance().getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setInt(1, scenarioId);
+            stmt.setInt(2, scenarioId);
             ResultSet rs = stmt.executeQuery();
 
             while (rs.next()) {
@@ -97,4 +105,472 @@ public class MediaHelper {
         }
         return files;
     }
-}
\ No newline at end of file
+
+    /**
+     * Crea, se non esistono, la tabella <code>MediaBlob</code>, l'indice su <code>EsameReferto.media</code>
+     * e i trigger che mantengono aggiornato il conteggio dei riferimenti da <code>EsameReferto</code> e
+     * <code>InlineImage</code> (che deve già esistere, vedi {@link #ensureInlineImageSchema()}).
+     * I trigger scattano all'interno della stessa transazione che modifica <code>EsameReferto</code>,
+     * per cui il conteggio resta coerente anche in caso di rollback (ad esempio in
+     * {@link it.uniupo.simnova.service.scenario.operations.ScenarioDeletionService}).
+     * La colonna <code>pending_until</code> viene aggiunta anche alle tabelle create da versioni precedenti.
+     *
+     * @throws SQLException se si verifica un errore durante la creazione dello schema.
+     */
+    public static void ensureMediaBlobSchema() throws SQLException {
+        final String[] statements = {
+                """
+                CREATE TABLE IF NOT EXISTS MediaBlob (
+                    hash TEXT PRIMARY KEY,
+                    filename TEXT NOT NULL UNIQUE,
+                    original_name TEXT,
+                    size INTEGER,
+                    ref_count INTEGER NOT NULL DEFAULT 0,
+                    pending_until INTEGER
+                )""",
+                "CREATE INDEX IF NOT EXISTS idx_esamereferto_media ON EsameReferto(media)",
+                """
+                CREATE TRIGGER IF NOT EXISTS MediaBlob_ref_insert AFTER INSERT ON EsameReferto
+                WHEN NEW.media IS NOT NULL
+                BEGIN
+                    UPDATE MediaBlob SET ref_count = ref_count + 1 WHERE filename = NEW.media;
+                END""",
+                """
+                CREATE TRIGGER IF NOT EXISTS MediaBlob_ref_delete AFTER DELETE ON EsameReferto
+                WHEN OLD.media IS NOT NULL
+                BEGIN
+                    UPDATE MediaBlob SET ref_count = ref_count - 1 WHERE filename = OLD.media;
+                END""",
+                """
+                CREATE TRIGGER IF NOT EXISTS MediaBlob_ref_update AFTER UPDATE OF media ON EsameReferto
+                WHEN OLD.media IS NOT NEW.media
+                BEGIN
+                    UPDATE MediaBlob SET ref_count = ref_count - 1 WHERE filename = OLD.media;
+                    UPDATE MediaBlob SET ref_count = ref_count + 1 WHERE filename = NEW.media;
+                END""",
+                """
+                CREATE TRIGGER IF NOT EXISTS MediaBlob_inline_insert AFTER INSERT ON InlineImage
+                BEGIN
+                    UPDATE MediaBlob SET ref_count = ref_count + 1 WHERE filename = NEW.filename;
+                END""",
+                """
+                CREATE TRIGGER IF NOT EXISTS MediaBlob_inline_delete AFTER DELETE ON InlineImage
+                BEGIN
+                    UPDATE MediaBlob SET ref_count = ref_count - 1 WHERE filename = OLD.filename;
+                END"""
+        };
+
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (String sql : statements) {
+                stmt.execute(sql);
+            }
+            boolean hasPendingUntil = false;
+            try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(MediaBlob)")) {
+                while (rs.next()) {
+                    hasPendingUntil |= "pending_until".equals(rs.getString("name"));
+                }
+            }
+            if (!hasPendingUntil) {
+                stmt.execute("ALTER TABLE MediaBlob ADD COLUMN pending_until INTEGER");
+            }
+        }
+        logger.info("Schema MediaBlob (tabella, indice e trigger) verificato.");
+    }
+
+    /**
+     * Crea, se non esistono, la tabella <code>InlineImage</code>, che associa a ogni campo HTML di uno scenario
+     * le immagini archiviate a cui fa riferimento, e il trigger che ne rimuove le righe quando viene eliminato
+     * lo scenario. Le immagini referenziate non vengono eliminate dallo storage finché compaiono in questa tabella.
+     *
+     * @throws SQLException se si verifica un errore durante la creazione dello schema.
+     */
+    public static void ensureInlineImageSchema() throws SQLException {
+        final String[] statements = {
+                """
+                CREATE TABLE IF NOT EXISTS InlineImage (
+                    id_scenario INTEGER NOT NULL,
+                    campo TEXT NOT NULL,
+                    filename TEXT NOT NULL,
+                    PRIMARY KEY (id_scenario, campo, filename)
+                )""",
+                "CREATE INDEX IF NOT EXISTS idx_inlineimage_filename ON InlineImage(filename)",
+                """
+                CREATE TRIGGER IF NOT EXISTS InlineImage_scenario_delete AFTER DELETE ON Scenario
+                BEGIN
+                    DELETE FROM InlineImage WHERE id_scenario = OLD.id_scenario;
+                END"""
+        };
+
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (String sql : statements) {
+                stmt.execute(sql);
+            }
+        }
+        logger.info("Schema InlineImage (tabella, indice e trigger) verificato.");
+    }
+
+    /**
+     * Sostituisce l'insieme delle immagini referenziate da un campo HTML di uno scenario.
+     *
+     * @param scenarioId L'ID dello scenario.
+     * @param campo      Il nome della colonna HTML.
+     * @param filenames  I nomi dei file archiviati referenziati dal nuovo contenuto del campo.
+     * @return I nomi dei file che il campo non referenzia più, da eliminare dallo storage se non usati altrove.
+     * Una lista vuota in caso di errore.
+     */
+    public static List<String> replaceInlineImages(int scenarioId, String campo, Set<String> filenames) {
+        final String selectSql = "SELECT filename FROM InlineImage WHERE id_scenario = ? AND campo = ?";
+        final String deleteSql = "DELETE FROM InlineImage WHERE id_scenario = ? AND campo = ? AND filename = ?";
+        final String insertSql = "INSERT OR IGNORE INTO InlineImage (id_scenario, campo, filename) VALUES (?,?,?)";
+        List<String> removed = new ArrayList<>();
+
+        try (Connection conn = DBConnect.getInstance().getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement select = conn.prepareStatement(selectSql);
+                 PreparedStatement delete = conn.prepareStatement(deleteSql);
+                 PreparedStatement insert = conn.prepareStatement(insertSql)) {
+
+                select.setInt(1, scenarioId);
+                select.setString(2, campo);
+                ResultSet rs = select.executeQuery();
+                while (rs.next()) {
+                    String filename = rs.getString("filename");
+                    if (!filenames.contains(filename)) {
+                        removed.add(filename);
+                    }
+                }
+                for (String filename : removed) {
+                    delete.setInt(1, scenarioId);
+                    delete.setString(2, campo);
+                    delete.setString(3, filename);
+                    delete.executeUpdate();
+                }
+                for (String filename : filenames) {
+                    insert.setInt(1, scenarioId);
+                    insert.setString(2, campo);
+                    insert.setString(3, filename);
+                    insert.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            logger.error("Errore durante l'aggiornamento delle immagini del campo '{}' dello scenario {}: {}", campo, scenarioId, e.getMessage(), e);
+            return List.of();
+        }
+        return removed;
+    }
+
+    /**
+     * Cerca il nome del file archiviato per contenuto corrispondente a un hash SHA-256.
+     *
+     * @param hash L'hash SHA-256 (esadecimale) del contenuto.
+     * @return Il nome del file archiviato, oppure <code>null</code> se il contenuto non è presente o in caso di errore.
+     */
+    public static String findBlobFilename(String hash) {
+        final String sql = "SELECT filename FROM MediaBlob WHERE hash = ?";
+
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, hash);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                return rs.getString("filename");
+            }
+        } catch (SQLException e) {
+            logger.error("Errore durante la ricerca del blob con hash {}: {}", hash, e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Registra un nuovo file archiviato per contenuto con zero riferimenti, protetto dall'eliminazione fino a
+     * <code>pendingUntil</code>: il caricamento precede sempre il salvataggio del riferimento, e nel frattempo
+     * il file non deve essere rimosso da un'eliminazione concorrente.
+     * Se l'hash è già registrato viene solo prolungata la protezione.
+     *
+     * @param hash         L'hash SHA-256 (esadecimale) del contenuto.
+     * @param filename     Il nome del file archiviato.
+     * @param originalName Il nome originale con cui il file è stato caricato.
+     * @param size         La dimensione del file in byte.
+     * @param pendingUntil L'istante (millisecondi dall'epoca) fino al quale il blob non può essere eliminato.
+     * @return <code>true</code> se la registrazione è andata a buon fine (o il blob esisteva già); <code>false</code> in caso di errore.
+     */
+    public static boolean registerBlob(String hash, String filename, String originalName, long size, long pendingUntil) {
+        final String sql = "INSERT INTO MediaBlob (hash, filename, original_name, size, ref_count, pending_until) " +
+                "VALUES (?, ?, ?, ?, (SELECT COUNT(*) FROM EsameReferto WHERE media = ?), ?) " +
+                "ON CONFLICT(hash) DO UPDATE SET pending_until = MAX(IFNULL(pending_until, 0), excluded.pending_until)";
+
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, hash);
+            stmt.setString(2, filename);
+            stmt.setString(3, originalName);
+            stmt.setLong(4, size);
+            stmt.setString(5, filename);
+            stmt.setLong(6, pendingUntil);
+            stmt.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            logger.error("Errore durante la registrazione del blob {} ({}): {}", filename, hash, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Protegge dall'eliminazione un blob già registrato fino a <code>pendingUntil</code>.
+     * Usato quando un caricamento viene deduplicato su un blob esistente, che potrebbe non avere ancora
+     * (o non avere più) riferimenti.
+     *
+     * @param filename     Il nome del file archiviato.
+     * @param pendingUntil L'istante (millisecondi dall'epoca) fino al quale il blob non può essere eliminato.
+     * @return <code>true</code> se il blob è ancora registrato ed è ora protetto; <code>false</code> se nel frattempo
+     * è stato rimosso o in caso di errore.
+     */
+    public static boolean claimBlob(String filename, long pendingUntil) {
+        final String sql = "UPDATE MediaBlob SET pending_until = MAX(IFNULL(pending_until, 0), ?) WHERE filename = ?";
+
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setLong(1, pendingUntil);
+            stmt.setString(2, filename);
+            return stmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            logger.error("Errore durante la protezione del blob {}: {}", filename, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Verifica se un nome di file corrisponde a un file archiviato per contenuto.
+     *
+     * @param filename Il nome del file da verificare.
+     * @return <code>true</code> se il file è registrato nella tabella <code>MediaBlob</code>; <code>false</code> altrimenti.
+     */
+    public static boolean isBlob(String filename) {
+        final String sql = "SELECT 1 FROM MediaBlob WHERE filename = ?";
+
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, filename);
+            return stmt.executeQuery().next();
+        } catch (SQLException e) {
+            logger.error("Errore durante la verifica del blob {}: {}", filename, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Rimuove la registrazione di un file archiviato per contenuto solo se non è più referenziato
+     * e non è protetto da un caricamento recente (vedi {@link #registerBlob} e {@link #claimBlob}).
+     * La verifica e la rimozione avvengono in un'unica istruzione sull'indice univoco del nome,
+     * per cui il costo non dipende dal numero di referti presenti.
+     *
+     * @param filename Il nome del file archiviato.
+     * @param now      L'istante corrente (millisecondi dall'epoca).
+     * @return <code>true</code> se la registrazione è stata rimossa e il file può essere eliminato dal disco;
+     * <code>false</code> se il file è ancora in uso, è protetto o in caso di errore.
+     */
+    public static boolean deleteUnreferencedBlob(String filename, long now) {
+        final String sql = "DELETE FROM MediaBlob WHERE filename = ? AND ref_count <= 0 " +
+                "AND (pending_until IS NULL OR pending_until <= ?)";
+
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, filename);
+            stmt.setLong(2, now);
+            return stmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            logger.error("Errore durante la rimozione del blob {}: {}", filename, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Elenca i blob senza riferimenti la cui protezione è scaduta: file caricati ma mai collegati a un referto
+     * o a un campo HTML, oppure rimasti senza riferimenti senza essere eliminati.
+     *
+     * @param now L'istante corrente (millisecondi dall'epoca).
+     * @return I nomi dei file archiviati eliminabili. Una lista vuota in caso di errore.
+     */
+    public static List<String> findStaleBlobs(long now) {
+        final String sql = "SELECT filename FROM MediaBlob WHERE ref_count <= 0 AND (pending_until IS NULL OR pending_until <= ?)";
+        List<String> stale = new ArrayList<>();
+
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setLong(1, now);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                stale.add(rs.getString("filename"));
+            }
+        } catch (SQLException e) {
+            logger.error("Errore durante la ricerca dei blob senza riferimenti: {}", e.getMessage(), e);
+        }
+        return stale;
+    }
+
+    /**
+     * Registra un file esistente come blob e sposta su di esso tutti i riferimenti che puntavano al vecchio nome:
+     * le righe di <code>EsameReferto</code>, le righe di <code>InlineImage</code> e gli URL nei campi HTML degli
+     * scenari che le contengono. Tutte le operazioni avvengono nella stessa transazione.
+     * Usato dalla migrazione dall'archiviazione piatta a quella per contenuto.
+     *
+     * @param oldFilename  Il nome del file nell'archiviazione piatta.
+     * @param hash         L'hash SHA-256 (esadecimale) del contenuto.
+     * @param blobFilename Il nome del file archiviato per contenuto.
+     * @param size         La dimensione del file in byte.
+     * @param pendingUntil L'istante (millisecondi dall'epoca) fino al quale il blob non può essere eliminato.
+     * @param relinkHtml   La funzione che sostituisce nell'HTML gli URL del vecchio file con quelli del blob.
+     * @return <code>true</code> se la transazione è andata a buon fine; <code>false</code> altrimenti.
+     */
+    public static boolean relinkToBlob(String oldFilename, String hash, String blobFilename, long size, long pendingUntil,
+                                       UnaryOperator<String> relinkHtml) {
+        final String insertSql = "INSERT OR IGNORE INTO MediaBlob (hash, filename, original_name, size, ref_count, pending_until) VALUES (?, ?, ?, ?, 0, ?)";
+        final String updateSql = "UPDATE EsameReferto SET media = ? WHERE media = ?";
+        final String inlineSelectSql = "SELECT id_scenario, campo FROM InlineImage WHERE filename = ?";
+        // Inserimento ed eliminazione (anziché un UPDATE) fanno scattare i trigger del conteggio dei riferimenti.
+        final String inlineInsertSql = "INSERT OR IGNORE INTO InlineImage (id_scenario, campo, filename) " +
+                "SELECT id_scenario, campo, ? FROM InlineImage WHERE filename = ?";
+        final String inlineDeleteSql = "DELETE FROM InlineImage WHERE filename = ?";
+
+        try (Connection conn = DBConnect.getInstance().getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement insert = conn.prepareStatement(insertSql);
+                 PreparedStatement update = conn.prepareStatement(updateSql);
+                 PreparedStatement inlineSelect = conn.prepareStatement(inlineSelectSql);
+                 PreparedStatement inlineInsert = conn.prepareStatement(inlineInsertSql);
+                 PreparedStatement inlineDelete = conn.prepareStatement(inlineDeleteSql)) {
+                insert.setString(1, hash);
+                insert.setString(2, blobFilename);
+                insert.setString(3, oldFilename);
+                insert.setLong(4, size);
+                insert.setLong(5, pendingUntil);
+                insert.executeUpdate();
+
+                // I trigger su EsameReferto incrementano ref_count per ogni riga aggiornata.
+                update.setString(1, blobFilename);
+                update.setString(2, oldFilename);
+                int relinked = update.executeUpdate();
+
+                Map<Integer, List<String>> htmlFields = new HashMap<>();
+                inlineSelect.setString(1, oldFilename);
+                ResultSet rs = inlineSelect.executeQuery();
+                while (rs.next()) {
+                    htmlFields.computeIfAbsent(rs.getInt("id_scenario"), id -> new ArrayList<>()).add(rs.getString("campo"));
+                }
+                for (Map.Entry<Integer, List<String>> entry : htmlFields.entrySet()) {
+                    for (String campo : entry.getValue()) {
+                        relinkHtmlField(conn, entry.getKey(), campo, relinkHtml);
+                    }
+                }
+                inlineInsert.setString(1, blobFilename);
+                inlineInsert.setString(2, oldFilename);
+                inlineInsert.executeUpdate();
+                inlineDelete.setString(1, oldFilename);
+                inlineDelete.executeUpdate();
+
+                conn.commit();
+                logger.info("File '{}' migrato in '{}' ({} referti e {} scenari con immagini aggiornati).",
+                        oldFilename, blobFilename, relinked, htmlFields.size());
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            logger.error("Errore durante la migrazione del file '{}' in '{}': {}", oldFilename, blobFilename, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Riscrive gli URL dei media in un campo HTML di uno scenario, all'interno della transazione del chiamante.
+     *
+     * @param conn       La connessione con la transazione aperta.
+     * @param scenarioId L'ID dello scenario.
+     * @param campo      Il nome della colonna HTML, registrato in <code>InlineImage</code>.
+     * @param relinkHtml La funzione che aggiorna gli URL nell'HTML.
+     * @throws SQLException se si verifica un errore di accesso al database.
+     */
+    private static void relinkHtmlField(Connection conn, int scenarioId, String campo, UnaryOperator<String> relinkHtml) throws SQLException {
+        RichTextHelper.HtmlField field = RichTextHelper.HTML_FIELDS.stream()
+                .filter(candidate -> candidate.column().equals(campo))
+                .findFirst()
+                .orElse(null);
+        if (field == null) {
+            logger.warn("Campo HTML '{}' sconosciuto per lo scenario {}: URL delle immagini non aggiornati.", campo, scenarioId);
+            return;
+        }
+        // I nomi di tabella e colonna provengono dalla lista costante HTML_FIELDS.
+        final String selectSql = "SELECT " + field.column() + " AS html FROM " + field.table() + " WHERE " + field.idColumn() + " = ?";
+        final String updateSql = "UPDATE " + field.table() + " SET " + field.column() + " = ? WHERE " + field.idColumn() + " = ?";
+
+        String html;
+        try (PreparedStatement stmt = conn.prepareStatement(selectSql)) {
+            stmt.setInt(1, scenarioId);
+            ResultSet rs = stmt.executeQuery();
+            html = rs.next() ? TextCompressionHelper.read(rs, "html") : null;
+        }
+        String relinked = relinkHtml.apply(html);
+        if (relinked == null || relinked.equals(html)) {
+            return;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(updateSql)) {
+            TextCompressionHelper.bind(stmt, 1, relinked);
+            stmt.setInt(2, scenarioId);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Ricalcola da zero il conteggio dei riferimenti di tutti i blob.
+     * Serve come verifica di coerenza all'avvio (ad esempio se i trigger sono stati creati dopo
+     * che alcuni referti erano già stati modificati).
+     */
+    public static void recountBlobReferences() {
+        final String sql = "UPDATE MediaBlob SET ref_count = (SELECT COUNT(*) FROM EsameReferto WHERE EsameReferto.media = MediaBlob.filename) " +
+                "+ (SELECT COUNT(*) FROM InlineImage WHERE InlineImage.filename = MediaBlob.filename)";
+
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int updated = stmt.executeUpdate();
+            logger.info("Conteggio dei riferimenti ricalcolato per {} blob.", updated);
+        } catch (SQLException e) {
+            logger.error("Errore durante il ricalcolo dei riferimenti dei blob: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Recupera i nomi originali di tutti i file archiviati per contenuto, da mostrare all'utente
+     * al posto dell'hash.
+     *
+     * @return Una {@link Map} dal nome del file archiviato al suo nome originale. Vuota in caso di errore.
+     */
+    public static Map<String, String> getBlobOriginalNames() {
+        final String sql = "SELECT filename, original_name FROM MediaBlob WHERE original_name IS NOT NULL";
+        Map<String, String> names = new HashMap<>();
+
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                names.put(rs.getString("filename"), rs.getString("original_name"));
+            }
+        } catch (SQLException e) {
+            logger.error("Errore durante il recupero dei nomi originali dei blob: {}", e.getMessage(), e);
+        }
+        return names;
+    }
+}
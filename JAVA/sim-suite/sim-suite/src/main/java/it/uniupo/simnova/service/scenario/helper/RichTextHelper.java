@@ -0,0 +1,518 @@
+package it.uniupo.simnova.service.scenario.helper;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import it.uniupo.simnova.service.export.helper.pdf.RichText;
+import it.uniupo.simnova.utils.DBConnect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classe di supporto per la versione precompilata dei campi HTML degli scenari (prodotti dall'editor TinyMCE).
+ * <p>
+ * Per ogni campo formattato viene memorizzata, nella tabella <code>RichTextField</code>, una rappresentazione
+ * già normalizzata: il testo semplice, un'anteprima su una sola riga e i paragrafi formattati di {@link RichText}
+ * usati dal PDF. La rappresentazione viene aggiornata dai metodi che salvano i campi; un trigger su ogni colonna
+ * HTML la rimuove quando la colonna viene modificata per un'altra via (ad esempio al di fuori dell'applicazione),
+ * per cui una riga presente è sempre aggiornata e i lettori la usano senza rileggere né confrontare l'HTML.
+ * Una riga mancante viene ricalcolata dall'HTML alla prima lettura.
+ * </p>
+ * <p>
+ * Ogni riga viene scritta solo se la colonna contiene ancora l'HTML da cui è stata compilata: nella stessa
+ * transazione, che con <code>BEGIN IMMEDIATE</code> tiene il lock di scrittura, la colonna viene riletta e il suo
+ * hash confrontato con <code>html_hash</code>. Una lettura che ha caricato l'HTML prima di un salvataggio non può
+ * così sovrascrivere la rappresentazione del nuovo contenuto con quella del vecchio.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+public final class RichTextHelper {
+
+    /**
+     * Lunghezza massima (in caratteri) dell'anteprima memorizzata.
+     */
+    public static final int SNIPPET_LENGTH = 200;
+    /**
+     * Il logger per questa classe.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(RichTextHelper.class);
+    /**
+     * Campi HTML (modificati con l'editor TinyMCE) degli scenari, che vengono precompilati.
+     */
+    public static final List<HtmlField> HTML_FIELDS = List.of(
+            new HtmlField("Scenario", "id_scenario", "descrizione"),
+            new HtmlField("Scenario", "id_scenario", "briefing"),
+            new HtmlField("Scenario", "id_scenario", "patto_aula"),
+            new HtmlField("Scenario", "id_scenario", "obiettivo"),
+            new HtmlField("Scenario", "id_scenario", "moulage"),
+            new HtmlField("Scenario", "id_scenario", "liquidi"),
+            new HtmlField("Scenario", "id_scenario", "info_genitore"),
+            new HtmlField("PatientSimulatedScenario", "id_patient_simulated_scenario", "sceneggiatura"));
+    /**
+     * Serializzatore dei paragrafi formattati.
+     */
+    private static final Gson GSON = new Gson();
+    /**
+     * Tipo della lista di paragrafi, per la deserializzazione.
+     */
+    private static final Type PARAGRAPHS_TYPE = new TypeToken<List<RichText.Paragraph>>() {
+    }.getType();
+
+    /**
+     * Costruttore privato per evitare l'istanza della classe, dato che contiene solo metodi statici.
+     */
+    private RichTextHelper() {
+        // Costruttore privato per evitare l'istanza della classe.
+    }
+
+    /**
+     * Crea, se non esistono, la tabella <code>RichTextField</code>, il trigger che ne rimuove le righe
+     * quando viene eliminato lo scenario a cui appartengono e, per ogni campo HTML, il trigger che ne rimuove
+     * la riga quando la colonna viene modificata. Se i trigger dei campi vengono creati ora, le righe esistenti
+     * non sono garantite aggiornate e vengono rimosse, per essere ricalcolate da {@link #backfill()}.
+     *
+     * @throws SQLException se si verifica un errore durante la creazione dello schema.
+     */
+    public static void ensureRichTextSchema() throws SQLException {
+        final String[] statements = {
+                """
+                CREATE TABLE IF NOT EXISTS RichTextField (
+                    id_scenario INTEGER NOT NULL,
+                    campo TEXT NOT NULL,
+                    html_hash TEXT NOT NULL,
+                    testo TEXT NOT NULL,
+                    anteprima TEXT NOT NULL,
+                    paragrafi TEXT NOT NULL,
+                    PRIMARY KEY (id_scenario, campo)
+                )""",
+                """
+                CREATE TRIGGER IF NOT EXISTS RichTextField_scenario_delete AFTER DELETE ON Scenario
+                BEGIN
+                    DELETE FROM RichTextField WHERE id_scenario = OLD.id_scenario;
+                END"""
+        };
+
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (String sql : statements) {
+                stmt.execute(sql);
+            }
+            boolean created = false;
+            for (HtmlField field : HTML_FIELDS) {
+                created |= ensureFieldTrigger(conn, stmt, field);
+            }
+            if (created) {
+                int removed = stmt.executeUpdate("DELETE FROM RichTextField");
+                logger.info("Trigger dei campi HTML creati: {} testi precompilati rimossi per essere ricalcolati.", removed);
+            }
+        }
+        logger.info("Schema RichTextField (tabella e trigger) verificato.");
+    }
+
+    /**
+     * Crea, se non esiste, il trigger che rimuove la rappresentazione di un campo quando la sua colonna viene
+     * modificata. I campi di tabelle non presenti nel database vengono saltati.
+     *
+     * @param conn  La connessione da usare.
+     * @param stmt  Lo statement della connessione.
+     * @param field Il campo HTML.
+     * @return <code>true</code> se il trigger è stato creato ora.
+     * @throws SQLException se si verifica un errore durante la creazione del trigger.
+     */
+    private static boolean ensureFieldTrigger(Connection conn, Statement stmt, HtmlField field) throws SQLException {
+        final String name = "RichTextField_" + field.table() + "_" + field.column() + "_update";
+        try (PreparedStatement check = conn.prepareStatement("SELECT type FROM sqlite_master WHERE name IN (?, ?)")) {
+            check.setString(1, name);
+            check.setString(2, field.table());
+            ResultSet rs = check.executeQuery();
+            boolean tableExists = false;
+            boolean triggerExists = false;
+            while (rs.next()) {
+                tableExists |= "table".equals(rs.getString("type"));
+                triggerExists |= "trigger".equals(rs.getString("type"));
+            }
+            if (!tableExists) {
+                logger.warn("Tabella {} non presente: trigger del campo '{}' non creato.", field.table(), field.column());
+                return false;
+            }
+            if (triggerExists) {
+                return false;
+            }
+        }
+        // I nomi di tabella e colonna provengono dalla lista costante HTML_FIELDS.
+        stmt.execute("CREATE TRIGGER " + name + " AFTER UPDATE OF " + field.column() + " ON " + field.table() +
+                " BEGIN DELETE FROM RichTextField WHERE id_scenario = NEW." + field.idColumn() +
+                " AND campo = '" + field.column() + "'; END");
+        return true;
+    }
+
+    /**
+     * Compila un frammento HTML nella sua rappresentazione normalizzata.
+     *
+     * @param html Il contenuto HTML (può essere <code>null</code>).
+     * @return La rappresentazione compilata.
+     */
+    public static Compiled compile(String html) {
+        List<RichText.Paragraph> paragraphs = RichText.parseHtml(html);
+
+        StringBuilder text = new StringBuilder();
+        for (RichText.Paragraph paragraph : paragraphs) {
+            if (!text.isEmpty()) {
+                text.append('\n');
+            }
+            if (paragraph.marker() != null) {
+                text.append(paragraph.marker()).append(' ');
+            }
+            for (RichText.Run run : paragraph.runs()) {
+                text.append(run.text());
+            }
+        }
+
+        // L'anteprima è su una sola riga: paragrafi e ritorni a capo diventano spazi.
+        String snippet = text.toString().replaceAll("\\s+", " ").strip();
+        if (snippet.length() > SNIPPET_LENGTH) {
+            int end = SNIPPET_LENGTH;
+            if (Character.isHighSurrogate(snippet.charAt(end - 1))) {
+                end--;
+            }
+            snippet = snippet.substring(0, end).stripTrailing() + "…";
+        }
+        return new Compiled(hash(html), text.toString(), snippet, paragraphs);
+    }
+
+    /**
+     * Aggiorna la rappresentazione precompilata di un campo dopo il suo salvataggio.
+     * Un errore viene solo registrato: il trigger del campo ha già rimosso la rappresentazione precedente,
+     * che i lettori ricalcolano.
+     *
+     * @param scenarioId L'ID dello scenario.
+     * @param campo      Il nome della colonna HTML (es. <code>descrizione</code>).
+     * @param html       Il nuovo contenuto HTML del campo.
+     */
+    public static void store(int scenarioId, String campo, String html) {
+        if (!isRichTextField(campo)) {
+            return;
+        }
+        try (Connection conn = DBConnect.getInstance().getConnection()) {
+            if (html == null || html.isBlank()) {
+                delete(conn, scenarioId, campo);
+            } else {
+                upsertIfCurrent(conn, field(campo), scenarioId, compile(html));
+            }
+        } catch (SQLException e) {
+            logger.error("Errore durante il salvataggio del testo precompilato '{}' dello scenario {}: {}", campo, scenarioId, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Restituisce i paragrafi formattati di un campo, usando la rappresentazione memorizzata se presente
+     * e calcolandola (e memorizzandola) dall'HTML indicato altrimenti.
+     *
+     * @param scenarioId L'ID dello scenario.
+     * @param campo      Il nome della colonna HTML.
+     * @param html       Il contenuto HTML attuale del campo.
+     * @return I paragrafi formattati; una lista vuota se il campo è vuoto.
+     */
+    public static List<RichText.Paragraph> paragraphs(int scenarioId, String campo, String html) {
+        if (html == null || html.isBlank()) {
+            return List.of();
+        }
+        final String sql = "SELECT paragrafi FROM RichTextField WHERE id_scenario = ? AND campo = ?";
+
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setInt(1, scenarioId);
+            stmt.setString(2, campo);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                List<RichText.Paragraph> paragraphs = GSON.fromJson(rs.getString("paragrafi"), PARAGRAPHS_TYPE);
+                if (paragraphs != null) {
+                    return paragraphs;
+                }
+            }
+        } catch (SQLException | JsonParseException e) {
+            logger.warn("Testo precompilato '{}' dello scenario {} non leggibile, verrà ricalcolato: {}", campo, scenarioId, e.getMessage());
+        }
+
+        Compiled compiled = compile(html);
+        HtmlField field = field(campo);
+        if (field != null) {
+            try (Connection conn = DBConnect.getInstance().getConnection()) {
+                upsertIfCurrent(conn, field, scenarioId, compiled);
+            } catch (SQLException e) {
+                logger.error("Errore durante il salvataggio del testo precompilato '{}' dello scenario {}: {}", campo, scenarioId, e.getMessage(), e);
+            }
+        }
+        return compiled.paragraphs();
+    }
+
+    /**
+     * Calcola e memorizza le anteprime di un campo per gli scenari indicati, leggendone l'HTML. Va usato per
+     * le righe mancanti di <code>RichTextField</code> (ad esempio rimosse dal trigger del campo) con il campo
+     * non vuoto.
+     *
+     * @param campo       Il nome della colonna HTML.
+     * @param scenarioIds Gli ID degli scenari.
+     * @return Le anteprime, indicizzate per ID dello scenario; gli scenari con il campo vuoto non sono presenti.
+     */
+    public static Map<Integer, String> compileSnippets(String campo, Collection<Integer> scenarioIds) {
+        Map<Integer, String> snippets = new HashMap<>();
+        HtmlField field = field(campo);
+        if (field == null || scenarioIds.isEmpty()) {
+            return snippets;
+        }
+
+        try (Connection conn = DBConnect.getInstance().getConnection()) {
+            for (int scenarioId : scenarioIds) {
+                String html = readHtml(conn, field, scenarioId);
+                if (html != null && !html.isBlank()) {
+                    Compiled compiled = compile(html);
+                    upsertIfCurrent(conn, field, scenarioId, compiled);
+                    snippets.put(scenarioId, compiled.snippet());
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Errore durante il calcolo delle anteprime del campo '{}': {}", campo, e.getMessage(), e);
+        }
+        return snippets;
+    }
+
+    /**
+     * Compila tutti i campi HTML non vuoti la cui rappresentazione manca (perché rimossa dai trigger o mai
+     * creata). Viene eseguito all'avvio, così che i lettori trovino le righe già pronte.
+     *
+     * @return Il numero di rappresentazioni create.
+     */
+    public static int backfill() {
+        int changed = 0;
+        try (Connection conn = DBConnect.getInstance().getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                for (HtmlField field : HTML_FIELDS) {
+                    changed += backfillField(conn, field);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            logger.error("Errore durante l'allineamento dei testi precompilati: {}", e.getMessage(), e);
+            return changed;
+        }
+        logger.info("Allineamento dei testi precompilati completato: {} campi aggiornati.", changed);
+        return changed;
+    }
+
+    /**
+     * Compila le rappresentazioni mancanti di un singolo campo. L'HTML viene letto nella transazione che
+     * scrive le righe, per cui non può cambiare prima della scrittura.
+     *
+     * @param conn  La connessione, con la transazione aperta.
+     * @param field Il campo da allineare.
+     * @return Il numero di rappresentazioni create.
+     * @throws SQLException se si verifica un errore di accesso al database.
+     */
+    private static int backfillField(Connection conn, HtmlField field) throws SQLException {
+        // I nomi di tabella e colonna provengono dalla lista costante HTML_FIELDS.
+        final String sql = "SELECT t." + field.idColumn() + " AS id, t." + field.column() + " AS html " +
+                "FROM " + field.table() + " t LEFT JOIN RichTextField r " +
+                "ON r.id_scenario = t." + field.idColumn() + " AND r.campo = ? " +
+                "WHERE r.id_scenario IS NULL AND t." + field.column() + " IS NOT NULL";
+
+        List<Integer> missing = new ArrayList<>();
+        List<String> missingHtml = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, field.column());
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                String html = TextCompressionHelper.read(rs, "html");
+                if (html != null && !html.isBlank()) {
+                    missing.add(rs.getInt("id"));
+                    missingHtml.add(html);
+                }
+            }
+        }
+
+        for (int i = 0; i < missing.size(); i++) {
+            upsert(conn, missing.get(i), field.column(), compile(missingHtml.get(i)));
+        }
+        if (!missing.isEmpty()) {
+            logger.info("Campo '{}': {} testi precompilati.", field.column(), missing.size());
+        }
+        return missing.size();
+    }
+
+    /**
+     * Inserisce o sostituisce la rappresentazione precompilata di un campo, se la colonna contiene ancora l'HTML
+     * da cui è stata compilata. La colonna viene riletta nella stessa transazione della scrittura e il suo hash
+     * confrontato con quello della rappresentazione; se diverso, la riga non viene scritta e sarà ricalcolata
+     * alla prossima lettura.
+     *
+     * @param conn       La connessione da usare, senza transazioni aperte.
+     * @param field      Il campo HTML.
+     * @param scenarioId L'ID dello scenario.
+     * @param compiled   La rappresentazione compilata.
+     * @throws SQLException se si verifica un errore di accesso al database.
+     */
+    private static void upsertIfCurrent(Connection conn, HtmlField field, int scenarioId, Compiled compiled) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            String current = readHtml(conn, field, scenarioId);
+            if (current != null && compiled.htmlHash().equals(hash(current))) {
+                upsert(conn, scenarioId, field.column(), compiled);
+            } else {
+                logger.debug("Campo '{}' dello scenario {} modificato durante la compilazione: testo precompilato non salvato.", field.column(), scenarioId);
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Legge l'HTML attuale di un campo.
+     *
+     * @param conn       La connessione da usare.
+     * @param field      Il campo HTML.
+     * @param scenarioId L'ID dello scenario.
+     * @return L'HTML del campo, <code>null</code> se lo scenario non esiste o il campo è vuoto.
+     * @throws SQLException se si verifica un errore di accesso al database.
+     */
+    private static String readHtml(Connection conn, HtmlField field, int scenarioId) throws SQLException {
+        // I nomi di tabella e colonna provengono dalla lista costante HTML_FIELDS.
+        final String sql = "SELECT " + field.column() + " AS html FROM " + field.table() + " WHERE " + field.idColumn() + " = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, scenarioId);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? TextCompressionHelper.read(rs, "html") : null;
+        }
+    }
+
+    /**
+     * Inserisce o sostituisce la rappresentazione precompilata di un campo. Va chiamato solo nella transazione
+     * in cui è stato letto l'HTML compilato.
+     *
+     * @param conn       La connessione da usare.
+     * @param scenarioId L'ID dello scenario.
+     * @param campo      Il nome della colonna HTML.
+     * @param compiled   La rappresentazione compilata.
+     * @throws SQLException se si verifica un errore di accesso al database.
+     */
+    private static void upsert(Connection conn, int scenarioId, String campo, Compiled compiled) throws SQLException {
+        final String sql = "INSERT OR REPLACE INTO RichTextField (id_scenario, campo, html_hash, testo, anteprima, paragrafi) VALUES (?,?,?,?,?,?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, scenarioId);
+            stmt.setString(2, campo);
+            stmt.setString(3, compiled.htmlHash());
+            stmt.setString(4, compiled.text());
+            stmt.setString(5, compiled.snippet());
+            stmt.setString(6, GSON.toJson(compiled.paragraphs(), PARAGRAPHS_TYPE));
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Rimuove la rappresentazione precompilata di un campo.
+     *
+     * @param conn       La connessione da usare.
+     * @param scenarioId L'ID dello scenario.
+     * @param campo      Il nome della colonna HTML.
+     * @throws SQLException se si verifica un errore di accesso al database.
+     */
+    private static void delete(Connection conn, int scenarioId, String campo) throws SQLException {
+        final String sql = "DELETE FROM RichTextField WHERE id_scenario = ? AND campo = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, scenarioId);
+            stmt.setString(2, campo);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Verifica se una colonna è tra i campi HTML precompilati.
+     *
+     * @param campo Il nome della colonna.
+     * @return <code>true</code> se il campo viene precompilato.
+     */
+    private static boolean isRichTextField(String campo) {
+        return field(campo) != null;
+    }
+
+    /**
+     * Restituisce il campo HTML precompilato di una colonna.
+     *
+     * @param campo Il nome della colonna.
+     * @return Il campo, <code>null</code> se la colonna non viene precompilata.
+     */
+    private static HtmlField field(String campo) {
+        for (HtmlField field : HTML_FIELDS) {
+            if (field.column().equals(campo)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Calcola l'hash SHA-256 (esadecimale) di un contenuto HTML.
+     *
+     * @param html Il contenuto HTML.
+     * @return L'hash del contenuto.
+     */
+    private static String hash(String html) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest((html == null ? "" : html).getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+
+    /**
+     * Rappresentazione precompilata di un campo HTML.
+     *
+     * @param htmlHash   L'hash SHA-256 dell'HTML da cui deriva, confrontato con la colonna prima della scrittura.
+     * @param text       Il testo semplice, con un paragrafo per riga.
+     * @param snippet    L'anteprima su una sola riga, al massimo di {@link #SNIPPET_LENGTH} caratteri.
+     * @param paragraphs I paragrafi formattati per il PDF.
+     */
+    public record Compiled(String htmlHash, String text, String snippet, List<RichText.Paragraph> paragraphs) {
+    }
+
+    /**
+     * Colonna HTML di una tabella degli scenari.
+     *
+     * @param table    La tabella.
+     * @param idColumn La colonna con l'ID dello scenario.
+     * @param column   La colonna HTML.
+     */
+    public record HtmlField(String table, String idColumn, String column) {
+    }
+}
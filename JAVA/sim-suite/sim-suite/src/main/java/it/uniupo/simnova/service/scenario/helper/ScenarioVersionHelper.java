@@ -0,0 +1,174 @@
+package it.uniupo.simnova.service.scenario.helper;
+
+import it.uniupo.simnova.utils.DBConnect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Classe di supporto per la versione dei dati di uno scenario, usata come chiave di invalidazione delle cache
+ * (ad esempio dei PDF generati).
+ * <p>
+ * La tabella <code>ScenarioVersion</code> contiene un contatore per scenario, incrementato da trigger su tutte le
+ * tabelle i cui dati finiscono nel documento dello scenario: lo scenario stesso, i suoi componenti e le tabelle
+ * condivise collegate (azioni chiave, materiali, presidi). I trigger scattano nella stessa transazione della
+ * modifica, per cui la versione cambia con qualsiasi percorso di scrittura, anche al di fuori dei servizi;
+ * leggerla costa una singola ricerca sulla chiave primaria.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+public final class ScenarioVersionHelper {
+
+    /**
+     * Il logger per questa classe.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ScenarioVersionHelper.class);
+    /**
+     * Tabelle che contribuiscono ai dati di uno scenario, con la query che ricava dalla riga modificata
+     * (<code>%1$s</code> = <code>NEW</code> o <code>OLD</code>) gli ID degli scenari interessati, nella colonna <code>id</code>.
+     */
+    private static final List<VersionedTable> VERSIONED_TABLES = List.of(
+            new VersionedTable("Scenario", "SELECT %1$s.id_scenario AS id"),
+            new VersionedTable("AdvancedScenario", "SELECT %1$s.id_advanced_scenario AS id"),
+            new VersionedTable("PatientSimulatedScenario", "SELECT %1$s.id_patient_simulated_scenario AS id"),
+            new VersionedTable("Tempo", "SELECT %1$s.id_advanced_scenario AS id"),
+            new VersionedTable("ParametriAggiuntivi", "SELECT %1$s.scenario_id AS id"),
+            new VersionedTable("PazienteT0", "SELECT %1$s.id_paziente AS id"),
+            new VersionedTable("AccessoVenoso", "SELECT %1$s.paziente_t0_id AS id"),
+            new VersionedTable("AccessoArterioso", "SELECT %1$s.paziente_t0_id AS id"),
+            new VersionedTable("Accesso", "SELECT paziente_t0_id AS id FROM AccessoVenoso WHERE accesso_id = %1$s.id_accesso " +
+                    "UNION SELECT paziente_t0_id FROM AccessoArterioso WHERE accesso_id = %1$s.id_accesso",
+                    "AccessoVenoso", "AccessoArterioso"),
+            new VersionedTable("EsameFisico", "SELECT %1$s.id_esame_fisico AS id"),
+            new VersionedTable("EsameReferto", "SELECT %1$s.id_scenario AS id"),
+            new VersionedTable("AzioneScenario", "SELECT %1$s.id_scenario AS id"),
+            new VersionedTable("AzioniChiave", "SELECT id_scenario AS id FROM AzioneScenario WHERE id_azione = %1$s.id_azione",
+                    "AzioneScenario"),
+            new VersionedTable("MaterialeScenario", "SELECT %1$s.id_scenario AS id"),
+            new VersionedTable("Materiale", "SELECT id_scenario AS id FROM MaterialeScenario WHERE id_materiale = %1$s.id_materiale",
+                    "MaterialeScenario"),
+            new VersionedTable("PresidioScenario", "SELECT %1$s.id_scenario AS id"),
+            new VersionedTable("Presidi", "SELECT id_scenario AS id FROM PresidioScenario WHERE id_presidio = %1$s.id_presidio",
+                    "PresidioScenario"));
+
+    /**
+     * Costruttore privato per evitare l'istanza della classe, dato che contiene solo metodi statici.
+     */
+    private ScenarioVersionHelper() {
+        // Costruttore privato per evitare l'istanza della classe.
+    }
+
+    /**
+     * Crea, se non esistono, la tabella <code>ScenarioVersion</code> e i trigger che incrementano la versione
+     * di uno scenario a ogni inserimento, modifica o eliminazione nelle tabelle che ne contengono i dati.
+     * Le tabelle non presenti nel database vengono saltate, come quelle la cui query fa riferimento a tabelle
+     * non presenti: un trigger su una tabella mancante farebbe fallire ogni scrittura.
+     *
+     * @throws SQLException se non è possibile creare la tabella delle versioni.
+     */
+    public static void ensureScenarioVersionSchema() throws SQLException {
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS ScenarioVersion (
+                        id_scenario INTEGER PRIMARY KEY,
+                        version INTEGER NOT NULL DEFAULT 0
+                    )""");
+            Set<String> existing = new HashSet<>();
+            try (ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table'")) {
+                while (rs.next()) {
+                    existing.add(rs.getString("name"));
+                }
+            }
+            for (VersionedTable table : VERSIONED_TABLES) {
+                if (!existing.contains(table.name()) || !existing.containsAll(table.dependencies())) {
+                    logger.warn("Trigger di versione non creati per la tabella {}: tabelle mancanti nel database.", table.name());
+                    continue;
+                }
+                try {
+                    stmt.execute(trigger(table, "INSERT", bump(table, "NEW")));
+                    stmt.execute(trigger(table, "DELETE", bump(table, "OLD")));
+                    stmt.execute(trigger(table, "UPDATE", bump(table, "OLD") + bump(table, "NEW")));
+                } catch (SQLException e) {
+                    logger.warn("Trigger di versione non creati per la tabella {}: {}", table.name(), e.getMessage());
+                }
+            }
+        }
+        logger.info("Schema ScenarioVersion (tabella e trigger) verificato.");
+    }
+
+    /**
+     * Restituisce la versione corrente dei dati di uno scenario.
+     *
+     * @param scenarioId L'ID dello scenario.
+     * @return La versione, <code>0</code> se lo scenario non è mai stato modificato dalla creazione dei trigger.
+     * @throws SQLException se si verifica un errore di accesso al database.
+     */
+    public static long getVersion(int scenarioId) throws SQLException {
+        final String sql = "SELECT version FROM ScenarioVersion WHERE id_scenario = ?";
+
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, scenarioId);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getLong("version") : 0;
+        }
+    }
+
+    /**
+     * Costruisce l'istruzione di creazione di un trigger di versione.
+     *
+     * @param table La tabella.
+     * @param event L'evento (<code>INSERT</code>, <code>UPDATE</code> o <code>DELETE</code>).
+     * @param body  Le istruzioni del trigger.
+     * @return L'istruzione SQL.
+     */
+    private static String trigger(VersionedTable table, String event, String body) {
+        // I nomi di tabella provengono dalla lista costante VERSIONED_TABLES.
+        return "CREATE TRIGGER IF NOT EXISTS ScenarioVersion_" + table.name() + "_" + event.toLowerCase() +
+                " AFTER " + event + " ON " + table.name() + " BEGIN " + body + " END";
+    }
+
+    /**
+     * Costruisce l'istruzione che incrementa la versione degli scenari interessati da una riga.
+     *
+     * @param table La tabella.
+     * @param row   La riga (<code>NEW</code> o <code>OLD</code>).
+     * @return L'istruzione SQL, terminata dal punto e virgola.
+     */
+    private static String bump(VersionedTable table, String row) {
+        // La clausola WHERE è necessaria a SQLite per distinguere ON CONFLICT da una JOIN.
+        return "INSERT INTO ScenarioVersion (id_scenario, version) SELECT id, 1 FROM (" + table.scenarioIds().formatted(row) + ") " +
+                "WHERE id IS NOT NULL ON CONFLICT(id_scenario) DO UPDATE SET version = version + 1;";
+    }
+
+    /**
+     * Tabella che contribuisce ai dati di uno scenario.
+     *
+     * @param name         Il nome della tabella.
+     * @param scenarioIds  La query che ricava dalla riga modificata gli ID degli scenari interessati.
+     * @param dependencies Le altre tabelle lette dalla query.
+     */
+    private record VersionedTable(String name, String scenarioIds, List<String> dependencies) {
+        /**
+         * Costruttore con le tabelle lette dalla query elencate singolarmente.
+         *
+         * @param name         Il nome della tabella.
+         * @param scenarioIds  La query che ricava dalla riga modificata gli ID degli scenari interessati.
+         * @param dependencies Le altre tabelle lette dalla query.
+         */
+        private VersionedTable(String name, String scenarioIds, String... dependencies) {
+            this(name, scenarioIds, List.of(dependencies));
+        }
+    }
+}
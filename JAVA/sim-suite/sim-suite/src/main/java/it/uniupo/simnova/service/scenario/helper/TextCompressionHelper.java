@@ -0,0 +1,229 @@
+package it.uniupo.simnova.service.scenario.helper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Classe di supporto per la compressione trasparente delle colonne di testo voluminose (i campi HTML degli
+ * scenari, la sceneggiatura, i referti testuali e i dettagli dei tempi).
+ * <p>
+ * Quando la compressione è attiva ({@link #configure(boolean, int)}), i testi più lunghi della soglia vengono
+ * salvati come BLOB compresso con {@link Deflater}, preceduto da un byte marcatore (<code>0x00</code>, che non
+ * compare all'inizio di un testo HTML) e dal byte del metodo. I valori brevi restano testo. La lettura
+ * ({@link #read(ResultSet, String)}) riconosce entrambi i formati indipendentemente dalla configurazione,
+ * per cui la modalità può essere attivata e disattivata senza rendere illeggibili i dati già salvati.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+public final class TextCompressionHelper {
+
+    /**
+     * Colonne di testo che possono essere compresse: i campi HTML di {@link RichTextHelper#HTML_FIELDS},
+     * il referto testuale degli esami e i dettagli aggiuntivi dei tempi.
+     */
+    public static final List<Column> COLUMNS;
+    /**
+     * Byte marcatore iniziale di un valore compresso.
+     */
+    private static final byte MARKER = 0x00;
+    /**
+     * Byte del metodo di compressione: Deflate (zlib).
+     */
+    private static final byte METHOD_DEFLATE = 'D';
+    /**
+     * Lunghezza dell'intestazione di un valore compresso (marcatore e metodo).
+     */
+    private static final int HEADER_LENGTH = 2;
+    /**
+     * Indica se i testi oltre la soglia vengono salvati compressi.
+     */
+    private static volatile boolean enabled = false;
+    /**
+     * Dimensione minima (in byte UTF-8) di un testo da comprimere.
+     */
+    private static volatile int thresholdBytes = 1024;
+
+    static {
+        List<Column> columns = new ArrayList<>();
+        for (RichTextHelper.HtmlField field : RichTextHelper.HTML_FIELDS) {
+            columns.add(new Column(field.table(), field.column()));
+        }
+        columns.add(new Column("EsameReferto", "referto_testuale"));
+        columns.add(new Column("Tempo", "altri_dettagli"));
+        COLUMNS = List.copyOf(columns);
+    }
+
+    /**
+     * Costruttore privato per evitare l'istanza della classe, dato che contiene solo metodi statici.
+     */
+    private TextCompressionHelper() {
+        // Costruttore privato per evitare l'istanza della classe.
+    }
+
+    /**
+     * Imposta la modalità di salvataggio dei testi.
+     *
+     * @param compress  <code>true</code> per comprimere i testi oltre la soglia.
+     * @param threshold La dimensione minima (in byte) di un testo da comprimere.
+     */
+    public static void configure(boolean compress, int threshold) {
+        thresholdBytes = Math.max(threshold, 0);
+        enabled = compress;
+    }
+
+    /**
+     * Indica se i testi oltre la soglia vengono salvati compressi.
+     *
+     * @return <code>true</code> se la compressione è attiva.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Legge una colonna di testo, decomprimendola se necessario.
+     *
+     * @param rs     Il ResultSet posizionato sulla riga.
+     * @param column Il nome (o l'alias) della colonna.
+     * @return Il testo della colonna; <code>null</code> se la colonna è <code>NULL</code>.
+     * @throws SQLException se si verifica un errore di accesso al database o il valore compresso è danneggiato.
+     */
+    public static String read(ResultSet rs, String column) throws SQLException {
+        return decode(rs.getObject(column));
+    }
+
+    /**
+     * Legge una colonna di testo per indice, decomprimendola se necessario.
+     *
+     * @param rs    Il ResultSet posizionato sulla riga.
+     * @param index L'indice della colonna (a partire da 1).
+     * @return Il testo della colonna; <code>null</code> se la colonna è <code>NULL</code>.
+     * @throws SQLException se si verifica un errore di accesso al database o il valore compresso è danneggiato.
+     */
+    public static String read(ResultSet rs, int index) throws SQLException {
+        return decode(rs.getObject(index));
+    }
+
+    /**
+     * Imposta il parametro di un'istruzione con un testo, comprimendolo se la compressione è attiva
+     * e il testo supera la soglia.
+     *
+     * @param stmt  L'istruzione da preparare.
+     * @param index L'indice del parametro (a partire da 1).
+     * @param value Il testo da salvare (può essere <code>null</code>).
+     * @throws SQLException se si verifica un errore durante l'impostazione del parametro.
+     */
+    public static void bind(PreparedStatement stmt, int index, String value) throws SQLException {
+        if (value == null) {
+            stmt.setNull(index, Types.VARCHAR);
+            return;
+        }
+        byte[] compressed = enabled ? compress(value) : null;
+        if (compressed != null) {
+            stmt.setBytes(index, compressed);
+        } else {
+            stmt.setString(index, value);
+        }
+    }
+
+    /**
+     * Verifica se un valore letto dal database è un testo compresso.
+     *
+     * @param value Il valore della colonna.
+     * @return <code>true</code> se il valore è stato salvato compresso.
+     */
+    public static boolean isCompressed(Object value) {
+        return value instanceof byte[] bytes && bytes.length >= HEADER_LENGTH && bytes[0] == MARKER;
+    }
+
+    /**
+     * Comprime un testo se supera la soglia e se la compressione ne riduce effettivamente la dimensione.
+     * Non considera se la compressione è attiva: viene usato anche dalla migrazione.
+     *
+     * @param value Il testo da comprimere.
+     * @return Il valore compresso, con l'intestazione; <code>null</code> se il testo va salvato così com'è.
+     */
+    public static byte[] compress(String value) {
+        byte[] raw = value.getBytes(StandardCharsets.UTF_8);
+        if (raw.length < thresholdBytes || raw.length == 0) {
+            return null;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 3 + HEADER_LENGTH);
+            out.write(MARKER);
+            out.write(METHOD_DEFLATE);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            // Un testo già poco ridondante non viene salvato compresso.
+            return out.size() < raw.length ? out.toByteArray() : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Converte un valore letto dal database nel testo corrispondente.
+     *
+     * @param value Il valore della colonna (<code>String</code>, <code>byte[]</code> o <code>null</code>).
+     * @return Il testo; <code>null</code> se il valore è <code>null</code>.
+     * @throws SQLException se il valore compresso è danneggiato o usa un metodo sconosciuto.
+     */
+    public static String decode(Object value) throws SQLException {
+        if (value == null) {
+            return null;
+        }
+        if (!(value instanceof byte[] bytes)) {
+            return value.toString();
+        }
+        if (!isCompressed(bytes)) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        if (bytes[1] != METHOD_DEFLATE) {
+            throw new SQLException("Metodo di compressione del testo non supportato: " + (char) bytes[1]);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new SQLException("Testo compresso troncato o danneggiato.");
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new SQLException("Testo compresso danneggiato: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Colonna di testo che può essere compressa. Le righe vengono individuate tramite <code>rowid</code>,
+     * perché alcune tabelle hanno una chiave primaria composta.
+     *
+     * @param table  La tabella.
+     * @param column La colonna di testo.
+     */
+    public record Column(String table, String column) {
+    }
+}
@@ -1,5 +1,6 @@
 package it.uniupo.simnova.service.scenario.operations;
 
+import it.uniupo.simnova.service.export.PdfCacheService;
 import it.uniupo.simnova.service.scenario.helper.MediaHelper;
 import it.uniupo.simnova.service.scenario.types.AdvancedScenarioService;
 import it.uniupo.simnova.service.storage.FileStorageService;
@@ -34,6 +35,11 @@ public class ScenarioDeletionService {
      */
     private final AdvancedScenarioService advancedScenarioService;
 
+    /**
+     * La cache dei PDF generati, da cui vengono rimossi i PDF dello scenario eliminato.
+     */
+    private final PdfCacheService pdfCacheService;
+
     /**
      * Il logger per questa classe, utilizzato per registrare informazioni ed errori relativi alle operazioni di cancellazione.
      */
@@ -45,10 +51,13 @@ public class ScenarioDeletionService {
      *
      * @param fileStorageService      Il servizio per la gestione dei file multimediali.
      * @param advancedScenarioService Il servizio per la gestione degli scenari avanzati.
+     * @param pdfCacheService         La cache dei PDF generati.
      */
-    public ScenarioDeletionService(FileStorageService fileStorageService, AdvancedScenarioService advancedScenarioService) {
+    public ScenarioDeletionService(FileStorageService fileStorageService, AdvancedScenarioService advancedScenarioService,
+                                   PdfCacheService pdfCacheService) {
         this.fileStorageService = fileStorageService;
         this.advancedScenarioService = advancedScenarioService;
+        this.pdfCacheService = pdfCacheService;
     }
 
     /**
@@ -94,6 +103,9 @@ public class ScenarioDeletionService {
             fileStorageService.deleteFiles(mediaFiles);
             logger.info("File media associati allo scenario con ID {} eliminati con successo.", scenarioId);
 
+            // 5. Rimuove i PDF dello scenario dalla cache (l'ID potrebbe essere riutilizzato).
+            pdfCacheService.evictScenario(scenarioId);
+
             return true;
         } catch (SQLException e) {
             if (conn != null) {
@@ -8,11 +8,13 @@ import it.uniupo.simnova.domain.common.Accesso;
 import it.uniupo.simnova.domain.common.ParametroAggiuntivo;
 import it.uniupo.simnova.domain.common.Tempo;
 import it.uniupo.simnova.domain.paziente.EsameReferto;
+import it.uniupo.simnova.service.export.helper.ScenarioCborCodec;
 import it.uniupo.simnova.service.scenario.ScenarioService;
 import it.uniupo.simnova.service.scenario.components.*;
 import it.uniupo.simnova.service.scenario.types.AdvancedScenarioService;
 import it.uniupo.simnova.service.scenario.types.PatientSimulatedScenarioService;
 import it.uniupo.simnova.service.storage.FileStorageService;
+import it.uniupo.simnova.service.storage.InlineImageService;
 import jakarta.transaction.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,8 +23,10 @@ import org.springframework.stereotype.Service;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 /**
@@ -98,6 +102,11 @@ public class ScenarioImportService {
      */
     private final FileStorageService fileStorageService;
 
+    /**
+     * Servizio per le immagini dei campi HTML, utilizzato per aggiornarne gli URL dopo il salvataggio dei media.
+     */
+    private final InlineImageService inlineImageService;
+
     /**
      * Costruisce una nuova istanza di <code>ScenarioImportService</code>.
      * Inietta tutte le dipendenze dei servizi necessari per le operazioni di importazione.
@@ -113,12 +122,14 @@ public class ScenarioImportService {
      * @param azioneChiaveService             Il servizio per le azioni chiave.
      * @param unZipScenarioService            Il servizio per la decompressione ZIP.
      * @param fileStorageService              Il servizio per lo storage dei file.
+     * @param inlineImageService              Il servizio per le immagini dei campi HTML.
      */
     public ScenarioImportService(ScenarioService scenarioService, EsameFisicoService esameFisicoService,
                                  PazienteT0Service pazienteT0Service, EsameRefertoService esameRefertoService,
                                  AdvancedScenarioService advancedScenarioService, PatientSimulatedScenarioService patientSimulatedScenarioService,
                                  MaterialeService materialeService, PresidiService presidiService, AzioneChiaveService azioneChiaveService,
-                                 UnZipScenarioService unZipScenarioService, FileStorageService fileStorageService) {
+                                 UnZipScenarioService unZipScenarioService, FileStorageService fileStorageService,
+                                 InlineImageService inlineImageService) {
         this.scenarioService = scenarioService;
         this.esameFisicoService = esameFisicoService;
         this.pazienteT0Service = pazienteT0Service;
@@ -130,6 +141,7 @@ public class ScenarioImportService {
         this.azioneChiaveService = azioneChiaveService;
         this.unZipScenarioService = unZipScenarioService;
         this.fileStorageService = fileStorageService;
+        this.inlineImageService = inlineImageService;
     }
 
     /**
@@ -137,21 +149,57 @@ public class ScenarioImportService {
      * Il JSON deve contenere la struttura completa dello scenario, inclusi i dati principali
      * e tutti i componenti correlati (paziente T0, esami, materiali, ecc.).
      * Il tipo di scenario (Quick, Advanced, Patient Simulated) viene determinato dal campo "tipo" nel JSON.
+     * Sono accettati sia il JSON testuale sia la sua codifica binaria CBOR (vedi {@link ScenarioCborCodec}).
      *
-     * @param jsonFile L'array di byte che rappresenta il contenuto del file JSON.
+     * @param jsonFile L'array di byte che rappresenta il contenuto del file JSON (o CBOR).
      * @return <code>true</code> se lo scenario è stato creato con successo e tutti i suoi componenti sono stati salvati;
      * <code>false</code> in caso di errore di parsing JSON, dati mancanti, tipo di scenario non riconosciuto o fallimento del salvataggio.
      */
     @Transactional
     public boolean createScenarioByJSON(byte[] jsonFile) {
+        return createScenarioByJSON(jsonFile, Collections.emptyMap()) > 0;
+    }
+
+    /**
+     * Crea un nuovo scenario a partire da un file JSON (o CBOR), come {@link #createScenarioByJSON(byte[])},
+     * restituendo l'ID dello scenario creato (ad esempio per completarlo con ulteriori generazioni).
+     *
+     * @param jsonFile L'array di byte che rappresenta il contenuto del file JSON (o CBOR).
+     * @return L'ID dello scenario creato, o <code>-1</code> in caso di errore.
+     */
+    @Transactional
+    public int createScenarioFromJSON(byte[] jsonFile) {
+        return createScenarioByJSON(jsonFile, Collections.emptyMap());
+    }
+
+    /**
+     * Crea un nuovo scenario a partire da un file JSON (o CBOR), sostituendo i nomi dei file multimediali
+     * degli esami con quelli effettivamente assegnati dallo storage durante l'importazione.
+     *
+     * @param jsonFile     L'array di byte che rappresenta il contenuto del file JSON (o CBOR).
+     * @param mediaRenames Mappa dal nome del file nel JSON al nome con cui è stato salvato nello storage.
+     * @return L'ID dello scenario creato, o <code>-1</code> in caso di errore.
+     */
+    private int createScenarioByJSON(byte[] jsonFile, Map<String, String> mediaRenames) {
         try {
-            // Converte l'array di byte JSON in una stringa UTF-8.
-            String jsonString = new String(jsonFile, StandardCharsets.UTF_8);
             Gson gson = new GsonBuilder().create(); // Crea un'istanza di Gson.
+            Type mapType = new TypeToken<Map<String, Object>>() {
+            }.getType();
+
+            // Parsa il contenuto in una mappa generica per l'estrazione dei dati.
+            // Il formato (JSON testuale o CBOR binario) viene riconosciuto dai primi byte del file.
+            Map<String, Object> jsonData;
+            if (ScenarioCborCodec.isCbor(jsonFile)) {
+                logger.debug("Rilevato scenario in formato CBOR ({} byte).", jsonFile.length);
+                jsonData = gson.fromJson(ScenarioCborCodec.decode(jsonFile), mapType);
+            } else {
+                // Converte l'array di byte JSON in una stringa UTF-8.
+                String jsonString = new String(jsonFile, StandardCharsets.UTF_8);
+                jsonData = gson.fromJson(jsonString, mapType);
+            }
 
-            // Parsa la stringa JSON in una mappa generica per l'estrazione dei dati.
-            Map<String, Object> jsonData = gson.fromJson(jsonString, new TypeToken<Map<String, Object>>() {
-            }.getType());
+            // Allinea i riferimenti ai media con i nomi assegnati dallo storage (es. archiviazione per contenuto).
+            applyMediaRenames(jsonData, mediaRenames);
 
             // Estrae il tipo di scenario dal JSON.
             String scenarioType = (String) jsonData.get("tipo");
@@ -161,7 +209,7 @@ public class ScenarioImportService {
             Map<String, Object> scenarioData = (Map<String, Object>) jsonData.get("scenario");
             if (scenarioData == null) {
                 logger.error("Dati 'scenario' mancanti nel JSON. Impossibile creare lo scenario.");
-                return false;
+                return -1;
             }
 
             String titolo = (String) scenarioData.get("titolo");
@@ -197,37 +245,198 @@ public class ScenarioImportService {
                     break;
                 default:
                     logger.error("Tipo di scenario non riconosciuto nel JSON: '{}'.", scenarioType);
-                    return false;
+                    return -1;
             }
 
             // Verifica se la creazione dello scenario principale è riuscita.
             if (creationResult <= 0) {
                 logger.error("Errore durante la creazione dello scenario di tipo '{}'. L'ID restituito non è valido.", scenarioType);
-                return false;
+                return -1;
             }
 
             logger.info("Scenario di tipo '{}' con ID {} creato e popolato con successo dal JSON.", scenarioType, creationResult);
-            return true;
+            return creationResult;
 
         } catch (JsonSyntaxException e) {
             logger.error("Errore di sintassi nel file JSON fornito: {}", e.getMessage(), e);
-            return false;
+            return -1;
+        } catch (IOException e) {
+            logger.error("Errore di decodifica del file CBOR fornito: {}", e.getMessage(), e);
+            return -1;
         } catch (ClassCastException e) {
             logger.error("Errore di cast dei dati nel JSON. Assicurarsi che i tipi dei campi corrispondano a quelli attesi: {}", e.getMessage(), e);
-            return false;
+            return -1;
         } catch (RuntimeException e) {
             logger.error("Errore logico o di dipendenza durante la creazione dello scenario dal JSON: {}", e.getMessage(), e);
             // La RuntimeException viene lanciata dai metodi saveCommonScenarioComponents ecc.
-            return false;
+            return -1;
         } catch (Exception e) {
             logger.error("Errore imprevisto durante la creazione dello scenario dal JSON: {}", e.getMessage(), e);
-            return false;
+            return -1;
+        }
+    }
+
+    /**
+     * Avvia l'importazione di uno scenario le cui sezioni arrivano una alla volta, ad esempio durante una
+     * generazione in streaming. Lo scenario viene creato appena sono noti il tipo e i dati principali, e ogni
+     * sezione successiva viene salvata al suo arrivo, senza attendere il documento completo.
+     *
+     * @return L'importazione avviata, a cui passare le sezioni con {@link StreamingImport#accept(String, String)}.
+     */
+    public StreamingImport startStreamingImport() {
+        return new StreamingImport();
+    }
+
+    /**
+     * Importazione incrementale di uno scenario, sezione per sezione.
+     * <p>
+     * Le sezioni ricevute prima del tipo ("tipo") e dei dati principali ("scenario") vengono conservate e salvate
+     * subito dopo la creazione dello scenario; quelle successive vengono salvate al loro arrivo. Al termine,
+     * {@link #complete()} salva le sezioni mai ricevute come farebbe l'importazione del documento completo.
+     * In caso di errore lo scenario eventualmente creato resta parziale e va eliminato dal chiamante.
+     * </p>
+     */
+    public final class StreamingImport {
+        /**
+         * Istanza di Gson per interpretare le singole sezioni.
+         */
+        private final Gson gson = new GsonBuilder().create();
+        /**
+         * Sezioni ricevute finora, per nome.
+         */
+        private final Map<String, Object> jsonData = new LinkedHashMap<>();
+        /**
+         * Salvataggi delle sezioni non ancora eseguiti, per nome della sezione.
+         */
+        private Map<String, BiConsumer<Integer, Map<String, Object>>> pendingSavers;
+        /**
+         * ID dello scenario creato, o <code>-1</code> se non è ancora stato creato.
+         */
+        private int scenarioId = -1;
+
+        /**
+         * Costruttore dell'importazione incrementale.
+         */
+        private StreamingImport() {
+        }
+
+        /**
+         * Riceve una sezione dello scenario e la salva, se lo scenario è già stato creato.
+         * Una sezione ricevuta più volte viene considerata solo la prima volta: le successive vengono ignorate,
+         * così che i dati conservati restino quelli salvati.
+         *
+         * @param section Il nome della sezione (chiave di primo livello del JSON dello scenario).
+         * @param json    Il valore della sezione, come testo JSON.
+         * @throws JsonSyntaxException se il valore non è JSON valido.
+         * @throws RuntimeException    se il tipo di scenario non è riconosciuto o un salvataggio non riesce.
+         */
+        public synchronized void accept(String section, String json) {
+            if (jsonData.containsKey(section)) {
+                logger.warn("Sezione '{}' ricevuta più volte durante l'importazione incrementale: ignorata.", section);
+                return;
+            }
+            jsonData.put(section, gson.fromJson(json, Object.class));
+            if (scenarioId > 0) {
+                runSaver(section);
+                return;
+            }
+            if (jsonData.get("tipo") instanceof String scenarioType && jsonData.get("scenario") instanceof Map<?, ?>) {
+                createScenario(scenarioType);
+                for (String received : new ArrayList<>(jsonData.keySet())) {
+                    runSaver(received);
+                }
+            }
+        }
+
+        /**
+         * Conclude l'importazione, salvando le sezioni previste dal tipo di scenario che non sono state ricevute.
+         *
+         * @return L'ID dello scenario importato.
+         * @throws IllegalStateException se non sono stati ricevuti il tipo e i dati principali dello scenario.
+         * @throws RuntimeException      se un salvataggio non riesce.
+         */
+        public synchronized int complete() {
+            if (scenarioId <= 0) {
+                throw new IllegalStateException("Sezioni 'tipo' o 'scenario' mancanti: impossibile creare lo scenario.");
+            }
+            for (String missing : new ArrayList<>(pendingSavers.keySet())) {
+                runSaver(missing);
+            }
+            logger.info("Scenario di tipo '{}' con ID {} importato in modo incrementale.", jsonData.get("tipo"), scenarioId);
+            return scenarioId;
+        }
+
+        /**
+         * Restituisce l'ID dello scenario, se è già stato creato.
+         *
+         * @return L'ID dello scenario, o <code>-1</code> se non è ancora stato creato.
+         */
+        public synchronized int getScenarioId() {
+            return scenarioId;
+        }
+
+        /**
+         * Crea lo scenario del tipo indicato con i dati principali ricevuti e ne salva i campi.
+         *
+         * @param scenarioType Il tipo di scenario.
+         * @throws IllegalStateException se il tipo non è riconosciuto o la creazione non riesce.
+         */
+        private void createScenario(String scenarioType) {
+            @SuppressWarnings("unchecked") // Verificato da accept(): la sezione "scenario" è un oggetto JSON.
+            Map<String, Object> scenarioData = (Map<String, Object>) jsonData.get("scenario");
+            String titolo = (String) scenarioData.get("titolo");
+            String nomePaziente = (String) scenarioData.get("nome_paziente");
+            String patologia = (String) scenarioData.get("patologia");
+            String autori = (String) scenarioData.get("autori");
+            float timerGenerale = (float) (double) (Double) scenarioData.getOrDefault("timer_generale", 0.0);
+            String tipologia = (String) scenarioData.get("tipologia");
+
+            Map<String, BiConsumer<Integer, Map<String, Object>>> savers = new LinkedHashMap<>();
+            savers.put("azioniChiave", ScenarioImportService.this::saveAzioniChiave);
+            savers.put("materialeNecessario", ScenarioImportService.this::saveMaterialiNecessari);
+            savers.put("presidi", ScenarioImportService.this::savePresidi);
+            savers.put("esameFisico", ScenarioImportService.this::saveEsameFisico);
+            savers.put("pazienteT0", ScenarioImportService.this::savePazienteT0);
+            savers.put("esamiReferti", ScenarioImportService.this::saveEsamiReferti);
+            int newId = switch (scenarioType) {
+                case "Quick Scenario" ->
+                        scenarioService.startQuickScenario(-1, titolo, nomePaziente, patologia, autori, timerGenerale, tipologia);
+                case "Advanced Scenario" -> {
+                    savers.put("tempi", ScenarioImportService.this::saveAdvancedScenarioComponents);
+                    yield advancedScenarioService.startAdvancedScenario(titolo, nomePaziente, patologia, autori, timerGenerale, tipologia);
+                }
+                case "Patient Simulated Scenario" -> {
+                    savers.put("tempi", ScenarioImportService.this::saveAdvancedScenarioComponents);
+                    savers.put("sceneggiatura", ScenarioImportService.this::savePatientSimulatedScenarioComponents);
+                    yield patientSimulatedScenarioService.startPatientSimulatedScenario(titolo, nomePaziente, patologia, autori, timerGenerale, tipologia);
+                }
+                default -> throw new IllegalStateException("Tipo di scenario non riconosciuto: '" + scenarioType + "'.");
+            };
+            if (newId <= 0) {
+                throw new IllegalStateException("Errore durante la creazione dello scenario di tipo '" + scenarioType + "'.");
+            }
+            scenarioId = newId;
+            pendingSavers = savers;
+            saveScenarioFields(scenarioId, jsonData);
+            logger.info("Scenario di tipo '{}' creato con ID {}: le sezioni verranno salvate al loro arrivo.", scenarioType, scenarioId);
+        }
+
+        /**
+         * Salva una sezione, se è prevista dal tipo di scenario e non è ancora stata salvata.
+         *
+         * @param section Il nome della sezione.
+         */
+        private void runSaver(String section) {
+            BiConsumer<Integer, Map<String, Object>> saver = pendingSavers.remove(section);
+            if (saver != null) {
+                saver.accept(scenarioId, jsonData);
+            }
         }
     }
 
     /**
      * Importa uno scenario da un file ZIP.
-     * Il file ZIP è atteso contenere un file JSON denominato 'scenario.json' e
+     * Il file ZIP è atteso contenere un file JSON denominato 'scenario.json' (o la sua versione CBOR 'scenario.cbor') e
      * opzionalmente una cartella 'esami/' (o 'media/') con file multimediali.
      * I file multimediali estratti verranno salvati nello storage configurato.
      *
@@ -248,32 +457,39 @@ public class ScenarioImportService {
                 return false;
             }
 
-            // Tenta di creare lo scenario utilizzando i dati JSON estratti.
-            boolean scenarioCreated = createScenarioByJSON(scenarioJsonBytes);
-
-            if (scenarioCreated) {
-                logger.info("Scenario creato con successo da 'scenario.json' contenuto in '{}'.", fileName);
-
-                // Se lo scenario è stato creato, procede con il salvataggio dei file multimediali.
-                if (!unzippedData.mediaFiles().isEmpty()) {
-                    logger.info("Trovati {} file multimediali da importare per lo scenario.", unzippedData.mediaFiles().size());
-                    for (Map.Entry<String, byte[]> mediaFile : unzippedData.mediaFiles().entrySet()) {
-                        String mediaFileName = mediaFile.getKey();
-                        byte[] mediaFileBytes = mediaFile.getValue();
-                        try (InputStream mediaInputStream = new ByteArrayInputStream(mediaFileBytes)) {
-                            fileStorageService.storeFile(mediaInputStream, mediaFileName);
-                            logger.debug("File multimediale '{}' salvato con successo nello storage.", mediaFileName);
-                        } catch (IOException ioE) {
-                            logger.error("Errore di I/O durante il salvataggio del file multimediale '{}' dallo ZIP: {}", mediaFileName, ioE.getMessage(), ioE);
-                            // Continua l'importazione degli altri file anche se uno fallisce.
+            // Salva prima i file multimediali: lo storage può assegnare nomi diversi da quelli nel JSON
+            // (nomi sanitizzati o hash del contenuto), che vanno riportati nei referti dello scenario.
+            Map<String, String> storedMedia = new HashMap<>();
+            if (!unzippedData.mediaFiles().isEmpty()) {
+                logger.info("Trovati {} file multimediali da importare per lo scenario.", unzippedData.mediaFiles().size());
+                for (Map.Entry<String, byte[]> mediaFile : unzippedData.mediaFiles().entrySet()) {
+                    String mediaFileName = mediaFile.getKey();
+                    byte[] mediaFileBytes = mediaFile.getValue();
+                    try (InputStream mediaInputStream = new ByteArrayInputStream(mediaFileBytes)) {
+                        String storedName = fileStorageService.storeFile(mediaInputStream, mediaFileName);
+                        if (storedName != null) {
+                            storedMedia.put(mediaFileName, storedName);
                         }
+                        logger.debug("File multimediale '{}' salvato con successo nello storage come '{}'.", mediaFileName, storedName);
+                    } catch (IOException | RuntimeException ioE) {
+                        logger.error("Errore di I/O durante il salvataggio del file multimediale '{}' dallo ZIP: {}", mediaFileName, ioE.getMessage(), ioE);
+                        // Continua l'importazione degli altri file anche se uno fallisce.
                     }
-                } else {
-                    logger.info("Nessun file multimediale trovato nell'archivio ZIP '{}' da importare.", fileName);
                 }
+            } else {
+                logger.info("Nessun file multimediale trovato nell'archivio ZIP '{}' da importare.", fileName);
+            }
+
+            // Tenta di creare lo scenario utilizzando i dati JSON estratti.
+            boolean scenarioCreated = createScenarioByJSON(scenarioJsonBytes, storedMedia) > 0;
+
+            if (scenarioCreated) {
+                logger.info("Scenario creato con successo dal file dello scenario contenuto in '{}'.", fileName);
                 return true;
             } else {
                 logger.error("Errore durante la creazione dello scenario dal JSON estratto da '{}'. La creazione è fallita.", fileName);
+                // Rimuove i file appena salvati; quelli già usati da altri scenari vengono preservati dallo storage.
+                fileStorageService.deleteFiles(new ArrayList<>(new HashSet<>(storedMedia.values())));
                 return false;
             }
 
@@ -336,14 +552,36 @@ public class ScenarioImportService {
      *                          con un messaggio specifico sull'errore.
      */
     private void saveCommonScenarioComponents(int scenarioId, Map<String, Object> scenarioData) {
-        // Estrae la sezione "scenario" che contiene i dati principali.
-        Map<String, Object> scenario = (Map<String, Object>) scenarioData.get("scenario");
-        if (scenario == null) {
+        // Verifica la presenza della sezione "scenario" che contiene i dati principali.
+        if (scenarioData.get("scenario") == null) {
             logger.warn("Sezione 'scenario' mancante nel JSON per l'ID {}. Impossibile salvare i componenti comuni.", scenarioId);
             return;
         }
 
+        saveScenarioFields(scenarioId, scenarioData);
+        saveAzioniChiave(scenarioId, scenarioData);
+        saveMaterialiNecessari(scenarioId, scenarioData);
+        savePresidi(scenarioId, scenarioData);
+        saveEsameFisico(scenarioId, scenarioData);
+        savePazienteT0(scenarioId, scenarioData);
+        saveEsamiReferti(scenarioId, scenarioData);
+    }
+
+    /**
+     * Salva i campi principali dello scenario (sezione "scenario"): target, descrizione, briefing,
+     * patto d'aula, obiettivi, moulage, liquidi e informazioni per il genitore.
+     *
+     * @param scenarioId   L'ID dello scenario (già creato).
+     * @param scenarioData La {@link Map} di oggetti che rappresenta i dati dello scenario dal JSON.
+     * @throws RuntimeException se il salvataggio non riesce.
+     */
+    private void saveScenarioFields(int scenarioId, Map<String, Object> scenarioData) {
         // Salva i vari campi dello scenario principale.
+        @SuppressWarnings("unchecked") // Gson rappresenta gli oggetti JSON come Map<String, Object>.
+        Map<String, Object> scenario = (Map<String, Object>) scenarioData.get("scenario");
+        if (scenario == null) {
+            return;
+        }
         if (!scenarioService.updateScenarioTarget(scenarioId, (String) scenario.get("target"))) {
             throw new RuntimeException("Errore durante il salvataggio del target per lo scenario " + scenarioId);
         }
@@ -368,7 +606,16 @@ public class ScenarioImportService {
         if (!scenarioService.updateScenarioGenitoriInfo(scenarioId, (String) scenario.get("infoGenitore"))) {
             throw new RuntimeException("Errore durante il salvataggio delle informazioni per il genitore per lo scenario " + scenarioId);
         }
+    }
 
+    /**
+     * Salva le azioni chiave dello scenario (sezione "azioniChiave").
+     *
+     * @param scenarioId   L'ID dello scenario (già creato).
+     * @param scenarioData La {@link Map} di oggetti che rappresenta i dati dello scenario dal JSON.
+     * @throws RuntimeException se il salvataggio non riesce.
+     */
+    private void saveAzioniChiave(int scenarioId, Map<String, Object> scenarioData) {
         // Salva le azioni chiave.
         List<String> azioniChiaveList = (List<String>) scenarioData.get("azioniChiave");
         // Verifica se la lista è null per evitare NPE; se è null, passa una lista vuota.
@@ -376,7 +623,16 @@ public class ScenarioImportService {
             throw new RuntimeException("Errore durante il salvataggio delle azioni chiave per lo scenario " + scenarioId);
         }
         logger.debug("Azioni chiave salvate per lo scenario {}.", scenarioId);
+    }
 
+    /**
+     * Salva i materiali necessari dello scenario (sezione "materialeNecessario").
+     *
+     * @param scenarioId   L'ID dello scenario (già creato).
+     * @param scenarioData La {@link Map} di oggetti che rappresenta i dati dello scenario dal JSON.
+     * @throws RuntimeException se il salvataggio non riesce.
+     */
+    private void saveMaterialiNecessari(int scenarioId, Map<String, Object> scenarioData) {
         // Salva i materiali necessari.
         List<Map<String, Object>> materialiList = (List<Map<String, Object>>) scenarioData.get("materialeNecessario");
         List<Integer> idMateriali = new ArrayList<>();
@@ -390,7 +646,16 @@ public class ScenarioImportService {
             throw new RuntimeException("Errore durante il salvataggio del materiale necessario per lo scenario " + scenarioId);
         }
         logger.debug("Materiali necessari salvati per lo scenario {}.", scenarioId);
+    }
 
+    /**
+     * Salva i presidi dello scenario (sezione "presidi").
+     *
+     * @param scenarioId   L'ID dello scenario (già creato).
+     * @param scenarioData La {@link Map} di oggetti che rappresenta i dati dello scenario dal JSON.
+     * @throws RuntimeException se il salvataggio non riesce.
+     */
+    private void savePresidi(int scenarioId, Map<String, Object> scenarioData) {
         // Salva i presidi.
         List<String> presidiList = (List<String>) scenarioData.get("presidi");
         Set<String> presidi = presidiList != null ? new HashSet<>(presidiList) : new HashSet<>();
@@ -411,7 +676,15 @@ public class ScenarioImportService {
             throw new RuntimeException("Errore durante il salvataggio dei presidi per lo scenario " + scenarioId);
         }
         logger.debug("Presidi salvati per lo scenario {}.", scenarioId);
+    }
 
+    /**
+     * Salva l'esame fisico dello scenario (sezione "esameFisico").
+     *
+     * @param scenarioId   L'ID dello scenario (già creato).
+     * @param scenarioData La {@link Map} di oggetti che rappresenta i dati dello scenario dal JSON.
+     */
+    private void saveEsameFisico(int scenarioId, Map<String, Object> scenarioData) {
         // Salva l'esame fisico.
         Map<String, Object> esameFisicoData = (Map<String, Object>) scenarioData.get("esameFisico");
         if (esameFisicoData != null) {
@@ -429,7 +702,15 @@ public class ScenarioImportService {
         } else {
             logger.debug("Nessun dato per l'esame fisico presente nel JSON per lo scenario {}.", scenarioId);
         }
+    }
 
+    /**
+     * Salva i dati del paziente T0 e i suoi accessi (sezione "pazienteT0").
+     *
+     * @param scenarioId   L'ID dello scenario (già creato).
+     * @param scenarioData La {@link Map} di oggetti che rappresenta i dati dello scenario dal JSON.
+     */
+    private void savePazienteT0(int scenarioId, Map<String, Object> scenarioData) {
         // Salva i dati del paziente T0.
         Map<String, Object> pazienteT0Data = (Map<String, Object>) scenarioData.get("pazienteT0");
         if (pazienteT0Data != null) {
@@ -460,7 +741,15 @@ public class ScenarioImportService {
         } else {
             logger.debug("Nessun dato per il paziente T0 presente nel JSON per lo scenario {}.", scenarioId);
         }
+    }
 
+    /**
+     * Salva gli esami e referti dello scenario (sezione "esamiReferti").
+     *
+     * @param scenarioId   L'ID dello scenario (già creato).
+     * @param scenarioData La {@link Map} di oggetti che rappresenta i dati dello scenario dal JSON.
+     */
+    private void saveEsamiReferti(int scenarioId, Map<String, Object> scenarioData) {
         // Salva gli esami e referti.
         List<Map<String, Object>> esamiRefertiData = (List<Map<String, Object>>) scenarioData.get("esamiReferti");
         if (esamiRefertiData != null) {
@@ -565,6 +854,43 @@ public class ScenarioImportService {
         }
     }
 
+    /**
+     * Sostituisce, nella sezione "esamiReferti" dei dati dello scenario e negli URL delle immagini dei campi HTML,
+     * i nomi dei file multimediali con quelli assegnati dallo storage. I nomi non presenti nella mappa restano invariati.
+     *
+     * @param jsonData     La {@link Map} dei dati completi dello scenario.
+     * @param mediaRenames Mappa dal nome del file nel JSON al nome effettivo nello storage.
+     */
+    private void applyMediaRenames(Map<String, Object> jsonData, Map<String, String> mediaRenames) {
+        if (mediaRenames.isEmpty()) {
+            return;
+        }
+        @SuppressWarnings("unchecked") // Gson rappresenta gli oggetti JSON come Map<String, Object>.
+        Map<String, Object> scenario = (Map<String, Object>) jsonData.get("scenario");
+        if (scenario != null) {
+            for (String campo : List.of("descrizione", "briefing", "patto_aula", "obiettivo", "moulage", "liquidi", "infoGenitore")) {
+                if (scenario.get(campo) instanceof String html) {
+                    scenario.put(campo, inlineImageService.relink(html, mediaRenames));
+                }
+            }
+        }
+        if (jsonData.get("sceneggiatura") instanceof String sceneggiatura) {
+            jsonData.put("sceneggiatura", inlineImageService.relink(sceneggiatura, mediaRenames));
+        }
+
+        @SuppressWarnings("unchecked") // Gson rappresenta gli array di oggetti JSON come List<Map<String, Object>>.
+        List<Map<String, Object>> esamiRefertiData = (List<Map<String, Object>>) jsonData.get("esamiReferti");
+        if (esamiRefertiData == null) {
+            return;
+        }
+        for (Map<String, Object> esame : esamiRefertiData) {
+            Object media = esame.get("media");
+            if (media instanceof String mediaName && mediaRenames.containsKey(mediaName)) {
+                esame.put("media", mediaRenames.get(mediaName));
+            }
+        }
+    }
+
     /**
      * Converte una lista di mappe (rappresentanti dati di accesso da JSON) in una lista di oggetti {@link Accesso}.
      * Gestisce la conversione dei tipi (es. da Double a Integer) e i valori nulli.
@@ -26,6 +26,11 @@ public class UnZipScenarioService {
      */
     public static final String SCENARIO_JSON_FILENAME = "scenario.json";
 
+    /**
+     * Il nome del file che contiene i dati dello scenario in formato binario CBOR, alternativo a {@value #SCENARIO_JSON_FILENAME}.
+     */
+    public static final String SCENARIO_CBOR_FILENAME = "scenario.cbor";
+
     /**
      * Il prefisso della cartella all'interno dell'archivio ZIP dove si prevede siano archiviati i file multimediali.
      * Attualmente impostato su "esami/".
@@ -42,7 +47,7 @@ public class UnZipScenarioService {
 
     /**
      * Decomprime un {@link InputStream} che rappresenta un file ZIP di uno scenario.
-     * Estrae il file <code>scenario.json</code> e tutti i file contenuti nella cartella {@value #MEDIA_FOLDER_PREFIX}.
+     * Estrae il file <code>scenario.json</code> (o <code>scenario.cbor</code>) e tutti i file contenuti nella cartella {@value #MEDIA_FOLDER_PREFIX}.
      *
      * @param zipInputStream L'<code>InputStream</code> del file ZIP da decomprimere. Non deve essere <code>null</code>.
      * @return Un oggetto {@link UnzippedScenarioData} che incapsula il contenuto del file <code>scenario.json</code>
@@ -65,8 +70,9 @@ public class UnZipScenarioService {
             while ((zipEntry = zis.getNextEntry()) != null) {
                 // Ignora le directory, elaborando solo i file.
                 if (!zipEntry.isDirectory()) {
-                    // Controlla se l'entry corrente è il file scenario.json.
-                    if (SCENARIO_JSON_FILENAME.equalsIgnoreCase(zipEntry.getName())) {
+                    // Controlla se l'entry corrente è il file dello scenario (scenario.json o scenario.cbor).
+                    if (SCENARIO_JSON_FILENAME.equalsIgnoreCase(zipEntry.getName())
+                            || SCENARIO_CBOR_FILENAME.equalsIgnoreCase(zipEntry.getName())) {
                         scenarioJson = readEntryData(zis);
                     }
                     // Controlla se l'entry corrente è un file multimediale nella cartella designata.
@@ -84,7 +90,7 @@ public class UnZipScenarioService {
 
         // Verifica che il file scenario.json sia stato trovato.
         if (scenarioJson == null) {
-            throw new IllegalArgumentException("File '" + SCENARIO_JSON_FILENAME + "' non trovato nell'archivio ZIP. È essenziale per l'importazione dello scenario.");
+            throw new IllegalArgumentException("File '" + SCENARIO_JSON_FILENAME + "' (o '" + SCENARIO_CBOR_FILENAME + "') non trovato nell'archivio ZIP. È essenziale per l'importazione dello scenario.");
         }
 
         return new UnzippedScenarioData(scenarioJson, mediaFiles);
@@ -113,7 +119,8 @@ public class UnZipScenarioService {
      * Record immutabile che incapsula i dati estratti da un file ZIP di uno scenario.
      * Contiene il contenuto del file <code>scenario.json</code> e una mappa di file multimediali.
      *
-     * @param scenarioJson L'array di byte del contenuto del file <code>scenario.json</code>.
+     * @param scenarioJson L'array di byte del contenuto del file <code>scenario.json</code> o <code>scenario.cbor</code>;
+     *                     il formato viene riconosciuto in importazione da {@link ScenarioImportService}.
      * @param mediaFiles   Una {@link Map} dove la chiave è il nome del file multimediale (<code>String</code>)
      *                     e il valore è il contenuto del file come array di byte (<code>byte[]</code>).
      */
@@ -3,6 +3,7 @@ package it.uniupo.simnova.service.scenario.types;
 import it.uniupo.simnova.domain.common.ParametroAggiuntivo;
 import it.uniupo.simnova.domain.common.Tempo;
 import it.uniupo.simnova.service.scenario.ScenarioService;
+import it.uniupo.simnova.service.scenario.helper.TextCompressionHelper;
 import it.uniupo.simnova.utils.DBConnect;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -118,7 +119,7 @@ public class AdvancedScenarioService {
                         rs.getString("Azione"),
                         rs.getInt("TSi_id"),
                         rs.getInt("TNo_id"),
-                        rs.getString("altri_dettagli"),
+                        TextCompressionHelper.read(rs, "altri_dettagli"),
                         rs.getInt("timer_tempo"), // Assumendo che sia INT nel DB, altrimenti usare getLong.
                         rs.getString("ruoloGenitore")
                 );
@@ -225,7 +226,7 @@ public class AdvancedScenarioService {
                     stmt.setString(11, tempo.getAzione());
                     stmt.setInt(12, tempo.getTSi());
                     stmt.setInt(13, tempo.getTNo());
-                    stmt.setString(14, tempo.getAltriDettagli());
+                    TextCompressionHelper.bind(stmt, 14, tempo.getAltriDettagli());
                     stmt.setLong(15, tempo.getTimerTempo());
                     stmt.setString(16, tempo.getRuoloGenitore());
 
@@ -468,7 +469,7 @@ public class AdvancedScenarioService {
         try (Connection conn = DBConnect.getInstance().getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
-            stmt.setString(1, newValue);
+            TextCompressionHelper.bind(stmt, 1, newValue);
             stmt.setInt(2, idTempo);
             stmt.setInt(3, scenarioId);
 
@@ -495,7 +496,7 @@ public class AdvancedScenarioService {
         try (Connection conn = DBConnect.getInstance().getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
-            stmt.setString(1, newValue);
+            TextCompressionHelper.bind(stmt, 1, newValue);
             stmt.setInt(2, idTempo);
             stmt.setInt(3, scenarioId);
 
@@ -552,7 +553,7 @@ public class AdvancedScenarioService {
         try (Connection conn = DBConnect.getInstance().getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
-            stmt.setString(1, newValue);
+            TextCompressionHelper.bind(stmt, 1, newValue);
             stmt.setInt(2, idTempo);
             stmt.setInt(3, scenarioId);
 
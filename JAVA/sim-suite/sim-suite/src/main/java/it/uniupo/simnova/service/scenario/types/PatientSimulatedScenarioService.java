@@ -2,6 +2,9 @@ package it.uniupo.simnova.service.scenario.types;
 
 import it.uniupo.simnova.domain.scenario.PatientSimulatedScenario;
 import it.uniupo.simnova.service.scenario.ScenarioService;
+import it.uniupo.simnova.service.scenario.helper.RichTextHelper;
+import it.uniupo.simnova.service.scenario.helper.TextCompressionHelper;
+import it.uniupo.simnova.service.storage.InlineImageService;
 import it.uniupo.simnova.utils.DBConnect;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,16 +43,24 @@ public class PatientSimulatedScenarioService {
      */
     private final ScenarioService scenarioService;
 
+    /**
+     * Il servizio che estrae le immagini incollate nella sceneggiatura prima del salvataggio.
+     */
+    private final InlineImageService inlineImageService;
+
     /**
      * Costruisce una nuova istanza di <code>PatientSimulatedScenarioService</code>.
      * Inietta i servizi dipendenti.
      *
      * @param advancedScenarioService Il servizio per la gestione degli scenari avanzati.
      * @param scenarioService         Il servizio per la gestione degli scenari generali.
+     * @param inlineImageService      Il servizio per le immagini incollate nei campi HTML.
      */
-    public PatientSimulatedScenarioService(AdvancedScenarioService advancedScenarioService, ScenarioService scenarioService) {
+    public PatientSimulatedScenarioService(AdvancedScenarioService advancedScenarioService, ScenarioService scenarioService,
+                                           InlineImageService inlineImageService) {
         this.advancedScenarioService = advancedScenarioService;
         this.scenarioService = scenarioService;
+        this.inlineImageService = inlineImageService;
     }
 
     /**
@@ -123,22 +134,22 @@ public class PatientSimulatedScenarioService {
                         rs.getString("titolo"),
                         rs.getString("nome_paziente"),
                         rs.getString("patologia"),
-                        rs.getString("descrizione"),
-                        rs.getString("briefing"),
-                        rs.getString("patto_aula"),
-                        rs.getString("obiettivo"),
-                        rs.getString("moulage"),
-                        rs.getString("liquidi"),
+                        TextCompressionHelper.read(rs, "descrizione"),
+                        TextCompressionHelper.read(rs, "briefing"),
+                        TextCompressionHelper.read(rs, "patto_aula"),
+                        TextCompressionHelper.read(rs, "obiettivo"),
+                        TextCompressionHelper.read(rs, "moulage"),
+                        TextCompressionHelper.read(rs, "liquidi"),
                         rs.getFloat("timer_generale"),
                         rs.getString("autori"),
                         rs.getString("tipologia_paziente"), // Colonna 'tipologia_paziente' nel DB
                         rs.getString("target"),
-                        rs.getString("info_genitore"),
+                        TextCompressionHelper.read(rs, "info_genitore"),
                         rs.getInt("id_advanced_scenario"),
                         new ArrayList<>(), // I tempi non sono recuperati direttamente qui per evitare dipendenze circolari.
                         rs.getInt("id_patient_simulated_scenario"),
                         rs.getInt("id_advanced_scenario"),
-                        rs.getString("sceneggiatura")
+                        TextCompressionHelper.read(rs, "sceneggiatura")
                 );
                 logger.info("Scenario simulato con paziente con ID {} recuperato con successo.", id);
             } else {
@@ -165,7 +176,7 @@ public class PatientSimulatedScenarioService {
             ResultSet rs = stmt.executeQuery();
 
             if (rs.next()) {
-                String sceneggiatura = rs.getString("sceneggiatura");
+                String sceneggiatura = TextCompressionHelper.read(rs, "sceneggiatura");
                 logger.info("Sceneggiatura recuperata per lo scenario con ID {}.", scenarioId);
                 return sceneggiatura != null ? sceneggiatura : ""; // Ritorna stringa vuota se il valore è NULL nel DB.
             } else {
@@ -195,15 +206,18 @@ public class PatientSimulatedScenarioService {
         }
 
         final String sql = "UPDATE PatientSimulatedScenario SET sceneggiatura = ? WHERE id_patient_simulated_scenario = ?";
+        InlineImageService.Content content = inlineImageService.process(sceneggiatura);
 
         try (Connection conn = DBConnect.getInstance().getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
-            stmt.setString(1, sceneggiatura);
+            TextCompressionHelper.bind(stmt, 1, content.html());
             stmt.setInt(2, scenarioId);
 
             int rowsUpdated = stmt.executeUpdate(); // Numero di righe modificate.
             if (rowsUpdated > 0) {
+                inlineImageService.commit(scenarioId, "sceneggiatura", content.images());
+                RichTextHelper.store(scenarioId, "sceneggiatura", content.html());
                 logger.info("Sceneggiatura aggiornata con successo per lo scenario con ID {}.", scenarioId);
                 return true;
             } else {
@@ -2,20 +2,64 @@ package it.uniupo.simnova.service.storage;
 
 import it.uniupo.simnova.service.scenario.helper.MediaHelper;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.util.UriUtils;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
 
 /**
  * Servizio per la gestione della memorizzazione dei file multimediali.
  * Fornisce metodi per salvare, eliminare e leggere file dalla directory di archiviazione.
  * I file vengono sanitizzati per garantire nomi validi e sicuri.
+ * <p>
+ * Con la proprietà <code>storage.content-addressed=true</code> i file caricati vengono archiviati
+ * per contenuto: il nome su disco è l'hash SHA-256 del file (più l'estensione originale),
+ * i contenuti identici vengono salvati una sola volta e l'eliminazione si basa sul conteggio
+ * dei riferimenti mantenuto nella tabella <code>MediaBlob</code>. Un file caricato resta protetto
+ * dall'eliminazione per <code>storage.blob-grace-minutes</code>, il tempo per salvare il riferimento che lo usa;
+ * i file rimasti senza riferimenti oltre questo periodo vengono rimossi periodicamente.
+ * </p>
+ * <p>
+ * Con la proprietà <code>storage.sharded=true</code> i file vengono distribuiti in sottodirectory
+ * di due caratteri esadecimali derivate dall'hash del nome (o dal nome stesso per i file archiviati
+ * per contenuto). I nomi salvati nel database restano invariati: la risoluzione del percorso è
+ * trasparente e continua a trovare anche i file ancora presenti nella directory principale.
+ * L'elenco dei file è mantenuto in un {@link MediaCatalog} in memoria, aggiornato dalle operazioni
+ * di scrittura del servizio e da un {@link WatchService} sulla directory di archiviazione.
+ * </p>
+ * <p>
+ * Per immagini e PDF il servizio fornisce anche anteprime ridotte ({@link PreviewSize}), generate in
+ * background al caricamento e, per i file già presenti, alla prima richiesta. Le anteprime sono
+ * memorizzate su disco in base all'hash del contenuto (vedi {@link MediaDerivatives}).
+ * </p>
+ * <p>
+ * I media vengono serviti al browser tramite l'URL restituito da {@link #getMediaUrl(String)},
+ * che contiene una versione del contenuto e può quindi essere memorizzato in cache come immutabile.
+ * Con <code>storage.precompress=true</code> per i formati comprimibili viene salvata anche una
+ * variante gzip (<code>nome.gz</code>), servita ai client che la accettano.
+ * </p>
  *
  * @author Alessandro Zappatore
  * @version 1.0
@@ -26,22 +70,125 @@ public class FileStorageService {
      * Logger per registrare le operazioni della classe.
      */
     private static final Logger logger = LoggerFactory.getLogger(FileStorageService.class);
+    /**
+     * Nome del file del logo del centro, gestito a parte e mai archiviato per contenuto.
+     */
+    private static final String CENTER_LOGO_FILENAME = "center_logo.png";
+    /**
+     * Pattern dei nomi dei file archiviati per contenuto: hash SHA-256 esadecimale seguito dall'estensione opzionale.
+     */
+    private static final Pattern BLOB_FILENAME_PATTERN = Pattern.compile("^([0-9a-f]{64})(\\.[a-z0-9]+)?$");
+    /**
+     * Pattern dei nomi delle sottodirectory del layout partizionato.
+     */
+    private static final Pattern SHARD_DIR_PATTERN = Pattern.compile("^[0-9a-f]{2}$");
+    /**
+     * Prefisso degli URL con cui vengono serviti i media (vedi {@link #getMediaUrl(String)}).
+     */
+    public static final String MEDIA_URL_PREFIX = "/media-files/";
+    /**
+     * Suffisso delle varianti precompresse con gzip.
+     */
+    public static final String GZIP_SUFFIX = ".gz";
+    /**
+     * Estensioni dei formati non già compressi, per cui ha senso salvare una variante gzip.
+     */
+    private static final Set<String> COMPRESSIBLE_EXTENSIONS = Set.of(".bmp", ".tif", ".tiff", ".wav", ".svg", ".pdf", ".txt");
     /**
      * Percorso della directory di archiviazione dei file multimediali.
      * Viene configurato tramite la proprietà "storage.media-dir" in application.properties.
      */
     private final Path rootLocation;
+    /**
+     * Indica se i nuovi file vengono archiviati per contenuto (hash SHA-256) anziché con il nome originale.
+     * Viene configurato tramite la proprietà "storage.content-addressed" in application.properties.
+     */
+    private final boolean contentAddressed;
+    /**
+     * Indica se i file vengono distribuiti nelle sottodirectory del layout partizionato.
+     * Viene configurato tramite la proprietà "storage.sharded" in application.properties.
+     */
+    private final boolean sharded;
+    /**
+     * Indica se salvare le varianti gzip dei formati comprimibili.
+     * Viene configurato tramite la proprietà "storage.precompress" in application.properties.
+     */
+    private final boolean precompress;
+    /**
+     * Indica se nella directory di archiviazione esistono sottodirectory partizionate. Con il layout piatto e nessuna
+     * sottodirectory la risoluzione dei nomi evita il calcolo dell'hash e la verifica del percorso partizionato.
+     */
+    private volatile boolean shardDirectoriesPresent = true;
+    /**
+     * Catalogo in memoria dei file presenti nella directory di archiviazione.
+     */
+    private final MediaCatalog catalog = new MediaCatalog();
+    /**
+     * Servizio di monitoraggio del filesystem che mantiene aggiornato il catalogo.
+     */
+    private WatchService watchService;
+    /**
+     * Generatore e cache su disco delle anteprime dei media.
+     */
+    private final MediaDerivatives derivatives;
+    /**
+     * Executor usato per generare le anteprime in background.
+     */
+    private final ExecutorService executorService;
+    /**
+     * Hash del contenuto dei file non archiviati per contenuto, validi finché dimensione e data di modifica non cambiano.
+     */
+    private final Map<String, ContentHash> contentHashes = new ConcurrentHashMap<>();
+    /**
+     * Periodo (in millisecondi) durante il quale un file archiviato per contenuto appena caricato non può essere eliminato.
+     */
+    private final long blobGraceMillis;
+    /**
+     * Intervallo (in minuti) tra due rimozioni dei file archiviati per contenuto senza riferimenti.
+     */
+    private final long blobGcIntervalMinutes;
+    /**
+     * Lock per nome di file, che serializzano la scrittura e l'eliminazione dello stesso blob su disco.
+     */
+    private final Object[] blobLocks = new Object[64];
+    /**
+     * Esecutore della rimozione periodica dei blob senza riferimenti.
+     */
+    private ScheduledExecutorService blobCollector;
 
     /**
      * Costruttore che inizializza il servizio con il percorso della directory
      * specificato in application.properties.
      *
-     * @param mediaDir Il percorso della directory di archiviazione, iniettato da Spring.
+     * @param mediaDir         Il percorso della directory di archiviazione, iniettato da Spring.
+     * @param contentAddressed <code>true</code> per attivare l'archiviazione per contenuto.
+     * @param sharded          <code>true</code> per distribuire i file nelle sottodirectory partizionate.
+     * @param precompress      <code>true</code> per salvare le varianti gzip dei formati comprimibili.
+     * @param blobGraceMinutes Minuti durante i quali un file archiviato per contenuto appena caricato non può essere eliminato.
+     * @param blobGcMinutes    Minuti tra due rimozioni dei file archiviati per contenuto senza riferimenti.
+     * @param executorService  Executor per la generazione delle anteprime in background.
      */
-    public FileStorageService(@Value("${storage.media-dir}") String mediaDir) {
+    public FileStorageService(@Value("${storage.media-dir}") String mediaDir,
+                              @Value("${storage.content-addressed:false}") boolean contentAddressed,
+                              @Value("${storage.sharded:false}") boolean sharded,
+                              @Value("${storage.precompress:false}") boolean precompress,
+                              @Value("${storage.blob-grace-minutes:60}") long blobGraceMinutes,
+                              @Value("${storage.blob-gc-interval-minutes:60}") long blobGcMinutes,
+                              ExecutorService executorService) {
 
         this.rootLocation = Paths.get(mediaDir).toAbsolutePath().normalize();
-        logger.info("Percorso di archiviazione configurato: {}", this.rootLocation);
+        this.contentAddressed = contentAddressed;
+        this.sharded = sharded;
+        this.precompress = precompress;
+        this.blobGraceMillis = TimeUnit.MINUTES.toMillis(Math.max(1, blobGraceMinutes));
+        this.blobGcIntervalMinutes = Math.max(1, blobGcMinutes);
+        for (int i = 0; i < blobLocks.length; i++) {
+            blobLocks[i] = new Object();
+        }
+        this.executorService = executorService;
+        this.derivatives = new MediaDerivatives(this.rootLocation);
+        logger.info("Percorso di archiviazione configurato: {} (archiviazione per contenuto: {}, partizionata: {})",
+                this.rootLocation, contentAddressed, sharded);
     }
 
     /**
@@ -82,6 +229,131 @@ public class FileStorageService {
         return sanitizedBaseName + sanitizedExtension;
     }
 
+    /**
+     * Restituisce l'estensione sanitizzata e in minuscolo di un nome di file, punto incluso.
+     *
+     * @param filename Nome originale del file.
+     * @return L'estensione (es. ".png"), o una stringa vuota se il file non ha estensione.
+     */
+    private static String getSanitizedExtension(String filename) {
+        if (filename == null) return "";
+        int lastDotIndex = filename.lastIndexOf('.');
+        if (lastDotIndex < 0) return "";
+        String extension = filename.substring(lastDotIndex + 1).toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", "");
+        return extension.isEmpty() ? "" : "." + extension;
+    }
+
+    /**
+     * Restituisce la sottodirectory del layout partizionato in cui va archiviato un file.
+     * Per i file archiviati per contenuto sono i primi due caratteri dell'hash; per gli altri
+     * i primi due caratteri esadecimali dell'hash SHA-256 del nome, così da distribuire i file
+     * in modo uniforme su 256 sottodirectory.
+     *
+     * @param filename Nome del file archiviato.
+     * @return Il nome della sottodirectory (due caratteri esadecimali).
+     */
+    static String shardOf(String filename) {
+        if (BLOB_FILENAME_PATTERN.matcher(filename).matches()) {
+            return filename.substring(0, 2);
+        }
+        byte[] nameHash = newSha256Digest().digest(filename.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().toHexDigits(nameHash[0]);
+    }
+
+    /**
+     * Verifica che un nome di file sia un nome semplice, senza separatori di percorso.
+     *
+     * @param filename Nome del file da verificare.
+     * @return <code>true</code> se il nome è utilizzabile all'interno della directory di archiviazione.
+     */
+    private static boolean isValidFilename(String filename) {
+        return filename != null && !filename.isBlank()
+                && !filename.equals(".") && !filename.equals("..")
+                && filename.indexOf('/') < 0 && filename.indexOf('\\') < 0 && filename.indexOf('\0') < 0;
+    }
+
+    /**
+     * Indica se un file deve comparire nel catalogo dei media (sono esclusi il logo del centro,
+     * i file nascosti o temporanei e le varianti precompresse).
+     *
+     * @param filename Nome del file.
+     * @return <code>true</code> se il file è un media selezionabile.
+     */
+    private static boolean isCatalogable(String filename) {
+        return !filename.equals(CENTER_LOGO_FILENAME) && !filename.startsWith(".") && !filename.endsWith(GZIP_SUFFIX);
+    }
+
+    /**
+     * Restituisce il percorso in cui scrivere un file secondo il layout configurato.
+     * Il logo del centro resta sempre nella directory principale.
+     *
+     * @param filename Nome del file (già validato).
+     * @return Il percorso di destinazione.
+     */
+    private Path targetPath(String filename) {
+        if (!sharded || filename.equals(CENTER_LOGO_FILENAME)) {
+            return rootLocation.resolve(filename);
+        }
+        return rootLocation.resolve(shardOf(filename)).resolve(filename);
+    }
+
+    /**
+     * Risolve il percorso di un file archiviato, indipendentemente dal layout in cui si trova.
+     * Viene cercato prima nella sottodirectory partizionata e poi nella directory principale;
+     * se non esiste in nessuna delle due viene restituito il percorso in cui verrebbe scritto.
+     * Con il layout piatto e nessuna sottodirectory partizionata viene restituito direttamente il percorso
+     * nella directory principale.
+     *
+     * @param filename Nome del file archiviato.
+     * @return Il percorso del file.
+     * @throws IOException Se il nome non è un nome di file semplice.
+     */
+    public Path resolveFile(String filename) throws IOException {
+        if (!isValidFilename(filename)) {
+            throw new IOException("Nome di file non consentito: " + filename);
+        }
+        if (!sharded && !shardDirectoriesPresent) {
+            return rootLocation.resolve(filename);
+        }
+        if (!filename.equals(CENTER_LOGO_FILENAME)) {
+            Path shardPath = rootLocation.resolve(shardOf(filename)).resolve(filename);
+            if (Files.exists(shardPath)) {
+                return shardPath;
+            }
+        }
+        Path flatPath = rootLocation.resolve(filename);
+        if (Files.exists(flatPath)) {
+            return flatPath;
+        }
+        return targetPath(filename);
+    }
+
+    /**
+     * Elenca tutti i file archiviati, sia nella directory principale sia nelle sottodirectory partizionate.
+     *
+     * @return La lista dei percorsi dei file regolari.
+     * @throws IOException Se si verifica un errore durante la lettura delle directory.
+     */
+    private List<Path> listStoredFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(rootLocation)) {
+            for (Path path : directoryStream) {
+                if (Files.isRegularFile(path)) {
+                    files.add(path);
+                } else if (Files.isDirectory(path) && SHARD_DIR_PATTERN.matcher(path.getFileName().toString()).matches()) {
+                    try (DirectoryStream<Path> shardStream = Files.newDirectoryStream(path)) {
+                        for (Path shardFile : shardStream) {
+                            if (Files.isRegularFile(shardFile)) {
+                                files.add(shardFile);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
     /**
      * Metodo eseguito dopo l'inizializzazione del bean per creare la directory
      * di archiviazione se non esiste.
@@ -95,6 +367,373 @@ public class FileStorageService {
             logger.error("Impossibile creare la directory di archiviazione {}", rootLocation, e);
             throw new RuntimeException("Could not initialize storage location", e);
         }
+
+        try {
+            MediaHelper.ensureInlineImageSchema();
+        } catch (SQLException e) {
+            logger.error("Impossibile inizializzare lo schema InlineImage", e);
+            throw new RuntimeException("Could not initialize inline image references", e);
+        }
+
+        if (contentAddressed) {
+            try {
+                MediaHelper.ensureMediaBlobSchema();
+            } catch (SQLException e) {
+                logger.error("Impossibile inizializzare lo schema MediaBlob", e);
+                throw new RuntimeException("Could not initialize content-addressed storage", e);
+            }
+            migrateToContentAddressed();
+            MediaHelper.recountBlobReferences();
+            startBlobCollector();
+        }
+
+        if (sharded) {
+            migrateToShardedLayout();
+        } else {
+            shardDirectoriesPresent = hasShardDirectories();
+        }
+        rebuildCatalog();
+        startCatalogWatcher();
+    }
+
+    /**
+     * Arresta il monitoraggio del filesystem e la rimozione dei blob alla chiusura dell'applicazione.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (blobCollector != null) {
+            blobCollector.shutdownNow();
+        }
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warn("Errore durante la chiusura del monitoraggio della directory {}", rootLocation, e);
+            }
+        }
+    }
+
+    /**
+     * Sposta i file ancora presenti nella directory principale nelle rispettive sottodirectory partizionate.
+     * L'operazione è idempotente: i file già spostati non vengono toccati, e un file con lo stesso nome
+     * già presente nella sottodirectory viene lasciato dov'è (la risoluzione preferisce comunque quello partizionato).
+     */
+    private void migrateToShardedLayout() {
+        int moved = 0;
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(rootLocation)) {
+            for (Path path : directoryStream) {
+                String filename = path.getFileName().toString();
+                if (!Files.isRegularFile(path) || !isCatalogable(filename)) {
+                    continue;
+                }
+                Path target = targetPath(filename);
+                if (Files.exists(target)) {
+                    logger.warn("File {} presente sia nella directory principale sia in {}: lasciato invariato.", filename, target.getParent());
+                    continue;
+                }
+                try {
+                    Files.createDirectories(target.getParent());
+                    Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+                    moved++;
+                } catch (IOException e) {
+                    logger.error("Errore durante lo spostamento del file {} nel layout partizionato", filename, e);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Errore durante la scansione della directory {} per il layout partizionato", rootLocation, e);
+        }
+        if (moved > 0) {
+            logger.info("Layout partizionato: {} file spostati nelle sottodirectory.", moved);
+        }
+    }
+
+    /**
+     * Verifica se la directory di archiviazione contiene sottodirectory partizionate, ad esempio
+     * lasciate da un'esecuzione precedente con <code>storage.sharded=true</code>.
+     *
+     * @return <code>true</code> se esiste almeno una sottodirectory partizionata (o se la directory non è leggibile).
+     */
+    private boolean hasShardDirectories() {
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(rootLocation, Files::isDirectory)) {
+            for (Path path : directoryStream) {
+                if (SHARD_DIR_PATTERN.matcher(path.getFileName().toString()).matches()) {
+                    logger.info("Trovate sottodirectory partizionate in {}: i file vengono cercati anche al loro interno.", rootLocation);
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            logger.warn("Impossibile verificare le sottodirectory partizionate in {}", rootLocation, e);
+            return true;
+        }
+    }
+
+    /**
+     * Ricostruisce il catalogo in memoria elencando la directory di archiviazione.
+     * Per i file archiviati per contenuto l'etichetta è il nome originale registrato in <code>MediaBlob</code>.
+     */
+    private void rebuildCatalog() {
+        Map<String, String> originalNames = contentAddressed ? MediaHelper.getBlobOriginalNames() : Collections.emptyMap();
+        Map<String, String> entries = new HashMap<>();
+        try {
+            for (Path path : listStoredFiles()) {
+                String filename = path.getFileName().toString();
+                if (isCatalogable(filename)) {
+                    entries.put(filename, originalNames.getOrDefault(filename, filename));
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Errore durante la costruzione del catalogo dei media in {}", rootLocation, e);
+            return;
+        }
+        catalog.replaceAll(entries);
+        logger.info("Catalogo dei media costruito: {} file.", entries.size());
+    }
+
+    /**
+     * Avvia il monitoraggio della directory principale e delle sottodirectory partizionate,
+     * per includere nel catalogo anche i file aggiunti o rimossi dall'esterno del servizio.
+     */
+    private void startCatalogWatcher() {
+        try {
+            watchService = rootLocation.getFileSystem().newWatchService();
+            rootLocation.register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(rootLocation, Files::isDirectory)) {
+                for (Path path : directoryStream) {
+                    if (SHARD_DIR_PATTERN.matcher(path.getFileName().toString()).matches()) {
+                        path.register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+                    }
+                }
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.warn("Monitoraggio della directory {} non disponibile: il catalogo sarà aggiornato solo dalle operazioni del servizio.", rootLocation, e);
+            return;
+        }
+
+        Thread watcher = new Thread(this::watchCatalog, "media-catalog-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Ciclo del thread di monitoraggio: applica al catalogo gli eventi di creazione ed eliminazione dei file.
+     * In caso di eventi persi (overflow) il catalogo viene ricostruito da zero.
+     */
+    private void watchCatalog() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    rebuildCatalog();
+                    continue;
+                }
+                Path child = directory.resolve((Path) event.context());
+                String filename = child.getFileName().toString();
+
+                if (event.kind() == ENTRY_CREATE) {
+                    if (directory.equals(rootLocation) && SHARD_DIR_PATTERN.matcher(filename).matches() && Files.isDirectory(child)) {
+                        watchShardDirectory(child);
+                    } else if (isCatalogable(filename) && Files.isRegularFile(child)) {
+                        catalog.putIfAbsent(filename);
+                    }
+                } else if (event.kind() == ENTRY_DELETE && isCatalogable(filename)) {
+                    // Il file potrebbe essere stato solo spostato nell'altro layout.
+                    try {
+                        if (!Files.exists(resolveFile(filename))) {
+                            catalog.remove(filename);
+                        }
+                    } catch (IOException e) {
+                        catalog.remove(filename);
+                    }
+                }
+            }
+            if (!key.reset() && directory.equals(rootLocation)) {
+                logger.warn("Monitoraggio della directory {} interrotto.", rootLocation);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Registra una nuova sottodirectory partizionata nel monitoraggio e ne aggiunge i file al catalogo
+     * (i file creati prima della registrazione non genererebbero eventi).
+     *
+     * @param shardDirectory La sottodirectory appena creata.
+     */
+    private void watchShardDirectory(Path shardDirectory) {
+        shardDirectoriesPresent = true;
+        try {
+            shardDirectory.register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+            try (DirectoryStream<Path> shardStream = Files.newDirectoryStream(shardDirectory)) {
+                for (Path path : shardStream) {
+                    String filename = path.getFileName().toString();
+                    if (isCatalogable(filename) && Files.isRegularFile(path)) {
+                        catalog.putIfAbsent(filename);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Impossibile monitorare la sottodirectory {}", shardDirectory, e);
+        }
+    }
+
+    /**
+     * Migra i file dell'archiviazione piatta in quella per contenuto.
+     * Ogni file viene rinominato con il proprio hash (i duplicati vengono eliminati) e i riferimenti
+     * in <code>EsameReferto</code> e <code>InlineImage</code>, insieme agli URL nei campi HTML degli scenari,
+     * vengono aggiornati nella stessa transazione che registra il blob.
+     * L'operazione è idempotente: i file già migrati vengono saltati, e un'interruzione a metà
+     * lascia al massimo una copia in più che verrà deduplicata all'avvio successivo.
+     */
+    private void migrateToContentAddressed() {
+        List<Path> legacyFiles = new ArrayList<>();
+        try {
+            for (Path path : listStoredFiles()) {
+                String filename = path.getFileName().toString();
+                if (!isCatalogable(filename)) {
+                    continue;
+                }
+                var matcher = BLOB_FILENAME_PATTERN.matcher(filename);
+                if (matcher.matches()) {
+                    // File già nominato per contenuto: si assicura solo che sia registrato.
+                    if (MediaHelper.findBlobFilename(matcher.group(1)) == null) {
+                        MediaHelper.registerBlob(matcher.group(1), filename, filename, Files.size(path), pendingUntil());
+                    }
+                } else {
+                    legacyFiles.add(path);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Errore durante la scansione della directory {} per la migrazione", rootLocation, e);
+            return;
+        }
+
+        if (legacyFiles.isEmpty()) {
+            return;
+        }
+        logger.info("Migrazione all'archiviazione per contenuto: {} file da elaborare.", legacyFiles.size());
+
+        long reclaimedBytes = 0;
+        for (Path legacyFile : legacyFiles) {
+            String legacyName = legacyFile.getFileName().toString();
+            try {
+                long size = Files.size(legacyFile);
+                String hash;
+                try (InputStream in = Files.newInputStream(legacyFile)) {
+                    hash = sha256(in);
+                }
+
+                String existing = MediaHelper.findBlobFilename(hash);
+                String blobFilename = existing != null ? existing : hash + getSanitizedExtension(legacyName);
+                Path blobPath = resolveFile(blobFilename);
+
+                // 1. Copia il contenuto sotto il nuovo nome (se non è già presente).
+                if (!Files.exists(blobPath)) {
+                    Files.createDirectories(blobPath.getParent());
+                    Files.copy(legacyFile, blobPath);
+                } else {
+                    reclaimedBytes += size;
+                }
+
+                // 2. Registra il blob e sposta i riferimenti nella stessa transazione.
+                if (!MediaHelper.relinkToBlob(legacyName, hash, blobFilename, size, pendingUntil(),
+                        html -> InlineImageService.relink(html, Map.of(legacyName, blobFilename), this::getMediaUrl))) {
+                    continue;
+                }
+
+                // 3. Elimina il vecchio file solo dopo che il DB punta al nuovo nome.
+                Files.deleteIfExists(legacyFile);
+            } catch (IOException e) {
+                logger.error("Errore durante la migrazione del file {}", legacyName, e);
+            }
+        }
+        logger.info("Migrazione completata. Spazio recuperato dai duplicati: {} byte.", reclaimedBytes);
+    }
+
+    /**
+     * Avvia la rimozione periodica dei file archiviati per contenuto rimasti senza riferimenti oltre il periodo di protezione.
+     */
+    private void startBlobCollector() {
+        blobCollector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "media-blob-collector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        blobCollector.scheduleWithFixedDelay(this::collectUnreferencedBlobs, 0, blobGcIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Elimina i file archiviati per contenuto senza riferimenti la cui protezione è scaduta, ad esempio
+     * quelli caricati ma mai collegati a un referto.
+     */
+    void collectUnreferencedBlobs() {
+        int collected = 0;
+        for (String filename : MediaHelper.findStaleBlobs(System.currentTimeMillis())) {
+            if (deleteBlob(filename)) {
+                collected++;
+            }
+        }
+        if (collected > 0) {
+            logger.info("Rimossi {} file archiviati per contenuto senza riferimenti.", collected);
+        }
+    }
+
+    /**
+     * Restituisce l'istante fino al quale è protetto un blob caricato ora.
+     *
+     * @return L'istante (millisecondi dall'epoca) di scadenza della protezione.
+     */
+    private long pendingUntil() {
+        return System.currentTimeMillis() + blobGraceMillis;
+    }
+
+    /**
+     * Restituisce il lock che serializza le operazioni su disco di un blob.
+     *
+     * @param filename Il nome del file archiviato.
+     * @return Il lock del file.
+     */
+    private Object blobLock(String filename) {
+        return blobLocks[Math.floorMod(filename.hashCode(), blobLocks.length)];
+    }
+
+    /**
+     * Calcola l'hash SHA-256 di uno stream, consumandolo interamente.
+     *
+     * @param in Lo stream da leggere.
+     * @return L'hash in formato esadecimale minuscolo.
+     * @throws IOException Se si verifica un errore di lettura.
+     */
+    private static String sha256(InputStream in) throws IOException {
+        MessageDigest digest = newSha256Digest();
+        try (DigestInputStream digestStream = new DigestInputStream(in, digest)) {
+            digestStream.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Crea un nuovo {@link MessageDigest} SHA-256.
+     *
+     * @return Il digest SHA-256.
+     */
+    private static MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 è obbligatorio in ogni implementazione della piattaforma Java.
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
     }
 
     /**
@@ -112,18 +751,24 @@ public class FileStorageService {
                 logger.warn("Input non valido per storeFile: file, nome file o idScenario mancanti.");
                 return null;
             }
+            if (contentAddressed) {
+                return storeContentAddressed(file, filename);
+            }
             String sanitizedFilename = getSanitizedFilename(filename);
 
-            Path destinationFile = this.rootLocation.resolve(sanitizedFilename).normalize();
-
-
-            if (!destinationFile.getParent().equals(this.rootLocation)) {
-                logger.error("Tentativo di memorizzare il file fuori dalla directory consentita: {}", destinationFile);
+            if (!isValidFilename(sanitizedFilename)) {
+                logger.error("Tentativo di memorizzare il file fuori dalla directory consentita: {}", sanitizedFilename);
                 throw new RuntimeException("Cannot store file outside current directory");
             }
-
+            Path destinationFile = targetPath(sanitizedFilename);
+            Files.createDirectories(destinationFile.getParent());
 
             Files.copy(file, destinationFile, StandardCopyOption.REPLACE_EXISTING);
+            // Un'eventuale variante gzip si riferisce al contenuto precedente
+            Files.deleteIfExists(destinationFile.resolveSibling(sanitizedFilename + GZIP_SUFFIX));
+            catalog.put(sanitizedFilename, sanitizedFilename);
+            contentHashes.remove(sanitizedFilename);
+            schedulePreviews(sanitizedFilename);
             logger.info("File memorizzato con successo: {}", sanitizedFilename);
             return sanitizedFilename;
         } catch (IOException e) {
@@ -133,6 +778,53 @@ public class FileStorageService {
         }
     }
 
+    /**
+     * Salva un file in modalità archiviazione per contenuto.
+     * Il file viene scritto in un file temporaneo calcolandone l'hash durante la copia; se un file
+     * con lo stesso contenuto è già presente viene restituito il suo nome e la copia viene scartata.
+     * In entrambi i casi il blob viene protetto dall'eliminazione fino al salvataggio del riferimento
+     * (vedi {@link MediaHelper#claimBlob(String, long)}).
+     *
+     * @param file     InputStream del file da salvare.
+     * @param filename Nome originale del file, usato per l'estensione e come nome visualizzato.
+     * @return Il nome del file archiviato (hash SHA-256 più estensione).
+     * @throws IOException Se si verifica un errore durante la scrittura.
+     */
+    private String storeContentAddressed(InputStream file, String filename) throws IOException {
+        Path tempFile = Files.createTempFile(rootLocation, ".upload-", ".tmp");
+        try {
+            MessageDigest digest = newSha256Digest();
+            long size;
+            try (DigestInputStream digestStream = new DigestInputStream(file, digest)) {
+                size = Files.copy(digestStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+
+            String existing = MediaHelper.findBlobFilename(hash);
+            String blobFilename = existing != null ? existing : hash + getSanitizedExtension(filename);
+            synchronized (blobLock(blobFilename)) {
+                // La protezione va presa prima di verificare il file, così un'eliminazione concorrente non lo rimuove.
+                if (existing != null && MediaHelper.claimBlob(existing, pendingUntil()) && Files.exists(resolveFile(existing))) {
+                    logger.info("File {} già presente come {}: salvataggio deduplicato.", filename, existing);
+                    return existing;
+                }
+
+                Path blobPath = targetPath(blobFilename);
+                Files.createDirectories(blobPath.getParent());
+                Files.move(tempFile, blobPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (!MediaHelper.registerBlob(hash, blobFilename, filename, size, pendingUntil())) {
+                    throw new IOException("Registrazione del blob fallita per " + filename);
+                }
+            }
+            catalog.put(blobFilename, filename);
+            schedulePreviews(blobFilename);
+            logger.info("File {} memorizzato per contenuto come {}", filename, blobFilename);
+            return blobFilename;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
     /**
      * Elimina una lista di file dalla directory di archiviazione.
      *
@@ -161,21 +853,29 @@ public class FileStorageService {
             return;
         }
 
-        if (MediaHelper.isFileInUse(filename)) {
+        if (contentAddressed && MediaHelper.isBlob(filename)) {
+            // Archiviazione per contenuto: la verifica è una singola lettura sul conteggio dei riferimenti.
+            if (!deleteBlob(filename)) {
+                logger.info("File {} non eliminato perché è ancora referenziato o caricato di recente", filename);
+            }
+            return;
+        } else if (MediaHelper.isFileInUse(filename)) {
             logger.info("File {} non eliminato perché è utilizzato in altri scenari", filename);
             return;
         }
 
-        try {
-            Path filePath = this.rootLocation.resolve(filename).normalize();
-
+        if (!isValidFilename(filename)) {
+            logger.error("Tentativo di eliminare il file fuori dalla directory consentita: {}", filename);
+            return;
+        }
 
-            if (!filePath.getParent().equals(this.rootLocation)) {
-                logger.error("Tentativo di eliminare il file fuori dalla directory consentita: {}", filePath);
-                return;
-            }
+        try {
+            Path filePath = resolveFile(filename);
 
             boolean deleted = Files.deleteIfExists(filePath);
+            Files.deleteIfExists(filePath.resolveSibling(filename + GZIP_SUFFIX));
+            catalog.remove(filename);
+            contentHashes.remove(filename);
             if (deleted) {
                 logger.info("File eliminato con successo: {}", filename);
             } else {
@@ -187,6 +887,37 @@ public class FileStorageService {
         }
     }
 
+    /**
+     * Elimina un file archiviato per contenuto se non è referenziato né protetto da un caricamento recente.
+     * La rimozione della registrazione e quella del file avvengono sotto il lock del blob, per cui un
+     * caricamento concorrente dello stesso contenuto lo riscrive solo dopo l'eliminazione.
+     *
+     * @param filename Il nome del file archiviato.
+     * @return <code>true</code> se il blob è stato eliminato; <code>false</code> se è ancora in uso o protetto.
+     */
+    private boolean deleteBlob(String filename) {
+        if (!isValidFilename(filename)) {
+            logger.error("Tentativo di eliminare il file fuori dalla directory consentita: {}", filename);
+            return false;
+        }
+        synchronized (blobLock(filename)) {
+            if (!MediaHelper.deleteUnreferencedBlob(filename, System.currentTimeMillis())) {
+                return false;
+            }
+            try {
+                Path filePath = resolveFile(filename);
+                Files.deleteIfExists(filePath);
+                Files.deleteIfExists(filePath.resolveSibling(filename + GZIP_SUFFIX));
+            } catch (IOException e) {
+                logger.error("Errore durante l'eliminazione del file {}", filename, e);
+            }
+        }
+        catalog.remove(filename);
+        derivatives.delete(filename.substring(0, 64));
+        logger.info("File eliminato con successo: {}", filename);
+        return true;
+    }
+
     /**
      * Restituisce il percorso assoluto e normalizzato della directory di archiviazione.
      *
@@ -203,8 +934,11 @@ public class FileStorageService {
      * @return true se il file esiste, false altrimenti.
      */
     public boolean fileExists(String centerLogoFilename) {
-        Path filePath = rootLocation.resolve(centerLogoFilename);
-        return Files.exists(filePath);
+        try {
+            return Files.exists(resolveFile(centerLogoFilename));
+        } catch (IOException e) {
+            return false;
+        }
     }
 
     /**
@@ -216,13 +950,16 @@ public class FileStorageService {
      */
     public void store(InputStream inputStream, String centerLogoFilename) {
         try {
-            Path destinationFile = rootLocation.resolve(centerLogoFilename).normalize();
-
-            if (!destinationFile.getParent().equals(rootLocation)) {
-                logger.error("Tentativo di memorizzare il file fuori dalla directory consentita: {}", destinationFile);
+            if (!isValidFilename(centerLogoFilename)) {
+                logger.error("Tentativo di memorizzare il file fuori dalla directory consentita: {}", centerLogoFilename);
                 throw new RuntimeException("Cannot store file outside current directory");
             }
+            Path destinationFile = targetPath(centerLogoFilename);
+            Files.createDirectories(destinationFile.getParent());
             Files.copy(inputStream, destinationFile, StandardCopyOption.REPLACE_EXISTING);
+            if (isCatalogable(centerLogoFilename)) {
+                catalog.put(centerLogoFilename, centerLogoFilename);
+            }
             logger.info("File memorizzato con successo: {}", centerLogoFilename);
         } catch (IOException e) {
             logger.error("Errore durante la memorizzazione del file {}", centerLogoFilename, e);
@@ -239,15 +976,14 @@ public class FileStorageService {
      * @throws IOException Se si verifica un errore durante la lettura del file, inclusa la non esistenza del file.
      */
     public InputStream readFile(String centerLogoFilename) throws IOException {
-        Path filePath = this.rootLocation.resolve(centerLogoFilename).normalize();
-
-        // Controllo di sicurezza per assicurarsi che il file sia direttamente nella directory root
-        // Mantenendo la logica di controllo del percorso originale
-        if (!filePath.getParent().equals(this.rootLocation)) {
-            logger.error("Tentativo di leggere il file '{}' fuori dalla directory consentita. Percorso risolto: {}", centerLogoFilename, filePath);
-            // Modificato da RuntimeException a IOException per essere gestito correttamente da LogoLoader
+        // Controllo di sicurezza per assicurarsi che il nome non contenga separatori di percorso
+        if (!isValidFilename(centerLogoFilename)) {
+            logger.error("Tentativo di leggere il file '{}' fuori dalla directory consentita.", centerLogoFilename);
+            // IOException per essere gestito correttamente da LogoLoader
             throw new IOException("Accesso al file non consentito (file non direttamente nella directory root): " + centerLogoFilename);
         }
+        // Risolve il file nella sottodirectory partizionata o nella directory principale
+        Path filePath = resolveFile(centerLogoFilename);
 
         try {
             return Files.newInputStream(filePath);
@@ -265,25 +1001,293 @@ public class FileStorageService {
 
     /**
      * Recupera tutti i file presenti nella directory di archiviazione, escludendo il file "center_logo.png".
+     * L'elenco proviene dal catalogo in memoria ed è ordinato per nome visualizzato.
      *
      * @return Una lista di nomi di file presenti nella directory di archiviazione.
      */
     public ArrayList<String> getAllFiles() {
-        ArrayList<String> files = new ArrayList<>();
-        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(rootLocation)) {
-            for (Path path : directoryStream) {
-                if (Files.isRegularFile(path)) {
-                    String filename = path.getFileName().toString();
+        return new ArrayList<>(catalog.filenames());
+    }
 
-                    if (!filename.equals("center_logo.png")) {
-                        files.add(filename);
+    /**
+     * Cerca nel catalogo i file il cui nome visualizzato inizia con il prefisso indicato.
+     *
+     * @param prefix Prefisso da cercare, senza distinzione tra maiuscole e minuscole (vuoto o null per tutti i file).
+     * @param offset Numero di risultati da saltare.
+     * @param limit  Numero massimo di risultati.
+     * @return Una pagina di nomi di file archiviati, ordinati per nome visualizzato.
+     */
+    public List<String> searchFiles(String prefix, int offset, int limit) {
+        return catalog.search(prefix, offset, limit);
+    }
+
+    /**
+     * Conta i file del catalogo il cui nome visualizzato inizia con il prefisso indicato.
+     *
+     * @param prefix Prefisso da cercare (vuoto o null per tutti i file).
+     * @return Il numero di file corrispondenti.
+     */
+    public int countFiles(String prefix) {
+        return catalog.count(prefix);
+    }
+
+    /**
+     * Restituisce il nome da mostrare all'utente per un file archiviato.
+     * Per i file archiviati per contenuto è il nome originale; per gli altri è il nome del file stesso.
+     *
+     * @param filename Nome del file archiviato.
+     * @return Il nome da mostrare.
+     */
+    public String getDisplayName(String filename) {
+        return filename == null ? null : catalog.label(filename);
+    }
+
+    /**
+     * Legge l'anteprima ridotta di un file multimediale, generandola se non è ancora disponibile.
+     * Per i formati senza anteprima (audio, video, immagini non decodificabili) o in caso di errore
+     * nella generazione viene restituito il file originale.
+     *
+     * @param filename Nome del file archiviato.
+     * @param size     Dimensione dell'anteprima richiesta.
+     * @return InputStream dell'anteprima JPEG o del file originale.
+     * @throws IOException Se il file non esiste o non è leggibile.
+     */
+    public InputStream readPreview(String filename, PreviewSize size) throws IOException {
+        if (!isValidFilename(filename) || !MediaDerivatives.supports(filename)) {
+            return readFile(filename);
+        }
+        Path source = resolveFile(filename);
+        if (!Files.isRegularFile(source)) {
+            return readFile(filename);
+        }
+        try {
+            Path preview = derivatives.get(source, contentHashOf(filename, source), size);
+            if (preview != null) {
+                return Files.newInputStream(preview);
+            }
+        } catch (IOException e) {
+            logger.warn("Anteprima {} non disponibile per '{}', uso il file originale: {}", size, filename, e.getMessage());
+        }
+        return readFile(filename);
+    }
+
+    /**
+     * Recupera in background il file JPEG dell'anteprima ridotta di un media, generandola se necessario.
+     * A differenza di {@link #readPreview(String, PreviewSize)} non ricade sul file originale:
+     * per i formati senza anteprima, i file mancanti o in caso di errore il risultato è <code>null</code>.
+     * Più richieste avviate insieme vengono elaborate in parallelo.
+     *
+     * @param filename Nome del file archiviato.
+     * @param size     Dimensione dell'anteprima richiesta.
+     * @return Il percorso dell'anteprima JPEG, o <code>null</code> se non disponibile.
+     */
+    public CompletableFuture<Path> getPreviewFileAsync(String filename, PreviewSize size) {
+        if (filename == null || !isValidFilename(filename) || !MediaDerivatives.supports(filename)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Path source = resolveFile(filename);
+                if (!Files.isRegularFile(source)) {
+                    return null;
+                }
+                return derivatives.get(source, contentHashOf(filename, source), size);
+            } catch (IOException e) {
+                logger.warn("Anteprima {} non disponibile per '{}': {}", size, filename, e.getMessage());
+                return null;
+            }
+        }, executorService);
+    }
+
+    /**
+     * Avvia in background la generazione delle anteprime di un file appena memorizzato.
+     *
+     * @param filename Nome del file archiviato.
+     */
+    private void schedulePreviews(String filename) {
+        if (precompress && COMPRESSIBLE_EXTENSIONS.contains(getSanitizedExtension(filename))) {
+            executorService.execute(() -> writeGzipVariant(filename));
+        }
+        if (!MediaDerivatives.supports(filename)) {
+            return;
+        }
+        executorService.execute(() -> {
+            try {
+                Path source = resolveFile(filename);
+                String hash = contentHashOf(filename, source);
+                for (PreviewSize size : PreviewSize.values()) {
+                    if (size.eager) {
+                        derivatives.get(source, hash, size);
                     }
                 }
+            } catch (IOException e) {
+                logger.warn("Impossibile generare le anteprime per {}: {}", filename, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Salva accanto al file la sua variante compressa con gzip, solo se riduce la dimensione di almeno il 10%.
+     *
+     * @param filename Nome del file archiviato.
+     */
+    private void writeGzipVariant(String filename) {
+        try {
+            Path source = resolveFile(filename);
+            Path tempFile = Files.createTempFile(source.getParent(), ".gzip-", ".tmp");
+            try {
+                try (InputStream in = Files.newInputStream(source);
+                     OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempFile))) {
+                    in.transferTo(out);
+                }
+                if (Files.size(tempFile) <= Files.size(source) * 0.9) {
+                    Files.move(tempFile, source.resolveSibling(filename + GZIP_SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    logger.debug("Variante gzip salvata per {}", filename);
+                }
+            } finally {
+                Files.deleteIfExists(tempFile);
             }
         } catch (IOException e) {
-            logger.error("Errore durante la lettura dei file nella directory {}", rootLocation, e);
+            logger.warn("Impossibile salvare la variante gzip per {}: {}", filename, e.getMessage());
+        }
+    }
+
+    /**
+     * Restituisce l'URL con cui il browser può scaricare un media.
+     * L'URL contiene una versione del contenuto (l'hash per i file archiviati per contenuto,
+     * altrimenti dimensione e data di modifica), per cui cambia quando il file viene sovrascritto
+     * e può essere memorizzato in cache senza scadenza.
+     *
+     * @param filename Nome del file archiviato.
+     * @return L'URL relativo del media.
+     */
+    public String getMediaUrl(String filename) {
+        String version = "0";
+        var matcher = BLOB_FILENAME_PATTERN.matcher(filename);
+        if (matcher.matches()) {
+            version = matcher.group(1).substring(0, 16);
+        } else {
+            try {
+                Path path = resolveFile(filename);
+                if (Files.isRegularFile(path)) {
+                    version = Long.toHexString(Files.getLastModifiedTime(path).toMillis()) + Long.toHexString(Files.size(path));
+                }
+            } catch (IOException e) {
+                logger.warn("Impossibile determinare la versione del file {}: {}", filename, e.getMessage());
+            }
+        }
+        return MEDIA_URL_PREFIX + version + "/" + UriUtils.encodePathSegment(filename, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Restituisce l'hash SHA-256 del contenuto di un file archiviato, usato come ETag forte.
+     *
+     * @param filename Nome del file archiviato.
+     * @return L'hash in formato esadecimale, o <code>null</code> se il file non esiste o non è leggibile.
+     */
+    public String getContentHash(String filename) {
+        try {
+            Path path = resolveFile(filename);
+            return Files.isRegularFile(path) ? contentHashOf(filename, path) : null;
+        } catch (IOException e) {
+            return null;
         }
-        return files;
     }
-}
 
+    /**
+     * Restituisce l'hash SHA-256 del contenuto di un file archiviato.
+     * Per i file archiviati per contenuto è ricavato dal nome; per gli altri viene calcolato
+     * e memorizzato finché dimensione e data di modifica del file non cambiano.
+     *
+     * @param filename Nome del file archiviato.
+     * @param path     Percorso risolto del file.
+     * @return L'hash in formato esadecimale minuscolo.
+     * @throws IOException Se si verifica un errore di lettura.
+     */
+    private String contentHashOf(String filename, Path path) throws IOException {
+        var matcher = BLOB_FILENAME_PATTERN.matcher(filename);
+        if (matcher.matches()) {
+            return matcher.group(1);
+        }
+        long size = Files.size(path);
+        FileTime modified = Files.getLastModifiedTime(path);
+        ContentHash cached = contentHashes.get(filename);
+        if (cached != null && cached.size() == size && cached.modified().equals(modified)) {
+            return cached.hash();
+        }
+        String hash;
+        try (InputStream in = Files.newInputStream(path)) {
+            hash = sha256(in);
+        }
+        contentHashes.put(filename, new ContentHash(size, modified, hash));
+        return hash;
+    }
+
+    /**
+     * Hash del contenuto di un file, associato alla dimensione e alla data di modifica con cui è stato calcolato.
+     *
+     * @param size     Dimensione del file in byte.
+     * @param modified Data di ultima modifica del file.
+     * @param hash     Hash SHA-256 del contenuto.
+     */
+    private record ContentHash(long size, FileTime modified, String hash) {
+    }
+
+    /**
+     * Dimensioni delle anteprime generate per i media.
+     */
+    public enum PreviewSize {
+        /**
+         * Miniatura per le griglie di selezione dei media.
+         */
+        THUMBNAIL(240, true),
+        /**
+         * Anteprima per la visualizzazione degli esami.
+         */
+        PREVIEW(960, true),
+        /**
+         * Versione per la stampa, usata quando le immagini degli esami vengono incorporate nei PDF
+         * a una risoluzione superiore a quella dell'anteprima. Viene generata solo alla prima richiesta.
+         */
+        PRINT(2000, false);
+
+        /**
+         * Lato massimo dell'anteprima in pixel.
+         */
+        private final int maxDimension;
+        /**
+         * Indica se l'anteprima viene generata subito dopo il caricamento del file.
+         */
+        private final boolean eager;
+
+        PreviewSize(int maxDimension, boolean eager) {
+            this.maxDimension = maxDimension;
+            this.eager = eager;
+        }
+
+        /**
+         * Restituisce la dimensione più piccola con un lato massimo di almeno i pixel indicati,
+         * o la più grande disponibile.
+         *
+         * @param pixels Il lato massimo richiesto, in pixel.
+         * @return La dimensione dell'anteprima.
+         */
+        public static PreviewSize atLeast(int pixels) {
+            for (PreviewSize size : values()) {
+                if (size.maxDimension >= pixels) {
+                    return size;
+                }
+            }
+            return PRINT;
+        }
+
+        /**
+         * Restituisce il lato massimo dell'anteprima in pixel.
+         *
+         * @return Il lato massimo in pixel.
+         */
+        public int getMaxDimension() {
+            return maxDimension;
+        }
+    }
+}
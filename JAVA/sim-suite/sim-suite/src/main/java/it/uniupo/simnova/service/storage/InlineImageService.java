@@ -0,0 +1,416 @@
+package it.uniupo.simnova.service.storage;
+
+import it.uniupo.simnova.service.scenario.helper.MediaHelper;
+import it.uniupo.simnova.service.scenario.helper.RichTextHelper;
+import it.uniupo.simnova.service.scenario.helper.TextCompressionHelper;
+import it.uniupo.simnova.utils.DBConnect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.UriUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Servizio che estrae le immagini incollate nei campi HTML degli scenari e le archivia come media.
+ * <p>
+ * L'editor TinyMCE salva le immagini incollate come URI <code>data:</code> in base64 all'interno dell'HTML,
+ * per cui un'unica schermata può far crescere una riga della tabella <code>Scenario</code> di diversi megabyte.
+ * Al salvataggio di un campo ({@link #process(String)}) ogni immagine viene salvata tramite
+ * {@link FileStorageService} e il suo attributo <code>src</code> viene sostituito con l'URL del media;
+ * dopo il salvataggio ({@link #commit(int, String, Set)}) le immagini referenziate dal campo vengono registrate
+ * in <code>InlineImage</code>, così che non vengano eliminate finché sono in uso e vengano incluse
+ * nell'esportazione ZIP dello scenario. All'avvio {@link #migrateExistingContent()} applica la stessa
+ * trasformazione ai contenuti già presenti nel database.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+@Service
+public class InlineImageService {
+
+    /**
+     * Il logger per questa classe.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(InlineImageService.class);
+    /**
+     * Attributo <code>src</code> di un'immagine con un URI <code>data:</code> in base64.
+     * Gruppi: 1 prefisso fino all'apice, 2 apice, 3 tipo MIME, 4 dati in base64.
+     */
+    private static final Pattern DATA_URI_IMAGE = Pattern.compile(
+            "(<img\\b[^>]*?\\bsrc\\s*=\\s*)([\"'])data:(image/[a-zA-Z0-9.+-]+);base64,([^\"']*)\\2",
+            Pattern.CASE_INSENSITIVE);
+    /**
+     * Attributo <code>src</code> che punta a un media servito da {@link FileStorageService#MEDIA_URL_PREFIX},
+     * anche se l'editor lo ha reso assoluto o relativo. Gruppi: 1 prefisso fino all'apice, 2 URL fino alla
+     * versione inclusa, 3 nome del file (codificato come segmento di percorso).
+     */
+    private static final Pattern MEDIA_IMAGE = Pattern.compile(
+            "(\\bsrc\\s*=\\s*[\"'])([^\"']*?" + Pattern.quote(FileStorageService.MEDIA_URL_PREFIX) + "[^/\"']+/)([^\"'?#]+)",
+            Pattern.CASE_INSENSITIVE);
+    /**
+     * Estensioni dei formati di immagine estratti. Gli SVG restano incorporati: serviti come file
+     * potrebbero eseguire script nel contesto dell'applicazione.
+     */
+    private static final Map<String, String> EXTENSIONS = Map.of(
+            "image/png", ".png",
+            "image/jpeg", ".jpg",
+            "image/jpg", ".jpg",
+            "image/gif", ".gif",
+            "image/webp", ".webp",
+            "image/bmp", ".bmp");
+
+    /**
+     * Servizio di archiviazione in cui vengono salvate le immagini.
+     */
+    private final FileStorageService fileStorageService;
+    /**
+     * Dimensione minima (in byte) di un'immagine da estrarre; le immagini più piccole restano incorporate.
+     */
+    private final int minBytes;
+    /**
+     * Indica se convertire all'avvio i contenuti già presenti nel database.
+     */
+    private final boolean migrate;
+    /**
+     * Durata (in millisecondi) della protezione di un'immagine appena estratta.
+     */
+    private final long graceMillis;
+    /**
+     * Immagini appena estratte, con l'istante (millisecondi dall'epoca) fino al quale non vanno eliminate:
+     * un salvataggio concorrente può averle estratte senza averle ancora registrate in <code>InlineImage</code>.
+     * Fa anche da lock tra l'estrazione e l'eliminazione delle immagini non più referenziate.
+     */
+    private final Map<String, Long> pending = new ConcurrentHashMap<>();
+    /**
+     * Immagini non più referenziate la cui eliminazione è stata rinviata perché erano protette.
+     */
+    private final Set<String> deferred = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Costruttore per l'iniezione delle dipendenze.
+     *
+     * @param fileStorageService Il servizio di archiviazione dei file.
+     * @param minBytes           La dimensione minima (in byte) delle immagini da estrarre.
+     * @param migrate            <code>true</code> per convertire all'avvio i contenuti esistenti.
+     * @param graceMinutes       I minuti durante i quali un'immagine appena estratta non può essere eliminata.
+     */
+    public InlineImageService(FileStorageService fileStorageService,
+                              @Value("${storage.inline-images.min-bytes:2048}") int minBytes,
+                              @Value("${storage.inline-images.migrate:true}") boolean migrate,
+                              @Value("${storage.blob-grace-minutes:60}") long graceMinutes) {
+        this.fileStorageService = fileStorageService;
+        this.minBytes = Math.max(0, minBytes);
+        this.migrate = migrate;
+        this.graceMillis = TimeUnit.MINUTES.toMillis(Math.max(1, graceMinutes));
+    }
+
+    /**
+     * Estrae le immagini incorporate di un contenuto HTML e raccoglie i media a cui fa riferimento.
+     * Il resto dell'HTML resta invariato. Un'immagine che non può essere salvata resta incorporata.
+     *
+     * @param html Il contenuto HTML da salvare (può essere <code>null</code>).
+     * @return Il contenuto riscritto, con i media referenziati e le dimensioni recuperate.
+     */
+    public Content process(String html) {
+        if (html == null || html.isEmpty()) {
+            return new Content(html, Set.of(), 0, 0);
+        }
+
+        int extracted = 0;
+        String result = html;
+        if (containsIgnoreCase(html, "data:image/")) {
+            Matcher matcher = DATA_URI_IMAGE.matcher(html);
+            StringBuilder rewritten = new StringBuilder(html.length());
+            while (matcher.find()) {
+                String filename = storeImage(matcher.group(3), matcher.group(4));
+                if (filename == null) {
+                    matcher.appendReplacement(rewritten, Matcher.quoteReplacement(matcher.group()));
+                    continue;
+                }
+                String quote = matcher.group(2);
+                matcher.appendReplacement(rewritten, Matcher.quoteReplacement(
+                        matcher.group(1) + quote + fileStorageService.getMediaUrl(filename) + quote));
+                extracted++;
+            }
+            matcher.appendTail(rewritten);
+            result = rewritten.toString();
+        }
+
+        long bytesRemoved = extracted == 0 ? 0
+                : html.getBytes(StandardCharsets.UTF_8).length - (long) result.getBytes(StandardCharsets.UTF_8).length;
+        return new Content(result, referencedImages(result), extracted, bytesRemoved);
+    }
+
+    /**
+     * Registra le immagini referenziate da un campo dopo che il suo nuovo contenuto è stato salvato,
+     * ed elimina dallo storage quelle che il campo non usa più (se non sono usate altrove). Le immagini
+     * estratte di recente da un altro salvataggio non ancora registrato vengono eliminate in un commit
+     * successivo, scaduta la protezione, se nel frattempo non sono state referenziate.
+     *
+     * @param scenarioId L'ID dello scenario.
+     * @param campo      Il nome della colonna HTML.
+     * @param images     I media referenziati dal nuovo contenuto ({@link Content#images()}).
+     */
+    public void commit(int scenarioId, String campo, Set<String> images) {
+        List<String> removed = new ArrayList<>(MediaHelper.replaceInlineImages(scenarioId, campo, images));
+        synchronized (pending) {
+            long now = System.currentTimeMillis();
+            pending.values().removeIf(until -> until <= now);
+            for (Iterator<String> iterator = deferred.iterator(); iterator.hasNext(); ) {
+                String filename = iterator.next();
+                if (!pending.containsKey(filename)) {
+                    iterator.remove();
+                    removed.add(filename);
+                }
+            }
+            removed.removeIf(filename -> {
+                if (pending.containsKey(filename)) {
+                    deferred.add(filename);
+                    return true;
+                }
+                return false;
+            });
+            if (!removed.isEmpty()) {
+                fileStorageService.deleteFiles(removed);
+            }
+        }
+    }
+
+    /**
+     * Aggiorna gli URL dei media in un contenuto HTML importato, quando lo storage ha salvato i file
+     * con un nome diverso da quello presente nell'archivio (nomi sanitizzati o hash del contenuto).
+     *
+     * @param html    Il contenuto HTML importato.
+     * @param renames Mappa dal nome del file nell'archivio al nome effettivo nello storage.
+     * @return Il contenuto con gli URL aggiornati.
+     */
+    public String relink(String html, Map<String, String> renames) {
+        return relink(html, renames, fileStorageService::getMediaUrl);
+    }
+
+    /**
+     * Aggiorna gli URL dei media rinominati in un contenuto HTML.
+     *
+     * @param html     Il contenuto HTML.
+     * @param renames  Mappa dal vecchio nome del file al nuovo.
+     * @param mediaUrl La funzione che restituisce l'URL di un media dato il suo nome.
+     * @return Il contenuto con gli URL aggiornati.
+     */
+    static String relink(String html, Map<String, String> renames, UnaryOperator<String> mediaUrl) {
+        if (html == null || renames.isEmpty() || !containsIgnoreCase(html, FileStorageService.MEDIA_URL_PREFIX)) {
+            return html;
+        }
+        Matcher matcher = MEDIA_IMAGE.matcher(html);
+        StringBuilder rewritten = new StringBuilder(html.length());
+        while (matcher.find()) {
+            String stored = renames.get(UriUtils.decode(matcher.group(3), StandardCharsets.UTF_8));
+            String replacement = stored == null ? matcher.group() : matcher.group(1) + mediaUrl.apply(stored);
+            matcher.appendReplacement(rewritten, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(rewritten);
+        return rewritten.toString();
+    }
+
+    /**
+     * Estrae le immagini incorporate dai campi HTML già presenti nel database, registra i riferimenti e,
+     * se è stato recuperato dello spazio, compatta il database con <code>VACUUM</code>, riportando lo spazio
+     * liberato. Le righe senza immagini incorporate non vengono modificate, per cui dopo la prima esecuzione
+     * la migrazione si riduce a una ricerca per campo e alla decompressione delle righe compresse
+     * (vedi {@link TextCompressionHelper}).
+     */
+    public void migrateExistingContent() {
+        if (!migrate) {
+            return;
+        }
+        int images = 0;
+        int rows = 0;
+        long htmlBytes = 0;
+        try (Connection conn = DBConnect.getInstance().getConnection()) {
+            for (RichTextHelper.HtmlField field : RichTextHelper.HTML_FIELDS) {
+                // I nomi di tabella e colonna provengono dalla lista costante HTML_FIELDS.
+                final String selectSql = "SELECT " + field.idColumn() + " AS id, " + field.column() + " AS html FROM " + field.table() +
+                        " WHERE " + field.column() + " LIKE '%data:image/%' OR typeof(" + field.column() + ") = 'blob'";
+                final String updateSql = "UPDATE " + field.table() + " SET " + field.column() + " = ? WHERE " + field.idColumn() + " = ?";
+
+                List<Integer> ids = new ArrayList<>();
+                try (PreparedStatement stmt = conn.prepareStatement(selectSql)) {
+                    ResultSet rs = stmt.executeQuery();
+                    while (rs.next()) {
+                        ids.add(rs.getInt("id"));
+                    }
+                }
+                // Le righe vengono rilette una alla volta, per non tenere in memoria più contenuti voluminosi.
+                // Quelle compresse non possono essere filtrate con LIKE e vengono decompresse per verificarle.
+                for (int id : ids) {
+                    String html;
+                    try (PreparedStatement stmt = conn.prepareStatement(
+                            "SELECT " + field.column() + " AS html FROM " + field.table() + " WHERE " + field.idColumn() + " = ?")) {
+                        stmt.setInt(1, id);
+                        ResultSet rs = stmt.executeQuery();
+                        html = rs.next() ? TextCompressionHelper.read(rs, "html") : null;
+                    }
+                    Content content = process(html);
+                    if (content.extracted() == 0) {
+                        continue;
+                    }
+                    try (PreparedStatement stmt = conn.prepareStatement(updateSql)) {
+                        TextCompressionHelper.bind(stmt, 1, content.html());
+                        stmt.setInt(2, id);
+                        stmt.executeUpdate();
+                    }
+                    commit(id, field.column(), content.images());
+                    images += content.extracted();
+                    htmlBytes += content.bytesRemoved();
+                    rows++;
+                }
+            }
+
+            if (rows == 0) {
+                logger.info("Nessuna immagine incorporata da estrarre dai campi HTML degli scenari.");
+                return;
+            }
+            long before = databaseSize(conn);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("VACUUM");
+            }
+            long after = databaseSize(conn);
+            logger.info("Estratte {} immagini incorporate da {} campi HTML: {} KB rimossi dal contenuto, database ridotto da {} KB a {} KB ({} KB recuperati).",
+                    images, rows, htmlBytes / 1024, before / 1024, after / 1024, (before - after) / 1024);
+        } catch (SQLException e) {
+            logger.error("Errore durante l'estrazione delle immagini incorporate ({} già estratte da {} campi): {}", images, rows, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decodifica e salva un'immagine incorporata.
+     *
+     * @param mimeType Il tipo MIME dichiarato nell'URI.
+     * @param base64   I dati dell'immagine in base64.
+     * @return Il nome del file archiviato, oppure <code>null</code> se l'immagine resta incorporata.
+     */
+    private String storeImage(String mimeType, String base64) {
+        String extension = EXTENSIONS.get(mimeType.toLowerCase());
+        if (extension == null) {
+            return null;
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getMimeDecoder().decode(base64);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Immagine incorporata non valida ({}): resta nel contenuto HTML.", mimeType);
+            return null;
+        }
+        if (bytes.length == 0 || bytes.length < minBytes) {
+            return null;
+        }
+        // Il nome deriva dal contenuto: la stessa immagine incollata più volte viene salvata una volta sola.
+        String filename = "immagine-" + sha256(bytes).substring(0, 16) + extension;
+        // La protezione precede la scrittura: un commit concorrente non elimina il file appena salvato.
+        synchronized (pending) {
+            pending.merge(filename, System.currentTimeMillis() + graceMillis, Math::max);
+        }
+        try {
+            return fileStorageService.storeFile(new ByteArrayInputStream(bytes), filename);
+        } catch (RuntimeException e) {
+            logger.warn("Impossibile salvare l'immagine incorporata {}: resta nel contenuto HTML. {}", filename, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Raccoglie i nomi dei media referenziati dalle immagini di un contenuto HTML.
+     *
+     * @param html Il contenuto HTML.
+     * @return I nomi dei file archiviati, nell'ordine in cui compaiono.
+     */
+    private static Set<String> referencedImages(String html) {
+        if (!containsIgnoreCase(html, FileStorageService.MEDIA_URL_PREFIX)) {
+            return Set.of();
+        }
+        Set<String> images = new LinkedHashSet<>();
+        Matcher matcher = MEDIA_IMAGE.matcher(html);
+        while (matcher.find()) {
+            images.add(UriUtils.decode(matcher.group(3), StandardCharsets.UTF_8));
+        }
+        return images;
+    }
+
+    /**
+     * Restituisce la dimensione del database in byte.
+     *
+     * @param conn La connessione al database.
+     * @return Il numero di pagine moltiplicato per la loro dimensione.
+     * @throws SQLException se si verifica un errore di accesso al database.
+     */
+    private static long databaseSize(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT page_count * page_size FROM pragma_page_count(), pragma_page_size()")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Verifica se un testo contiene una sottostringa, senza distinguere maiuscole e minuscole.
+     *
+     * @param text   Il testo.
+     * @param needle La sottostringa cercata.
+     * @return <code>true</code> se la sottostringa è presente.
+     */
+    private static boolean containsIgnoreCase(String text, String needle) {
+        for (int i = 0; i <= text.length() - needle.length(); i++) {
+            if (text.regionMatches(true, i, needle, 0, needle.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Calcola l'hash SHA-256 (esadecimale) di un contenuto.
+     *
+     * @param bytes Il contenuto.
+     * @return L'hash del contenuto.
+     */
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+
+    /**
+     * Contenuto HTML pronto per il salvataggio.
+     *
+     * @param html         L'HTML con le immagini estratte sostituite dai loro URL.
+     * @param images       I nomi dei media referenziati dalle immagini del contenuto.
+     * @param extracted    Il numero di immagini estratte.
+     * @param bytesRemoved I byte (UTF-8) rimossi dal contenuto.
+     */
+    public record Content(String html, Set<String> images, int extracted, long bytesRemoved) {
+    }
+}
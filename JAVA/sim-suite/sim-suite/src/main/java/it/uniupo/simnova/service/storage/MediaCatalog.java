@@ -0,0 +1,219 @@
+package it.uniupo.simnova.service.storage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Catalogo in memoria dei file multimediali presenti nella directory di archiviazione.
+ * Viene costruito una sola volta all'avvio e aggiornato da {@link FileStorageService} (sia dalle
+ * proprie operazioni di scrittura sia dal monitoraggio del filesystem), in modo che i selettori
+ * dei media non debbano più elencare la directory a ogni apertura.
+ * <p>
+ * Ogni file è indicizzato per etichetta (il nome mostrato all'utente, in minuscolo) in una mappa
+ * ordinata: la ricerca per prefisso e la paginazione diventano una semplice visita di un intervallo.
+ * Per il conteggio e per saltare le pagine precedenti si usa una copia ordinata dell'indice in un array,
+ * ricostruita solo dopo una modifica: gli estremi dell'intervallo si trovano con una ricerca binaria.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+final class MediaCatalog {
+
+    /**
+     * Separatore tra etichetta e nome del file nella chiave dell'indice; precede ogni carattere stampabile,
+     * per cui le chiavi con la stessa etichetta restano adiacenti e ordinate per nome del file.
+     */
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    /**
+     * Etichetta associata a ogni file (nome del file archiviato → nome da mostrare).
+     */
+    private final Map<String, String> labels = new ConcurrentHashMap<>();
+
+    /**
+     * Indice ordinato (etichetta in minuscolo + separatore + nome del file → nome del file).
+     */
+    private final ConcurrentNavigableMap<String, String> index = new ConcurrentSkipListMap<>();
+
+    /**
+     * Copia ordinata dell'indice, o <code>null</code> se va ricostruita dopo una modifica.
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * Aggiunge un file al catalogo o ne aggiorna l'etichetta.
+     *
+     * @param filename Nome del file archiviato.
+     * @param label    Nome da mostrare all'utente (se <code>null</code> viene usato il nome del file).
+     */
+    synchronized void put(String filename, String label) {
+        String effectiveLabel = label == null || label.isBlank() ? filename : label;
+        String previous = labels.put(filename, effectiveLabel);
+        if (previous != null) {
+            index.remove(key(previous, filename));
+        }
+        index.put(key(effectiveLabel, filename), filename);
+        snapshot = null;
+    }
+
+    /**
+     * Aggiunge un file al catalogo solo se non è già presente, usando il nome del file come etichetta.
+     * Usato per gli eventi del filesystem, che non devono sovrascrivere etichette più precise.
+     *
+     * @param filename Nome del file archiviato.
+     */
+    synchronized void putIfAbsent(String filename) {
+        if (!labels.containsKey(filename)) {
+            put(filename, filename);
+        }
+    }
+
+    /**
+     * Rimuove un file dal catalogo.
+     *
+     * @param filename Nome del file archiviato.
+     */
+    synchronized void remove(String filename) {
+        String previous = labels.remove(filename);
+        if (previous != null) {
+            index.remove(key(previous, filename));
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Sostituisce l'intero contenuto del catalogo.
+     *
+     * @param entries Mappa dal nome del file archiviato all'etichetta.
+     */
+    synchronized void replaceAll(Map<String, String> entries) {
+        labels.clear();
+        index.clear();
+        entries.forEach(this::put);
+        snapshot = null;
+    }
+
+    /**
+     * Restituisce l'etichetta di un file.
+     *
+     * @param filename Nome del file archiviato.
+     * @return L'etichetta, o il nome del file stesso se non è nel catalogo.
+     */
+    String label(String filename) {
+        return labels.getOrDefault(filename, filename);
+    }
+
+    /**
+     * Restituisce tutti i nomi dei file, ordinati per etichetta.
+     *
+     * @return Lista dei nomi dei file.
+     */
+    List<String> filenames() {
+        return new ArrayList<>(index.values());
+    }
+
+    /**
+     * Cerca i file la cui etichetta inizia con il prefisso indicato (senza distinzione tra maiuscole e minuscole).
+     *
+     * @param prefix Prefisso da cercare (vuoto o <code>null</code> per tutti i file).
+     * @param offset Numero di risultati da saltare.
+     * @param limit  Numero massimo di risultati da restituire.
+     * @return Una pagina di nomi di file, ordinati per etichetta.
+     */
+    List<String> search(String prefix, int offset, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        Snapshot current = snapshot();
+        int upper = current.upperBound(prefix);
+        int from = (int) Math.min(upper, (long) current.lowerBound(prefix) + Math.max(0, offset));
+        int to = (int) Math.min(upper, (long) from + limit);
+        return from >= to ? Collections.emptyList() : List.of(Arrays.copyOfRange(current.filenames(), from, to));
+    }
+
+    /**
+     * Conta i file la cui etichetta inizia con il prefisso indicato.
+     *
+     * @param prefix Prefisso da cercare (vuoto o <code>null</code> per tutti i file).
+     * @return Il numero di file corrispondenti.
+     */
+    int count(String prefix) {
+        if (prefix == null || prefix.isEmpty()) {
+            return labels.size();
+        }
+        Snapshot current = snapshot();
+        return current.upperBound(prefix) - current.lowerBound(prefix);
+    }
+
+    /**
+     * Restituisce la copia ordinata dell'indice, ricostruendola se il catalogo è stato modificato.
+     *
+     * @return La copia ordinata corrente.
+     */
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = new Snapshot(index.keySet().toArray(String[]::new), index.values().toArray(String[]::new));
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Costruisce la chiave dell'indice per un file.
+     *
+     * @param label    Etichetta del file.
+     * @param filename Nome del file archiviato.
+     * @return La chiave ordinabile.
+     */
+    private static String key(String label, String filename) {
+        return label.toLowerCase(Locale.ROOT) + KEY_SEPARATOR + filename;
+    }
+
+    /**
+     * Copia ordinata e immutabile dell'indice.
+     *
+     * @param keys      Le chiavi dell'indice, in ordine.
+     * @param filenames I nomi dei file corrispondenti alle chiavi.
+     */
+    private record Snapshot(String[] keys, String[] filenames) {
+
+        /**
+         * Restituisce la posizione della prima chiave che inizia con il prefisso (o che lo segue).
+         *
+         * @param prefix Prefisso da cercare (vuoto o <code>null</code> per tutti i file).
+         * @return La posizione iniziale dell'intervallo.
+         */
+        int lowerBound(String prefix) {
+            return prefix == null || prefix.isEmpty() ? 0 : insertionPoint(prefix.toLowerCase(Locale.ROOT));
+        }
+
+        /**
+         * Restituisce la posizione successiva all'ultima chiave che inizia con il prefisso.
+         *
+         * @param prefix Prefisso da cercare (vuoto o <code>null</code> per tutti i file).
+         * @return La posizione finale (esclusa) dell'intervallo.
+         */
+        int upperBound(String prefix) {
+            return prefix == null || prefix.isEmpty() ? keys.length : insertionPoint(prefix.toLowerCase(Locale.ROOT) + Character.MAX_VALUE);
+        }
+
+        /**
+         * Cerca la posizione in cui andrebbe inserita una chiave.
+         *
+         * @param key La chiave.
+         * @return La posizione della chiave, o quella in cui andrebbe inserita.
+         */
+        private int insertionPoint(String key) {
+            int position = Arrays.binarySearch(keys, key);
+            return position >= 0 ? position : -position - 1;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package it.uniupo.simnova.service.storage;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Generatore e cache su disco delle anteprime ridotte dei media (miniature e anteprime degli esami).
+ * Le immagini vengono ridimensionate mantenendo le proporzioni; per i PDF viene renderizzata la prima pagina.
+ * Le anteprime sono salvate in JPEG nella directory nascosta <code>.derivatives</code> della directory
+ * di archiviazione, con nome derivato dall'hash SHA-256 del contenuto originale: file identici
+ * condividono la stessa anteprima e un file sovrascritto ne ottiene automaticamente una nuova.
+ * <p>
+ * La generazione avviene nel thread chiamante, che nei casi in background è già un task dell'executor
+ * dell'applicazione: non vengono avviati altri task, per cui un thread non resta mai in attesa di un altro
+ * dello stesso executor per la stessa anteprima, salvo quando un'altra richiesta la sta già generando.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+final class MediaDerivatives {
+
+    /**
+     * Logger per registrare le operazioni della classe.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(MediaDerivatives.class);
+    /**
+     * Nome della directory (nascosta) che contiene le anteprime.
+     */
+    static final String DERIVATIVES_DIR = ".derivatives";
+    /**
+     * Qualità della compressione JPEG delle anteprime.
+     */
+    private static final float JPEG_QUALITY = 0.82f;
+
+    /**
+     * Directory radice delle anteprime.
+     */
+    private final Path derivativesRoot;
+    /**
+     * Generazioni in corso, indicizzate per percorso di destinazione, per non elaborare due volte lo stesso file.
+     */
+    private final Map<Path, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Crea il generatore di anteprime.
+     *
+     * @param mediaRoot Directory di archiviazione dei media.
+     */
+    MediaDerivatives(Path mediaRoot) {
+        this.derivativesRoot = mediaRoot.resolve(DERIVATIVES_DIR);
+    }
+
+    /**
+     * Indica se per un file è possibile generare un'anteprima, in base all'estensione.
+     *
+     * @param filename Nome del file.
+     * @return <code>true</code> per immagini e PDF.
+     */
+    static boolean supports(String filename) {
+        String extension = extensionOf(filename);
+        return extension.equals("pdf") || extension.equals("jpg") || extension.equals("jpeg")
+                || extension.equals("png") || extension.equals("gif") || extension.equals("bmp")
+                || extension.equals("webp");
+    }
+
+    /**
+     * Restituisce l'anteprima di un file, generandola nel thread chiamante se non è ancora presente su disco.
+     * Se un'altra richiesta sta già generando la stessa anteprima, ne attende il risultato.
+     *
+     * @param source      Percorso del file originale.
+     * @param contentHash Hash SHA-256 del contenuto del file.
+     * @param size        Dimensione dell'anteprima richiesta.
+     * @return Il percorso dell'anteprima, o <code>null</code> se il formato non è decodificabile.
+     * @throws IOException Se si verifica un errore durante la lettura o la scrittura.
+     */
+    Path get(Path source, String contentHash, FileStorageService.PreviewSize size) throws IOException {
+        Path target = derivativePath(contentHash, size);
+        if (Files.exists(target)) {
+            return target;
+        }
+        CompletableFuture<Path> created = new CompletableFuture<>();
+        CompletableFuture<Path> task = inFlight.putIfAbsent(target, created);
+        if (task == null) {
+            try {
+                Path result = render(source, target, size);
+                created.complete(result);
+                return result;
+            } catch (IOException | RuntimeException e) {
+                created.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(target, created);
+            }
+        }
+        try {
+            return task.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Generazione dell'anteprima fallita per " + source.getFileName(), e.getCause());
+        }
+    }
+
+    /**
+     * Elimina tutte le anteprime associate a un contenuto.
+     *
+     * @param contentHash Hash SHA-256 del contenuto.
+     */
+    void delete(String contentHash) {
+        for (FileStorageService.PreviewSize size : FileStorageService.PreviewSize.values()) {
+            try {
+                Files.deleteIfExists(derivativePath(contentHash, size));
+            } catch (IOException e) {
+                logger.warn("Impossibile eliminare l'anteprima {} per il contenuto {}", size, contentHash, e);
+            }
+        }
+    }
+
+    /**
+     * Restituisce il percorso dell'anteprima di un contenuto, suddividendo le anteprime
+     * in sottodirectory in base ai primi due caratteri dell'hash.
+     *
+     * @param contentHash Hash SHA-256 del contenuto.
+     * @param size        Dimensione dell'anteprima.
+     * @return Il percorso del file JPEG dell'anteprima.
+     */
+    private Path derivativePath(String contentHash, FileStorageService.PreviewSize size) {
+        return derivativesRoot.resolve(contentHash.substring(0, 2))
+                .resolve(contentHash + "-" + size.getMaxDimension() + ".jpg");
+    }
+
+    /**
+     * Genera un'anteprima e la salva su disco in modo atomico.
+     *
+     * @param source Percorso del file originale.
+     * @param target Percorso di destinazione dell'anteprima.
+     * @param size   Dimensione dell'anteprima.
+     * @return Il percorso dell'anteprima, o <code>null</code> se il formato non è decodificabile.
+     * @throws IOException Se si verifica un errore durante la lettura o la scrittura.
+     */
+    private Path render(Path source, Path target, FileStorageService.PreviewSize size) throws IOException {
+        if (Files.exists(target)) {
+            return target;
+        }
+        String extension = extensionOf(source.getFileName().toString());
+        BufferedImage image = extension.equals("pdf")
+                ? renderPdfFirstPage(source, size.getMaxDimension())
+                : readImageSubsampled(source, size.getMaxDimension());
+        if (image == null) {
+            return null;
+        }
+
+        Files.createDirectories(target.getParent());
+        Path tempFile = Files.createTempFile(target.getParent(), ".derivative-", ".tmp");
+        try {
+            writeJpeg(scaleToFit(image, size.getMaxDimension()), tempFile);
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        logger.debug("Anteprima {} generata per {}", size, source.getFileName());
+        return target;
+    }
+
+    /**
+     * Renderizza la prima pagina di un PDF con una risoluzione adatta alla dimensione richiesta.
+     *
+     * @param source       Percorso del PDF.
+     * @param maxDimension Lato massimo in pixel.
+     * @return L'immagine della prima pagina, o <code>null</code> se il documento non ha pagine.
+     * @throws IOException Se il PDF non è leggibile.
+     */
+    private static BufferedImage renderPdfFirstPage(Path source, int maxDimension) throws IOException {
+        try (PDDocument document = Loader.loadPDF(source.toFile())) {
+            if (document.getNumberOfPages() == 0) {
+                return null;
+            }
+            PDRectangle box = document.getPage(0).getCropBox();
+            float scale = maxDimension / Math.max(box.getWidth(), box.getHeight());
+            return new PDFRenderer(document).renderImage(0, scale, ImageType.RGB);
+        }
+    }
+
+    /**
+     * Legge un'immagine saltando già in decodifica i pixel non necessari (subsampling),
+     * per non caricare in memoria l'intera immagine a piena risoluzione.
+     *
+     * @param source       Percorso dell'immagine.
+     * @param maxDimension Lato massimo in pixel dell'anteprima finale.
+     * @return L'immagine decodificata, o <code>null</code> se nessun decoder supporta il formato.
+     * @throws IOException Se si verifica un errore di lettura.
+     */
+    private static BufferedImage readImageSubsampled(Path source, int maxDimension) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(source.toFile())) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int largestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                // Mantiene almeno il doppio della risoluzione finale, poi lo scaling rifinisce la qualità.
+                int subsampling = Math.max(1, largestSide / (maxDimension * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Ridimensiona un'immagine perché il lato maggiore non superi la dimensione indicata,
+     * disegnandola su sfondo bianco (il JPEG non supporta la trasparenza).
+     *
+     * @param image        L'immagine di partenza.
+     * @param maxDimension Lato massimo in pixel.
+     * @return L'immagine ridimensionata in formato RGB.
+     */
+    private static BufferedImage scaleToFit(BufferedImage image, int maxDimension) {
+        double ratio = Math.min(1.0, (double) maxDimension / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * Scrive un'immagine in JPEG con la qualità configurata.
+     *
+     * @param image  L'immagine da scrivere.
+     * @param target Il file di destinazione.
+     * @throws IOException Se si verifica un errore di scrittura.
+     */
+    private static void writeJpeg(BufferedImage image, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(target.toFile())) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Restituisce l'estensione in minuscolo di un nome di file, senza punto.
+     *
+     * @param filename Nome del file.
+     * @return L'estensione, o una stringa vuota se assente.
+     */
+    private static String extensionOf(String filename) {
+        int lastDotIndex = filename.lastIndexOf('.');
+        return lastDotIndex < 0 ? "" : filename.substring(lastDotIndex + 1).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,378 @@
+package it.uniupo.simnova.service.storage;
+
+import it.uniupo.simnova.service.scenario.helper.TextCompressionHelper;
+import it.uniupo.simnova.utils.DBConnect;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Servizio che gestisce la compressione trasparente delle colonne di testo voluminose
+ * ({@link TextCompressionHelper#COLUMNS}).
+ * <p>
+ * All'avvio applica la configurazione a {@link TextCompressionHelper}, quindi porta i contenuti già presenti
+ * nel formato configurato: con la compressione attiva i testi oltre la soglia vengono compressi, con la
+ * compressione disattivata i testi compressi vengono riportati in chiaro. Quando la migrazione modifica delle
+ * righe il database viene compattato e vengono registrate le misure prima e dopo la conversione: dimensione
+ * del database e delle tabelle interessate, latenza di lettura dei testi e copertura stimata della cache.
+ * La migrazione viene eseguita dopo quella delle immagini incorporate di {@link InlineImageService}, che cerca
+ * le immagini nel testo in chiaro.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+@Service
+@DependsOn("scenarioService")
+public class TextCompressionService {
+
+    /**
+     * Il logger per questa classe.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(TextCompressionService.class);
+    /**
+     * Numero di letture complete dei testi usate per misurare la latenza (viene riportata la mediana).
+     */
+    private static final int LATENCY_RUNS = 5;
+
+    /**
+     * Indica se i testi oltre la soglia vengono salvati compressi.
+     */
+    private final boolean enabled;
+    /**
+     * Dimensione minima (in byte) di un testo da comprimere.
+     */
+    private final int thresholdBytes;
+    /**
+     * Indica se convertire all'avvio i contenuti già presenti nel database.
+     */
+    private final boolean migrate;
+
+    /**
+     * Costruttore per l'iniezione delle dipendenze.
+     *
+     * @param enabled        <code>true</code> per salvare compressi i testi oltre la soglia.
+     * @param thresholdBytes La dimensione minima (in byte) di un testo da comprimere.
+     * @param migrate        <code>true</code> per convertire all'avvio i contenuti esistenti.
+     */
+    public TextCompressionService(@Value("${storage.text-compression.enabled:false}") boolean enabled,
+                                  @Value("${storage.text-compression.threshold-bytes:1024}") int thresholdBytes,
+                                  @Value("${storage.text-compression.migrate:true}") boolean migrate) {
+        this.enabled = enabled;
+        this.thresholdBytes = Math.max(0, thresholdBytes);
+        this.migrate = migrate;
+    }
+
+    /**
+     * Applica la configurazione e, se richiesto, converte i contenuti esistenti.
+     */
+    @PostConstruct
+    public void init() {
+        TextCompressionHelper.configure(enabled, thresholdBytes);
+        logger.info("Compressione dei testi {} (soglia {} byte).", enabled ? "attiva" : "disattivata", thresholdBytes);
+        if (migrate) {
+            migrateExistingContent();
+        }
+    }
+
+    /**
+     * Converte i testi già presenti nel formato configurato e, se qualche riga è cambiata, compatta il database
+     * e registra le misure prima e dopo la conversione.
+     *
+     * @return Il numero di valori convertiti.
+     */
+    public int migrateExistingContent() {
+        int converted = 0;
+        try (Connection conn = DBConnect.getInstance().getConnection()) {
+            Map<TextCompressionHelper.Column, List<Long>> pending = new LinkedHashMap<>();
+            for (TextCompressionHelper.Column column : TextCompressionHelper.COLUMNS) {
+                List<Long> rowIds = pendingRows(conn, column);
+                if (!rowIds.isEmpty()) {
+                    pending.put(column, rowIds);
+                }
+            }
+            if (pending.isEmpty()) {
+                logger.debug("Nessun testo da convertire: i contenuti sono già nel formato configurato.");
+                return 0;
+            }
+
+            Measurement before = measure(conn);
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                for (Map.Entry<TextCompressionHelper.Column, List<Long>> entry : pending.entrySet()) {
+                    int count = convert(conn, entry.getKey(), entry.getValue());
+                    if (count > 0) {
+                        logger.info("Colonna {}.{}: {} testi {}.", entry.getKey().table(), entry.getKey().column(),
+                                count, enabled ? "compressi" : "decompressi");
+                    }
+                    converted += count;
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+            if (converted == 0) {
+                return 0;
+            }
+
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("VACUUM");
+            }
+            Measurement after = measure(conn);
+            logger.info("Convertiti {} testi ({}). Database: {} KB -> {} KB; tabelle {} -> {}; lettura completa dei testi (mediana): {} ms -> {} ms; " +
+                            "pagine delle tabelle nella cache di una connessione: {}% -> {}%.",
+                    converted, enabled ? "compressione" : "decompressione",
+                    before.databaseBytes() / 1024, after.databaseBytes() / 1024,
+                    formatTables(before.tableBytes()), formatTables(after.tableBytes()),
+                    String.format("%.1f", before.readNanos() / 1e6), String.format("%.1f", after.readNanos() / 1e6),
+                    before.cacheCoveragePercent(), after.cacheCoveragePercent());
+        } catch (SQLException e) {
+            logger.error("Errore durante la conversione dei testi ({} già convertiti): {}", converted, e.getMessage(), e);
+        }
+        return converted;
+    }
+
+    /**
+     * Individua le righe di una colonna da convertire: i testi in chiaro oltre la soglia se la compressione
+     * è attiva, i testi compressi altrimenti.
+     *
+     * @param conn   La connessione al database.
+     * @param column La colonna da esaminare.
+     * @return I <code>rowid</code> delle righe da convertire.
+     * @throws SQLException se si verifica un errore di accesso al database.
+     */
+    private List<Long> pendingRows(Connection conn, TextCompressionHelper.Column column) throws SQLException {
+        // I nomi di tabella e colonna provengono dalla lista costante COLUMNS.
+        final String sql = enabled
+                ? "SELECT rowid FROM " + column.table() + " WHERE typeof(" + column.column() + ") = 'text' AND length(CAST(" +
+                column.column() + " AS BLOB)) >= ?"
+                : "SELECT rowid FROM " + column.table() + " WHERE typeof(" + column.column() + ") = 'blob'";
+        List<Long> rowIds = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            if (enabled) {
+                stmt.setInt(1, thresholdBytes);
+            }
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                rowIds.add(rs.getLong(1));
+            }
+        }
+        return rowIds;
+    }
+
+    /**
+     * Converte le righe indicate di una colonna nel formato configurato. Le righe vengono lette una alla volta,
+     * per non tenere in memoria più contenuti voluminosi.
+     *
+     * @param conn   La connessione, con la transazione aperta.
+     * @param column La colonna da convertire.
+     * @param rowIds I <code>rowid</code> delle righe da convertire.
+     * @return Il numero di valori effettivamente riscritti.
+     * @throws SQLException se si verifica un errore di accesso al database.
+     */
+    private int convert(Connection conn, TextCompressionHelper.Column column, List<Long> rowIds) throws SQLException {
+        final String selectSql = "SELECT " + column.column() + " FROM " + column.table() + " WHERE rowid = ?";
+        final String updateSql = "UPDATE " + column.table() + " SET " + column.column() + " = ? WHERE rowid = ?";
+        int count = 0;
+        try (PreparedStatement select = conn.prepareStatement(selectSql);
+             PreparedStatement update = conn.prepareStatement(updateSql)) {
+            for (long rowId : rowIds) {
+                select.setLong(1, rowId);
+                Object value;
+                try (ResultSet rs = select.executeQuery()) {
+                    value = rs.next() ? rs.getObject(1) : null;
+                }
+                if (value == null) {
+                    continue;
+                }
+                if (enabled) {
+                    // Un testo poco ridondante resta in chiaro: compress restituisce null.
+                    byte[] compressed = TextCompressionHelper.compress(TextCompressionHelper.decode(value));
+                    if (compressed == null) {
+                        continue;
+                    }
+                    update.setBytes(1, compressed);
+                } else {
+                    update.setString(1, TextCompressionHelper.decode(value));
+                }
+                update.setLong(2, rowId);
+                update.executeUpdate();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Misura lo stato delle colonne compresse: dimensione del database e delle tabelle, latenza di lettura
+     * e copertura della cache.
+     * <p>
+     * SQLite non espone tramite JDBC i contatori di successo della cache delle pagine, per cui viene stimata la
+     * percentuale delle pagine delle tabelle interessate che entra nella cache di una singola connessione
+     * (<code>PRAGMA cache_size</code>). Ogni operazione apre una nuova connessione ({@link DBConnect}), quindi
+     * la latenza viene misurata allo stesso modo, con una connessione per lettura.
+     * </p>
+     *
+     * @param conn La connessione al database.
+     * @return Le misure.
+     * @throws SQLException se si verifica un errore di accesso al database.
+     */
+    private static Measurement measure(Connection conn) throws SQLException {
+        long pageSize;
+        long cachePages;
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("PRAGMA page_size")) {
+                pageSize = rs.next() ? rs.getLong(1) : 4096;
+            }
+            try (ResultSet rs = stmt.executeQuery("PRAGMA cache_size")) {
+                long cacheSize = rs.next() ? rs.getLong(1) : 0;
+                // Un valore negativo indica la dimensione della cache in KiB anziché in pagine.
+                cachePages = cacheSize < 0 ? -cacheSize * 1024 / pageSize : cacheSize;
+            }
+        }
+
+        Map<String, Long> tableBytes = tableSizes(conn);
+        long tablePages = 0;
+        for (long bytes : tableBytes.values()) {
+            tablePages += bytes / pageSize;
+        }
+        int coverage = tablePages == 0 ? 100 : (int) Math.min(100, cachePages * 100 / tablePages);
+
+        long[] runs = new long[LATENCY_RUNS];
+        for (int i = 0; i < LATENCY_RUNS; i++) {
+            runs[i] = readAll();
+        }
+        Arrays.sort(runs);
+        return new Measurement(databaseSize(conn), tableBytes, runs[LATENCY_RUNS / 2], coverage);
+    }
+
+    /**
+     * Restituisce la dimensione (in byte) delle tabelle con colonne compresse, indici esclusi.
+     * Richiede la tabella virtuale <code>dbstat</code>; se non è disponibile restituisce una mappa vuota.
+     *
+     * @param conn La connessione al database.
+     * @return La dimensione di ogni tabella.
+     */
+    private static Map<String, Long> tableSizes(Connection conn) {
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT SUM(pgsize) FROM dbstat WHERE name = ?")) {
+            for (String table : tables()) {
+                stmt.setString(1, table);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    sizes.put(table, rs.next() ? rs.getLong(1) : 0);
+                }
+            }
+        } catch (SQLException e) {
+            logger.debug("Tabella virtuale dbstat non disponibile: dimensione delle tabelle non misurata. {}", e.getMessage());
+            sizes.clear();
+        }
+        return sizes;
+    }
+
+    /**
+     * Legge e decodifica tutti i testi delle colonne compresse, con una nuova connessione.
+     *
+     * @return Il tempo impiegato, in nanosecondi.
+     * @throws SQLException se si verifica un errore di accesso al database.
+     */
+    private static long readAll() throws SQLException {
+        long start = System.nanoTime();
+        try (Connection conn = DBConnect.getInstance().getConnection()) {
+            for (String table : tables()) {
+                List<String> columns = new ArrayList<>();
+                for (TextCompressionHelper.Column column : TextCompressionHelper.COLUMNS) {
+                    if (column.table().equals(table)) {
+                        columns.add(column.column());
+                    }
+                }
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT " + String.join(", ", columns) + " FROM " + table)) {
+                    while (rs.next()) {
+                        for (int i = 1; i <= columns.size(); i++) {
+                            TextCompressionHelper.read(rs, i);
+                        }
+                    }
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Restituisce le tabelle con colonne compresse, senza ripetizioni.
+     *
+     * @return I nomi delle tabelle.
+     */
+    private static Set<String> tables() {
+        Set<String> tables = new LinkedHashSet<>();
+        for (TextCompressionHelper.Column column : TextCompressionHelper.COLUMNS) {
+            tables.add(column.table());
+        }
+        return tables;
+    }
+
+    /**
+     * Formatta le dimensioni delle tabelle per il log.
+     *
+     * @param tableBytes La dimensione di ogni tabella.
+     * @return Le dimensioni in KB, oppure "n/d" se non sono state misurate.
+     */
+    private static String formatTables(Map<String, Long> tableBytes) {
+        if (tableBytes.isEmpty()) {
+            return "n/d";
+        }
+        StringBuilder sb = new StringBuilder("{");
+        tableBytes.forEach((table, bytes) -> {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(table).append('=').append(bytes / 1024).append(" KB");
+        });
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Restituisce la dimensione del database in byte.
+     *
+     * @param conn La connessione al database.
+     * @return Il numero di pagine moltiplicato per la loro dimensione.
+     * @throws SQLException se si verifica un errore di accesso al database.
+     */
+    private static long databaseSize(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT page_count * page_size FROM pragma_page_count(), pragma_page_size()")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Misure dello stato delle colonne compresse.
+     *
+     * @param databaseBytes        La dimensione del database, in byte.
+     * @param tableBytes           La dimensione delle tabelle interessate, in byte (vuota se non misurabile).
+     * @param readNanos            La mediana del tempo di lettura completa dei testi, in nanosecondi.
+     * @param cacheCoveragePercent La percentuale delle pagine delle tabelle che entra nella cache di una connessione.
+     */
+    private record Measurement(long databaseBytes, Map<String, Long> tableBytes, long readNanos, int cacheCoveragePercent) {
+    }
+}
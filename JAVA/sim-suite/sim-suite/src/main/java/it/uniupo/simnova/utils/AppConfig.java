@@ -2,14 +2,13 @@ package it.uniupo.simnova.utils;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.client.RestTemplate;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 /**
  * Configurazione dell'applicazione per la creazione di bean comuni.
- * Questa classe definisce i bean necessari per l'applicazione, come RestTemplate e ExecutorService.
+ * Questa classe definisce i bean necessari per l'applicazione, come l'ExecutorService.
  *
  * @author Alessandro Zappatore
  * @version 1.0
@@ -17,16 +16,6 @@ import java.util.concurrent.Executors;
 @Configuration
 public class AppConfig {
 
-    /**
-     * Crea un bean RestTemplate per effettuare chiamate HTTP.
-     *
-     * @return Un'istanza di RestTemplate configurata per l'applicazione.
-     */
-    @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
-    }
-
     /**
      * Crea un bean ExecutorService per gestire l'esecuzione di task in thread separati.
      * Utilizza un thread pool con un numero variabile di thread, che si adatta al carico di lavoro.
@@ -0,0 +1,110 @@
+package it.uniupo.simnova.utils;
+
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.VaadinSession;
+import jakarta.servlet.http.Cookie;
+
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Identificativo persistente del browser dell'utente.
+ * <p>
+ * L'applicazione non prevede l'autenticazione: per attribuire all'utente le operazioni di lunga durata
+ * (ad esempio le generazioni AI), ogni browser riceve un identificativo casuale salvato in un cookie,
+ * che resta valido anche se la scheda viene chiusa o il server viene riavviato. L'identificativo viene
+ * inoltre memorizzato nella sessione Vaadin, così che sia disponibile anche nelle richieste in push.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+public final class ClientIdentity {
+
+    /**
+     * Nome del cookie con l'identificativo.
+     */
+    private static final String COOKIE_NAME = "simsuite-client";
+    /**
+     * Durata del cookie, in secondi (un anno).
+     */
+    private static final int COOKIE_MAX_AGE = 365 * 24 * 60 * 60;
+    /**
+     * Attributo della sessione Vaadin in cui viene memorizzato l'identificativo.
+     */
+    private static final String SESSION_ATTRIBUTE = ClientIdentity.class.getName();
+    /**
+     * Formato di un identificativo valido (UUID), per scartare cookie manomessi.
+     */
+    private static final Pattern VALID_ID = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+    /**
+     * Costruttore privato per evitare l'istanza della classe, dato che contiene solo metodi statici.
+     */
+    private ClientIdentity() {
+        // Costruttore privato per evitare l'istanza della classe.
+    }
+
+    /**
+     * Restituisce l'identificativo del browser della sessione corrente, creandolo se non esiste.
+     * Va invocato dal thread della UI (con il lock della sessione).
+     *
+     * @return L'identificativo del browser.
+     * @throws IllegalStateException se non c'è una sessione Vaadin corrente.
+     */
+    public static String current() {
+        VaadinSession session = VaadinSession.getCurrent();
+        if (session == null) {
+            throw new IllegalStateException("Nessuna sessione Vaadin corrente: impossibile identificare l'utente.");
+        }
+        if (session.getAttribute(SESSION_ATTRIBUTE) instanceof String id) {
+            return id;
+        }
+
+        String id = readCookie();
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+            writeCookie(id);
+        }
+        session.setAttribute(SESSION_ATTRIBUTE, id);
+        return id;
+    }
+
+    /**
+     * Legge l'identificativo dal cookie della richiesta corrente.
+     *
+     * @return L'identificativo, o <code>null</code> se il cookie manca o non è valido.
+     */
+    private static String readCookie() {
+        VaadinRequest request = VaadinRequest.getCurrent();
+        Cookie[] cookies = request != null ? request.getCookies() : null;
+        if (cookies == null) {
+            return null;
+        }
+        for (Cookie cookie : cookies) {
+            if (COOKIE_NAME.equals(cookie.getName()) && cookie.getValue() != null && VALID_ID.matcher(cookie.getValue()).matches()) {
+                return cookie.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Salva l'identificativo nel cookie della risposta corrente, se possibile.
+     *
+     * @param id L'identificativo da salvare.
+     */
+    private static void writeCookie(String id) {
+        VaadinResponse response = VaadinResponse.getCurrent();
+        if (response == null) {
+            return;
+        }
+        Cookie cookie = new Cookie(COOKIE_NAME, id);
+        cookie.setPath("/");
+        cookie.setMaxAge(COOKIE_MAX_AGE);
+        cookie.setHttpOnly(true);
+        cookie.setAttribute("SameSite", "Lax");
+        response.addCookie(cookie);
+    }
+}
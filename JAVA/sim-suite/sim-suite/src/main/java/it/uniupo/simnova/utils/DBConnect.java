@@ -1,8 +1,11 @@
 package it.uniupo.simnova.utils;
 
+import org.sqlite.SQLiteConfig;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Properties;
 
 /**
  * Classe di utilità per la gestione della connessione al database SQLite.
@@ -11,17 +14,36 @@ import java.sql.SQLException;
  * della connessione al database durante l'esecuzione dell'applicazione.
  * Offre metodi per ottenere e chiudere le connessioni al database SQLite.
  * </p>
+ * <p>
+ * Le connessioni usano il journal WAL, in cui le letture non bloccano le scritture, attendono fino a
+ * {@link #BUSY_TIMEOUT_MILLIS} millisecondi il lock occupato da un'altra connessione e aprono le transazioni
+ * esplicite con <code>BEGIN IMMEDIATE</code>: una transazione che prima legge e poi scrive non può così restare
+ * in stallo con un'altra, caso in cui SQLite restituisce subito <code>SQLITE_BUSY</code> senza attendere.
+ * </p>
  *
  * @author Alessandro Zappatore
  * @version 1.0
  */
 public class DBConnect {
     /**
-     * L'URL di connessione al database SQLite.
+     * Proprietà di sistema con il percorso del file del database, da usare al posto di quello predefinito
+     * (ad esempio un database temporaneo nei test).
+     */
+    public static final String DB_PATH_PROPERTY = "simnova.db.path";
+    /**
+     * Attesa massima (in millisecondi) di un lock occupato da un'altra connessione.
+     */
+    private static final int BUSY_TIMEOUT_MILLIS = 10_000;
+    /**
+     * L'URL di connessione al database SQLite predefinito.
      * Il database viene creato o aperto nel percorso della directory corrente dell'applicazione.
      * Formato: <code>jdbc:sqlite:[percorso_alla_directory]/database.db</code>
      */
     private static final String DB_URL = "jdbc:sqlite:" + System.getProperty("user.dir") + "/database.db";
+    /**
+     * Le proprietà delle connessioni: journal, attesa dei lock e modalità delle transazioni.
+     */
+    private static final Properties CONNECTION_PROPERTIES = connectionProperties();
 
     /**
      * L'istanza Singleton di {@link DBConnect}.
@@ -39,7 +61,7 @@ public class DBConnect {
      * @throws RuntimeException se il driver SQLite non viene trovato, indicando un problema di configurazione.
      */
     private DBConnect() {
-        System.out.println("URL del database: " + DB_URL); // Stampa l'URL del DB per debugging/informazione.
+        System.out.println("URL del database: " + url()); // Stampa l'URL del DB per debugging/informazione.
         try {
             // Carica esplicitamente il driver SQLite per garantire la sua disponibilità.
             Class.forName("org.sqlite.JDBC");
@@ -71,11 +93,35 @@ public class DBConnect {
      * @throws SQLException se si verifica un errore durante il tentativo di connessione al database.
      */
     public Connection getConnection() throws SQLException {
+        String url = url();
         try {
-            return DriverManager.getConnection(DB_URL);
+            return DriverManager.getConnection(url, CONNECTION_PROPERTIES);
         } catch (SQLException e) {
             // Lancia un'eccezione SQL personalizzata con un messaggio più descrittivo in caso di fallimento della connessione.
-            throw new SQLException("Impossibile connettersi al database all'URL: " + DB_URL + ". Dettagli: " + e.getMessage(), e);
+            throw new SQLException("Impossibile connettersi al database all'URL: " + url + ". Dettagli: " + e.getMessage(), e);
         }
     }
+
+    /**
+     * Restituisce l'URL del database: quello indicato da {@link #DB_PATH_PROPERTY}, se impostata, o quello predefinito.
+     *
+     * @return L'URL di connessione.
+     */
+    private static String url() {
+        String path = System.getProperty(DB_PATH_PROPERTY);
+        return path != null && !path.isBlank() ? "jdbc:sqlite:" + path : DB_URL;
+    }
+
+    /**
+     * Costruisce le proprietà delle connessioni.
+     *
+     * @return Le proprietà.
+     */
+    private static Properties connectionProperties() {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        config.setBusyTimeout(BUSY_TIMEOUT_MILLIS);
+        config.setTransactionMode(SQLiteConfig.TransactionMode.IMMEDIATE);
+        return config.toProperties();
+    }
 }
\ No newline at end of file
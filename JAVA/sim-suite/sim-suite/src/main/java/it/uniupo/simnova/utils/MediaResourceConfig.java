@@ -0,0 +1,161 @@
+package it.uniupo.simnova.utils;
+
+import it.uniupo.simnova.service.storage.FileStorageService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.EncodedResourceResolver;
+import org.springframework.web.servlet.resource.HttpResource;
+import org.springframework.web.servlet.resource.ResourceResolver;
+import org.springframework.web.servlet.resource.ResourceResolverChain;
+import org.springframework.web.util.UriUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configurazione delle risorse statiche che rende trasparente il layout partizionato della directory dei media.
+ * I media continuano a essere serviti all'URL <code>/nome_file</code>: se il file non si trova nelle
+ * posizioni statiche configurate (<code>spring.web.resources.static-locations</code>), viene cercato
+ * tramite {@link FileStorageService#resolveFile(String)} nella relativa sottodirectory.
+ * <p>
+ * Registra inoltre l'endpoint dedicato ai media <code>/media-files/{versione}/{nome_file}</code>
+ * (vedi {@link FileStorageService#getMediaUrl(String)}), che supporta le richieste parziali
+ * (<code>Range</code>) per lo scorrimento di audio e video, usa l'hash del contenuto come ETag forte,
+ * imposta una cache immutabile di un anno e serve le varianti gzip precompresse quando presenti.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+@Configuration
+public class MediaResourceConfig implements WebMvcConfigurer {
+
+    /**
+     * Servizio di archiviazione usato per risolvere il percorso dei media.
+     */
+    private final FileStorageService fileStorageService;
+    /**
+     * Posizioni delle risorse statiche configurate in application.properties.
+     */
+    private final String[] staticLocations;
+
+    /**
+     * Costruttore per l'iniezione delle dipendenze.
+     *
+     * @param fileStorageService Il servizio di archiviazione dei file.
+     * @param staticLocations    Le posizioni delle risorse statiche.
+     */
+    public MediaResourceConfig(FileStorageService fileStorageService,
+                               @Value("${spring.web.resources.static-locations:classpath:/static/}") String[] staticLocations) {
+        this.fileStorageService = fileStorageService;
+        this.staticLocations = staticLocations;
+    }
+
+    /**
+     * Registra il gestore delle risorse statiche con le stesse posizioni di Spring Boot,
+     * aggiungendo la risoluzione dei media archiviati nelle sottodirectory.
+     *
+     * @param registry Il registro dei gestori di risorse.
+     */
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        registry.addResourceHandler(FileStorageService.MEDIA_URL_PREFIX + "**")
+                .addResourceLocations(fileStorageService.getMediaDirectory().toUri().toString())
+                .setCacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable())
+                .setEtagGenerator(this::mediaEtag)
+                .resourceChain(false)
+                .addResolver(new EncodedResourceResolver())
+                .addResolver(new VersionedMediaResourceResolver());
+
+        registry.addResourceHandler("/**")
+                .addResourceLocations(staticLocations)
+                .resourceChain(false)
+                .addResolver(new ShardedMediaResourceResolver());
+    }
+
+    /**
+     * Calcola l'ETag di un media a partire dall'hash del suo contenuto.
+     * Le varianti precompresse hanno un ETag distinto, come richiesto per gli ETag forti.
+     *
+     * @param resource La risorsa da servire (originale o variante precompressa).
+     * @return L'ETag, o <code>null</code> se l'hash non è disponibile.
+     */
+    private String mediaEtag(Resource resource) {
+        String filename = resource.getFilename();
+        String hash = filename == null ? null : fileStorageService.getContentHash(filename);
+        if (hash == null) {
+            return null;
+        }
+        // Le varianti precompresse espongono la propria codifica negli header della risorsa
+        String contentEncoding = resource instanceof HttpResource httpResource
+                ? httpResource.getResponseHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)
+                : null;
+        return contentEncoding == null ? hash : hash + "-" + contentEncoding;
+    }
+
+    /**
+     * Resolver dell'endpoint dei media: ignora il segmento di versione dell'URL e risolve il file
+     * nella directory di archiviazione, indipendentemente dal layout.
+     */
+    private final class VersionedMediaResourceResolver implements ResourceResolver {
+
+        @Override
+        public Resource resolveResource(HttpServletRequest request, String requestPath,
+                                        List<? extends Resource> locations, ResourceResolverChain chain) {
+            int separator = requestPath.indexOf('/');
+            if (separator < 0 || requestPath.indexOf('/', separator + 1) >= 0) {
+                return null;
+            }
+            try {
+                // Il percorso della richiesta è ancora codificato come nell'URL
+                String filename = UriUtils.decode(requestPath.substring(separator + 1), StandardCharsets.UTF_8);
+                Path mediaPath = fileStorageService.resolveFile(filename);
+                return Files.isRegularFile(mediaPath) ? new FileSystemResource(mediaPath) : null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String resolveUrlPath(String resourcePath, List<? extends Resource> locations, ResourceResolverChain chain) {
+            return null;
+        }
+    }
+
+    /**
+     * Resolver che, in mancanza di una risorsa statica, cerca il media nella directory di archiviazione.
+     */
+    private final class ShardedMediaResourceResolver implements ResourceResolver {
+
+        @Override
+        public Resource resolveResource(HttpServletRequest request, String requestPath,
+                                        List<? extends Resource> locations, ResourceResolverChain chain) {
+            Resource resource = chain.resolveResource(request, requestPath, locations);
+            if (resource != null || requestPath.indexOf('/') >= 0) {
+                return resource;
+            }
+            try {
+                Path mediaPath = fileStorageService.resolveFile(UriUtils.decode(requestPath, StandardCharsets.UTF_8));
+                return Files.isRegularFile(mediaPath) ? new FileSystemResource(mediaPath) : null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String resolveUrlPath(String resourcePath, List<? extends Resource> locations, ResourceResolverChain chain) {
+            return chain.resolveUrlPath(resourcePath, locations);
+        }
+    }
+}
@@ -18,6 +18,7 @@ import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
 import it.uniupo.simnova.service.ActiveNotifierManager;
 import it.uniupo.simnova.service.NotifierService;
+import it.uniupo.simnova.utils.ClientIdentity;
 import it.uniupo.simnova.views.constant.UIConstants;
 import org.slf4j.LoggerFactory;
 
@@ -63,7 +64,13 @@ public class MainLayout extends AppLayout {
         final UI ui = attachEvent.getUI();
 
 
-        notifierService.register(ui, payload -> {
+        notifierService.register(ui, ClientIdentity.current(), payload -> {
+
+            // Gli aggiornamenti di avanzamento modificano la notifica attiva senza chiuderla.
+            if (payload.status() == NotifierService.Status.PROGRESS) {
+                activeNotifierManager.update(payload.notificationToCloseId(), payload.progress(), payload.details());
+                return;
+            }
 
             activeNotifierManager.close(payload.notificationToCloseId());
             LoggerFactory.getLogger(getClass()).info("Notifica di risultato ricevuta per UI {}: {}", ui.getUIId(), payload);
@@ -92,7 +99,12 @@ public class MainLayout extends AppLayout {
                 Button viewButton;
                 Image gif;
 
-                if (payload.details().contains("Scenario")) {
+                if (payload.actionUrl() != null) {
+                    // Il risultato è pronto sul server: il pulsante ne avvia il download.
+                    viewButton = new Button("Scarica");
+                    gif = null;
+                    viewButton.addClickListener(event -> ui.getPage().open(payload.actionUrl(), "_self"));
+                } else if (payload.details().contains("Scenario")) {
                     gif = new Image(UIConstants.AMBULANCE_GIF_PATH, "Animazione ambulanza");
 
                     String currentPath = ui.getInternals().getActiveViewLocation().getPath();
@@ -120,9 +132,6 @@ public class MainLayout extends AppLayout {
                     gif = new Image();
                 }
 
-                gif.setWidth("400px");
-                gif.getStyle().set("margin-top", "var(--lumo-space-s)");
-
                 viewButton.addThemeVariants(ButtonVariant.LUMO_PRIMARY);
 
                 Notification notification = new Notification();
@@ -135,9 +144,15 @@ public class MainLayout extends AppLayout {
                 topRowLayout.setAlignItems(FlexComponent.Alignment.CENTER);
                 topRowLayout.expand(messageLabel);
 
-                VerticalLayout notificationLayout = new VerticalLayout(topRowLayout, gif);
+                VerticalLayout notificationLayout = new VerticalLayout(topRowLayout);
                 notificationLayout.setPadding(false);
                 notificationLayout.setAlignItems(FlexComponent.Alignment.CENTER);
+                // Il download non ha un'animazione associata.
+                if (gif != null) {
+                    gif.setWidth("400px");
+                    gif.getStyle().set("margin-top", "var(--lumo-space-s)");
+                    notificationLayout.add(gif);
+                }
 
                 viewButton.addClickListener(event -> notification.close());
 
@@ -17,6 +17,7 @@ import com.vaadin.flow.component.upload.Upload;
 import com.vaadin.flow.component.upload.receivers.MemoryBuffer;
 import com.vaadin.flow.component.popover.Popover;
 import com.vaadin.flow.theme.lumo.LumoUtility;
+import it.uniupo.simnova.service.export.helper.pdf.LogoLoader;
 import it.uniupo.simnova.service.storage.FileStorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -177,6 +178,7 @@ public class AppHeader extends HorizontalLayout {
             upload.addSucceededListener(event -> {
                 try (InputStream inputStream = buffer.getInputStream()) {
                     fileStorageService.store(inputStream, CENTER_LOGO_FILENAME); // Salva il file caricato
+                    LogoLoader.invalidateCenterLogo(); // I prossimi PDF useranno il nuovo logo
                     Notification.show("Logo caricato con successo!", 2000, Notification.Position.MIDDLE);
                     UI.getCurrent().access(this::updateCenterLogoArea); // Aggiorna l'UI dopo il caricamento
                 } catch (Exception ex) {
@@ -225,6 +227,7 @@ public class AppHeader extends HorizontalLayout {
     private void deleteCenterLogo() {
         try {
             fileStorageService.deleteFile(CENTER_LOGO_FILENAME);
+            LogoLoader.invalidateCenterLogo(); // I prossimi PDF torneranno al logo di default
             Notification.show("Logo eliminato con successo.", 2000, Notification.Position.MIDDLE)
                     .addThemeVariants(NotificationVariant.LUMO_SUCCESS);
             UI.getCurrent().access(this::updateCenterLogoArea); // Aggiorna l'UI dopo l'eliminazione
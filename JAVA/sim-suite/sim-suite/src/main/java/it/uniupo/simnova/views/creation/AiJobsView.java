@@ -0,0 +1,426 @@
+package it.uniupo.simnova.views.creation;
+
+import com.flowingcode.vaadin.addons.fontawesome.FontAwesome;
+import com.vaadin.flow.component.AttachEvent;
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Composite;
+import com.vaadin.flow.component.DetachEvent;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.button.Button;
+import com.vaadin.flow.component.button.ButtonVariant;
+import com.vaadin.flow.component.dialog.Dialog;
+import com.vaadin.flow.component.grid.Grid;
+import com.vaadin.flow.component.grid.GridVariant;
+import com.vaadin.flow.component.html.Paragraph;
+import com.vaadin.flow.component.html.Span;
+import com.vaadin.flow.component.icon.Icon;
+import com.vaadin.flow.component.icon.VaadinIcon;
+import com.vaadin.flow.component.notification.Notification;
+import com.vaadin.flow.component.notification.NotificationVariant;
+import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
+import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.component.upload.Upload;
+import com.vaadin.flow.component.upload.receivers.MemoryBuffer;
+import com.vaadin.flow.router.PageTitle;
+import com.vaadin.flow.router.Route;
+import com.vaadin.flow.shared.Registration;
+import com.vaadin.flow.theme.lumo.LumoUtility;
+import it.uniupo.simnova.service.ActiveNotifierManager;
+import it.uniupo.simnova.service.ai_api.AiBatchService;
+import it.uniupo.simnova.service.ai_api.AiJobService;
+import it.uniupo.simnova.service.ai_api.AiResponseCache;
+import it.uniupo.simnova.service.storage.FileStorageService;
+import it.uniupo.simnova.utils.ClientIdentity;
+import it.uniupo.simnova.views.MainLayout;
+import it.uniupo.simnova.views.common.components.AppHeader;
+import it.uniupo.simnova.views.common.utils.StyleApp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaadin.firitin.components.DynamicFileDownloader;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Vista con lo stato delle <strong>generazioni AI</strong> richieste dall'utente (in coda, in corso e concluse).
+ * L'elenco si aggiorna automaticamente quando una generazione cambia stato; le generazioni ancora in coda
+ * possono essere annullate e quelle concluse possono essere ripetute ignorando la cache delle risposte AI.
+ * Da qui è anche possibile avviare la generazione in lotto di più scenari da un file CSV o JSON e consultarne il report.
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+@PageTitle("Generazioni AI")
+@Route(value = "ai-jobs", layout = MainLayout.class)
+public class AiJobsView extends Composite<VerticalLayout> {
+    /**
+     * Numero massimo di generazioni mostrate.
+     */
+    private static final int MAX_JOBS = 100;
+    /**
+     * Formato delle date mostrate nella tabella.
+     */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss").withZone(ZoneId.systemDefault());
+    /**
+     * Logger per registrare gli errori della vista.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AiJobsView.class);
+
+    /**
+     * Servizio per le generazioni AI.
+     */
+    private final AiJobService aiJobService;
+    /**
+     * Servizio per le generazioni in lotto.
+     */
+    private final AiBatchService aiBatchService;
+    /**
+     * Servizio per la gestione dei file, usato dall'intestazione.
+     */
+    private final FileStorageService fileStorageService;
+    /**
+     * Cache delle risposte AI, di cui vengono mostrate le statistiche.
+     */
+    private final AiResponseCache responseCache;
+    /**
+     * Gestore delle notifiche attive, usato per le generazioni ripetute.
+     */
+    private final ActiveNotifierManager activeNotifierManager;
+    /**
+     * Tabella delle generazioni.
+     */
+    private final Grid<AiJobService.AiJob> jobsGrid = new Grid<>();
+    /**
+     * Statistiche di utilizzo della cache delle risposte AI.
+     */
+    private final Span cacheStats = new Span();
+    /**
+     * Identificativo del browser dell'utente.
+     */
+    private String clientId;
+    /**
+     * Registrazione del listener dei cambiamenti di stato, attiva mentre la vista è visibile.
+     */
+    private Registration jobListener;
+
+    /**
+     * Costruisce la vista.
+     *
+     * @param aiJobService          il servizio per le generazioni AI
+     * @param aiBatchService        il servizio per le generazioni in lotto
+     * @param fileStorageService    il servizio per la gestione dei file
+     * @param responseCache         la cache delle risposte AI
+     * @param activeNotifierManager il gestore delle notifiche attive
+     */
+    public AiJobsView(AiJobService aiJobService, AiBatchService aiBatchService, FileStorageService fileStorageService,
+                      AiResponseCache responseCache, ActiveNotifierManager activeNotifierManager) {
+        this.aiJobService = aiJobService;
+        this.aiBatchService = aiBatchService;
+        this.fileStorageService = fileStorageService;
+        this.responseCache = responseCache;
+        this.activeNotifierManager = activeNotifierManager;
+        initView();
+    }
+
+    /**
+     * Carica le generazioni dell'utente e registra il listener dei cambiamenti di stato.
+     *
+     * @param attachEvent l'evento di collegamento
+     */
+    @Override
+    protected void onAttach(AttachEvent attachEvent) {
+        super.onAttach(attachEvent);
+        clientId = ClientIdentity.current();
+        UI ui = attachEvent.getUI();
+        jobListener = aiJobService.addJobListener(job -> {
+            if (clientId.equals(job.getClientId())) {
+                ui.access(this::refresh);
+            }
+        });
+        refresh();
+    }
+
+    /**
+     * Rimuove il listener dei cambiamenti di stato.
+     *
+     * @param detachEvent l'evento di distacco
+     */
+    @Override
+    protected void onDetach(DetachEvent detachEvent) {
+        super.onDetach(detachEvent);
+        if (jobListener != null) {
+            jobListener.remove();
+            jobListener = null;
+        }
+    }
+
+    /**
+     * Inizializza la struttura e i componenti della vista.
+     */
+    private void initView() {
+        VerticalLayout mainLayout = StyleApp.getMainLayout(getContent());
+
+        AppHeader header = new AppHeader(fileStorageService);
+        Button backButton = StyleApp.getBackButton();
+        backButton.setTooltipText("Torna alla lista degli scenari");
+        backButton.addClickListener(e -> backButton.getUI().ifPresent(ui -> ui.navigate("scenari")));
+
+        Button newGenerationButton = StyleApp.getButton("Nuova generazione", VaadinIcon.PLUS, ButtonVariant.LUMO_PRIMARY, "--lumo-primary-color");
+        newGenerationButton.setTooltipText("Crea uno scenario con l'aiuto dell'intelligenza artificiale");
+        newGenerationButton.addClickListener(e -> newGenerationButton.getUI().ifPresent(ui -> ui.navigate("ai-creation")));
+        Button batchButton = StyleApp.getButton("Generazione in lotto", VaadinIcon.UPLOAD, ButtonVariant.LUMO_CONTRAST, "--lumo-contrast-color");
+        batchButton.setTooltipText("Genera più scenari a partire da un file CSV o JSON di richieste");
+        batchButton.addClickListener(e -> showBatchDialog());
+        HorizontalLayout customHeader = StyleApp.getCustomHeader(backButton, header);
+        customHeader.add(batchButton, newGenerationButton);
+
+        Icon robotIcon = FontAwesome.Solid.ROBOT.create();
+        VerticalLayout headerSection = StyleApp.getTitleSubtitle(
+                "GENERAZIONI AI",
+                "Stato delle generazioni richieste da questo browser",
+                robotIcon,
+                "var(--lumo-primary-color)"
+        );
+
+        VerticalLayout contentLayout = StyleApp.getContentLayout();
+        configureGrid();
+        cacheStats.addClassNames(LumoUtility.FontSize.SMALL, LumoUtility.TextColor.SECONDARY);
+        cacheStats.setVisible(responseCache.isEnabled());
+        contentLayout.add(headerSection, cacheStats, jobsGrid);
+
+        mainLayout.add(customHeader, contentLayout, StyleApp.getFooterLayout(null));
+    }
+
+    /**
+     * Configura le colonne della tabella delle generazioni.
+     */
+    private void configureGrid() {
+        jobsGrid.setWidthFull();
+        jobsGrid.addClassName(LumoUtility.BorderRadius.MEDIUM);
+        jobsGrid.addClassName(LumoUtility.BoxShadow.SMALL);
+        jobsGrid.addThemeVariants(GridVariant.LUMO_ROW_STRIPES, GridVariant.LUMO_WRAP_CELL_CONTENT);
+        jobsGrid.getStyle().set("min-height", "400px");
+
+        jobsGrid.addColumn(job -> job.isRegeneration() ? job.getDescription() + " (rigenerata)" : job.getDescription())
+                .setHeader("Generazione").setFlexGrow(3);
+        jobsGrid.addComponentColumn(this::createStatusBadge).setHeader("Stato").setAutoWidth(true).setFlexGrow(0);
+        jobsGrid.addColumn(job -> format(job.getCreatedAt())).setHeader("Richiesta").setAutoWidth(true).setFlexGrow(0);
+        jobsGrid.addColumn(job -> format(job.getCompletedAt())).setHeader("Conclusa").setAutoWidth(true).setFlexGrow(0);
+        jobsGrid.addColumn(job -> job.getMessage() != null ? job.getMessage() : "").setHeader("Esito").setFlexGrow(3);
+        jobsGrid.addComponentColumn(this::createActions).setHeader("").setAutoWidth(true).setFlexGrow(0);
+    }
+
+    /**
+     * Crea l'etichetta colorata dello stato di una generazione.
+     *
+     * @param job la generazione
+     * @return l'etichetta
+     */
+    private Span createStatusBadge(AiJobService.AiJob job) {
+        Span badge = new Span(job.getStatus().getLabel());
+        switch (job.getStatus()) {
+            case SUCCEEDED -> badge.getElement().getThemeList().add("badge success");
+            case FAILED -> badge.getElement().getThemeList().add("badge error");
+            case RUNNING -> badge.getElement().getThemeList().add("badge");
+            default -> badge.getElement().getThemeList().add("badge contrast");
+        }
+        return badge;
+    }
+
+    /**
+     * Crea le azioni disponibili per una generazione: l'annullamento se è in coda,
+     * l'apertura dello scenario se è conclusa con successo e la ripetizione se è conclusa.
+     *
+     * @param job la generazione
+     * @return i pulsanti delle azioni, o un elemento vuoto se non ci sono azioni
+     */
+    private Component createActions(AiJobService.AiJob job) {
+        if (job.getStatus() == AiJobService.Status.QUEUED) {
+            Button cancelButton = new Button("Annulla", VaadinIcon.CLOSE_SMALL.create());
+            cancelButton.addThemeVariants(ButtonVariant.LUMO_ERROR, ButtonVariant.LUMO_TERTIARY, ButtonVariant.LUMO_SMALL);
+            cancelButton.addClickListener(e -> {
+                if (!aiJobService.cancel(job.getId(), clientId)) {
+                    Notification.show("La generazione è già stata avviata.", 3000, Notification.Position.MIDDLE)
+                            .addThemeVariants(NotificationVariant.LUMO_CONTRAST);
+                }
+                refresh();
+            });
+            return cancelButton;
+        }
+        if (job.getStatus() == AiJobService.Status.QUEUED || job.getStatus() == AiJobService.Status.RUNNING) {
+            return new Span();
+        }
+        HorizontalLayout actions = new HorizontalLayout();
+        actions.setSpacing(false);
+        if (job.getBatchId() != null) {
+            Button reportButton = new Button("Report lotto", VaadinIcon.TABLE.create());
+            reportButton.addThemeVariants(ButtonVariant.LUMO_TERTIARY, ButtonVariant.LUMO_SMALL);
+            reportButton.addClickListener(e -> showBatchReport(job.getBatchId()));
+            actions.add(reportButton);
+        }
+        if (job.getStatus() == AiJobService.Status.SUCCEEDED) {
+            String target = job.getScenarioId() != null ? "scenari/" + job.getScenarioId() : "scenari";
+            Button openButton = new Button(job.getScenarioId() != null ? "Apri scenario" : "Vedi scenari", VaadinIcon.ARROW_RIGHT.create());
+            openButton.addThemeVariants(ButtonVariant.LUMO_TERTIARY, ButtonVariant.LUMO_SMALL);
+            openButton.addClickListener(e -> openButton.getUI().ifPresent(ui -> ui.navigate(target)));
+            actions.add(openButton);
+        }
+        Button regenerateButton = new Button("Rigenera", VaadinIcon.REFRESH.create());
+        regenerateButton.addThemeVariants(ButtonVariant.LUMO_TERTIARY, ButtonVariant.LUMO_SMALL);
+        regenerateButton.setTooltipText("Ripete la generazione con la stessa richiesta, senza riutilizzare risposte precedenti");
+        regenerateButton.addClickListener(e -> regenerate(job));
+        actions.add(regenerateButton);
+        return actions;
+    }
+
+    /**
+     * Ripete una generazione conclusa, ignorando la cache delle risposte AI.
+     *
+     * @param job la generazione da ripetere
+     */
+    private void regenerate(AiJobService.AiJob job) {
+        UI ui = UI.getCurrent();
+        String notificationId = activeNotifierManager.show(job.getDescription() + " in corso...");
+        try {
+            if (aiJobService.regenerate(job.getId(), clientId, ui, notificationId) == null) {
+                activeNotifierManager.close(notificationId);
+                Notification.show("La generazione non può essere ripetuta.", 3000, Notification.Position.MIDDLE)
+                        .addThemeVariants(NotificationVariant.LUMO_CONTRAST);
+            }
+        } catch (IllegalStateException ex) {
+            activeNotifierManager.close(notificationId);
+            Notification.show(ex.getMessage(), 3000, Notification.Position.MIDDLE)
+                    .addThemeVariants(NotificationVariant.LUMO_ERROR);
+        }
+        refresh();
+    }
+
+    /**
+     * Mostra il dialog per caricare il file delle richieste di una generazione in lotto.
+     */
+    private void showBatchDialog() {
+        Dialog dialog = new Dialog();
+        dialog.setHeaderTitle("Generazione in lotto");
+        dialog.setWidth("600px");
+
+        Paragraph description = new Paragraph("Carica un file CSV con le colonne tipo, target, descrizione e (facoltativa) "
+                + "difficolta, oppure un file JSON con un array di richieste. Il tipo deve essere Quick Scenario, "
+                + "Advanced Scenario o Patient Simulated Scenario; la difficoltà Facile, Media o Difficile. Le generazioni "
+                + "vengono eseguite poche alla volta e, al termine, riceverai un riepilogo con il report del lotto.");
+        description.addClassName(LumoUtility.FontSize.SMALL);
+
+        MemoryBuffer buffer = new MemoryBuffer();
+        Upload upload = new Upload(buffer);
+        upload.setAcceptedFileTypes(".csv", ".json");
+        upload.setMaxFiles(1);
+        upload.setMaxFileSize(1024 * 1024);
+        upload.setDropLabel(new Span("Trascina qui il file delle richieste o clicca per cercare"));
+        upload.setWidthFull();
+        upload.addSucceededListener(event -> {
+            try {
+                String batchId = aiBatchService.submit(clientId, event.getFileName(), buffer.getInputStream().readAllBytes());
+                dialog.close();
+                int rows = aiJobService.getBatchJobs(batchId, clientId).size();
+                Notification.show(rows + " generazioni del lotto messe in coda.", 4000, Notification.Position.TOP_CENTER)
+                        .addThemeVariants(NotificationVariant.LUMO_SUCCESS);
+                refresh();
+            } catch (IllegalArgumentException ex) {
+                upload.clearFileList();
+                Notification.show(ex.getMessage(), 6000, Notification.Position.MIDDLE)
+                        .addThemeVariants(NotificationVariant.LUMO_ERROR);
+            } catch (IOException | IllegalStateException ex) {
+                logger.error("Impossibile mettere in coda il lotto '{}'.", event.getFileName(), ex);
+                upload.clearFileList();
+                Notification.show("Impossibile mettere in coda il lotto: " + ex.getMessage(), 5000, Notification.Position.MIDDLE)
+                        .addThemeVariants(NotificationVariant.LUMO_ERROR);
+            }
+        });
+
+        Button cancelButton = new Button("Annulla", e -> dialog.close());
+        cancelButton.addThemeVariants(ButtonVariant.LUMO_TERTIARY);
+        dialog.add(new VerticalLayout(description, upload));
+        dialog.getFooter().add(cancelButton);
+        dialog.open();
+    }
+
+    /**
+     * Mostra il report di un lotto: esito, attesa in coda e durata della generazione di ogni riga,
+     * con la possibilità di scaricarlo in formato CSV.
+     *
+     * @param batchId l'identificativo del lotto
+     */
+    private void showBatchReport(String batchId) {
+        AiBatchService.BatchReport report = aiBatchService.getReport(batchId, clientId);
+        if (report == null) {
+            Notification.show("Lotto non trovato.", 3000, Notification.Position.MIDDLE)
+                    .addThemeVariants(NotificationVariant.LUMO_CONTRAST);
+            return;
+        }
+        Dialog dialog = new Dialog();
+        dialog.setHeaderTitle("Report del lotto '" + report.name() + "'");
+        dialog.setWidth("90vw");
+
+        Duration average = report.averageGenerationTime();
+        Span summary = new Span(String.format("%d righe: %d scenari creati, %d non riusciti, %d in attesa o in corso. Durata media di una generazione: %s.",
+                report.rows().size(), report.succeeded(), report.failed(), report.pending(), formatDuration(average)));
+
+        Grid<AiBatchService.BatchRow> grid = new Grid<>();
+        grid.addThemeVariants(GridVariant.LUMO_ROW_STRIPES, GridVariant.LUMO_WRAP_CELL_CONTENT, GridVariant.LUMO_COMPACT);
+        grid.addColumn(AiBatchService.BatchRow::number).setHeader("Riga").setAutoWidth(true).setFlexGrow(0);
+        grid.addColumn(AiBatchService.BatchRow::description).setHeader("Generazione").setFlexGrow(3);
+        grid.addColumn(row -> row.status().getLabel()).setHeader("Stato").setAutoWidth(true).setFlexGrow(0);
+        grid.addColumn(row -> formatDuration(row.queueWait())).setHeader("Attesa in coda").setAutoWidth(true).setFlexGrow(0);
+        grid.addColumn(row -> formatDuration(row.generationTime())).setHeader("Durata").setAutoWidth(true).setFlexGrow(0);
+        grid.addColumn(row -> row.message() != null ? row.message() : "").setHeader("Esito").setFlexGrow(3);
+        grid.setItems(report.rows());
+        grid.setHeight("50vh");
+
+        DynamicFileDownloader downloader = new DynamicFileDownloader("Scarica il report (CSV)", "report_lotto.csv",
+                outputStream -> outputStream.write(aiBatchService.toCsv(aiBatchService.getReport(batchId, clientId))));
+        downloader.withContentTypeGenerator(() -> "text/csv");
+
+        Button closeButton = new Button("Chiudi", e -> dialog.close());
+        closeButton.addThemeVariants(ButtonVariant.LUMO_TERTIARY);
+        VerticalLayout layout = new VerticalLayout(summary, grid);
+        layout.setPadding(false);
+        dialog.add(layout);
+        dialog.getFooter().add(downloader, closeButton);
+        dialog.open();
+    }
+
+    /**
+     * Ricarica le generazioni dell'utente.
+     */
+    private void refresh() {
+        jobsGrid.setItems(aiJobService.getJobs(clientId, MAX_JOBS));
+        if (responseCache.isEnabled()) {
+            AiResponseCache.Stats stats = responseCache.getStats();
+            cacheStats.setText(String.format("Cache delle risposte AI: %d richieste servite dalla cache su %d (%d%%), %d rigenerate; %d risposte memorizzate (%d KB).",
+                    stats.hits(), stats.hits() + stats.misses(), Math.round(stats.hitRate() * 100), stats.bypasses(),
+                    stats.entries(), stats.sizeBytes() / 1024));
+        }
+    }
+
+    /**
+     * Formatta una durata per il report dei lotti.
+     *
+     * @param duration la durata (può essere <code>null</code>)
+     * @return la durata in secondi, o un trattino se non è disponibile
+     */
+    private static String formatDuration(Duration duration) {
+        return duration != null ? String.format("%.1f s", duration.toMillis() / 1000.0) : "-";
+    }
+
+    /**
+     * Formatta un istante per la tabella.
+     *
+     * @param instant l'istante (può essere <code>null</code>)
+     * @return la data formattata, o un trattino se l'istante non è disponibile
+     */
+    private static String format(Instant instant) {
+        return instant != null ? DATE_FORMAT.format(instant) : "-";
+    }
+}
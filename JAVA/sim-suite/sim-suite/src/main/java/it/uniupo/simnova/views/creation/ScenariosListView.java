@@ -22,6 +22,8 @@ import com.vaadin.flow.component.orderedlayout.FlexComponent;
 import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
 import com.vaadin.flow.component.progressbar.ProgressBar;
+import com.vaadin.flow.component.radiobutton.RadioButtonGroup;
+import com.vaadin.flow.component.select.Select;
 import com.vaadin.flow.component.textfield.TextField;
 import com.vaadin.flow.data.provider.ListDataProvider;
 import com.vaadin.flow.data.renderer.ComponentRenderer;
@@ -30,6 +32,9 @@ import com.vaadin.flow.router.PageTitle;
 import com.vaadin.flow.router.Route;
 import com.vaadin.flow.theme.lumo.LumoUtility;
 import it.uniupo.simnova.domain.scenario.Scenario;
+import it.uniupo.simnova.service.ActiveNotifierManager;
+import it.uniupo.simnova.service.export.BatchPdfExportService;
+import it.uniupo.simnova.service.export.PdfSections;
 import it.uniupo.simnova.service.export.ZipExportService;
 import it.uniupo.simnova.service.scenario.ScenarioService;
 import it.uniupo.simnova.service.scenario.components.AzioneChiaveService;
@@ -51,13 +56,14 @@ import it.uniupo.simnova.views.ui.helper.DialogSupport;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
-import org.jsoup.Jsoup;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.vaadin.firitin.components.DynamicFileDownloader;
@@ -155,6 +161,19 @@ public class ScenariosListView extends Composite<VerticalLayout> {
      * Servizio per la gestione dei file, utilizzato per operazioni di caricamento e download.
      */
     private final FileStorageService fileStorageService;
+    /**
+     * Servizio per l'esportazione PDF in background di più scenari.
+     */
+    private final BatchPdfExportService batchPdfExportService;
+    /**
+     * Gestore delle notifiche attive, utilizzato per mostrare l'avanzamento dell'esportazione multipla.
+     */
+    private final ActiveNotifierManager activeNotifierManager;
+    /**
+     * ID degli scenari selezionati per l'esportazione multipla, nell'ordine di selezione.
+     * La selezione è mantenuta al cambio di pagina e di filtri.
+     */
+    private final Set<Integer> selectedScenarioIds = new LinkedHashSet<>();
 
     /**
      * Griglia per la visualizzazione degli scenari.
@@ -242,6 +261,8 @@ public class ScenariosListView extends Composite<VerticalLayout> {
      * @param patientSimulatedScenarioService servizio per la gestione degli scenari simulati per pazienti
      * @param scenarioDeletionService         servizio per la cancellazione degli scenari
      * @param materialeService                servizio per la gestione del materiale necessario
+     * @param batchPdfExportService           servizio per l'esportazione PDF di più scenari
+     * @param activeNotifierManager           gestore delle notifiche attive
      */
     @Autowired
     public ScenariosListView(ScenarioService scenarioService,
@@ -255,7 +276,9 @@ public class ScenariosListView extends Composite<VerticalLayout> {
                              AdvancedScenarioService advancedScenarioService,
                              PatientSimulatedScenarioService patientSimulatedScenarioService,
                              ScenarioDeletionService scenarioDeletionService,
-                             MaterialeService materialeService) {
+                             MaterialeService materialeService,
+                             BatchPdfExportService batchPdfExportService,
+                             ActiveNotifierManager activeNotifierManager) {
         this.scenarioService = scenarioService;
         this.zipExportService = zipExportService;
         this.fileStorageService = fileStorageService;
@@ -268,6 +291,8 @@ public class ScenariosListView extends Composite<VerticalLayout> {
         this.patientSimulatedScenarioService = patientSimulatedScenarioService;
         this.scenarioDeletionService = scenarioDeletionService;
         this.materialeService = materialeService;
+        this.batchPdfExportService = batchPdfExportService;
+        this.activeNotifierManager = activeNotifierManager;
         this.detached = new AtomicBoolean(false);
         initView();
     }
@@ -308,8 +333,12 @@ public class ScenariosListView extends Composite<VerticalLayout> {
         backButton.setTooltipText("Torna alla pagina di creazione");
 
         Button newScenarioButton = StyleApp.getButton("Nuovo scenario", VaadinIcon.PLUS, ButtonVariant.LUMO_PRIMARY, "--lumo-primary-color");
+        Button batchPdfButton = StyleApp.getButton("Esporta PDF", VaadinIcon.DOWNLOAD, ButtonVariant.LUMO_TERTIARY, "--lumo-primary-color");
+        batchPdfButton.setTooltipText("Esporta in PDF gli scenari selezionati");
+        Button aiJobsButton = StyleApp.getButton("Generazioni AI", VaadinIcon.TASKS, ButtonVariant.LUMO_TERTIARY, "--lumo-primary-color");
+        aiJobsButton.setTooltipText("Stato delle generazioni AI richieste");
         HorizontalLayout customHeader = StyleApp.getCustomHeader(backButton, header);
-        customHeader.add(newScenarioButton);
+        customHeader.add(aiJobsButton, batchPdfButton, newScenarioButton);
 
         configureSearchFilters();
         HorizontalLayout filterLayout = new HorizontalLayout(searchPatientType, searchTitolo, searchTipo, searchAutori, searchPatologia, resetButton);
@@ -344,6 +373,18 @@ public class ScenariosListView extends Composite<VerticalLayout> {
                 DialogSupport.showZipUploadDialog(detached, executorService, scenarioImportService, this::loadData);
             }
         });
+
+        batchPdfButton.addClickListener(e -> {
+            if (!detached.get()) {
+                showBatchPdfExportDialog();
+            }
+        });
+
+        aiJobsButton.addClickListener(e -> {
+            if (!detached.get()) {
+                getUI().ifPresent(ui -> ui.navigate("ai-jobs"));
+            }
+        });
     }
 
     /**
@@ -430,6 +471,25 @@ public class ScenariosListView extends Composite<VerticalLayout> {
         scenariosGrid.addClassName(LumoUtility.BoxShadow.SMALL);
         scenariosGrid.getStyle().set("min-height", "400px");
 
+        // Colonna di selezione per l'esportazione multipla
+        scenariosGrid.addComponentColumn(scenario -> {
+                    Checkbox selectChk = new Checkbox(selectedScenarioIds.contains(scenario.getId()));
+                    selectChk.getElement().setAttribute("title", "Seleziona per l'esportazione PDF");
+                    // Evita che il click sulla casella apra il dettaglio dello scenario
+                    selectChk.getElement().addEventListener("click", e -> {
+                    }).addEventData("event.stopPropagation()");
+                    selectChk.addValueChangeListener(e -> {
+                        if (Boolean.TRUE.equals(e.getValue())) {
+                            selectedScenarioIds.add(scenario.getId());
+                        } else {
+                            selectedScenarioIds.remove(scenario.getId());
+                        }
+                    });
+                    return selectChk;
+                })
+                .setFlexGrow(0)
+                .setWidth("56px");
+
         scenariosGrid.addColumn(new ComponentRenderer<>(scenario -> {
                     String patientType = scenario.getTipologia() != null ? scenario.getTipologia() : "Unknown";
                     Span span;
@@ -572,7 +632,7 @@ public class ScenariosListView extends Composite<VerticalLayout> {
                 .setComparator(Comparator.comparing(Scenario::getPatologia, Comparator.nullsLast(String::compareToIgnoreCase)));
 
         scenariosGrid.addColumn(new ComponentRenderer<>(scenario -> {
-                    String descrizione = scenario.getDescrizione() != null ? scenario.getDescrizione() : "";
+                    String descrizione = scenario.getDescrizioneAnteprima() != null ? scenario.getDescrizioneAnteprima() : "";
                     Div container = new Div();
                     container.setWidthFull();
                     container.getStyle()
@@ -583,9 +643,9 @@ public class ScenariosListView extends Composite<VerticalLayout> {
                     if (descrizione.isEmpty()) {
                         return container;
                     }
-                    String plainText = Jsoup.parse(descrizione).text(); // Rimuove i tag HTML
-                    container.setText(plainText.length() > MAX_DESCRIPTION_LENGTH ? plainText.substring(0, MAX_DESCRIPTION_LENGTH) + "..." : plainText);
-                    container.getElement().setAttribute("title", plainText);
+                    // L'anteprima è già testo semplice, precompilato al salvataggio della descrizione.
+                    container.setText(descrizione.length() > MAX_DESCRIPTION_LENGTH ? descrizione.substring(0, MAX_DESCRIPTION_LENGTH) + "..." : descrizione);
+                    container.getElement().setAttribute("title", descrizione);
                     return container;
                 })).setHeader("Descrizione")
                 .setFlexGrow(1);
@@ -764,7 +824,7 @@ public class ScenariosListView extends Composite<VerticalLayout> {
 
         // Se lo scenario non è avanzato o simulato, esporta tutto direttamente
         if (!"Advanced Scenario".equals(scenarioType) && !"Patient Simulated Scenario".equals(scenarioType)) {
-            executeExport(scenario, true, true, true, true, true, true, true, true, true, true, true, true, true, true, true, zipExportService);
+            executeExport(scenario, true, true, true, true, true, true, true, true, true, true, true, true, true, true, true, false, zipExportService);
             return;
         }
 
@@ -792,6 +852,7 @@ public class ScenariosListView extends Composite<VerticalLayout> {
         Checkbox accessiChk = new Checkbox("Accessi", true);
         Checkbox esameFisicoChk = new Checkbox("Esame fisico", true);
         Checkbox esamiERefertiChk = new Checkbox("Esami e referti", true);
+        Checkbox immaginiEsamiChk = new Checkbox("Immagini degli esami (ridotte per la stampa)", false);
         Checkbox timelineChk = new Checkbox("Timeline", true);
 
         // Disabilita i checkbox se i dati correlati non sono presenti nello scenario
@@ -834,6 +895,17 @@ public class ScenariosListView extends Composite<VerticalLayout> {
             esamiERefertiChk.setEnabled(false);
         }
 
+        // Le immagini degli esami si possono incorporare solo se la sezione esami è inclusa e ci sono allegati
+        boolean hasExamMedia = esamiERefertiChk.isEnabled() && esameRefertoService.getEsamiRefertiByScenarioId(scenario.getId()).stream()
+                .anyMatch(esame -> esame.getMedia() != null && !esame.getMedia().isEmpty());
+        immaginiEsamiChk.setEnabled(hasExamMedia);
+        esamiERefertiChk.addValueChangeListener(e -> {
+            immaginiEsamiChk.setEnabled(hasExamMedia && e.getValue());
+            if (!e.getValue()) {
+                immaginiEsamiChk.setValue(false);
+            }
+        });
+
         if (advancedScenarioService.getTempiByScenarioId(scenario.getId()) == null || advancedScenarioService.getTempiByScenarioId(scenario.getId()).isEmpty()) {
             timelineChk.setEnabled(false);
         }
@@ -844,7 +916,7 @@ public class ScenariosListView extends Composite<VerticalLayout> {
 
         layout.add(descChk, briefingChk, infoGenChk, pattoChk, azioniChk, obiettiviChk,
                 moulageChk, liquidiChk, matNecChk, paramChk, accessiChk, esameFisicoChk,
-                esamiERefertiChk, timelineChk);
+                esamiERefertiChk, immaginiEsamiChk, timelineChk);
 
         // Aggiunge checkbox "Sceneggiatura" solo per scenari di tipo "Patient Simulated Scenario"
         Checkbox sceneggiaturaChk = new Checkbox("Sceneggiatura", true);
@@ -865,7 +937,8 @@ public class ScenariosListView extends Composite<VerticalLayout> {
                     pattoChk.getValue(), azioniChk.getValue(), obiettiviChk.getValue(),
                     moulageChk.getValue(), liquidiChk.getValue(), matNecChk.getValue(),
                     paramChk.getValue(), accessiChk.getValue(), esameFisicoChk.getValue(),
-                    esamiERefertiChk.getValue(), timelineChk.getValue(), sceneggiaturaChk.getValue(), zipExportService);
+                    esamiERefertiChk.getValue(), timelineChk.getValue(), sceneggiaturaChk.getValue(),
+                    immaginiEsamiChk.getValue(), zipExportService);
         });
         confirmButton.addThemeVariants(ButtonVariant.LUMO_PRIMARY);
         Button cancelButton = new Button("Annulla", e -> dialog.close());
@@ -894,12 +967,13 @@ public class ScenariosListView extends Composite<VerticalLayout> {
      * @param esam             True se includere gli esami e referti, false altrimenti.
      * @param time             True se includere la timeline, false altrimenti.
      * @param scen             True se includere la sceneggiatura, false altrimenti.
+     * @param esamImg          True se incorporare nel PDF le immagini degli esami, false altrimenti.
      * @param zipExportService Il servizio per l'esportazione in ZIP.
      */
     private void executeExport(Scenario scenario, boolean desc, boolean brief, boolean infoGen,
                                boolean patto, boolean azioni, boolean obiettivi, boolean moula, boolean liquidi,
                                boolean matNec, boolean param, boolean acces, boolean fisic,
-                               boolean esam, boolean time, boolean scen,
+                               boolean esam, boolean time, boolean scen, boolean esamImg,
                                ZipExportService zipExportService) {
         Notification.show("Generazione del PDF...", 3000, Notification.Position.MIDDLE).addThemeVariants(NotificationVariant.LUMO_PRIMARY);
         logger.info("Inizio generazione PDF per lo scenario {}", scenario.getId());
@@ -912,16 +986,10 @@ public class ScenariosListView extends Composite<VerticalLayout> {
                     outputStream -> {
                         try {
                             logger.info("Generazione PDF per lo scenario {}", scenario.getId());
-                            byte[] pdfBytes = zipExportService.exportScenarioPdfToZip(
-                                    scenario.getId(), desc, brief, infoGen, patto,
-                                    azioni, obiettivi, moula, liquidi, matNec, param, acces,
-                                    fisic, esam, time, scen);
-                            logger.info("PDF generato con successo per lo scenario {}", scenario.getId());
-                            if (pdfBytes == null || pdfBytes.length == 0) {
-                                logger.error("Generato lo scenario {}", scenario.getId());
-                                throw new RuntimeException("Generated PDF bytes are null or empty.");
-                            }
-                            outputStream.write(pdfBytes);
+                            // Lo ZIP viene scritto direttamente nella risposta, senza copie in memoria.
+                            zipExportService.writeScenarioPdfZip(scenario.getId(), new PdfSections(desc, brief, infoGen,
+                                    patto, azioni, obiettivi, moula, liquidi, matNec, param, acces, fisic, esam, time, scen, esamImg),
+                                    outputStream);
                             logger.info("File ZIP generato con successo per lo scenario {}", scenario.getId());
                         } catch (IOException | RuntimeException e) {
                             logger.error("Errore durante la generazione del file ZIP per lo scenario {}: {}", scenario.getId(), e.getMessage(), e);
@@ -970,6 +1038,75 @@ public class ScenariosListView extends Composite<VerticalLayout> {
         }
     }
 
+    /**
+     * Mostra il dialog per l'esportazione PDF di più scenari.
+     * L'esportazione viene eseguita in background da {@link BatchPdfExportService}: l'avanzamento
+     * e il link per il download arrivano come notifiche anche se nel frattempo si cambia pagina.
+     */
+    private void showBatchPdfExportDialog() {
+        // Scarta gli scenari selezionati che nel frattempo sono stati eliminati
+        Set<Integer> existingIds = allScenarios.stream().map(Scenario::getId).collect(Collectors.toSet());
+        selectedScenarioIds.retainAll(existingIds);
+
+        Dialog dialog = new Dialog();
+        dialog.setWidth("500px");
+        dialog.setCloseOnEsc(true);
+        dialog.setCloseOnOutsideClick(true);
+        dialog.setHeaderTitle("Esporta PDF di più scenari");
+
+        VerticalLayout layout = new VerticalLayout();
+        layout.setSpacing(true);
+        layout.setPadding(false);
+
+        RadioButtonGroup<String> scopeGroup = new RadioButtonGroup<>("Scenari da esportare");
+        String selectedOption = "Scenari selezionati (" + selectedScenarioIds.size() + ")";
+        String filteredOption = "Tutti gli scenari filtrati (" + filteredScenarios.size() + ")";
+        scopeGroup.setItems(selectedOption, filteredOption);
+        scopeGroup.setValue(selectedScenarioIds.isEmpty() ? filteredOption : selectedOption);
+        scopeGroup.setItemEnabledProvider(item -> !item.equals(selectedOption) || !selectedScenarioIds.isEmpty());
+
+        Select<PdfSections.Preset> presetSelect = new Select<>();
+        presetSelect.setLabel("Sezioni");
+        presetSelect.setItems(PdfSections.Preset.values());
+        presetSelect.setItemLabelGenerator(PdfSections.Preset::getLabel);
+        presetSelect.setValue(PdfSections.Preset.COMPLETO);
+        presetSelect.setWidthFull();
+
+        RadioButtonGroup<BatchPdfExportService.OutputFormat> formatGroup = new RadioButtonGroup<>("Formato");
+        formatGroup.setItems(BatchPdfExportService.OutputFormat.values());
+        formatGroup.setItemLabelGenerator(format -> format == BatchPdfExportService.OutputFormat.ZIP
+                ? "Archivio ZIP (un PDF per scenario)" : "PDF unico");
+        formatGroup.setValue(BatchPdfExportService.OutputFormat.ZIP);
+
+        layout.add(scopeGroup, presetSelect, formatGroup);
+        dialog.add(layout);
+
+        Button confirmButton = new Button("Avvia esportazione", e -> {
+            List<Integer> scenarioIds = selectedOption.equals(scopeGroup.getValue())
+                    ? new ArrayList<>(selectedScenarioIds)
+                    : filteredScenarios.stream().map(Scenario::getId).toList();
+            if (scenarioIds.isEmpty()) {
+                Notification.show("Nessuno scenario da esportare.", 3000, Position.MIDDLE)
+                        .addThemeVariants(NotificationVariant.LUMO_CONTRAST);
+                return;
+            }
+            dialog.close();
+            getUI().ifPresent(ui -> {
+                String notificationId = activeNotifierManager.show("Esportazione PDF di " + scenarioIds.size() + " scenari in corso...");
+                batchPdfExportService.submit(ui, scenarioIds, presetSelect.getValue().getSections(), formatGroup.getValue(), notificationId);
+                Notification.show("Esportazione avviata: puoi continuare a lavorare, riceverai una notifica al termine.",
+                                4000, Position.BOTTOM_END)
+                        .addThemeVariants(NotificationVariant.LUMO_PRIMARY);
+            });
+        });
+        confirmButton.addThemeVariants(ButtonVariant.LUMO_PRIMARY);
+        Button cancelButton = new Button("Annulla", e -> dialog.close());
+        cancelButton.addThemeVariants(ButtonVariant.LUMO_TERTIARY);
+        dialog.getFooter().add(cancelButton, confirmButton);
+
+        dialog.open();
+    }
+
     /**
      * Gestisce l'esportazione di uno scenario in formato ZIP per l'esecuzione.
      *
@@ -1,11 +1,16 @@
 package it.uniupo.simnova.views.creation.scenario;
 
 import com.flowingcode.vaadin.addons.fontawesome.FontAwesome;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 
-import com.google.gson.Gson;
 import com.vaadin.flow.component.Composite;
 import com.vaadin.flow.component.UI;
 import com.vaadin.flow.component.button.Button;
+import com.vaadin.flow.component.checkbox.Checkbox;
 import com.vaadin.flow.component.html.Div;
 import com.vaadin.flow.component.html.Span;
 import com.vaadin.flow.component.icon.Icon;
@@ -19,26 +24,25 @@ import com.vaadin.flow.component.textfield.TextField;
 import com.vaadin.flow.data.value.ValueChangeMode;
 import com.vaadin.flow.router.PageTitle;
 import com.vaadin.flow.router.Route;
+import com.vaadin.flow.shared.Registration;
 import it.uniupo.simnova.service.ActiveNotifierManager;
 import it.uniupo.simnova.service.NotifierService;
-import it.uniupo.simnova.service.ai_api.ExternalApiService;
+import it.uniupo.simnova.service.ai_api.AiJobService;
 import it.uniupo.simnova.service.ai_api.model.ScenarioGenerationRequest;
-import it.uniupo.simnova.service.scenario.operations.ScenarioImportService;
+import it.uniupo.simnova.service.ai_api.model.ScenarioSection;
 import it.uniupo.simnova.service.storage.FileStorageService;
+import it.uniupo.simnova.utils.ClientIdentity;
 import it.uniupo.simnova.views.MainLayout;
 import it.uniupo.simnova.views.common.components.AppHeader;
 import it.uniupo.simnova.views.common.utils.FieldGenerator;
 import it.uniupo.simnova.views.common.utils.StyleApp;
+import it.uniupo.simnova.views.ui.helper.AiAvailabilitySupport;
+import org.jsoup.Jsoup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.web.client.HttpClientErrorException;
 
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.ExecutorService;
-
-import static it.uniupo.simnova.views.ui.helper.support.ErrorExtractor.extractErrorReasonFromJson;
 
 /**
  * Classe che gestisce la creazione di uno scenario utilizzando l'intelligenza artificiale.
@@ -50,12 +54,9 @@ import static it.uniupo.simnova.views.ui.helper.support.ErrorExtractor.extractEr
 @Route(value = "ai-creation", layout = MainLayout.class)
 public class AICreation extends Composite<VerticalLayout> {
     private static final Logger logger = LoggerFactory.getLogger(AICreation.class);
-    private static final Gson gson = new Gson();
-    private final ScenarioImportService scenarioImportService;
     private final FileStorageService fileStorageService;
-    private final ExternalApiService externalApiService;
+    private final AiJobService aiJobService;
     private final NotifierService notifierService;
-    private final ExecutorService executorService;
     private final ActiveNotifierManager activeNotifierManager;
     private final Icon aiIcon = FontAwesome.Solid.ROBOT.create();
     private int step = 0;
@@ -64,19 +65,19 @@ public class AICreation extends Composite<VerticalLayout> {
     private TextField scenarioTargetField;
     private TextArea shortDescription;
     private Select<String> difficultySelect;
+    private Checkbox enrichCheckbox;
     private HorizontalLayout inputTypeLayout, inputTargetLayout, inputDescLayout, inputDiffLayout;
     private Button sendType, sendTarget, sendDesc, sendDiff, nextButton;
+    private VerticalLayout streamedSections;
+    private Registration sectionRegistration;
 
     public AICreation(FileStorageService fileStorageService,
-                      ScenarioImportService scenarioImportService,
-                      ExternalApiService externalApiService,
+                      AiJobService aiJobService,
                       NotifierService notifierService,
-                      ExecutorService executorService, ActiveNotifierManager activeNotifierManager) {
+                      ActiveNotifierManager activeNotifierManager) {
         this.fileStorageService = fileStorageService;
-        this.scenarioImportService = scenarioImportService;
-        this.externalApiService = externalApiService;
+        this.aiJobService = aiJobService;
         this.notifierService = notifierService;
-        this.executorService = executorService;
         this.activeNotifierManager = activeNotifierManager;
         aiIcon.setSize("20px");
         initView();
@@ -90,43 +91,22 @@ public class AICreation extends Composite<VerticalLayout> {
                 scenarioTypeSelect.getValue(),
                 scenarioTargetField.getValue()
         );
-        executorService.submit(() -> {
-            try {
-                Optional<String> jsonResponseOptional = externalApiService.generateScenario(request);
-                if (jsonResponseOptional.isPresent()) {
-                    scenarioImportService.createScenarioByJSON(jsonResponseOptional.get().getBytes(StandardCharsets.UTF_8));
-                    notifierService.notify(ui, new NotifierService.NotificationPayload(
-                            NotifierService.Status.SUCCESS,
-                            "Generazione Completata",
-                            "Nuovo Scenario creato con successo!",
-                            notificationId
-                    ));
-                } else {
-                    notifierService.notify(ui, new NotifierService.NotificationPayload(
-                            NotifierService.Status.ERROR,
-                            "Errore di Generazione",
-                            "Il servizio AI non ha restituito una risposta valida.",
-                            notificationId
-                    ));
-                }
-            } catch (Exception e) {
-                logger.error("Fallimento nel task di generazione scenario in background.", e);
-                String errorTitle = "Errore Critico";
-                String errorDetails;
-                if (e instanceof HttpClientErrorException hcee) {
-                    errorTitle = "Errore nella Richiesta";
-                    errorDetails = extractErrorReasonFromJson(hcee.getResponseBodyAsString(), gson);
-                } else {
-                    errorDetails = "Si è verificato un problema tecnico. Controllare i log per maggiori dettagli.";
-                }
-                notifierService.notify(ui, new NotifierService.NotificationPayload(
-                        NotifierService.Status.ERROR,
-                        errorTitle,
-                        errorDetails,
-                        notificationId
-                ));
-            }
-        });
+        // La generazione viene eseguita dal servizio: l'esito arriva anche se l'utente lascia questa pagina.
+        try {
+            AiJobService.AiJob job = aiJobService.submitScenario(ClientIdentity.current(), ui, notificationId,
+                    "Generazione scenario (" + scenarioTypeSelect.getValue() + ")", request, enrichCheckbox.getValue());
+            // Con la generazione in streaming, le sezioni dello scenario vengono mostrate man mano che arrivano.
+            sectionRegistration = aiJobService.addSectionListener(job.getId(),
+                    section -> ui.access(() -> showSection(section)));
+        } catch (IllegalStateException e) {
+            logger.error("Impossibile mettere in coda la generazione dello scenario.", e);
+            notifierService.notify(ui, new NotifierService.NotificationPayload(
+                    NotifierService.Status.ERROR,
+                    "Errore Critico",
+                    "Si è verificato un problema tecnico. Controllare i log per maggiori dettagli.",
+                    notificationId
+            ));
+        }
     }
 
     void initView() {
@@ -157,6 +137,12 @@ public class AICreation extends Composite<VerticalLayout> {
         nextButton.setVisible(false);
         nextButton.addClickListener(e -> nextButton.getUI().ifPresent(ui -> ui.navigate("scenari")));
         mainLayout.add(customHeader, contentLayout, footerLayout);
+        addDetachListener(e -> {
+            if (sectionRegistration != null) {
+                sectionRegistration.remove();
+                sectionRegistration = null;
+            }
+        });
         backButton.addClickListener(e -> backButton.getUI().ifPresent(ui -> ui.navigate("")));
         sendType.addClickListener(e -> {
             step = 1;
@@ -211,8 +197,89 @@ public class AICreation extends Composite<VerticalLayout> {
         difficultySelect = FieldGenerator.createSelect("Difficoltà", difficulties, "Facile", true);
         sendDiff = new Button("Invia", FontAwesome.Solid.PAPER_PLANE.create());
         styleSendButton(sendDiff);
-        inputDiffLayout = createUserInputArea(difficultySelect, sendDiff);
+        AiAvailabilitySupport.bind(sendDiff, aiJobService);
+        enrichCheckbox = new Checkbox("Completa lo scenario con esami di laboratorio, materiali e referti", true);
+        enrichCheckbox.setTooltipText("Dopo la creazione, genera in parallelo esami di laboratorio, materiali necessari e referti degli esami");
+        VerticalLayout difficultyFields = new VerticalLayout(difficultySelect, enrichCheckbox);
+        difficultyFields.setPadding(false);
+        difficultyFields.setSpacing(false);
+        inputDiffLayout = createUserInputArea(difficultyFields, sendDiff);
         aiFinalMsg = createAiMessage("Perfetto! Ho tutte le informazioni che mi servono. Sto generando il tuo scenario...");
+        streamedSections = new VerticalLayout();
+        streamedSections.setPadding(false);
+        streamedSections.setSpacing(false);
+    }
+
+    /**
+     * Mostra nella chat una sezione dello scenario appena ricevuta dalla generazione in streaming.
+     * Vengono mostrati il titolo, la descrizione, i parametri vitali al T0 e i tempi; le altre sezioni
+     * vengono salvate senza essere mostrate.
+     *
+     * @param section la sezione ricevuta
+     */
+    private void showSection(ScenarioSection section) {
+        List<String> messages = new ArrayList<>();
+        try {
+            JsonElement value = JsonParser.parseString(section.json());
+            switch (section.name()) {
+                case "scenario" -> {
+                    JsonObject scenario = value.getAsJsonObject();
+                    if (hasText(scenario, "titolo")) {
+                        messages.add("Ho scelto il titolo: \"" + scenario.get("titolo").getAsString() + "\"");
+                    }
+                    if (hasText(scenario, "descrizione")) {
+                        String descrizione = Jsoup.parse(scenario.get("descrizione").getAsString()).text();
+                        messages.add("Descrizione: " + (descrizione.length() > 300 ? descrizione.substring(0, 300) + "..." : descrizione));
+                    }
+                }
+                case "pazienteT0" -> {
+                    JsonObject t0 = value.getAsJsonObject();
+                    List<String> vitals = new ArrayList<>();
+                    for (String parametro : List.of("PA", "FC", "RR", "T", "SpO2", "EtCO2")) {
+                        if (hasText(t0, parametro)) {
+                            vitals.add(parametro + " " + t0.get(parametro).getAsString());
+                        }
+                    }
+                    if (!vitals.isEmpty()) {
+                        messages.add("Parametri vitali al T0: " + String.join(", ", vitals));
+                    }
+                }
+                case "tempi" -> {
+                    JsonArray tempi = value.getAsJsonArray();
+                    StringBuilder text = new StringBuilder("Ho definito " + tempi.size() + " tempi dello scenario");
+                    for (JsonElement tempo : tempi) {
+                        JsonObject t = tempo.getAsJsonObject();
+                        if (hasText(t, "idTempo") && hasText(t, "Azione")) {
+                            text.append("\nT").append(t.get("idTempo").getAsInt()).append(": ")
+                                    .append(Jsoup.parse(t.get("Azione").getAsString()).text());
+                        }
+                    }
+                    messages.add(text.toString());
+                }
+                default -> {
+                    // Le altre sezioni non vengono mostrate.
+                }
+            }
+        } catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+            logger.warn("Sezione '{}' dello scenario non mostrata: {}", section.name(), e.getMessage());
+        }
+        for (String message : messages) {
+            HorizontalLayout bubble = createAiMessage(message);
+            bubble.getStyle().set("white-space", "pre-line");
+            streamedSections.add(bubble);
+        }
+    }
+
+    /**
+     * Verifica se un campo di un oggetto JSON è presente e non è vuoto.
+     *
+     * @param object l'oggetto JSON
+     * @param field  il nome del campo
+     * @return <code>true</code> se il campo ha un valore non vuoto
+     */
+    private static boolean hasText(JsonObject object, String field) {
+        JsonElement element = object.get(field);
+        return element != null && element.isJsonPrimitive() && !element.getAsString().isBlank();
     }
 
     private void styleSendButton(Button button) {
@@ -328,7 +395,7 @@ public class AICreation extends Composite<VerticalLayout> {
         }
         chatLayout.add(createUserMessage(difficultySelect.getValue()));
         if (step == 4) {
-            chatLayout.add(aiFinalMsg);
+            chatLayout.add(aiFinalMsg, streamedSections);
             nextButton.setVisible(true);
         }
     }
@@ -21,8 +21,9 @@ import it.uniupo.simnova.domain.scenario.Scenario;
 import it.uniupo.simnova.domain.common.Tempo;
 import it.uniupo.simnova.service.ActiveNotifierManager;
 import it.uniupo.simnova.service.NotifierService;
-import it.uniupo.simnova.service.ai_api.ExternalApiService;
-import it.uniupo.simnova.service.ai_api.LabExamService;
+import it.uniupo.simnova.service.ai_api.AiJobService;
+import it.uniupo.simnova.service.ai_api.AiPrefetchService;
+import it.uniupo.simnova.service.ai_api.ScenarioContextBuilder;
 import it.uniupo.simnova.service.scenario.components.*;
 import it.uniupo.simnova.service.scenario.types.AdvancedScenarioService;
 import it.uniupo.simnova.service.scenario.types.PatientSimulatedScenarioService;
@@ -40,7 +41,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
 
 import static it.uniupo.simnova.views.ui.helper.TabsSupport.createTabWithIcon;
 
@@ -117,17 +117,17 @@ public class ScenarioDetailsView extends Composite<VerticalLayout> implements Ha
      */
     private final PresidiService presidiService;
     /**
-     * Servizio per l'integrazione con API esterne, ad esempio per la generazione di referti o l'analisi dei dati.
+     * Servizio per le generazioni AI (materiali, esami di laboratorio e referti), eseguite in coda e notificate all'utente.
      */
-    private final ExternalApiService externalApiService;
+    private final AiJobService aiJobService;
     /**
-     * Servizio per la gestione degli esami di laboratorio, come la generazione di referti e l'analisi dei risultati.
+     * Servizio che costruisce il contesto compatto dello scenario inviato al servizio AI.
      */
-    private final LabExamService labExamService;
+    private final ScenarioContextBuilder scenarioContextBuilder;
     /**
-     * Servizio per la gestione dell'esecuzione di task asincroni, utile per operazioni che richiedono tempo come l'elaborazione di dati o la generazione di referti.
+     * Servizio che anticipa in background la generazione degli esami di laboratorio e dei materiali dello scenario.
      */
-    private final ExecutorService executorService;
+    private final AiPrefetchService aiPrefetchService;
     /**
      * Servizio per la gestione delle notifiche tra il backend e il frontend, utilizzato per inviare aggiornamenti in tempo reale agli utenti.
      */
@@ -200,9 +200,9 @@ public class ScenarioDetailsView extends Composite<VerticalLayout> implements Ha
      * @param esameFisicoService              servizio per la gestione dei dati relativi all'esame fisico del paziente, come i parametri vitali e le osservazioni cliniche.
      * @param pazienteT0Service               servizio per la gestione dei dati del paziente al tempo zero (T0), come le condizioni iniziali del paziente all'inizio della simulazione.
      * @param presidiService                  servizio per la gestione dei presidi associati agli scenari, come dispositivi medici o strumenti utilizzati durante la simulazione.
-     * @param externalApiService              servizio per l'integrazione con API esterne, ad esempio per la generazione di referti o l'analisi dei dati.
-     * @param labExamService                  servizio per la gestione degli esami di laboratorio, come la generazione di referti e l'analisi dei risultati.
-     * @param executorService                 servizio per la gestione dell'esecuzione di task asincroni, utile per operazioni che richiedono tempo come l'elaborazione di dati o la generazione di referti.
+     * @param aiJobService                    servizio per le generazioni AI (materiali, esami di laboratorio e referti), eseguite in coda e notificate all'utente.
+     * @param scenarioContextBuilder          servizio che costruisce il contesto compatto dello scenario inviato al servizio AI.
+     * @param aiPrefetchService               servizio che anticipa in background la generazione degli esami di laboratorio e dei materiali dello scenario.
      * @param notifierService                 servizio per la gestione delle notifiche tra il backend e il frontend, utilizzato per inviare aggiornamenti in tempo reale agli utenti.
      * @param activeNotifierManager           gestore per le notifiche attive, che coordina le notifiche tra il backend e il frontend per garantire che gli utenti ricevano aggiornamenti tempestivi.
      */
@@ -211,7 +211,7 @@ public class ScenarioDetailsView extends Composite<VerticalLayout> implements Ha
                                MaterialeService materialeNecessario, AdvancedScenarioService advancedScenarioService,
                                PatientSimulatedScenarioService patientSimulatedScenarioService,
                                AzioneChiaveService azionechiaveService, EsameRefertoService esameRefertoService,
-                               EsameFisicoService esameFisicoService, PazienteT0Service pazienteT0Service, PresidiService presidiService, ExternalApiService externalApiService, LabExamService labExamService, ExecutorService executorService, NotifierService notifierService, ActiveNotifierManager activeNotifierManager) {
+                               EsameFisicoService esameFisicoService, PazienteT0Service pazienteT0Service, PresidiService presidiService, AiJobService aiJobService, ScenarioContextBuilder scenarioContextBuilder, AiPrefetchService aiPrefetchService, NotifierService notifierService, ActiveNotifierManager activeNotifierManager) {
         this.scenarioService = scenarioService;
         this.fileStorageService = fileStorageService;
         this.materialeNecessario = materialeNecessario;
@@ -227,9 +227,9 @@ public class ScenarioDetailsView extends Composite<VerticalLayout> implements Ha
         getContent().addClassName("scenario-details-view");
         // Rimuove il padding predefinito dal layout principale.
         getContent().setPadding(false);
-        this.externalApiService = externalApiService;
-        this.labExamService = labExamService;
-        this.executorService = executorService;
+        this.aiJobService = aiJobService;
+        this.scenarioContextBuilder = scenarioContextBuilder;
+        this.aiPrefetchService = aiPrefetchService;
         this.notifierService = notifierService;
         this.activeNotifierManager = activeNotifierManager;
     }
@@ -297,6 +297,8 @@ public class ScenarioDetailsView extends Composite<VerticalLayout> implements Ha
         }
         logger.info("Scenario con ID {} caricato con successo per la visualizzazione dettagliata.", scenarioId);
         initView(); // Inizializza i componenti dell'UI con i dati dello scenario.
+        // Se la modalità è attiva, prepara in background esami di laboratorio e materiali, che l'utente richiede spesso subito dopo.
+        aiPrefetchService.prefetch(scenario);
     }
 
     /**
@@ -436,10 +438,9 @@ public class ScenarioDetailsView extends Composite<VerticalLayout> implements Ha
                 scenarioService,
                 materialeNecessario,
                 azioneChiaveService,
-                executorService,
                 notifierService,
-                esameFisicoService,
-                externalApiService,
+                scenarioContextBuilder,
+                aiJobService,
                 activeNotifierManager
         );
 
@@ -458,11 +459,9 @@ public class ScenarioDetailsView extends Composite<VerticalLayout> implements Ha
                 fileStorageService,
                 scenarioId,
                 scenario,
-                externalApiService,
-                labExamService,
-                executorService,
+                aiJobService,
                 notifierService,
-                esameFisicoService,
+                scenarioContextBuilder,
                 activeNotifierManager
         );
 
@@ -13,6 +13,7 @@ import com.vaadin.flow.router.HasUrlParameter;
 import com.vaadin.flow.router.PageTitle;
 import com.vaadin.flow.router.Route;
 import com.vaadin.flow.router.WildcardParameter;
+import it.uniupo.simnova.service.storage.FileStorageService;
 import it.uniupo.simnova.views.MainLayout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,11 +37,18 @@ public class MediaFullscreenView extends VerticalLayout implements HasUrlParamet
      * Viene impostato tramite il parametro dell'URL.
      */
     private String filename;
+    /**
+     * Servizio di archiviazione, usato per ottenere l'URL versionato del media.
+     */
+    private final FileStorageService fileStorageService;
 
     /**
      * Costruttore che configura il layout di base per la visualizzazione a schermo intero.
+     *
+     * @param fileStorageService Il servizio di archiviazione dei file.
      */
-    public MediaFullscreenView() {
+    public MediaFullscreenView(FileStorageService fileStorageService) {
+        this.fileStorageService = fileStorageService;
         setSizeFull(); // Imposta le dimensioni della vista a piena altezza e larghezza.
         setPadding(false); // Rimuove il padding.
         setSpacing(false); // Rimuove lo spazio tra i componenti.
@@ -87,7 +95,8 @@ public class MediaFullscreenView extends VerticalLayout implements HasUrlParamet
             return new Div(new Text("Impossibile determinare il tipo di file: " + filename));
         }
 
-        String mediaPath = "/" + filename; // Percorso del file relativo alla radice dell'applicazione web.
+        // URL dell'endpoint dei media (richieste parziali, ETag e cache immutabile).
+        String mediaPath = fileStorageService.getMediaUrl(filename);
         System.out.println("Tentativo di accesso a: " + mediaPath); // Log per debug.
 
         // Crea il componente in base all'estensione del file
@@ -0,0 +1,73 @@
+package it.uniupo.simnova.views.ui.helper;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.component.button.Button;
+import com.vaadin.flow.shared.Registration;
+import it.uniupo.simnova.service.ai_api.AiJobService;
+
+/**
+ * Classe di utility per collegare i pulsanti delle generazioni AI alla disponibilità del servizio AI.
+ * Quando il servizio non è disponibile il pulsante viene disabilitato e lo segnala nel testo; quando torna
+ * disponibile viene riattivato, senza ricaricare la pagina.
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+public final class AiAvailabilitySupport {
+    /**
+     * Testo mostrato sul pulsante quando il servizio AI non è disponibile.
+     */
+    private static final String UNAVAILABLE_TEXT = "AI non disponibile";
+    /**
+     * Suggerimento mostrato quando il servizio AI non è disponibile.
+     */
+    private static final String UNAVAILABLE_TOOLTIP = "Il servizio AI non è al momento raggiungibile: il pulsante si riattiverà automaticamente";
+
+    /**
+     * Costruttore privato per evitare l'istanza della classe.
+     */
+    private AiAvailabilitySupport() {
+
+    }
+
+    /**
+     * Collega un pulsante alla disponibilità del servizio AI, finché il pulsante resta nella pagina.
+     *
+     * @param button       il pulsante che avvia una generazione AI
+     * @param aiJobService servizio per le generazioni AI
+     */
+    public static void bind(Button button, AiJobService aiJobService) {
+        final String text = button.getText();
+        final String tooltip = button.getTooltip() != null ? button.getTooltip().getText() : null;
+        button.addAttachListener(attach -> {
+            UI ui = attach.getUI();
+            apply(button, aiJobService.isAiAvailable(), text, tooltip);
+            Registration registration = aiJobService.addAvailabilityListener(available -> {
+                try {
+                    ui.access(() -> apply(button, available, text, tooltip));
+                } catch (UIDetachedException e) {
+                    // La pagina è stata chiusa: la registrazione viene rimossa alla chiusura.
+                }
+            });
+            button.addDetachListener(detach -> {
+                registration.remove();
+                detach.unregisterListener();
+            });
+        });
+    }
+
+    /**
+     * Aggiorna il pulsante in base alla disponibilità del servizio AI.
+     *
+     * @param button    il pulsante
+     * @param available se il servizio AI è disponibile
+     * @param text      il testo originale del pulsante
+     * @param tooltip   il suggerimento originale del pulsante (può essere <code>null</code>)
+     */
+    private static void apply(Button button, boolean available, String text, String tooltip) {
+        button.setEnabled(available);
+        button.setText(available ? text : UNAVAILABLE_TEXT);
+        button.setTooltipText(available ? tooltip : UNAVAILABLE_TOOLTIP);
+    }
+}
@@ -77,7 +77,11 @@ public class DialogSupport {
         Span italicScenario = new Span("scenario.json");
         italicScenario.getStyle().set("font-style", "italic");
         description.add(italicScenario);
-        description.add(" alla radice e la cartella ");
+        description.add(" (oppure ");
+        Span italicScenarioCbor = new Span("scenario.cbor");
+        italicScenarioCbor.getStyle().set("font-style", "italic");
+        description.add(italicScenarioCbor);
+        description.add(") alla radice e la cartella ");
         Span italicEsami = new Span("esami/");
         italicEsami.getStyle().set("font-style", "italic");
         description.add(italicEsami);
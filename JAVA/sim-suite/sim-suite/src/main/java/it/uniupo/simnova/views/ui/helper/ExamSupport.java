@@ -1,6 +1,5 @@
 package it.uniupo.simnova.views.ui.helper;
 
-import com.google.gson.Gson;
 import com.vaadin.flow.component.Component;
 import com.vaadin.flow.component.UI;
 import com.vaadin.flow.component.button.Button;
@@ -20,32 +19,29 @@ import com.vaadin.flow.component.textfield.TextArea;
 import com.vaadin.flow.component.upload.Upload;
 import com.vaadin.flow.component.upload.receivers.MemoryBuffer;
 import com.vaadin.flow.dom.Element;
+import com.vaadin.flow.server.StreamResource;
 import it.uniupo.simnova.domain.paziente.EsameReferto;
 import it.uniupo.simnova.domain.respons_model.LabExamSet;
 import it.uniupo.simnova.domain.respons_model.ReportSet;
 import it.uniupo.simnova.domain.scenario.Scenario;
 import it.uniupo.simnova.service.ActiveNotifierManager;
 import it.uniupo.simnova.service.NotifierService;
-import it.uniupo.simnova.service.ai_api.ExternalApiService;
-import it.uniupo.simnova.service.ai_api.LabExamService;
+import it.uniupo.simnova.service.ai_api.AiJobService;
+import it.uniupo.simnova.service.ai_api.ScenarioContextBuilder;
 import it.uniupo.simnova.service.ai_api.model.LabExamGenerationRequest;
 import it.uniupo.simnova.service.ai_api.model.ReportGenerationRequest;
-import it.uniupo.simnova.service.scenario.components.EsameFisicoService;
 import it.uniupo.simnova.service.scenario.components.EsameRefertoService;
 import it.uniupo.simnova.service.storage.FileStorageService;
+import it.uniupo.simnova.utils.ClientIdentity;
 import it.uniupo.simnova.views.common.utils.StyleApp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.web.client.HttpClientErrorException;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.ExecutorService;
 
 import static it.uniupo.simnova.views.constant.ExamConst.ALLINSTREXAMS;
-import static it.uniupo.simnova.views.ui.helper.support.ErrorExtractor.extractErrorReasonFromJson;
 
 /**
  * Classe di supporto per la gestione degli esami e referti nella UI.
@@ -59,10 +55,6 @@ public class ExamSupport {
      * Logger per la registrazione delle operazioni e degli errori.
      */
     private static final Logger logger = LoggerFactory.getLogger(ExamSupport.class);
-    /**
-     * Istanza di Gson per la serializzazione/deserializzazione JSON.
-     */
-    private static final Gson gson = new Gson();
 
     /**
      * Costruttore privato per evitare l'istanza della classe.
@@ -74,27 +66,23 @@ public class ExamSupport {
     /**
      * Crea il contenuto della sezione Esami e Referti per uno scenario specifico.
      *
-     * @param esameRefertoService   servizio per la gestione degli esami e referti
-     * @param fileStorageService    servizio per la gestione dei file
-     * @param scenarioId            ID dello scenario corrente
-     * @param scenario              scenario corrente
-     * @param externalApiService    servizio per le API esterne
-     * @param labExamService        servizio per la gestione degli esami di laboratorio
-     * @param executorService       servizio per l'esecuzione di task in background
-     * @param notifierService       servizio per la gestione delle notifiche
-     * @param esameFisicoService    servizio per la gestione degli esami fisici
-     * @param activeNotifierManager gestore delle notifiche attive
+     * @param esameRefertoService    servizio per la gestione degli esami e referti
+     * @param fileStorageService     servizio per la gestione dei file
+     * @param scenarioId             ID dello scenario corrente
+     * @param scenario               scenario corrente
+     * @param aiJobService           servizio per le generazioni AI
+     * @param notifierService        servizio per la gestione delle notifiche
+     * @param scenarioContextBuilder servizio per il contesto compatto inviato al servizio AI
+     * @param activeNotifierManager  gestore delle notifiche attive
      * @return VerticalLayout contenente gli esami e referti dello scenario
      */
     public static VerticalLayout createExamsContent(EsameRefertoService esameRefertoService,
                                                     FileStorageService fileStorageService,
                                                     Integer scenarioId,
                                                     Scenario scenario,
-                                                    ExternalApiService externalApiService,
-                                                    LabExamService labExamService,
-                                                    ExecutorService executorService,
+                                                    AiJobService aiJobService,
                                                     NotifierService notifierService,
-                                                    EsameFisicoService esameFisicoService,
+                                                    ScenarioContextBuilder scenarioContextBuilder,
                                                     ActiveNotifierManager activeNotifierManager) {
         List<EsameReferto> esami = esameRefertoService.getEsamiRefertiByScenarioId(scenarioId);
         VerticalLayout layout = new VerticalLayout();
@@ -184,7 +172,7 @@ public class ExamSupport {
                 Div mediaPreviewWrapper = new Div();
                 mediaPreviewWrapper.setWidthFull();
                 if (esame.getMedia() != null && !esame.getMedia().isEmpty()) {
-                    mediaPreviewWrapper.add(createMediaPreview(esame.getMedia()));
+                    mediaPreviewWrapper.add(createMediaPreview(esame.getMedia(), fileStorageService));
                 }
                 mediaSectionContainer.add(mediaPreviewWrapper);
 
@@ -206,19 +194,11 @@ public class ExamSupport {
 
                 ComboBox<String> selectExistingMediaEdit = new ComboBox<>("Seleziona Media Esistente");
                 selectExistingMediaEdit.setWidthFull();
-
-                try {
-                    List<String> availableFiles = fileStorageService.getAllFiles();
-                    if (availableFiles != null) {
-                        selectExistingMediaEdit.setItems(availableFiles);
-                    } else {
-                        selectExistingMediaEdit.setItems(new ArrayList<>());
-                        logger.warn("No available files found from FileStorageService for scenario {}", scenarioId);
-                    }
-                } catch (Exception ex) {
-                    logger.error("Error fetching available files for media editing", ex);
-                    selectExistingMediaEdit.setItems(new ArrayList<>());
-                }
+                selectExistingMediaEdit.setItemLabelGenerator(fileStorageService::getDisplayName);
+                // I media vengono letti dal catalogo a pagine, filtrando per prefisso del nome
+                selectExistingMediaEdit.setItems(
+                        query -> fileStorageService.searchFiles(query.getFilter().orElse(""), query.getOffset(), query.getLimit()).stream(),
+                        query -> fileStorageService.countFiles(query.getFilter().orElse("")));
                 selectExistingMediaEdit.setVisible(false);
 
                 mediaSourceGroupEdit.addValueChangeListener(event -> {
@@ -249,26 +229,19 @@ public class ExamSupport {
                     mediaEditLayout.setVisible(true);
 
                     try {
-                        List<String> availableFiles = fileStorageService.getAllFiles();
-                        if (availableFiles != null) {
-                            selectExistingMediaEdit.setItems(availableFiles);
-                            if (esame.getMedia() != null && !esame.getMedia().isEmpty() && availableFiles.contains(esame.getMedia())) {
-                                selectExistingMediaEdit.setValue(esame.getMedia());
-                                mediaSourceGroupEdit.setValue("Seleziona da esistenti");
-                            } else if (esame.getMedia() != null && !esame.getMedia().isEmpty()) {
-                                logger.warn("Current media '{}' for exam '{}' not in available files list. Defaulting to upload.", esame.getMedia(), esame.getTipo());
-                                mediaSourceGroupEdit.setValue("Carica nuovo file");
-                                selectExistingMediaEdit.clear();
-                            } else {
-                                mediaSourceGroupEdit.setValue("Carica nuovo file");
-                            }
+                        selectExistingMediaEdit.getDataProvider().refreshAll();
+                        if (esame.getMedia() != null && !esame.getMedia().isEmpty() && fileStorageService.fileExists(esame.getMedia())) {
+                            selectExistingMediaEdit.setValue(esame.getMedia());
+                            mediaSourceGroupEdit.setValue("Seleziona da esistenti");
+                        } else if (esame.getMedia() != null && !esame.getMedia().isEmpty()) {
+                            logger.warn("Current media '{}' for exam '{}' not in available files list. Defaulting to upload.", esame.getMedia(), esame.getTipo());
+                            mediaSourceGroupEdit.setValue("Carica nuovo file");
+                            selectExistingMediaEdit.clear();
                         } else {
-                            selectExistingMediaEdit.setItems(new ArrayList<>());
                             mediaSourceGroupEdit.setValue("Carica nuovo file");
                         }
                     } catch (Exception ex) {
                         logger.error("Error re-fetching available files for media editing", ex);
-                        selectExistingMediaEdit.setItems(new ArrayList<>());
                         mediaSourceGroupEdit.setValue("Carica nuovo file");
                     }
 
@@ -324,7 +297,7 @@ public class ExamSupport {
                         if (success) {
                             esame.setMedia(newMediaFileName);
                             mediaPreviewWrapper.removeAll();
-                            mediaPreviewWrapper.add(createMediaPreview(newMediaFileName));
+                            mediaPreviewWrapper.add(createMediaPreview(newMediaFileName, fileStorageService));
                             Notification.show("Media aggiornato con successo.", 3000, Notification.Position.BOTTOM_CENTER).addThemeVariants(NotificationVariant.LUMO_SUCCESS);
                         } else {
                             Notification.show("Errore durante l'aggiornamento del media.", 3000, Notification.Position.BOTTOM_CENTER).addThemeVariants(NotificationVariant.LUMO_ERROR);
@@ -483,63 +456,10 @@ public class ExamSupport {
             final String notificationId = activeNotifierManager.show("Generazione esami di laboratorio in corso...");
             final UI ui = UI.getCurrent();
 
-            executorService.submit(() -> {
-                try {
-                    LabExamGenerationRequest request = new LabExamGenerationRequest(
-                            scenario.getDescrizione(),
-                            scenario.getTipologia(),
-                            esameFisicoService.getEsameFisicoById(scenarioId).toString(),
-                            scenario.getPatologia()
-                    );
-                    Optional<LabExamSet> labExamSetOptional = externalApiService.generateLabExamsFromScenario(request);
-
-                    if (labExamSetOptional.isPresent()) {
-                        boolean success = labExamService.saveLabExamsAndGeneratePdf(scenarioId, labExamSetOptional.get());
-                        if (success) {
-
-                            notifierService.notify(ui, new NotifierService.NotificationPayload(
-                                    NotifierService.Status.SUCCESS,
-                                    "Generazione Completata",
-                                    "Esami di laboratorio creati con successo!",
-                                    notificationId
-                            ));
-                        } else {
-
-                            notifierService.notify(ui, new NotifierService.NotificationPayload(
-                                    NotifierService.Status.ERROR,
-                                    "Errore di Salvataggio",
-                                    "Fallimento durante il salvataggio degli esami di laboratorio.",
-                                    notificationId
-                            ));
-                        }
-                    } else {
-
-                        notifierService.notify(ui, new NotifierService.NotificationPayload(
-                                NotifierService.Status.ERROR,
-                                "Errore Servizio AI",
-                                "Il servizio AI per gli esami non ha risposto.",
-                                notificationId
-                        ));
-                    }
-                } catch (Exception e) {
-                    logger.error("Fallimento nel task di generazione esami in background.", e);
-                    String errorTitle = "Errore Critico";
-                    String errorDetails;
-                    if (e instanceof HttpClientErrorException hcee) {
-                        errorTitle = "Errore nella Richiesta";
-                        errorDetails = extractErrorReasonFromJson(hcee.getResponseBodyAsString(), gson);
-                    } else {
-                        errorDetails = "Si è verificato un problema tecnico. Controllare i log per maggiori dettagli.";
-                    }
-
-                    notifierService.notify(ui, new NotifierService.NotificationPayload(
-                            NotifierService.Status.ERROR,
-                            errorTitle,
-                            errorDetails,
-                            notificationId
-                    ));
-                }
-            });
+            // La generazione viene eseguita dal servizio dei lavori AI, che ne salva l'esito e lo notifica all'utente.
+            LabExamGenerationRequest request = scenarioContextBuilder.labExamRequest(scenario);
+            submitJob(aiJobService, notifierService, ui, notificationId, AiJobService.Type.LAB_EXAMS, scenarioId,
+                    "Generazione esami di laboratorio per '" + scenario.getTitolo() + "'", request);
         });
 
 
@@ -566,62 +486,9 @@ public class ExamSupport {
                 final String notificationId = activeNotifierManager.show("Generazione referto per '" + selectedExamType + "' in corso...");
                 final UI ui = UI.getCurrent();
 
-                executorService.submit(() -> {
-                    try {
-                        ReportGenerationRequest request = new ReportGenerationRequest(
-                                scenario.getDescrizione(),
-                                scenario.getTipologia(),
-                                selectedExamType,
-                                esameFisicoService.getEsameFisicoById(scenarioId).toString());
-                        Optional<ReportSet> refertoContent = externalApiService.generateReport(request);
-
-                        if (refertoContent.isPresent()) {
-                            boolean success = esameRefertoService.createRefertoByJSON(scenarioId, refertoContent);
-                            if (success) {
-
-                                notifierService.notify(ui, new NotifierService.NotificationPayload(
-                                        NotifierService.Status.SUCCESS,
-                                        "Generazione Completata",
-                                        "Nuovo referto per '" + selectedExamType + "' creato con successo!",
-                                        notificationId
-                                ));
-                            } else {
-
-                                notifierService.notify(ui, new NotifierService.NotificationPayload(
-                                        NotifierService.Status.ERROR,
-                                        "Errore di Salvataggio",
-                                        "Fallimento durante il salvataggio del referto per '" + selectedExamType + "'.",
-                                        notificationId
-                                ));
-                            }
-                        } else {
-
-                            notifierService.notify(ui, new NotifierService.NotificationPayload(
-                                    NotifierService.Status.ERROR,
-                                    "Errore Servizio AI",
-                                    "Il servizio AI per i referti non ha risposto.",
-                                    notificationId
-                            ));
-                        }
-                    } catch (Exception ex) {
-                        logger.error("Errore nel task di generazione referto.", ex);
-                        String errorTitle = "Errore Critico";
-                        String errorDetails;
-                        if (ex instanceof HttpClientErrorException hcee) {
-                            errorTitle = "Errore nella Richiesta";
-                            errorDetails = extractErrorReasonFromJson(hcee.getResponseBodyAsString(), gson);
-                        } else {
-                            errorDetails = "Si è verificato un problema tecnico. Controllare i log per maggiori dettagli.";
-                        }
-
-                        notifierService.notify(ui, new NotifierService.NotificationPayload(
-                                NotifierService.Status.ERROR,
-                                errorTitle,
-                                errorDetails,
-                                notificationId
-                        ));
-                    }
-                });
+                ReportGenerationRequest request = scenarioContextBuilder.reportRequest(scenario, selectedExamType);
+                submitJob(aiJobService, notifierService, ui, notificationId, AiJobService.Type.REPORT, scenarioId,
+                        "Generazione referto '" + selectedExamType + "' per '" + scenario.getTitolo() + "'", request);
             });
 
             Button cancelButton = new Button("Annulla", VaadinIcon.CLOSE.create());
@@ -634,12 +501,41 @@ public class ExamSupport {
             selectExamTypeDialog.open();
         });
 
+        AiAvailabilitySupport.bind(createExamButton, aiJobService);
+        AiAvailabilitySupport.bind(createRefertoButton, aiJobService);
         buttonContainer2.add(createExamButton, createRefertoButton);
         layout.add(buttonContainer, buttonContainer2);
         return layout;
     }
 
-    private static Component createMediaPreview(String fileName) {
+    /**
+     * Mette in coda una generazione AI; se non è possibile, chiude la notifica attiva mostrando l'errore.
+     *
+     * @param aiJobService    servizio per le generazioni AI
+     * @param notifierService servizio per la gestione delle notifiche
+     * @param ui              UI che avvia la generazione
+     * @param notificationId  ID della notifica attiva
+     * @param type            tipo di generazione
+     * @param scenarioId      ID dello scenario corrente
+     * @param description     descrizione della generazione mostrata all'utente
+     * @param request         richiesta per il servizio AI
+     */
+    private static void submitJob(AiJobService aiJobService, NotifierService notifierService, UI ui, String notificationId,
+                                  AiJobService.Type type, Integer scenarioId, String description, Object request) {
+        try {
+            aiJobService.submit(ClientIdentity.current(), ui, notificationId, type, scenarioId, description, request);
+        } catch (IllegalStateException e) {
+            logger.error("Impossibile mettere in coda la generazione {} per lo scenario {}.", type, scenarioId, e);
+            notifierService.notify(ui, new NotifierService.NotificationPayload(
+                    NotifierService.Status.ERROR,
+                    "Errore Critico",
+                    "Si è verificato un problema tecnico. Controllare i log per maggiori dettagli.",
+                    notificationId
+            ));
+        }
+    }
+
+    private static Component createMediaPreview(String fileName, FileStorageService fileStorageService) {
         String fileExtension;
         int lastDotIndex = fileName.lastIndexOf(".");
         if (lastDotIndex != -1 && lastDotIndex < fileName.length() - 1) {
@@ -715,7 +611,7 @@ public class ExamSupport {
                 .set("margin", "0 auto")
                 .set("box-sizing", "border-box");
 
-        String mediaPath = "/" + fileName;
+        String mediaPath = fileStorageService.getMediaUrl(fileName);
         logger.debug("Percorso media per anteprima: {}", mediaPath);
 
         Component mediaComponent;
@@ -745,7 +641,8 @@ public class ExamSupport {
 
         switch (fileExtension) {
             case "jpg", "jpeg", "png", "gif", "webp":
-                Image image = new Image(mediaPath, fileName);
+                // Anteprima ridotta: l'originale a piena risoluzione si apre con il pulsante a schermo intero
+                Image image = new Image(createPreviewResource(fileName, fileStorageService), fileName);
                 image.setMaxWidth("100%");
                 image.setHeight("auto");
                 image.getStyle()
@@ -757,14 +654,17 @@ public class ExamSupport {
                 break;
 
             case "pdf":
-                IFrame pdfPreview = new IFrame();
-                pdfPreview.setSrc(mediaPath);
-                pdfPreview.setWidth("100%");
-                pdfPreview.setHeight("500px");
+                // Render della prima pagina: il documento completo si apre con il pulsante a schermo intero
+                Image pdfPreview = new Image(createPreviewResource(fileName, fileStorageService), fileName);
+                pdfPreview.setMaxWidth("100%");
+                pdfPreview.setHeight("auto");
                 pdfPreview.getStyle()
-                        .set("border", "none")
+                        .set("max-height", "500px")
+                        .set("cursor", "pointer")
                         .set("border-radius", "var(--lumo-border-radius-m)")
+                        .set("object-fit", "contain")
                         .set("box-shadow", "0 1px 3px rgba(0,0,0,0.1)");
+                pdfPreview.addClickListener(e -> openFullMedia(fileName));
                 mediaComponent = pdfPreview;
                 break;
 
@@ -852,6 +752,17 @@ public class ExamSupport {
         return previewContainer;
     }
 
+    private static StreamResource createPreviewResource(String fileName, FileStorageService fileStorageService) {
+        return new StreamResource(fileName + ".jpg", () -> {
+            try {
+                return fileStorageService.readPreview(fileName, FileStorageService.PreviewSize.PREVIEW);
+            } catch (IOException e) {
+                logger.error("Errore nel caricamento dell'anteprima per {}", fileName, e);
+                return InputStream.nullInputStream();
+            }
+        });
+    }
+
     private static Component createErrorPreview(String message) {
         Div errorContainer = new Div();
         errorContainer.getStyle()
@@ -1,6 +1,5 @@
 package it.uniupo.simnova.views.ui.helper;
 
-import com.google.gson.Gson;
 import com.vaadin.flow.component.UI;
 import com.vaadin.flow.component.button.Button;
 import com.vaadin.flow.component.button.ButtonVariant;
@@ -21,28 +20,24 @@ import it.uniupo.simnova.domain.respons_model.MatSet;
 import it.uniupo.simnova.domain.scenario.Scenario;
 import it.uniupo.simnova.service.ActiveNotifierManager;
 import it.uniupo.simnova.service.NotifierService;
-import it.uniupo.simnova.service.ai_api.ExternalApiService;
+import it.uniupo.simnova.service.ai_api.AiJobService;
+import it.uniupo.simnova.service.ai_api.ScenarioContextBuilder;
 import it.uniupo.simnova.service.ai_api.model.MatGenerationRequest;
 import it.uniupo.simnova.service.scenario.ScenarioService;
 import it.uniupo.simnova.service.scenario.components.AzioneChiaveService;
-import it.uniupo.simnova.service.scenario.components.EsameFisicoService;
 import it.uniupo.simnova.service.scenario.components.MaterialeService;
+import it.uniupo.simnova.utils.ClientIdentity;
 import it.uniupo.simnova.views.common.utils.StyleApp;
 import it.uniupo.simnova.views.common.utils.TinyEditor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.web.client.HttpClientErrorException;
 import org.vaadin.tinymce.TinyMce;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-import static it.uniupo.simnova.views.ui.helper.support.ErrorExtractor.extractErrorReasonFromJson;
-
 /**
  * Classe di supporto generale per la visualizzazione e modifica delle informazioni di un scenario.
  * Fornisce metodi per creare contenuti di overview, gestire azioni chiave e materiali necessari.
@@ -55,10 +50,6 @@ public class GeneralSupport extends HorizontalLayout {
      * Logger per il tracciamento delle operazioni e degli errori.
      */
     private static final Logger logger = LoggerFactory.getLogger(GeneralSupport.class);
-    /**
-     * Gson per la serializzazione e deserializzazione di oggetti JSON.
-     */
-    private static final Gson gson = new Gson();
 
     /**
      * Costruttore privato per evitare l'istanza della classe.
@@ -70,17 +61,16 @@ public class GeneralSupport extends HorizontalLayout {
     /**
      * Crea il layout principale per la visualizzazione delle informazioni di overview di uno scenario.
      *
-     * @param scenario              lo scenario da visualizzare
-     * @param isPediatricScenario   indica se lo scenario è pediatrico
-     * @param infoGenitore          informazioni aggiuntive dai genitori, se disponibili
-     * @param scenarioService       servizio per la gestione degli scenari
-     * @param materialeService      servizio per la gestione dei materiali
-     * @param azioneChiaveService   servizio per la gestione delle azioni chiave
-     * @param executorService       servizio per l'esecuzione di task in background
-     * @param notifierService       servizio per la gestione delle notifiche
-     * @param esameFisicoService    servizio per la gestione degli esami fisici
-     * @param externalApiService    servizio per l'interazione con API esterne
-     * @param activeNotifierManager gestore per le notifiche attive
+     * @param scenario               lo scenario da visualizzare
+     * @param isPediatricScenario    indica se lo scenario è pediatrico
+     * @param infoGenitore           informazioni aggiuntive dai genitori, se disponibili
+     * @param scenarioService        servizio per la gestione degli scenari
+     * @param materialeService       servizio per la gestione dei materiali
+     * @param azioneChiaveService    servizio per la gestione delle azioni chiave
+     * @param notifierService        servizio per la gestione delle notifiche
+     * @param scenarioContextBuilder servizio per il contesto compatto inviato al servizio AI
+     * @param aiJobService           servizio per le generazioni AI
+     * @param activeNotifierManager  gestore per le notifiche attive
      * @return un layout verticale contenente le informazioni di overview dello scenario
      */
     public static VerticalLayout createOverviewContentWithData(
@@ -90,10 +80,9 @@ public class GeneralSupport extends HorizontalLayout {
             ScenarioService scenarioService,
             MaterialeService materialeService,
             AzioneChiaveService azioneChiaveService,
-            ExecutorService executorService,
             NotifierService notifierService,
-            EsameFisicoService esameFisicoService,
-            ExternalApiService externalApiService,
+            ScenarioContextBuilder scenarioContextBuilder,
+            AiJobService aiJobService,
             ActiveNotifierManager activeNotifierManager) {
 
         VerticalLayout mainLayout = new VerticalLayout();
@@ -136,7 +125,7 @@ public class GeneralSupport extends HorizontalLayout {
         addInfoItemIfNotEmpty(scenario.getId(), cardContentLayout, "Obiettivi Didattici", scenario.getObiettivo(), VaadinIcon.BOOK, scenarioService);
         addInfoItemIfNotEmpty(scenario.getId(), cardContentLayout, "Moulage", scenario.getMoulage(), VaadinIcon.EYE, scenarioService);
         addInfoItemIfNotEmpty(scenario.getId(), cardContentLayout, "Liquidi e dosi farmaci", scenario.getLiquidi(), VaadinIcon.DROP, scenarioService);
-        addMaterialeNecessarioItem(scenario.getId(), cardContentLayout, materialeService, executorService, notifierService, scenario, esameFisicoService, externalApiService, activeNotifierManager);
+        addMaterialeNecessarioItem(scenario.getId(), cardContentLayout, materialeService, notifierService, scenario, scenarioContextBuilder, aiJobService, activeNotifierManager);
 
         card.add(cardContentLayout);
         mainLayout.add(card);
@@ -530,24 +519,22 @@ public class GeneralSupport extends HorizontalLayout {
     /**
      * Aggiunge un elemento per i materiali necessari al layout.
      *
-     * @param scenarioId            l'ID dello scenario a cui appartiene il materiale necessario
-     * @param container             il layout in cui aggiungere l'elemento
-     * @param materialeService      servizio per la gestione dei materiali
-     * @param executorService       servizio per l'esecuzione di task in background
-     * @param notifierService       servizio per la gestione delle notifiche
-     * @param scenario              lo scenario a cui appartiene il materiale necessario
-     * @param esameFisicoService    servizio per la gestione degli esami fisici
-     * @param externalApiService    servizio per l'interazione con API esterne
-     * @param activeNotifierManager gestore per le notifiche attive
+     * @param scenarioId             l'ID dello scenario a cui appartiene il materiale necessario
+     * @param container              il layout in cui aggiungere l'elemento
+     * @param materialeService       servizio per la gestione dei materiali
+     * @param notifierService        servizio per la gestione delle notifiche
+     * @param scenario               lo scenario a cui appartiene il materiale necessario
+     * @param scenarioContextBuilder servizio per il contesto compatto inviato al servizio AI
+     * @param aiJobService           servizio per le generazioni AI
+     * @param activeNotifierManager  gestore per le notifiche attive
      */
     private static void addMaterialeNecessarioItem(Integer scenarioId,
                                                    VerticalLayout container,
                                                    MaterialeService materialeService,
-                                                   ExecutorService executorService,
                                                    NotifierService notifierService,
                                                    Scenario scenario,
-                                                   EsameFisicoService esameFisicoService,
-                                                   ExternalApiService externalApiService,
+                                                   ScenarioContextBuilder scenarioContextBuilder,
+                                                   AiJobService aiJobService,
                                                    ActiveNotifierManager activeNotifierManager) {
         if (container.getComponentCount() > 0) {
             Hr divider = new Hr();
@@ -587,6 +574,7 @@ public class GeneralSupport extends HorizontalLayout {
 
         Button aiMaterialButton = StyleApp.getButton("Genera", VaadinIcon.PLUS_CIRCLE, ButtonVariant.LUMO_PRIMARY, "var(--lumo-base-color)");
         aiMaterialButton.setTooltipText("Genera i materiali necessari tramite AI");
+        AiAvailabilitySupport.bind(aiMaterialButton, aiJobService);
         buttonLayout.add(aiMaterialButton);
 
         headerRow.add(titleGroup, buttonLayout);
@@ -596,64 +584,20 @@ public class GeneralSupport extends HorizontalLayout {
             final String notificationId = activeNotifierManager.show("Generazione materiali in corso...");
             final UI ui = UI.getCurrent();
 
-            executorService.submit(() -> {
-                try {
-                    MatGenerationRequest request = new MatGenerationRequest(
-                            scenario.getDescrizione(),
-                            scenario.getTipologia(),
-                            scenario.getTarget(),
-                            esameFisicoService.getEsameFisicoById(scenarioId).toString()
-                    );
-
-                    Optional<List<MatSet>> materialiOptional = externalApiService.generateMaterial(request);
-
-                    if (materialiOptional.isPresent()) {
-                        boolean success = materialeService.saveAImaterials(scenarioId, materialiOptional.get());
-                        if (success) {
-
-                            notifierService.notify(ui, new NotifierService.NotificationPayload(
-                                    NotifierService.Status.SUCCESS,
-                                    "Generazione Completata",
-                                    "Materiali necessari creati e associati!",
-                                    notificationId
-                            ));
-                        } else {
-
-                            notifierService.notify(ui, new NotifierService.NotificationPayload(
-                                    NotifierService.Status.ERROR,
-                                    "Errore di Salvataggio",
-                                    "Errore durante il salvataggio dei materiali.",
-                                    notificationId
-                            ));
-                        }
-                    } else {
-
-                        notifierService.notify(ui, new NotifierService.NotificationPayload(
-                                NotifierService.Status.ERROR,
-                                "Errore Servizio AI",
-                                "Il servizio AI per i materiali non ha risposto.",
-                                notificationId
-                        ));
-                    }
-                } catch (Exception e) {
-                    logger.error("Fallimento nel task di generazione materiali in background.", e);
-                    String errorTitle = "Errore Critico";
-                    String errorDetails;
-                    if (e instanceof HttpClientErrorException hcee) {
-                        errorTitle = "Errore nella Richiesta";
-                        errorDetails = extractErrorReasonFromJson(hcee.getResponseBodyAsString(), gson);
-                    } else {
-                        errorDetails = "Si è verificato un problema tecnico. Controllare i log per maggiori dettagli.";
-                    }
-
-                    notifierService.notify(ui, new NotifierService.NotificationPayload(
-                            NotifierService.Status.ERROR,
-                            errorTitle,
-                            errorDetails,
-                            notificationId
-                    ));
-                }
-            });
+            // La generazione viene eseguita dal servizio dei lavori AI, che ne salva l'esito e lo notifica all'utente.
+            MatGenerationRequest request = scenarioContextBuilder.materialRequest(scenario);
+            try {
+                aiJobService.submit(ClientIdentity.current(), ui, notificationId, AiJobService.Type.MATERIALS, scenarioId,
+                        "Generazione materiali per '" + scenario.getTitolo() + "'", request);
+            } catch (IllegalStateException e) {
+                logger.error("Impossibile mettere in coda la generazione dei materiali per lo scenario {}.", scenarioId, e);
+                notifierService.notify(ui, new NotifierService.NotificationPayload(
+                        NotifierService.Status.ERROR,
+                        "Errore Critico",
+                        "Si è verificato un problema tecnico. Controllare i log per maggiori dettagli.",
+                        notificationId
+                ));
+            }
         });
 
         Div contentDisplay = new Div();
@@ -46,6 +46,10 @@ public class FormRow {
      * Logger per il tracciamento degli eventi e degli errori.
      */
     private static final Logger logger = LoggerFactory.getLogger(FormRow.class);
+    /**
+     * Numero di media caricati per pagina nel dialog di selezione.
+     */
+    private static final int MEDIA_PAGE_SIZE = 48;
 
     /**
      * Numero identificativo della riga del form.
@@ -427,23 +431,16 @@ public class FormRow {
 
     /**
      * Carica e visualizza i media disponibili nel contenitore, applicando un filtro di ricerca.
+     * I media vengono letti dal catalogo del servizio di storage una pagina alla volta.
      *
      * @param container  Il Div in cui caricare i componenti dei media.
-     * @param searchTerm Il termine di ricerca per filtrare i nomi dei media (può essere null per nessun filtro).
+     * @param searchTerm Il prefisso del nome dei media da cercare (può essere null per nessun filtro).
      */
     public void loadAvailableMedia(Div container, String searchTerm) {
         container.removeAll(); // Pulisce il contenuto precedente
 
-        List<String> availableMedia = getAvailableMedia(); // Ottiene tutti i media disponibili
-
-        // Applica il filtro di ricerca se un termine è fornito
-        if (searchTerm != null && !searchTerm.isEmpty()) {
-            availableMedia = availableMedia.stream()
-                    .filter(media -> media.toLowerCase().contains(searchTerm.toLowerCase()))
-                    .toList();
-        }
-
-        if (availableMedia.isEmpty()) {
+        int totalMedia = fileStorageService.countFiles(searchTerm);
+        if (totalMedia == 0) {
             Paragraph noResults = new Paragraph("Nessun media trovato");
             noResults.addClassName(LumoUtility.TextColor.SECONDARY);
             container.add(noResults);
@@ -459,83 +456,115 @@ public class FormRow {
                 .set("grid-gap", "var(--lumo-space-m)")
                 .set("padding", "var(--lumo-space-s)");
 
-        for (String media : availableMedia) {
-            VerticalLayout mediaItem = new VerticalLayout();
-            mediaItem.setPadding(false);
-            mediaItem.setSpacing(false);
-            mediaItem.setWidth("100%");
-            mediaItem.getStyle()
-                    .set("border-radius", "var(--lumo-border-radius-m)")
-                    .set("border", "1px solid var(--lumo-contrast-10pct)")
-                    .set("cursor", "pointer")
-                    .set("transition", "all 0.2s ease-in-out")
-                    .set("overflow", "hidden");
-
-            // Anteprima del media (immagine o icona generica)
-            Component mediaPreview;
-            String mediaLower = media.toLowerCase();
-
-            if (mediaLower.endsWith(".jpg") || mediaLower.endsWith(".jpeg") ||
-                    mediaLower.endsWith(".png") || mediaLower.endsWith(".gif") ||
-                    mediaLower.endsWith(".webp")) {
-                Image image = getImage(media); // Ottiene l'immagine come StreamResource
-                image.getStyle()
-                        .set("object-fit", "contain")
-                        .set("background-color", "var(--lumo-contrast-5pct)");
-                mediaPreview = image;
-            } else {
-                Icon mediaIcon = getMediaIcon(media); // Ottiene l'icona in base al tipo di file
-                mediaIcon.setSize("48px");
-                mediaIcon.getStyle().set("margin", "var(--lumo-space-m) auto");
-
-                Div iconContainer = new Div(mediaIcon);
-                iconContainer.setWidth("100%");
-                iconContainer.setHeight("100px");
-                iconContainer.getStyle()
-                        .set("display", "flex")
-                        .set("align-items", "center")
-                        .set("justify-content", "center")
-                        .set("background-color", "var(--lumo-contrast-5pct)");
-                mediaPreview = iconContainer;
-            }
+        // Pulsante per caricare la pagina successiva
+        Button loadMoreButton = new Button("Carica altri");
+        loadMoreButton.addThemeVariants(ButtonVariant.LUMO_TERTIARY);
+        loadMoreButton.setWidthFull();
+        loadMoreButton.addClickListener(e -> appendMediaPage(mediaGrid, loadMoreButton, searchTerm, totalMedia));
+
+        container.add(mediaGrid, loadMoreButton);
+        appendMediaPage(mediaGrid, loadMoreButton, searchTerm, totalMedia);
+    }
+
+    /**
+     * Aggiunge alla griglia la pagina successiva di media e nasconde il pulsante quando non ce ne sono altri.
+     *
+     * @param mediaGrid      La griglia dei media.
+     * @param loadMoreButton Il pulsante per caricare altri media.
+     * @param searchTerm     Il prefisso di ricerca.
+     * @param totalMedia     Il numero totale di media corrispondenti alla ricerca.
+     */
+    private void appendMediaPage(Div mediaGrid, Button loadMoreButton, String searchTerm, int totalMedia) {
+        int offset = mediaGrid.getComponentCount();
+        List<String> page = fileStorageService.searchFiles(searchTerm, offset, MEDIA_PAGE_SIZE);
 
-            // Nome del media
-            Paragraph mediaName = new Paragraph(media);
-            mediaName.getStyle()
-                    .set("margin", "0")
-                    .set("padding", "var(--lumo-space-xs)")
-                    .set("font-size", "var(--lumo-font-size-s)")
-                    .set("white-space", "nowrap")
-                    .set("overflow", "hidden")
-                    .set("text-overflow", "ellipsis")
-                    .set("text-align", "center")
-                    .set("background-color", "var(--lumo-base-color)")
-                    .set("width", "100%");
-            mediaName.getElement().setAttribute("title", media); // Tooltip con il nome completo
-
-            mediaItem.add(mediaPreview, mediaName);
-
-            // Listener per la selezione del media
-            mediaItem.addClickListener(e -> {
-                selectedExistingMedia = media;
-                selectedMediaField.setValue(media);
-                mediaDialog.close();
-            });
-
-            // Effetti visivi al passaggio del mouse
-            mediaItem.getElement().addEventListener("mouseover", e ->
-                    mediaItem.getStyle().set("box-shadow", "0 0 5px var(--lumo-primary-color-50pct)"));
-            mediaItem.getElement().addEventListener("mouseout", e ->
-                    mediaItem.getStyle().set("box-shadow", "none"));
-
-            mediaGrid.add(mediaItem);
+        for (String media : page) {
+            mediaGrid.add(createMediaItem(media));
         }
+        loadMoreButton.setVisible(!page.isEmpty() && mediaGrid.getComponentCount() < totalMedia);
+    }
+
+    /**
+     * Crea l'elemento della griglia per un singolo media, con anteprima, nome e listener di selezione.
+     *
+     * @param media Il nome del file archiviato.
+     * @return Il componente da inserire nella griglia.
+     */
+    private Component createMediaItem(String media) {
+        VerticalLayout mediaItem = new VerticalLayout();
+        mediaItem.setPadding(false);
+        mediaItem.setSpacing(false);
+        mediaItem.setWidth("100%");
+        mediaItem.getStyle()
+                .set("border-radius", "var(--lumo-border-radius-m)")
+                .set("border", "1px solid var(--lumo-contrast-10pct)")
+                .set("cursor", "pointer")
+                .set("transition", "all 0.2s ease-in-out")
+                .set("overflow", "hidden");
+
+        // Anteprima del media (immagine o icona generica)
+        Component mediaPreview;
+        String mediaLower = media.toLowerCase();
+
+        if (mediaLower.endsWith(".jpg") || mediaLower.endsWith(".jpeg") ||
+                mediaLower.endsWith(".png") || mediaLower.endsWith(".gif") ||
+                mediaLower.endsWith(".webp")) {
+            Image image = getImage(media); // Ottiene l'immagine come StreamResource
+            image.getStyle()
+                    .set("object-fit", "contain")
+                    .set("background-color", "var(--lumo-contrast-5pct)");
+            mediaPreview = image;
+        } else {
+            Icon mediaIcon = getMediaIcon(media); // Ottiene l'icona in base al tipo di file
+            mediaIcon.setSize("48px");
+            mediaIcon.getStyle().set("margin", "var(--lumo-space-m) auto");
+
+            Div iconContainer = new Div(mediaIcon);
+            iconContainer.setWidth("100%");
+            iconContainer.setHeight("100px");
+            iconContainer.getStyle()
+                    .set("display", "flex")
+                    .set("align-items", "center")
+                    .set("justify-content", "center")
+                    .set("background-color", "var(--lumo-contrast-5pct)");
+            mediaPreview = iconContainer;
+        }
+
+        // Nome del media
+        String displayName = fileStorageService.getDisplayName(media);
+        Paragraph mediaName = new Paragraph(displayName);
+        mediaName.getStyle()
+                .set("margin", "0")
+                .set("padding", "var(--lumo-space-xs)")
+                .set("font-size", "var(--lumo-font-size-s)")
+                .set("white-space", "nowrap")
+                .set("overflow", "hidden")
+                .set("text-overflow", "ellipsis")
+                .set("text-align", "center")
+                .set("background-color", "var(--lumo-base-color)")
+                .set("width", "100%");
+        mediaName.getElement().setAttribute("title", displayName); // Tooltip con il nome completo
+
+        mediaItem.add(mediaPreview, mediaName);
+
+        // Listener per la selezione del media
+        mediaItem.addClickListener(e -> {
+            selectedExistingMedia = media;
+            selectedMediaField.setValue(displayName);
+            mediaDialog.close();
+        });
+
+        // Effetti visivi al passaggio del mouse
+        mediaItem.getElement().addEventListener("mouseover", e ->
+                mediaItem.getStyle().set("box-shadow", "0 0 5px var(--lumo-primary-color-50pct)"));
+        mediaItem.getElement().addEventListener("mouseout", e ->
+                mediaItem.getStyle().set("box-shadow", "none"));
 
-        container.add(mediaGrid);
+        return mediaItem;
     }
 
     /**
-     * Crea una {@link StreamResource} per l'immagine specificata e la incapsula in un componente {@link Image}.
+     * Crea una {@link StreamResource} per la miniatura dell'immagine specificata e la incapsula in un componente {@link Image}.
      *
      * @param media Il nome del file media (es. "image.jpg").
      * @return Un componente {@link Image} configurato per visualizzare il media.
@@ -543,7 +572,8 @@ public class FormRow {
     public Image getImage(String media) {
         StreamResource resource = new StreamResource(media, () -> {
             try {
-                return fileStorageService.readFile(media); // Legge il file dal servizio di storage
+                // Legge la miniatura ridotta invece del file originale
+                return fileStorageService.readPreview(media, FileStorageService.PreviewSize.THUMBNAIL);
             } catch (Exception e) {
                 logger.error("Errore nel caricamento dell'anteprima per {}", media, e);
                 return InputStream.nullInputStream(); // Restituisce un InputStream vuoto in caso di errore
@@ -582,7 +612,7 @@ public class FormRow {
     }
 
     /**
-     * Ottiene la lista dei nomi di tutti i file multimediali disponibili dal servizio di storage.
+     * Ottiene la lista dei nomi di tutti i file multimediali disponibili dal catalogo del servizio di storage.
      *
      * @return Una lista di stringhe contenente i nomi dei file.
      */
@@ -0,0 +1,326 @@
+package it.uniupo.simnova.service.ai_api;
+
+import com.vaadin.flow.shared.Registration;
+import it.uniupo.simnova.service.ai_api.model.ScenarioGenerationRequest;
+import it.uniupo.simnova.utils.DBConnect;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prova di carico delle generazioni AI, contro il servizio AI simulato da {@link FakeAiBackend}.
+ * <p>
+ * Mette in coda {@link #GENERATIONS} generazioni di scenari contemporanee, ciascuna per un utente diverso, e le
+ * segue fino alla fine attraverso il percorso reale: {@link AiJobService} con la concorrenza predefinita, il client
+ * HTTP, l'importazione e il salvataggio nel database. Il database è una copia temporanea di quello del repository
+ * e il servizio simulato ascolta su una porta libera, per cui la prova non tocca i dati né il servizio AI locali.
+ * Al termine registra nel log il throughput, i percentili dei tempi (attesa in coda, generazione e totale) e la
+ * contesa sul database, misurata da una sonda che durante la prova acquisisce periodicamente il lock di scrittura.
+ * Tutte le generazioni devono riuscire e la sonda non deve mai trovare il database occupato oltre l'attesa massima.
+ * </p>
+ * <p>
+ * La prova è esclusa dalla build normale: va eseguita esplicitamente con
+ * <code>mvn test -Dtest=AiLoadTest -Dsimnova.load-test=true</code>. Il contesto viene avviato senza server web
+ * e senza le configurazioni automatiche di Vaadin e Hilla, che non servono alle generazioni.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = "spring.autoconfigure.exclude="
+        + "com.vaadin.flow.spring.SpringBootAutoConfiguration,com.vaadin.flow.spring.SpringSecurityAutoConfiguration,"
+        + "com.vaadin.hilla.EndpointController,com.vaadin.hilla.push.PushConfigurer,com.vaadin.hilla.startup.EndpointRegistryInitializer,"
+        + "com.vaadin.hilla.startup.RouteUnifyingServiceInitListener,com.vaadin.hilla.route.RouteUnifyingConfiguration,"
+        + "com.vaadin.hilla.signals.config.SignalsConfiguration")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@EnabledIfSystemProperty(named = "simnova.load-test", matches = "true")
+class AiLoadTest {
+    /**
+     * Logger per la prova di carico.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AiLoadTest.class);
+    /**
+     * Numero di generazioni della prova.
+     */
+    private static final int GENERATIONS = 12;
+    /**
+     * Tempo massimo di attesa della fine della prova.
+     */
+    private static final Duration TIMEOUT = Duration.ofMinutes(2);
+    /**
+     * Prefisso degli identificativi degli utenti della prova.
+     */
+    private static final String CLIENT_PREFIX = "load-test-";
+    /**
+     * Tipi di scenario generati, a rotazione.
+     */
+    private static final String[] SCENARIO_TYPES = {"Quick Scenario", "Advanced Scenario", "Patient Simulated Scenario"};
+    /**
+     * Intervallo tra due misure della sonda sul database.
+     */
+    private static final long PROBE_INTERVAL_MILLIS = 100;
+
+    /**
+     * Directory temporanea del database, dei media e delle cache della prova.
+     */
+    @TempDir
+    static Path workDir;
+    /**
+     * Valore della proprietà del database prima della prova, da ripristinare al termine.
+     */
+    private static String previousDbPath;
+    /**
+     * Servizio AI simulato.
+     */
+    private static FakeAiBackend fakeAiBackend;
+
+    /**
+     * Servizio delle generazioni AI.
+     */
+    @Autowired
+    private AiJobService aiJobService;
+
+    /**
+     * Copia il database del repository nella directory temporanea, lo indica a {@link DBConnect} e avvia il
+     * servizio AI simulato, prima della creazione del contesto dell'applicazione.
+     *
+     * @throws IOException se non è possibile copiare il database.
+     */
+    @BeforeAll
+    static void startBackend() throws IOException {
+        Path database = workDir.resolve("database.db");
+        Files.copy(findTemplateDatabase(), database);
+        previousDbPath = System.getProperty(DBConnect.DB_PATH_PROPERTY);
+        System.setProperty(DBConnect.DB_PATH_PROPERTY, database.toString());
+        fakeAiBackend = new FakeAiBackend(50, 200, 3, 0, 42);
+        fakeAiBackend.start();
+    }
+
+    /**
+     * Arresta il servizio AI simulato e ripristina la proprietà del database. Il contesto dell'applicazione,
+     * che usa il database della prova, è già stato chiuso al termine del metodo di prova.
+     */
+    @AfterAll
+    static void stopBackend() {
+        if (fakeAiBackend != null) {
+            fakeAiBackend.stop();
+        }
+        if (previousDbPath != null) {
+            System.setProperty(DBConnect.DB_PATH_PROPERTY, previousDbPath);
+        } else {
+            System.clearProperty(DBConnect.DB_PATH_PROPERTY);
+        }
+    }
+
+    /**
+     * Indirizza il servizio AI e le directory dell'applicazione verso le risorse della prova.
+     *
+     * @param registry Il registro delle proprietà.
+     */
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("ai.api.base-url", () -> "http://localhost:" + fakeAiBackend.start());
+        registry.add("storage.media-dir", () -> workDir.resolve("uploads").toString());
+        registry.add("export.pdf-cache.dir", () -> workDir.resolve("pdf-cache").toString());
+        registry.add("ai.cache.enabled", () -> "false");
+        registry.add("ai.prefetch.enabled", () -> "false");
+    }
+
+    @Test
+    void concurrentScenarioGenerationsSucceed() throws InterruptedException {
+        Set<Long> pending = ConcurrentHashMap.newKeySet();
+        CountDownLatch done = new CountDownLatch(GENERATIONS);
+        Registration registration = aiJobService.addJobListener(job -> {
+            if (isFinished(job) && pending.remove(job.getId())) {
+                done.countDown();
+            }
+        });
+
+        List<Long> probe = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger busy = new AtomicInteger();
+        ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor();
+        prober.scheduleWithFixedDelay(() -> probeWriteLock(probe, busy), 0, PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        long fakeRequests = fakeAiBackend.getRequestCount();
+        long start = System.nanoTime();
+        List<Long> jobIds = new ArrayList<>();
+        boolean finished;
+        try {
+            for (int i = 0; i < GENERATIONS; i++) {
+                ScenarioGenerationRequest request = new ScenarioGenerationRequest(
+                        "Prova di carico " + i + ": paziente con dispnea acuta e febbre.",
+                        SCENARIO_TYPES[i % SCENARIO_TYPES.length], i % 4 == 3 ? "Pediatrico" : "Adulto");
+                AiJobService.AiJob job = aiJobService.submitScenario(CLIENT_PREFIX + i, null, null,
+                        "Prova di carico: generazione " + (i + 1), request, false);
+                pending.add(job.getId());
+                jobIds.add(job.getId());
+                if (isFinished(aiJobService.getJob(job.getId())) && pending.remove(job.getId())) {
+                    done.countDown();
+                }
+            }
+            finished = done.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } finally {
+            registration.remove();
+            prober.shutdownNow();
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        List<AiJobService.AiJob> jobs = new ArrayList<>();
+        for (long id : jobIds) {
+            jobs.add(aiJobService.getJob(id));
+        }
+        int succeeded = report(jobs, elapsedSeconds, new ArrayList<>(probe), busy.get(),
+                fakeAiBackend.getRequestCount() - fakeRequests);
+
+        assertTrue(finished, pending.size() + " generazioni non concluse entro " + TIMEOUT.toMinutes() + " minuti");
+        assertEquals(GENERATIONS, succeeded, "generazioni non riuscite");
+        assertEquals(0, busy.get(), "database occupato oltre l'attesa massima durante la prova");
+    }
+
+    /**
+     * Cerca il database del repository, risalendo dalla directory corrente.
+     *
+     * @return Il percorso del database.
+     */
+    private static Path findTemplateDatabase() {
+        for (Path dir = Path.of(System.getProperty("user.dir")).toAbsolutePath(); dir != null; dir = dir.getParent()) {
+            Path candidate = dir.resolve("database.db");
+            if (Files.isRegularFile(candidate)) {
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("database.db non trovato risalendo da " + System.getProperty("user.dir"));
+    }
+
+    /**
+     * Registra il report della prova.
+     *
+     * @param jobs           Le generazioni della prova, come risultano al termine.
+     * @param elapsedSeconds La durata della prova (in secondi).
+     * @param probe          I tempi di acquisizione del lock di scrittura (in millisecondi).
+     * @param busy           Le acquisizioni non riuscite perché il database era occupato.
+     * @param fakeRequests   Le richieste ricevute dal servizio AI simulato durante la prova.
+     * @return Il numero di generazioni riuscite.
+     */
+    private static int report(List<AiJobService.AiJob> jobs, double elapsedSeconds, List<Long> probe, int busy, long fakeRequests) {
+        List<Long> queue = new ArrayList<>();
+        List<Long> run = new ArrayList<>();
+        List<Long> total = new ArrayList<>();
+        int succeeded = 0;
+        for (AiJobService.AiJob job : jobs) {
+            if (job.getStatus() == AiJobService.Status.SUCCEEDED) {
+                succeeded++;
+            }
+            if (job.getStartedAt() != null) {
+                queue.add(Duration.between(job.getCreatedAt(), job.getStartedAt()).toMillis());
+            }
+            if (job.getStartedAt() != null && job.getCompletedAt() != null) {
+                run.add(Duration.between(job.getStartedAt(), job.getCompletedAt()).toMillis());
+            }
+            if (job.getCompletedAt() != null) {
+                total.add(Duration.between(job.getCreatedAt(), job.getCompletedAt()).toMillis());
+            }
+        }
+        int failed = GENERATIONS - succeeded;
+        logger.info("""
+                        Report della prova di carico:
+                          generazioni: {} riuscite, {} non riuscite o non concluse, in {} s ({} scenari/s)
+                          richieste al servizio AI simulato: {}
+                          attesa in coda (ms):   {}
+                          generazione (ms):      {}
+                          totale (ms):           {}
+                          lock del database (ms): {} su {} misure, {} occupato""",
+                succeeded, failed, String.format(Locale.ROOT, "%.1f", elapsedSeconds),
+                String.format(Locale.ROOT, "%.2f", elapsedSeconds > 0 ? succeeded / elapsedSeconds : 0),
+                fakeRequests,
+                percentiles(queue), percentiles(run), percentiles(total), percentiles(probe), probe.size(), busy);
+        return succeeded;
+    }
+
+    /**
+     * Misura il tempo di acquisizione del lock di scrittura del database.
+     *
+     * @param probe Le misure raccolte.
+     * @param busy  Il contatore delle acquisizioni non riuscite.
+     */
+    private static void probeWriteLock(List<Long> probe, AtomicInteger busy) {
+        long start = System.nanoTime();
+        try (Connection conn = DBConnect.getInstance().getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("BEGIN IMMEDIATE");
+            stmt.execute("ROLLBACK");
+            probe.add((System.nanoTime() - start) / 1_000_000);
+        } catch (SQLException e) {
+            busy.incrementAndGet();
+        }
+    }
+
+    /**
+     * Indica se una generazione è conclusa.
+     *
+     * @param job La generazione (può essere <code>null</code>).
+     * @return <code>true</code> se la generazione non è più in coda né in corso.
+     */
+    private static boolean isFinished(AiJobService.AiJob job) {
+        return job != null && job.getStatus() != AiJobService.Status.QUEUED && job.getStatus() != AiJobService.Status.RUNNING;
+    }
+
+    /**
+     * Formatta i percentili principali di una serie di tempi.
+     *
+     * @param values I tempi (in millisecondi).
+     * @return I percentili 50, 90, 99 e il massimo, o un trattino se la serie è vuota.
+     */
+    private static String percentiles(List<Long> values) {
+        if (values.isEmpty()) {
+            return "-";
+        }
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return String.format(Locale.ROOT, "p50 %d, p90 %d, p99 %d, max %d",
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99), sorted.getLast());
+    }
+
+    /**
+     * Restituisce un percentile di una serie ordinata (metodo del rango più vicino).
+     *
+     * @param sorted   La serie ordinata.
+     * @param quantile Il quantile (da 0 a 1).
+     * @return Il valore del percentile.
+     */
+    private static long percentile(List<Long> sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.size()) - 1;
+        return sorted.get(Math.min(sorted.size() - 1, Math.max(0, index)));
+    }
+}
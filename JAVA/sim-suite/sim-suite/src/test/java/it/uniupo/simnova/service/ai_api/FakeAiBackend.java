@@ -0,0 +1,296 @@
+package it.uniupo.simnova.service.ai_api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Servizio AI simulato, usato nei test al posto degli agenti Python.
+ * <p>
+ * {@link #start()} apre un server HTTP locale, su una porta libera, che espone gli endpoint chiamati da
+ * {@link ExternalApiService}, compreso quello di generazione in streaming, e risponde con i contenuti
+ * deterministici di {@link FakeAiFixtures}. Risponde subito anche alla verifica di disponibilità
+ * di {@link AiCircuitBreaker}.
+ * </p>
+ * <p>
+ * Il tempo di risposta segue una distribuzione log-normale definita dalla mediana e dal 99° percentile
+ * (la generazione degli scenari è più lenta di un fattore configurabile), e una frazione configurabile delle
+ * richieste fallisce con un errore 503 nel formato del servizio reale. I ritardi sono estratti da un generatore
+ * con seme fisso, così che due esecuzioni con la stessa configurazione siano confrontabili.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+class FakeAiBackend {
+    /**
+     * Logger per il servizio AI simulato.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(FakeAiBackend.class);
+    /**
+     * Quantile della distribuzione normale standard corrispondente al 99° percentile.
+     */
+    private static final double Z_99 = 2.326;
+    /**
+     * Percorso dell'endpoint di generazione degli scenari in streaming (<code>ai.api.scenario.stream-path</code>).
+     */
+    private static final String STREAM_PATH = "/scenarios/generate-scenario-stream";
+    /**
+     * Percorso dell'endpoint usato per la verifica di disponibilità (<code>ai.health.probe.path</code>).
+     */
+    private static final String PROBE_PATH = "/scenarios/difficulty-levels";
+    /**
+     * Tempo di risposta mediano (in millisecondi).
+     */
+    private final double medianMillis;
+    /**
+     * Deviazione standard del logaritmo del tempo di risposta.
+     */
+    private final double sigma;
+    /**
+     * Fattore di rallentamento della generazione degli scenari.
+     */
+    private final double scenarioFactor;
+    /**
+     * Frazione delle richieste che fallisce.
+     */
+    private final double errorRate;
+    /**
+     * Generatore dei ritardi e degli errori.
+     */
+    private final Random random;
+    /**
+     * Risposte simulate.
+     */
+    private final FakeAiFixtures fixtures;
+    /**
+     * Mapper JSON per leggere le richieste e scrivere le risposte.
+     */
+    private final ObjectMapper objectMapper;
+    /**
+     * Richieste ricevute.
+     */
+    private final AtomicLong requests = new AtomicLong();
+    /**
+     * Richieste fallite di proposito.
+     */
+    private final AtomicLong failures = new AtomicLong();
+    /**
+     * Il server in ascolto, o <code>null</code> se non è avviato.
+     */
+    private volatile DisposableServer server;
+
+    /**
+     * Costruttore del servizio simulato.
+     *
+     * @param medianMillis   Il tempo di risposta mediano (in millisecondi).
+     * @param p99Millis      Il 99° percentile del tempo di risposta (in millisecondi).
+     * @param scenarioFactor Il fattore di rallentamento della generazione degli scenari.
+     * @param errorRate      La frazione delle richieste che fallisce (da 0 a 1).
+     * @param seed           Il seme del generatore dei ritardi e degli errori.
+     */
+    FakeAiBackend(long medianMillis, long p99Millis, double scenarioFactor, double errorRate, long seed) {
+        this.medianMillis = Math.max(0, medianMillis);
+        this.sigma = medianMillis > 0 && p99Millis > medianMillis ? Math.log((double) p99Millis / medianMillis) / Z_99 : 0;
+        this.scenarioFactor = Math.max(0, scenarioFactor);
+        this.errorRate = Math.min(1, Math.max(0, errorRate));
+        this.random = new Random(seed);
+        this.objectMapper = new ObjectMapper();
+        this.fixtures = new FakeAiFixtures(objectMapper);
+    }
+
+    /**
+     * Avvia il server HTTP del servizio simulato su una porta libera.
+     *
+     * @return La porta su cui il server è in ascolto.
+     */
+    synchronized int start() {
+        if (server == null) {
+            server = HttpServer.create()
+                    .host("localhost")
+                    .port(0)
+                    .route(routes -> routes
+                            .post(ExternalApiService.SCENARIO_PATH, (request, response) -> reply(request, response, scenarioFactor, fixtures::scenario))
+                            .post(ExternalApiService.LAB_EXAMS_PATH, (request, response) -> reply(request, response, 1, fixtures::labExams))
+                            .post(ExternalApiService.REPORT_PATH, (request, response) -> reply(request, response, 1, fixtures::report))
+                            .post(ExternalApiService.MATERIALS_PATH, (request, response) -> reply(request, response, 1, fixtures::materials))
+                            .post(STREAM_PATH, this::stream)
+                            .get(PROBE_PATH, (request, response) -> response.header("Content-Type", "application/json")
+                                    .sendString(Mono.just("[\"Facile\",\"Media\",\"Difficile\"]"), StandardCharsets.UTF_8)))
+                    .bindNow();
+            logger.info("Servizio AI simulato in ascolto su http://localhost:{} (mediana {} ms, errori {}%).",
+                    server.port(), Math.round(medianMillis), Math.round(errorRate * 100));
+        }
+        return server.port();
+    }
+
+    /**
+     * Arresta il server HTTP del servizio simulato.
+     */
+    synchronized void stop() {
+        if (server != null) {
+            server.disposeNow();
+            server = null;
+            logger.info("Servizio AI simulato arrestato dopo {} richieste ({} fallite di proposito).", requests.get(), failures.get());
+        }
+    }
+
+    /**
+     * Restituisce il numero di richieste ricevute.
+     *
+     * @return Le richieste ricevute dall'avvio.
+     */
+    long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Restituisce il numero di richieste fallite di proposito.
+     *
+     * @return Le richieste fallite dall'avvio.
+     */
+    long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Risponde a una richiesta di generazione dopo il ritardo simulato.
+     *
+     * @param request  La richiesta HTTP.
+     * @param response La risposta HTTP.
+     * @param factor   Il fattore di rallentamento dell'endpoint.
+     * @param fixture  La funzione che costruisce il contenuto della risposta.
+     * @return Il completamento dell'invio.
+     */
+    private Publisher<Void> reply(HttpServerRequest request, HttpServerResponse response, double factor,
+                                  Function<JsonNode, ? extends JsonNode> fixture) {
+        requests.incrementAndGet();
+        boolean fail = nextFailure();
+        Duration delay = nextDelay(factor);
+        return body(request)
+                .delayElement(delay)
+                .flatMap(body -> {
+                    if (fail) {
+                        return error(response);
+                    }
+                    return response.header("Content-Type", "application/json")
+                            .sendString(Mono.just(write(fixture.apply(body))), StandardCharsets.UTF_8)
+                            .then();
+                });
+    }
+
+    /**
+     * Risponde a una richiesta di generazione in streaming: le sezioni dello scenario vengono inviate come
+     * NDJSON, distribuite lungo il ritardo simulato.
+     *
+     * @param request  La richiesta HTTP.
+     * @param response La risposta HTTP.
+     * @return Il completamento dell'invio.
+     */
+    private Publisher<Void> stream(HttpServerRequest request, HttpServerResponse response) {
+        requests.incrementAndGet();
+        boolean fail = nextFailure();
+        Duration delay = nextDelay(scenarioFactor);
+        return body(request).flatMap(body -> {
+            if (fail) {
+                return error(response).delaySubscription(delay);
+            }
+            List<ObjectNode> sections = fixtures.sections(fixtures.scenario(body));
+            Duration step = delay.dividedBy(Math.max(1, sections.size()));
+            Flux<String> lines = Flux.fromIterable(sections)
+                    .delayElements(step)
+                    .map(section -> write(section) + "\n");
+            return response.header("Content-Type", "application/x-ndjson")
+                    .sendString(lines, StandardCharsets.UTF_8)
+                    .then();
+        });
+    }
+
+    /**
+     * Legge il corpo JSON di una richiesta.
+     *
+     * @param request La richiesta HTTP.
+     * @return Il corpo della richiesta (un oggetto vuoto se manca o non è valido).
+     */
+    private Mono<JsonNode> body(HttpServerRequest request) {
+        return request.receive().aggregate().asString(StandardCharsets.UTF_8)
+                .defaultIfEmpty("{}")
+                .map(text -> {
+                    try {
+                        return objectMapper.readTree(text);
+                    } catch (JsonProcessingException e) {
+                        return objectMapper.createObjectNode();
+                    }
+                });
+    }
+
+    /**
+     * Invia un errore nel formato del servizio reale.
+     *
+     * @param response La risposta HTTP.
+     * @return Il completamento dell'invio.
+     */
+    private Mono<Void> error(HttpServerResponse response) {
+        failures.incrementAndGet();
+        return response.status(503)
+                .header("Content-Type", "application/json")
+                .sendString(Mono.just("{\"detail\":{\"reason\":\"Errore simulato dal servizio AI di test.\"}}"), StandardCharsets.UTF_8)
+                .then();
+    }
+
+    /**
+     * Scrive un documento JSON.
+     *
+     * @param node Il documento.
+     * @return Il testo JSON.
+     */
+    private String write(JsonNode node) {
+        try {
+            return objectMapper.writeValueAsString(node);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Impossibile scrivere la risposta simulata.", e);
+        }
+    }
+
+    /**
+     * Estrae il ritardo della prossima risposta.
+     *
+     * @param factor Il fattore di rallentamento dell'endpoint.
+     * @return Il ritardo.
+     */
+    private Duration nextDelay(double factor) {
+        double gaussian;
+        synchronized (random) {
+            gaussian = random.nextGaussian();
+        }
+        return Duration.ofMillis(Math.round(medianMillis * factor * Math.exp(sigma * gaussian)));
+    }
+
+    /**
+     * Estrae se la prossima risposta deve fallire.
+     *
+     * @return <code>true</code> se la risposta deve fallire.
+     */
+    private boolean nextFailure() {
+        synchronized (random) {
+            return errorRate > 0 && random.nextDouble() < errorRate;
+        }
+    }
+}
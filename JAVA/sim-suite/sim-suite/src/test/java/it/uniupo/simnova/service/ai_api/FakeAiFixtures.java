@@ -0,0 +1,308 @@
+package it.uniupo.simnova.service.ai_api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Risposte del servizio AI simulato da {@link FakeAiBackend}.
+ * <p>
+ * Ogni risposta rispetta lo schema atteso da {@link ExternalApiService} e dall'importazione degli scenari
+ * ed è deterministica: la stessa richiesta produce sempre lo stesso contenuto, perché i valori variabili
+ * (parametri vitali, esami, materiali) sono estratti con un generatore inizializzato dal corpo della richiesta.
+ * </p>
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+final class FakeAiFixtures {
+    /**
+     * Patologie usate quando la richiesta non ne indica una.
+     */
+    private static final String[] PATHOLOGIES = {"Shock settico", "Embolia polmonare", "Infarto miocardico acuto",
+            "Chetoacidosi diabetica", "Crisi asmatica", "Trauma cranico"};
+    /**
+     * Sezioni dell'esame obiettivo compilate negli scenari simulati.
+     */
+    private static final String[][] EXAM_SECTIONS = {
+            {"Generale", "Paziente vigile, sofferente, cute pallida e sudata."},
+            {"Torace", "Murmure vescicolare ridotto alle basi, tachipnea."},
+            {"Cuore", "Toni validi, tachicardici, non soffi."},
+            {"Addome", "Trattabile, non dolente alla palpazione."},
+            {"Neurologico", "GCS 15, nessun deficit focale."}};
+
+    /**
+     * Mapper JSON per costruire le risposte.
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Crea le risposte simulate.
+     *
+     * @param objectMapper Il mapper JSON.
+     */
+    FakeAiFixtures(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Risposta di <code>/scenarios/generate-scenario</code>: uno scenario completo del tipo richiesto.
+     *
+     * @param request La richiesta ({@link it.uniupo.simnova.service.ai_api.model.ScenarioGenerationRequest}).
+     * @return Il documento JSON dello scenario, con le sezioni nell'ordine di importazione.
+     */
+    ObjectNode scenario(JsonNode request) {
+        Random random = randomFor(request);
+        String type = text(request, "scenario_type", "Quick Scenario");
+        String target = text(request, "target", "Adulto");
+        String description = text(request, "description", "Scenario di simulazione");
+        String pathology = PATHOLOGIES[random.nextInt(PATHOLOGIES.length)];
+
+        ObjectNode document = objectMapper.createObjectNode();
+        document.put("tipo", type);
+
+        ObjectNode scenario = document.putObject("scenario");
+        scenario.put("titolo", pathology + " - " + abbreviate(description, 40));
+        scenario.put("nome_paziente", "Paziente " + (char) ('A' + random.nextInt(26)));
+        scenario.put("patologia", pathology);
+        scenario.put("descrizione", "<p>" + description + "</p><p>Il paziente si presenta con un quadro compatibile con "
+                + pathology.toLowerCase(Locale.ROOT) + ".</p>");
+        scenario.put("briefing", "<p>Gestire il paziente secondo l'approccio ABCDE.</p>");
+        scenario.put("patto_aula", "<p>Rispetto reciproco e riservatezza.</p>");
+        scenario.put("obiettivo", "<p>Riconoscere e trattare " + pathology.toLowerCase(Locale.ROOT) + ".</p>");
+        scenario.put("moulage", "<p>Cute pallida e sudata.</p>");
+        scenario.put("liquidi", "<p>Soluzione fisiologica 500 ml.</p>");
+        scenario.put("timer_generale", 15.0);
+        scenario.put("autori", "Generatore di test");
+        scenario.put("tipologia", patientType(target));
+        scenario.put("infoGenitore", patientType(target).equals("Adulto") ? "" : "<p>Il genitore riferisce febbre da due giorni.</p>");
+        scenario.put("target", target);
+
+        ArrayNode actions = document.putArray("azioniChiave");
+        actions.add("Valutazione ABCDE");
+        actions.add("Monitoraggio dei parametri vitali");
+        actions.add("Richiesta degli esami di laboratorio");
+        document.putArray("materialeNecessario");
+        document.putArray("presidi");
+
+        ObjectNode sections = document.putObject("esameFisico").putObject("sections");
+        for (String[] section : EXAM_SECTIONS) {
+            sections.put(section[0], "<p>" + section[1] + "</p>");
+        }
+
+        ObjectNode t0 = document.putObject("pazienteT0");
+        putVitals(t0, random);
+        t0.put("LitriOssigeno", 0.0);
+        t0.put("Monitor", "ECG a 3 derivazioni, SpO2, PA non invasiva");
+        ObjectNode venous = t0.putArray("accessiVenosi").addObject();
+        venous.put("tipologia", "Periferico");
+        venous.put("posizione", "Avambraccio");
+        venous.put("lato", random.nextBoolean() ? "DX" : "SX");
+        venous.put("misura", 18);
+        t0.putArray("accessiArteriosi");
+
+        ObjectNode exam = document.putArray("esamiReferti").addObject();
+        exam.put("tipo", "ECG");
+        exam.putNull("media");
+        exam.put("refertoTestuale", "Tachicardia sinusale, nessuna alterazione del tratto ST.");
+
+        if (!"Quick Scenario".equals(type)) {
+            ArrayNode times = document.putArray("tempi");
+            for (int i = 1; i <= 3; i++) {
+                ObjectNode time = times.addObject();
+                time.put("idTempo", i);
+                putVitals(time, random);
+                time.put("LitriO2", 0.0);
+                time.put("Azione", "<p>Azione attesa al tempo " + i + ".</p>");
+                time.put("TSi", i < 3 ? i + 1 : 0);
+                time.put("TNo", i < 3 ? i : 0);
+                time.put("altriDettagli", "");
+                time.put("timerTempo", 300.0);
+                time.put("ruoloGenitore", "");
+                time.putArray("parametriAggiuntivi");
+            }
+        }
+        if ("Patient Simulated Scenario".equals(type)) {
+            document.put("sceneggiatura", "<p>Il paziente lamenta dolore e chiede cosa stia succedendo.</p>");
+        }
+        return document;
+    }
+
+    /**
+     * Risposta di <code>/exams/generate-lab-exams</code>: esami di laboratorio divisi per categoria.
+     *
+     * @param request La richiesta ({@link it.uniupo.simnova.service.ai_api.model.LabExamGenerationRequest}).
+     * @return Il documento JSON degli esami.
+     */
+    ObjectNode labExams(JsonNode request) {
+        Random random = randomFor(request);
+        ObjectNode document = objectMapper.createObjectNode();
+        ArrayNode categories = document.putArray("esami_laboratorio");
+        addCategory(categories, "Emocromo", random,
+                new Object[]{"Emoglobina", 12.0, 16.0, "g/dL"},
+                new Object[]{"Globuli bianchi", 4.0, 18.0, "10^3/µL"},
+                new Object[]{"Piastrine", 150.0, 400.0, "10^3/µL"});
+        addCategory(categories, "Chimica clinica", random,
+                new Object[]{"Creatinina", 0.6, 2.0, "mg/dL"},
+                new Object[]{"Sodio", 130.0, 148.0, "mmol/L"},
+                new Object[]{"Potassio", 3.2, 5.6, "mmol/L"});
+        addCategory(categories, "Emogasanalisi", random,
+                new Object[]{"pH", 7.25, 7.45, ""},
+                new Object[]{"Lattati", 0.5, 6.0, "mmol/L"});
+        return document;
+    }
+
+    /**
+     * Risposta di <code>/reports/generate-medical-report</code>: il referto dell'esame richiesto.
+     *
+     * @param request La richiesta ({@link it.uniupo.simnova.service.ai_api.model.ReportGenerationRequest}).
+     * @return Il documento JSON del referto.
+     */
+    ObjectNode report(JsonNode request) {
+        String examType = text(request, "tipologia_esame", "Esame strumentale");
+        ObjectNode document = objectMapper.createObjectNode();
+        document.put("tipologia_esame", examType);
+        document.put("referto", examType + ": quadro compatibile con lo scenario clinico descritto. "
+                + "Nessun reperto che richieda un intervento immediato oltre a quanto già in corso.");
+        return document;
+    }
+
+    /**
+     * Risposta di <code>/materials/generate-materials</code>: l'elenco dei materiali necessari.
+     *
+     * @param request La richiesta ({@link it.uniupo.simnova.service.ai_api.model.MatGenerationRequest}).
+     * @return L'array JSON dei materiali.
+     */
+    ArrayNode materials(JsonNode request) {
+        Random random = randomFor(request);
+        List<String[]> items = new ArrayList<>(List.of(
+                new String[]{"Monitor multiparametrico", "Monitoraggio di ECG, SpO2 e pressione arteriosa."},
+                new String[]{"Set per accesso venoso", "Agocannule 18G e 20G, lacci e cerotti."},
+                new String[]{"Pallone AMBU", "Con maschera della misura adeguata al paziente."},
+                new String[]{"Defibrillatore", "Con piastre adesive."},
+                new String[]{"Set per emogasanalisi", "Siringhe eparinate."}));
+        ArrayNode document = objectMapper.createArrayNode();
+        int count = 3 + random.nextInt(items.size() - 2);
+        for (String[] item : items.subList(0, count)) {
+            ObjectNode material = document.addObject();
+            material.put("nome", item[0]);
+            material.put("descrizione", item[1]);
+        }
+        return document;
+    }
+
+    /**
+     * Divide uno scenario nelle sue sezioni di primo livello, come le trasmetterebbe l'endpoint in streaming.
+     *
+     * @param document Il documento dello scenario.
+     * @return Un oggetto JSON per ogni sezione, nell'ordine del documento.
+     */
+    List<ObjectNode> sections(ObjectNode document) {
+        List<ObjectNode> sections = new ArrayList<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = document.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            ObjectNode section = objectMapper.createObjectNode();
+            section.set(field.getKey(), field.getValue());
+            sections.add(section);
+        }
+        return sections;
+    }
+
+    /**
+     * Aggiunge una categoria di esami con valori estratti nell'intervallo indicato.
+     *
+     * @param categories Le categorie della risposta.
+     * @param name       Il nome della categoria.
+     * @param random     Il generatore della richiesta.
+     * @param tests      Gli esami: nome, minimo, massimo e unità di misura.
+     */
+    private static void addCategory(ArrayNode categories, String name, Random random, Object[]... tests) {
+        ObjectNode category = categories.addObject();
+        category.put("categoria", name);
+        ArrayNode values = category.putArray("test");
+        for (Object[] test : tests) {
+            double min = (Double) test[1];
+            double max = (Double) test[2];
+            double value = min + random.nextDouble() * (max - min);
+            ObjectNode node = values.addObject();
+            node.put("nome", (String) test[0]);
+            node.put("valore", String.format(Locale.ROOT, max < 10 ? "%.2f" : "%.1f", value));
+            node.put("unita_misura", (String) test[3]);
+            node.put("range_riferimento", String.format(Locale.ROOT, "%s - %s", test[1], test[2]));
+            node.put("referto", "");
+        }
+    }
+
+    /**
+     * Aggiunge i parametri vitali a una sezione (paziente al tempo T0 o tempo dello scenario).
+     *
+     * @param node   La sezione.
+     * @param random Il generatore della richiesta.
+     */
+    private static void putVitals(ObjectNode node, Random random) {
+        node.put("PA", (90 + random.nextInt(50)) + "/" + (50 + random.nextInt(30)));
+        node.put("FC", 70 + random.nextInt(60));
+        node.put("RR", 12 + random.nextInt(16));
+        node.put("T", 36.0 + random.nextInt(30) / 10.0);
+        node.put("SpO2", 88 + random.nextInt(12));
+        node.put("FiO2", 21);
+        node.put("EtCO2", 30 + random.nextInt(15));
+    }
+
+    /**
+     * Restituisce la tipologia di paziente corrispondente al target dello scenario.
+     *
+     * @param target Il target indicato nella richiesta.
+     * @return "Adulto", "Pediatrico" o "Neonatale".
+     */
+    private static String patientType(String target) {
+        String value = target.toLowerCase(Locale.ROOT);
+        if (value.contains("neonat")) {
+            return "Neonatale";
+        }
+        return value.contains("pediatr") || value.contains("bambin") ? "Pediatrico" : "Adulto";
+    }
+
+    /**
+     * Crea il generatore deterministico di una richiesta.
+     *
+     * @param request La richiesta.
+     * @return Il generatore inizializzato dal contenuto della richiesta.
+     */
+    private static Random randomFor(JsonNode request) {
+        return new Random(request.toString().hashCode());
+    }
+
+    /**
+     * Legge un campo testuale della richiesta.
+     *
+     * @param request  La richiesta.
+     * @param field    Il nome del campo.
+     * @param fallback Il valore da usare se il campo manca o è vuoto.
+     * @return Il valore del campo.
+     */
+    private static String text(JsonNode request, String field, String fallback) {
+        JsonNode value = request.get(field);
+        return value != null && value.isTextual() && !value.asText().isBlank() ? value.asText().trim() : fallback;
+    }
+
+    /**
+     * Abbrevia un testo alla lunghezza indicata.
+     *
+     * @param text   Il testo.
+     * @param length La lunghezza massima.
+     * @return Il testo, eventualmente abbreviato.
+     */
+    private static String abbreviate(String text, int length) {
+        return text.length() <= length ? text : text.substring(0, length - 1).stripTrailing() + "…";
+    }
+}
@@ -0,0 +1,72 @@
+package it.uniupo.simnova.service.ai_api;
+
+import it.uniupo.simnova.domain.common.Accesso;
+import it.uniupo.simnova.domain.paziente.EsameFisico;
+import it.uniupo.simnova.domain.paziente.PazienteT0;
+import it.uniupo.simnova.domain.scenario.Scenario;
+import it.uniupo.simnova.service.scenario.components.EsameFisicoService;
+import it.uniupo.simnova.service.scenario.components.PazienteT0Service;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Verifica il contesto compatto costruito da {@link ScenarioContextBuilder} per uno scenario di sepsi con
+ * descrizione formattata, parametri vitali e alcune sezioni dell'esame obiettivo: il contesto non contiene
+ * markup né sezioni vuote, include i parametri vitali ed è più corto del formato precedente (HTML della
+ * descrizione e {@code toString()} dell'esame obiettivo).
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+class ScenarioContextBuilderTest {
+
+    /**
+     * ID dello scenario di prova.
+     */
+    private static final int SCENARIO_ID = 7;
+
+    @Test
+    void compactContextIsShorterThanLegacyFormat() {
+        Scenario scenario = new Scenario(SCENARIO_ID, "Sepsi di origine urinaria", "Anna Bianchi", "Sepsi",
+                "<p>Donna di <strong>78 anni</strong>, portatrice di catetere vescicale, condotta in Pronto Soccorso "
+                        + "per <em>confusione</em> e febbre da 24 ore.</p><p>&nbsp;</p><ul><li>Ipotensione</li>"
+                        + "<li>Tachicardia</li><li>Oliguria</li></ul>",
+                "", "", "", "", "", 20, "Team di simulazione", "Advanced Scenario", "", "Medici in formazione");
+        EsameFisico esameFisico = new EsameFisico(SCENARIO_ID, "<p>Paziente soporosa, GCS 13</p>", "", "", "",
+                "<p>Toni tachicardici, nessun soffio</p>", "<p>Dolore sovrapubico</p>", "", "<p>Cute marezzata</p>",
+                "", "", "");
+        PazienteT0 pazienteT0 = new PazienteT0(SCENARIO_ID, "85/50", 118, 26, 38.9, 93, 0, 0.0, 0, "",
+                List.of(new Accesso(1, "Periferico", "Avambraccio", "Sinistro", 20)), List.of());
+
+        EsameFisicoService esameFisicoService = mock(EsameFisicoService.class);
+        PazienteT0Service pazienteT0Service = mock(PazienteT0Service.class);
+        when(esameFisicoService.getEsameFisicoById(SCENARIO_ID)).thenReturn(esameFisico);
+        when(pazienteT0Service.getPazienteT0ById(SCENARIO_ID)).thenReturn(pazienteT0);
+
+        ScenarioContextBuilder.ScenarioContext context =
+                new ScenarioContextBuilder(esameFisicoService, pazienteT0Service, 2000).build(scenario);
+
+        assertFalse(context.description().contains("<"));
+        assertTrue(context.objectiveExam().startsWith("Parametri T0: PA 85/50 mmHg, FC 118 bpm"));
+        assertTrue(context.objectiveExam().contains("Cute: Cute marezzata"));
+        assertFalse(context.objectiveExam().contains("Pupille"));
+
+        int legacy = scenario.getDescrizione().length() + esameFisico.toString().length();
+        int compact = context.description().length() + context.objectiveExam().length();
+        assertTrue(compact < legacy, compact + " caratteri invece di " + legacy);
+    }
+
+    @Test
+    void sizeChangeIsSigned() {
+        assertEquals("-35%", ScenarioContextBuilder.sizeChange(615, 402));
+        assertEquals("+20%", ScenarioContextBuilder.sizeChange(100, 120));
+        assertEquals("+0%", ScenarioContextBuilder.sizeChange(0, 50));
+    }
+}
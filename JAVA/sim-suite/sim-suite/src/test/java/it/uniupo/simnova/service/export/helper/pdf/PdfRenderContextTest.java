@@ -0,0 +1,127 @@
+package it.uniupo.simnova.service.export.helper.pdf;
+
+import it.uniupo.simnova.domain.scenario.Scenario;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static it.uniupo.simnova.service.export.helper.pdf.LoadFont.loadFont;
+import static it.uniupo.simnova.service.export.helper.pdf.LogoLoader.loadLogo;
+import static it.uniupo.simnova.service.export.helper.pdf.ScenarioHeader.createScenarioHeader;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verifica che più esportazioni PDF eseguite in parallelo, ciascuna con il proprio {@link PdfRenderContext},
+ * producano esattamente lo stesso documento: i font, le misure del testo e le pagine non devono essere
+ * condivisi tra i thread. L'identificativo e le date del documento vengono fissati, per cui due esportazioni
+ * dello stesso scenario devono coincidere byte per byte.
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+class PdfRenderContextTest {
+
+    /**
+     * Numero di esportazioni eseguite contemporaneamente.
+     */
+    private static final int RENDERS = 8;
+    /**
+     * Identificativo fisso del documento.
+     */
+    private static final byte[] DOCUMENT_ID = "sim-suite-pdf-test".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void parallelRendersAreByteIdentical() throws Exception {
+        byte[] expected = render(scenario());
+
+        ExecutorService executor = Executors.newFixedThreadPool(RENDERS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<byte[]>> renders = new ArrayList<>();
+            for (int i = 0; i < RENDERS; i++) {
+                Callable<byte[]> task = () -> {
+                    start.await();
+                    return render(scenario());
+                };
+                renders.add(executor.submit(task));
+            }
+            start.countDown();
+            for (Future<byte[]> future : renders) {
+                assertArrayEquals(expected, future.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(expected.length > 0);
+    }
+
+    /**
+     * Genera il PDF di uno scenario con l'intestazione e alcune sezioni di testo formattato,
+     * abbastanza lunghe da occupare più pagine.
+     *
+     * @param scenario Lo scenario da esportare.
+     * @return Il documento generato.
+     * @throws Exception Se la generazione non riesce.
+     */
+    private static byte[] render(Scenario scenario) throws Exception {
+        try (PDDocument document = new PDDocument()) {
+            PdfRenderContext context = new PdfRenderContext(document, true);
+            context.setFonts(loadFont(document, "/fonts/LiberationSans-Regular.ttf"),
+                    loadFont(document, "/fonts/LiberationSans-Bold.ttf"),
+                    loadFont(document, "/fonts/LiberationSans-Italic.ttf"),
+                    loadFont(document, "/fonts/LiberationSans-BoldItalic.ttf"));
+            context.setLogos(loadLogo(document), null);
+            context.initNewPage();
+
+            createScenarioHeader(context, scenario);
+            SectionDrawer.drawSection(context, "Descrizione", scenario.getDescrizione());
+            SectionDrawer.drawSection(context, "Briefing", scenario.getBriefing());
+            SectionDrawer.drawSection(context, "Obiettivi didattici", scenario.getObiettivo());
+            context.closeContentStream();
+
+            Calendar date = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+            date.setTimeInMillis(0);
+            document.getDocumentInformation().setCreationDate(date);
+            document.getDocumentInformation().setModificationDate(date);
+            COSArray documentId = new COSArray();
+            documentId.add(new COSString(DOCUMENT_ID));
+            documentId.add(new COSString(DOCUMENT_ID));
+            document.getDocument().setDocumentID(documentId);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Crea lo scenario di prova, con testi che usano grassetto, corsivo, elenchi e caratteri accentati.
+     *
+     * @return Lo scenario.
+     */
+    private static Scenario scenario() {
+        String paragraph = "<p>Paziente di <strong>67 anni</strong> giunge in Pronto Soccorso per dispnea ingravescente, "
+                + "<em>tosse produttiva</em> e febbre da tre giorni. SpO2 88% in aria ambiente, FR 28 atti/min.</p>"
+                + "<ul><li>Valutazione ABCDE</li><li>Emogasanalisi arteriosa</li><li>Radiografia del torace</li></ul>";
+        String longText = paragraph.repeat(12);
+        return new Scenario(1, "Polmonite comunitaria con insufficienza respiratoria", "Mario Rossi", "Polmonite",
+                longText, longText, "<p>Patto d'aula</p>", longText, "", "", 20, "Team di simulazione",
+                "Advanced Scenario", "", "Medici in formazione");
+    }
+}
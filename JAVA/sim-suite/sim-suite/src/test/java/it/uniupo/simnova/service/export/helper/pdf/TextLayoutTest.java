@@ -0,0 +1,45 @@
+package it.uniupo.simnova.service.export.helper.pdf;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static it.uniupo.simnova.service.export.helper.pdf.LoadFont.loadFont;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verifica l'impaginazione del testo di {@link TextLayout}.
+ *
+ * @author Alessandro Zappatore
+ * @version 1.0
+ */
+class TextLayoutTest {
+
+    @Test
+    void oversizeWordIsSplitWithinTheMargin() throws Exception {
+        try (PDDocument document = new PDDocument()) {
+            PDFont font = loadFont(document, "/fonts/LiberationSans-Regular.ttf");
+            GlyphWidths widths = new GlyphWidths();
+            String url = "https://example.org/" + "percorso-molto-lungo/".repeat(10);
+            float maxWidth = 150;
+
+            List<TextLayout.Line> lines = TextLayout.layoutPlain("Vedi " + url + " per i dettagli", font, 11, maxWidth, widths);
+
+            assertTrue(lines.size() > 2);
+            for (TextLayout.Line line : lines) {
+                assertTrue(line.width() <= maxWidth, "Riga oltre il margine: " + line.width());
+            }
+            assertEquals("Vedi", lines.get(0).segments().get(0).text());
+            // Gli spazi a fine riga vengono assorbiti dall'a capo: il resto del testo deve restare invariato.
+            String text = lines.stream()
+                    .flatMap(line -> line.segments().stream())
+                    .map(TextLayout.Segment::text)
+                    .collect(Collectors.joining());
+            assertEquals(("Vedi " + url + " per i dettagli").replace(" ", ""), text.replace(" ", ""));
+        }
+    }
+}